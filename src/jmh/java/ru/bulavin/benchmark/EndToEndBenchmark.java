@@ -0,0 +1,36 @@
+package ru.bulavin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File on disk to finished statistics: the jpx path the app used to take against the streaming reader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EndToEndBenchmark {
+
+    @Benchmark
+    public GpxStatistics jpx(WayPointTrackFile track) throws IOException {
+        return new GpxStatistics(GpxUtils.getPoints(track.file));
+    }
+
+    @Benchmark
+    public GpxStatistics streaming(TrackFile track) throws IOException {
+        return GpxStreamReader.readStatistics(track.file);
+    }
+}
@@ -0,0 +1,44 @@
+package ru.bulavin.benchmark;
+
+import io.jenetics.jpx.WayPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.bulavin.GpxExtension;
+import ru.bulavin.GpxExtensionValues;
+import ru.bulavin.GpxHelper;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExtensionBenchmark {
+
+    @Benchmark
+    public void getExtensionValue(WayPointTrackFile track, Blackhole blackhole) {
+        for (WayPoint point : track.points) {
+            blackhole.consume(GpxHelper.getExtensionValueAsInt(point, "hr"));
+            blackhole.consume(GpxHelper.getExtensionValueAsDouble(point, "temp"));
+        }
+    }
+
+    @Benchmark
+    public void readExtensions(WayPointTrackFile track, Blackhole blackhole) {
+        GpxExtensionValues values = new GpxExtensionValues();
+        for (WayPoint point : track.points) {
+            values.clear();
+            if (GpxHelper.readExtensions(point, values)) {
+                blackhole.consume(values.get(GpxExtension.HEART_RATE));
+                blackhole.consume(values.get(GpxExtension.TEMPERATURE));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.bulavin.benchmark;
+
+import io.jenetics.jpx.GPX;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.TrackColumns;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+
+    @Benchmark
+    public GPX jpxRead(WayPointTrackFile track) throws IOException {
+        return GPX.read(track.file);
+    }
+
+    @Benchmark
+    public void streamRead(TrackFile track, Blackhole blackhole) throws IOException {
+        GpxStreamReader.read(track.file, point -> blackhole.consume(point.getLatitude()));
+    }
+
+    @Benchmark
+    public TrackColumns columnsRead(TrackFile track) throws IOException {
+        return TrackColumns.read(track.file);
+    }
+}
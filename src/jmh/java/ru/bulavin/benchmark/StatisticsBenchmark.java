@@ -0,0 +1,41 @@
+package ru.bulavin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.bulavin.DistanceModel;
+import ru.bulavin.GpxStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StatisticsBenchmark {
+
+    @Benchmark
+    public GpxStatistics wayPoints(WayPointTrackFile track) {
+        return new GpxStatistics(track.points);
+    }
+
+    @Benchmark
+    public GpxStatistics columns(TrackFile track) {
+        return new GpxStatistics(track.columns);
+    }
+
+    @Benchmark
+    public GpxStatistics columnsEquirectangular(TrackFile track) {
+        return new GpxStatistics(track.columns, DistanceModel.EQUIRECTANGULAR);
+    }
+
+    @Benchmark
+    public GpxStatistics columnsParallel(TrackFile track) {
+        return GpxStatistics.parallel(track.columns, DistanceModel.VINCENTY);
+    }
+}
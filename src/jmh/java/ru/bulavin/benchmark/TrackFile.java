@@ -0,0 +1,41 @@
+package ru.bulavin.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.bulavin.TrackColumns;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Synthetic track from {@link GpxUtils#generateTrack}, kept both as columns and as a GPX file on disk.
+ */
+@State(Scope.Benchmark)
+public class TrackFile {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean extensions;
+
+    public TrackColumns columns;
+    public Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        columns = GpxUtils.generateTrack(size, extensions, 42);
+        file = Files.createTempFile("benchmark-" + size + "-", ".gpx");
+        GpxUtils.writeGpx(columns, file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
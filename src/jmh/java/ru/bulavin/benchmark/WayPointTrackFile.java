@@ -0,0 +1,43 @@
+package ru.bulavin.benchmark;
+
+import io.jenetics.jpx.WayPoint;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Same track as {@link TrackFile}, also loaded through jpx. jpx keeps a DOM document per point with extensions, so
+ * 10M points do not fit a reasonable heap and the sizes stop at 100K.
+ */
+@State(Scope.Benchmark)
+public class WayPointTrackFile {
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean extensions;
+
+    public Path file;
+    public List<WayPoint> points;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("benchmark-" + size + "-", ".gpx");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(size, extensions, 42), file);
+        points = GpxUtils.getPoints(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,35 @@
+package ru.bulavin;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * The best window of a track for one {@link EffortTarget}. The window starts at point {@code startIndex} or at an
+ * interpolated position after it, before the next point, and ends the same way at or after point {@code endIndex}, so
+ * its distance or duration is exactly the target's. Indexes count the points that were fed to {@link BestEfforts}.
+ */
+public record BestEffort(
+        EffortTarget target,
+        long startIndex,
+        long endIndex,
+        Instant startTime,
+        Duration duration,
+        double distance,
+        double elevationGain,
+        Optional<Double> averageHeartRate) {
+
+    /**
+     * km/h
+     */
+    public double getAverageSpeed() {
+        return duration.isZero() ? 0 : distance / 1000 / (duration.toMillis() / 3_600_000.0);
+    }
+
+    /**
+     * Elevation gain per distance, in percent.
+     */
+    public double getGradient() {
+        return distance == 0 ? 0 : elevationGain / distance * 100;
+    }
+}
@@ -0,0 +1,425 @@
+package ru.bulavin;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Finds {@link BestEffort}s with two pointers over prefix sums of distance, time and heart rate, one linear pass per
+ * {@link EffortTarget} however long the window. As everything is interpolated linearly between points, the best
+ * window starts or ends on a point: one pass tries every window that ends on a point with its start interpolated inside
+ * the step where the distance or duration is reached exactly, a second one every window that starts on a point with
+ * its end interpolated.
+ * <p>
+ * Only points with time are used, and time that goes backwards is held at the previous value. Windows run on elapsed
+ * time, pauses included. Heart rate is held from one point to the next like in {@link HeartRateHistogram}, and a heart
+ * rate window must have heart rate over at least {@value #MIN_HEART_RATE_COVERAGE} of its duration.
+ */
+public final class BestEfforts {
+    static final double MIN_HEART_RATE_COVERAGE = 0.9;
+
+    private final int size;
+    private final long[] times;
+    private final long[] distances;
+    private final double[] elevations;
+    private final long[] heartRateSums;
+    private final long[] heartRateMillis;
+    private final int[] pointIndexes;
+
+    private BestEfforts(Builder builder) {
+        size = builder.size;
+        times = Arrays.copyOf(builder.times, size);
+        distances = Arrays.copyOf(builder.distances, size);
+        elevations = Arrays.copyOf(builder.elevations, size);
+        heartRateSums = builder.heartRateSums != null ? Arrays.copyOf(builder.heartRateSums, size) : null;
+        heartRateMillis = builder.heartRateMillis != null ? Arrays.copyOf(builder.heartRateMillis, size) : null;
+        pointIndexes = builder.pointIndexes != null ? Arrays.copyOf(builder.pointIndexes, size) : null;
+    }
+
+    /**
+     * Distances by {@link DistanceModel#EQUIRECTANGULAR}, which agrees with Vincenty to 4e-8 on track steps.
+     */
+    public static Builder builder() {
+        return new Builder(DistanceModel.EQUIRECTANGULAR);
+    }
+
+    public static Builder builder(DistanceModel distanceModel) {
+        return new Builder(distanceModel);
+    }
+
+    public static BestEfforts of(TrackColumns columns) {
+        Builder builder = builder();
+        columns.forEach(builder);
+        return builder.build();
+    }
+
+    /**
+     * Number of points with time.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Best efforts for every target that fits into the track, in the order of {@code targets}.
+     */
+    public List<BestEffort> find(List<EffortTarget> targets) {
+        List<BestEffort> efforts = new ArrayList<>(targets.size());
+        for (EffortTarget target : targets) {
+            find(target).ifPresent(efforts::add);
+        }
+        return efforts;
+    }
+
+    public Optional<BestEffort> find(EffortTarget target) {
+        return switch (target.kind()) {
+            case FASTEST_DISTANCE -> fastest(target);
+            case BEST_SPEED -> bestOverTime(target, false);
+            case BEST_HEART_RATE -> heartRateSums != null ? bestOverTime(target, true) : Optional.empty();
+            case STEEPEST_CLIMB -> steepestClimb(target);
+        };
+    }
+
+    // The best window either ends on a point or starts on one, so there is one pass for each
+    private Optional<BestEffort> fastest(EffortTarget target) {
+        long window = Segment.toMicros(target.amount());
+        double bestDuration = Double.POSITIVE_INFINITY;
+        int bestStart = -1;
+        double bestStartFraction = 0;
+        int bestEnd = -1;
+        double bestEndFraction = 0;
+        int i = 0;
+        for (int j = 1; j < size; j++) {
+            while (distances[j] - distances[i + 1] >= window) {
+                i++;
+            }
+            // The start is not later than point i + 1, skip windows that cannot be faster
+            if (distances[j] - distances[i] < window || times[j] - times[i + 1] >= bestDuration) {
+                continue;
+            }
+            double fraction = fraction(distances, i, distances[j] - window);
+            double duration = times[j] - lerp(times, i, fraction);
+            if (duration < bestDuration) {
+                bestDuration = duration;
+                bestStart = i;
+                bestStartFraction = fraction;
+                bestEnd = j;
+                bestEndFraction = 0;
+            }
+        }
+        int j = 1;
+        for (i = 0; i < size - 1; i++) {
+            long end = distances[i] + window;
+            while (j < size && distances[j] < end) {
+                j++;
+            }
+            if (j == size) {
+                break;
+            }
+            // The end is not earlier than point j - 1
+            if (times[j - 1] - times[i] >= bestDuration) {
+                continue;
+            }
+            double fraction = fraction(distances, j - 1, end);
+            double duration = lerp(times, j - 1, fraction) - times[i];
+            if (duration < bestDuration) {
+                bestDuration = duration;
+                bestStart = i;
+                bestStartFraction = 0;
+                bestEnd = j - 1;
+                bestEndFraction = fraction;
+            }
+        }
+        return effort(target, bestStart, bestStartFraction, bestEnd, bestEndFraction, Double.NaN);
+    }
+
+    private Optional<BestEffort> bestOverTime(EffortTarget target, boolean heartRate) {
+        long window = (long) target.amount();
+        double best = Double.NEGATIVE_INFINITY;
+        int bestStart = -1;
+        double bestStartFraction = 0;
+        int bestEnd = -1;
+        double bestEndFraction = 0;
+        int i = 0;
+        for (int j = 1; j < size; j++) {
+            while (times[j] - times[i + 1] >= window) {
+                i++;
+            }
+            // The start is not earlier than point i, skip windows that cannot be better
+            if (times[j] - times[i] < window || (heartRate
+                    ? heartRateSums[j] - heartRateSums[i] <= best * window * MIN_HEART_RATE_COVERAGE
+                    : distances[j] - distances[i] <= best)) {
+                continue;
+            }
+            double fraction = fraction(times, i, times[j] - window);
+            double value;
+            if (heartRate) {
+                double millis = heartRateMillis[j] - lerp(heartRateMillis, i, fraction);
+                if (millis < window * MIN_HEART_RATE_COVERAGE) {
+                    continue;
+                }
+                value = (heartRateSums[j] - lerp(heartRateSums, i, fraction)) / millis;
+            } else {
+                value = distances[j] - lerp(distances, i, fraction);
+            }
+            if (value > best) {
+                best = value;
+                bestStart = i;
+                bestStartFraction = fraction;
+                bestEnd = j;
+                bestEndFraction = 0;
+            }
+        }
+        int j = 1;
+        for (i = 0; i < size - 1; i++) {
+            long end = times[i] + window;
+            while (j < size && times[j] < end) {
+                j++;
+            }
+            if (j == size) {
+                break;
+            }
+            // The end is not later than point j
+            if (heartRate
+                    ? heartRateSums[j] - heartRateSums[i] <= best * window * MIN_HEART_RATE_COVERAGE
+                    : distances[j] - distances[i] <= best) {
+                continue;
+            }
+            double fraction = fraction(times, j - 1, end);
+            double value;
+            if (heartRate) {
+                double millis = lerp(heartRateMillis, j - 1, fraction) - heartRateMillis[i];
+                if (millis < window * MIN_HEART_RATE_COVERAGE) {
+                    continue;
+                }
+                value = (lerp(heartRateSums, j - 1, fraction) - heartRateSums[i]) / millis;
+            } else {
+                value = lerp(distances, j - 1, fraction) - distances[i];
+            }
+            if (value > best) {
+                best = value;
+                bestStart = i;
+                bestStartFraction = 0;
+                bestEnd = j - 1;
+                bestEndFraction = fraction;
+            }
+        }
+        return effort(target, bestStart, bestStartFraction, bestEnd, bestEndFraction, Double.NaN);
+    }
+
+    // Same two pointers over the points that have elevation
+    private Optional<BestEffort> steepestClimb(EffortTarget target) {
+        int[] elevated = new int[size];
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            if (!Double.isNaN(elevations[k])) {
+                elevated[count++] = k;
+            }
+        }
+        long window = Segment.toMicros(target.amount());
+        double bestGain = Double.NEGATIVE_INFINITY;
+        int bestStart = -1;
+        int bestEnd = -1;
+        boolean endInterpolated = false;
+        int i = 0;
+        for (int j = 1; j < count; j++) {
+            long end = distances[elevated[j]];
+            while (end - distances[elevated[i + 1]] >= window) {
+                i++;
+            }
+            if (end - distances[elevated[i]] < window) {
+                continue;
+            }
+            // Between points i and i + 1 the start is not lower than both
+            if (elevations[elevated[j]] - Math.min(elevations[elevated[i]], elevations[elevated[i + 1]]) <= bestGain) {
+                continue;
+            }
+            double gain = elevations[elevated[j]] - elevationAt(elevated[i], elevated[i + 1], end - window);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestStart = i;
+                bestEnd = j;
+                endInterpolated = false;
+            }
+        }
+        int j = 1;
+        for (i = 0; i < count - 1; i++) {
+            long end = distances[elevated[i]] + window;
+            while (j < count && distances[elevated[j]] < end) {
+                j++;
+            }
+            if (j == count) {
+                break;
+            }
+            // Between points j - 1 and j the end is not higher than both
+            if (Math.max(elevations[elevated[j - 1]], elevations[elevated[j]]) - elevations[elevated[i]] <= bestGain) {
+                continue;
+            }
+            double gain = elevationAt(elevated[j - 1], elevated[j], end) - elevations[elevated[i]];
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestStart = i;
+                bestEnd = j;
+                endInterpolated = true;
+            }
+        }
+        if (bestEnd < 0) {
+            return Optional.empty();
+        }
+        // Find the steps of all points that hold the interpolated start or end
+        if (endInterpolated) {
+            long end = distances[elevated[bestStart]] + window;
+            int step = elevated[bestEnd - 1];
+            while (distances[step + 1] < end) {
+                step++;
+            }
+            return effort(target, elevated[bestStart], 0, step, fraction(distances, step, end), bestGain);
+        }
+        long start = distances[elevated[bestEnd]] - window;
+        int step = elevated[bestStart];
+        while (distances[step + 1] <= start) {
+            step++;
+        }
+        return effort(target, step, fraction(distances, step, start), elevated[bestEnd], 0, bestGain);
+    }
+
+    // Elevation at distance between points from and to that both have it
+    private double elevationAt(int from, int to, long distance) {
+        return elevations[from] + (elevations[to] - elevations[from]) * (distance - distances[from])
+                / (distances[to] - distances[from]);
+    }
+
+    private Optional<BestEffort> effort(EffortTarget target, int start, double startFraction, int end, double endFraction,
+                                        double elevationGain) {
+        if (end < 0) {
+            return Optional.empty();
+        }
+        if (endFraction == 1) {
+            end++;
+            endFraction = 0;
+        }
+        double startTime = lerp(times, start, startFraction);
+        double startDistance = lerp(distances, start, startFraction);
+        if (Double.isNaN(elevationGain)) {
+            elevationGain = lerp(elevations, end, endFraction) - lerp(elevations, start, startFraction);
+        }
+        Optional<Double> heartRate = Optional.empty();
+        if (heartRateSums != null) {
+            double millis = lerp(heartRateMillis, end, endFraction) - lerp(heartRateMillis, start, startFraction);
+            if (millis > 0) {
+                heartRate = Optional.of((lerp(heartRateSums, end, endFraction) - lerp(heartRateSums, start, startFraction)) / millis);
+            }
+        }
+        return Optional.of(new BestEffort(
+                target,
+                pointIndex(start),
+                pointIndex(end),
+                Instant.ofEpochMilli(Math.round(startTime)),
+                Duration.ofMillis(Math.round(lerp(times, end, endFraction) - startTime)),
+                Segment.fromMicros(Math.round(lerp(distances, end, endFraction) - startDistance)),
+                elevationGain,
+                heartRate));
+    }
+
+    private long pointIndex(int index) {
+        return pointIndexes != null ? pointIndexes[index] : index;
+    }
+
+    // Where value lies between values[i] and values[i + 1], which must differ
+    private static double fraction(long[] values, int i, long value) {
+        return (double) (value - values[i]) / (values[i + 1] - values[i]);
+    }
+
+    private static double lerp(long[] values, int i, double fraction) {
+        return fraction == 0 ? values[i] : values[i] + (values[i + 1] - values[i]) * fraction;
+    }
+
+    private static double lerp(double[] values, int i, double fraction) {
+        return fraction == 0 ? values[i] : values[i] + (values[i + 1] - values[i]) * fraction;
+    }
+
+    public static final class Builder implements Consumer<TrackPoint> {
+        private final DistanceModel distanceModel;
+        private int size = 0;
+        private int pointCount = 0;
+        private long[] times = new long[1024];
+        private long[] distances = new long[1024];
+        private double[] elevations = new double[1024];
+        // Allocated with the first heart rate, and the point indexes with the first point without time
+        private long[] heartRateSums;
+        private long[] heartRateMillis;
+        private int[] pointIndexes;
+
+        private double lastLatitude;
+        private double lastLongitude;
+        private int lastHeartRate = TrackPoint.NO_HEART_RATE;
+
+        private Builder(DistanceModel distanceModel) {
+            this.distanceModel = distanceModel;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            int index = pointCount++;
+            if (!point.hasTime()) {
+                if (pointIndexes == null) {
+                    pointIndexes = new int[times.length];
+                    Arrays.setAll(pointIndexes, i -> i);
+                }
+                return;
+            }
+            if (size == times.length) {
+                grow();
+            }
+            if (size == 0) {
+                times[0] = point.getTime();
+            } else {
+                long time = Math.max(point.getTime(), times[size - 1]);
+                long step = time - times[size - 1];
+                times[size] = time;
+                distances[size] = distances[size - 1] + Segment.toMicros(distanceModel.distance(
+                        lastLatitude, lastLongitude, point.getLatitude(), point.getLongitude()));
+                if (heartRateSums != null) {
+                    boolean counted = lastHeartRate != TrackPoint.NO_HEART_RATE
+                            && step <= GpxStatisticsAccumulator.MAX_HEART_RATE_INTERVAL_MILLIS;
+                    heartRateSums[size] = heartRateSums[size - 1] + (counted ? lastHeartRate * step : 0);
+                    heartRateMillis[size] = heartRateMillis[size - 1] + (counted ? step : 0);
+                }
+            }
+            elevations[size] = point.getElevation();
+            if (pointIndexes != null) {
+                pointIndexes[size] = index;
+            }
+            if (point.hasHeartRate() && heartRateSums == null) {
+                heartRateSums = new long[times.length];
+                heartRateMillis = new long[times.length];
+            }
+            lastLatitude = point.getLatitude();
+            lastLongitude = point.getLongitude();
+            lastHeartRate = point.getHeartRate();
+            size++;
+        }
+
+        private void grow() {
+            int capacity = times.length + (times.length >> 1);
+            times = Arrays.copyOf(times, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+            elevations = Arrays.copyOf(elevations, capacity);
+            if (heartRateSums != null) {
+                heartRateSums = Arrays.copyOf(heartRateSums, capacity);
+                heartRateMillis = Arrays.copyOf(heartRateMillis, capacity);
+            }
+            if (pointIndexes != null) {
+                pointIndexes = Arrays.copyOf(pointIndexes, capacity);
+            }
+        }
+
+        public BestEfforts build() {
+            return new BestEfforts(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ru.bulavin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * XXH64 (seed 0) of file contents, read through memory-mapped chunks so that large files are hashed without copying
+ * them into the heap.
+ */
+final class ContentHash {
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final long length;
+    private long v1 = PRIME1 + PRIME2;
+    private long v2 = PRIME2;
+    private long v3 = 0;
+    private long v4 = -PRIME1;
+
+    private ContentHash(long length) {
+        this.length = length;
+    }
+
+    static long hash(Path path) throws IOException {
+        return hash(path, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize size of the mapped windows, a multiple of 32
+     */
+    static long hash(Path path, int chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ContentHash hash = new ContentHash(size);
+            long position = 0;
+            while (true) {
+                long chunk = Math.min(chunkSize, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, chunk);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                position += chunk;
+                if (position == size) {
+                    return hash.finish(buffer);
+                }
+                hash.stripes(buffer);
+            }
+        }
+    }
+
+    static long hash(byte[] data) {
+        return new ContentHash(data.length).finish(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private void stripes(ByteBuffer buffer) {
+        while (buffer.remaining() >= STRIPE) {
+            v1 = round(v1, buffer.getLong());
+            v2 = round(v2, buffer.getLong());
+            v3 = round(v3, buffer.getLong());
+            v4 = round(v4, buffer.getLong());
+        }
+    }
+
+    private long finish(ByteBuffer buffer) {
+        stripes(buffer);
+        long h;
+        if (length >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += length;
+
+        while (buffer.remaining() >= 8) {
+            h ^= round(0, buffer.getLong());
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (buffer.remaining() >= 4) {
+            h ^= (buffer.getInt() & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+        }
+        while (buffer.hasRemaining()) {
+            h ^= (buffer.get() & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long mergeRound(long h, long value) {
+        h ^= round(0, value);
+        return h * PRIME1 + PRIME4;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.bulavin;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * What a {@link BestEffort} is the best of: the fastest time over a distance, the best average speed or heart rate
+ * over a duration, or the biggest elevation gain over a distance. {@code amount} is in meters or milliseconds.
+ */
+public record EffortTarget(Kind kind, double amount) {
+    public enum Kind {FASTEST_DISTANCE, BEST_SPEED, BEST_HEART_RATE, STEEPEST_CLIMB}
+
+    /**
+     * Fastest 1, 5 and 10 km, best 5, 20 and 60 minute speed and heart rate, steepest 1 km climb.
+     */
+    public static final List<EffortTarget> DEFAULTS = List.of(
+            fastest(1000), fastest(5000), fastest(10_000),
+            bestSpeed(Duration.ofMinutes(5)), bestSpeed(Duration.ofMinutes(20)), bestSpeed(Duration.ofMinutes(60)),
+            bestHeartRate(Duration.ofMinutes(5)), bestHeartRate(Duration.ofMinutes(20)), bestHeartRate(Duration.ofMinutes(60)),
+            steepestClimb(1000));
+
+    public EffortTarget {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Effort window must be positive: " + amount);
+        }
+    }
+
+    public static EffortTarget fastest(double meters) {
+        return new EffortTarget(Kind.FASTEST_DISTANCE, meters);
+    }
+
+    public static EffortTarget bestSpeed(Duration duration) {
+        return new EffortTarget(Kind.BEST_SPEED, duration.toMillis());
+    }
+
+    public static EffortTarget bestHeartRate(Duration duration) {
+        return new EffortTarget(Kind.BEST_HEART_RATE, duration.toMillis());
+    }
+
+    public static EffortTarget steepestClimb(double meters) {
+        return new EffortTarget(Kind.STEEPEST_CLIMB, meters);
+    }
+
+    public boolean isDistance() {
+        return kind == Kind.FASTEST_DISTANCE || kind == Kind.STEEPEST_CLIMB;
+    }
+
+    public double getMeters() {
+        return isDistance() ? amount : Double.NaN;
+    }
+
+    public Duration getDuration() {
+        return isDistance() ? null : Duration.ofMillis((long) amount);
+    }
+}
@@ -0,0 +1,144 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.geom.Ellipsoid;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.asin;
+import static java.lang.Math.atan;
+import static java.lang.Math.atan2;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+import static java.lang.Math.toRadians;
+
+/**
+ * Allocation-free geodesic distances on primitive coordinates.
+ */
+public final class Geodesy {
+    private static final double A = Ellipsoid.DEFAULT.A();
+    private static final double B = Ellipsoid.DEFAULT.B();
+    private static final double F = 1.0 / Ellipsoid.DEFAULT.F();
+    private static final double AABBBB = (A * A - B * B) / (B * B);
+    private static final double E2 = F * (2.0 - F);
+    static final double MEAN_RADIUS = (2.0 * A + B) / 3.0;
+
+    private static final int DISTANCE_ITERATION_MAX = 1000;
+    private static final double DISTANCE_ITERATION_EPSILON = 1E-12;
+    private static final double NEAR_ZERO = 10000 * Double.MIN_VALUE;
+
+    private Geodesy() {
+    }
+
+    /**
+     * Vincenty's inverse formula on the default jpx ellipsoid (WGS-84). Mirrors {@code Geoid.DEFAULT.distance(start, end)}
+     * operation by operation, so the result is bit-identical to {@code WayPoint.distance}.
+     */
+    public static double vincenty(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        final double lat1 = toRadians(startLatitude);
+        final double lon1 = toRadians(startLongitude);
+        final double lat2 = toRadians(endLatitude);
+        final double lon2 = toRadians(endLongitude);
+
+        final double omega = lon2 - lon1;
+
+        final double U1 = atan((1.0 - F) * tan(lat1));
+        final double sinU1 = sin(U1);
+        final double cosU1 = cos(U1);
+
+        final double U2 = atan((1.0 - F) * tan(lat2));
+        final double sinU2 = sin(U2);
+        final double cosU2 = cos(U2);
+
+        final double sinU1sinU2 = sinU1 * sinU2;
+        final double cosU1sinU2 = cosU1 * sinU2;
+        final double sinU1cosU2 = sinU1 * cosU2;
+        final double cosU1cosU2 = cosU1 * cosU2;
+
+        double lambda = omega;
+        double lambda0;
+        double a;
+        double b;
+        double sigma;
+        double deltasigma;
+
+        int iteration = 0;
+        do {
+            lambda0 = lambda;
+
+            final double sinlambda = sin(lambda);
+            final double coslambda = cos(lambda);
+
+            final double sin2sigma = cosU2 * sinlambda * cosU2 * sinlambda +
+                    (cosU1sinU2 - sinU1cosU2 * coslambda) * (cosU1sinU2 - sinU1cosU2 * coslambda);
+            final double sinsigma = sqrt(sin2sigma);
+            final double cossigma = sinU1sinU2 + cosU1cosU2 * coslambda;
+            sigma = atan2(sinsigma, cossigma);
+
+            final double sinalpha = isNearZero(sin2sigma) ? 0.0 : cosU1cosU2 * sinlambda / sinsigma;
+            final double cosalpha = cos(asin(sinalpha));
+            final double cos2alpha = cosalpha * cosalpha;
+
+            final double cos2sigmam = isNearZero(cos2alpha) ? 0.0 : cossigma - 2.0 * sinU1sinU2 / cos2alpha;
+            final double u2 = cos2alpha * AABBBB;
+            final double cos2sigmam2 = cos2sigmam * cos2sigmam;
+
+            a = 1.0 + u2 / 16384.0 * (4096.0 + u2 * (-768.0 + u2 * (320.0 - 175.0 * u2)));
+            b = u2 / 1024.0 * (256.0 + u2 * (-128.0 + u2 * (74.0 - 47.0 * u2)));
+
+            deltasigma = b * sinsigma * (cos2sigmam + b / 4.0 * (cossigma * (-1.0 + 2.0 * cos2sigmam2) -
+                    b / 6.0 * cos2sigmam * (-3.0 + 4.0 * sin2sigma) * (-3.0 + 4.0 * cos2sigmam2)));
+
+            final double C = F / 16.0 * cos2alpha * (4.0 + F * (4.0 - 3.0 * cos2alpha));
+
+            lambda = omega + (1.0 - C) * F * sinalpha *
+                    (sigma + C * sinsigma * (cos2sigmam + C * cossigma * (-1.0 + 2.0 * cos2sigmam2)));
+        } while (iteration++ < DISTANCE_ITERATION_MAX && abs((lambda - lambda0) / lambda) > DISTANCE_ITERATION_EPSILON);
+
+        if (iteration >= DISTANCE_ITERATION_MAX) {
+            throw new ArithmeticException(String.format(
+                    "Calculating distance between (%s, %s) and (%s, %s) didn't converge.",
+                    startLatitude, startLongitude, endLatitude, endLongitude));
+        }
+
+        return B * a * (sigma - deltasigma);
+    }
+
+    /**
+     * Flat-earth approximation around the mid latitude using the ellipsoid's meridional and normal radii of curvature.
+     */
+    public static double equirectangular(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        final double midLatitude = toRadians((startLatitude + endLatitude) * 0.5);
+        final double sinMid = sin(midLatitude);
+        final double w = 1.0 - E2 * sinMid * sinMid;
+        final double normalRadius = A / sqrt(w);
+        final double meridionalRadius = normalRadius * (1.0 - E2) / w;
+
+        double deltaLongitude = endLongitude - startLongitude;
+        if (deltaLongitude > 180.0) {
+            deltaLongitude -= 360.0;
+        } else if (deltaLongitude < -180.0) {
+            deltaLongitude += 360.0;
+        }
+        final double x = normalRadius * cos(midLatitude) * toRadians(deltaLongitude);
+        final double y = meridionalRadius * toRadians(endLatitude - startLatitude);
+        return sqrt(x * x + y * y);
+    }
+
+    /**
+     * Great-circle distance on a sphere with the ellipsoid's mean radius.
+     */
+    public static double haversine(double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        final double lat1 = toRadians(startLatitude);
+        final double lat2 = toRadians(endLatitude);
+        final double sinHalfLatitude = sin((lat2 - lat1) * 0.5);
+        final double sinHalfLongitude = sin(toRadians(endLongitude - startLongitude) * 0.5);
+        final double h = sinHalfLatitude * sinHalfLatitude + cos(lat1) * cos(lat2) * sinHalfLongitude * sinHalfLongitude;
+        return 2.0 * MEAN_RADIUS * asin(Math.min(1.0, sqrt(h)));
+    }
+
+    // Same as jpx MathUtils.equal(value, 0.0, 10000) for the non-negative values it is used with
+    private static boolean isNearZero(double value) {
+        return abs(value) <= NEAR_ZERO;
+    }
+}
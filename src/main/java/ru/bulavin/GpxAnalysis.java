@@ -0,0 +1,19 @@
+package ru.bulavin;
+
+import java.util.List;
+
+/**
+ * Result of analyzing a GPX file in the background. Partial results published while the file is still being read
+ * have no {@code track}, no {@code simplifier}, no {@code profile} and no {@code efforts}.
+ */
+public record GpxAnalysis(GpxStatistics statistics, long pointCount, TrackColumns track, TrackSimplifier simplifier,
+                          TrackProfile profile, List<BestEffort> efforts) {
+
+    public GpxAnalysis(GpxStatistics statistics, long pointCount) {
+        this(statistics, pointCount, null, null, null, List.of());
+    }
+
+    public boolean isComplete() {
+        return track != null;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.bulavin;
+
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Reads and analyzes {@link #fileProperty() file} off the FX thread. Progress is the share of bytes read, the message
+ * tells bytes and points so far, and the value is a partial {@link GpxAnalysis} a few times per second until the final
+ * one. {@link #restart()} with another file cancels the running analysis.
+ */
+public final class GpxAnalysisService extends Service<GpxAnalysis> {
+    private static final int CHECK_INTERVAL_POINTS = 4096;
+    private static final long PUBLISH_INTERVAL_NANOS = 200_000_000L;
+
+    private final ObjectProperty<Path> file = new SimpleObjectProperty<>(this, "file");
+    private GpxStatisticsCache cache;
+    private TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+
+    public ObjectProperty<Path> fileProperty() {
+        return file;
+    }
+
+    public Path getFile() {
+        return file.get();
+    }
+
+    public void setFile(Path file) {
+        this.file.set(file);
+    }
+
+    /**
+     * Cache to serve the statistics of files opened before; the file is still read for the map.
+     */
+    public void setCache(GpxStatisticsCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Filtering in front of the statistics; the map shows the raw points.
+     */
+    public void setPreprocessing(TrackPreprocessing preprocessing) {
+        this.preprocessing = preprocessing;
+    }
+
+    @Override
+    protected Task<GpxAnalysis> createTask() {
+        return new AnalysisTask(getFile(), cache, preprocessing);
+    }
+
+    private static class AnalysisTask extends Task<GpxAnalysis> {
+        private final Path file;
+        private final GpxStatisticsCache cache;
+        private final TrackPreprocessing preprocessing;
+
+        AnalysisTask(Path file, GpxStatisticsCache cache, TrackPreprocessing preprocessing) {
+            this.file = file;
+            this.cache = cache;
+            this.preprocessing = preprocessing;
+        }
+
+        @Override
+        protected GpxAnalysis call() throws IOException {
+            long size = Files.size(file);
+            updateProgress(0, size);
+
+            GpxStatisticsCache.Key key = null;
+            GpxStatisticsCache.Entry cached = null;
+            if (cache != null) {
+                key = cache.key(file, DistanceModel.VINCENTY, preprocessing);
+                cached = cache.get(key).orElse(null);
+                if (cached != null) {
+                    updateValue(new GpxAnalysis(cached.statistics(), cached.pointCount()));
+                }
+            }
+
+            GpxStatisticsAccumulator accumulator = cached == null ? new GpxStatisticsAccumulator() : null;
+            TrackFilter filter = accumulator != null ? preprocessing.chain(DistanceModel.VINCENTY, accumulator) : null;
+            TrackColumns.Builder track = TrackColumns.builder();
+            long[] lastPublished = {System.nanoTime()};
+            PipelineMetrics.Timer readTimer = PipelineMetrics.start(PipelineMetrics.Stage.READ).file(file).bytes(size);
+            PipelineMetrics.Timer statisticsTimer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS).file(file);
+            Consumer<TrackPoint> statistics = filter != null ? statisticsTimer.sample(filter) : null;
+            try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file))) {
+                GpxStreamReader.read(new BufferedInputStream(in, 64 * 1024), point -> {
+                    if (statistics != null) {
+                        statistics.accept(point);
+                    }
+                    track.accept(point);
+                    if (track.size() % CHECK_INTERVAL_POINTS == 0) {
+                        if (isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        long now = System.nanoTime();
+                        if (now - lastPublished[0] >= PUBLISH_INTERVAL_NANOS) {
+                            lastPublished[0] = now;
+                            publish(accumulator, track.size(), in.getCount(), size);
+                        }
+                    }
+                });
+                if (filter != null) {
+                    filter.finish();
+                    statisticsTimer.close();
+                }
+                readTimer.exclude(statisticsTimer).points(track.size()).close();
+                publish(accumulator, track.size(), size, size);
+            }
+
+            GpxStatistics result;
+            if (cached != null) {
+                result = cached.statistics();
+            } else {
+                result = accumulator.toStatistics();
+                if (cache != null) {
+                    try {
+                        cache.put(key, accumulator.getPointCount(), result);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            TrackColumns columns = track.build();
+            updateMessage("Подготовка карты, точек: " + columns.size());
+            TrackSimplifier simplifier;
+            try (PipelineMetrics.Timer _ = PipelineMetrics.start(PipelineMetrics.Stage.SIMPLIFY).file(file).points(columns.size())) {
+                simplifier = TrackSimplifier.of(columns);
+            }
+            List<BestEffort> efforts = BestEfforts.of(columns).find(EffortTarget.DEFAULTS);
+            TrackProfile profile = TrackProfile.of(columns);
+            return new GpxAnalysis(result, columns.size(), columns, simplifier, profile, efforts);
+        }
+
+        // Without an accumulator the statistics came from the cache and are already shown
+        private void publish(GpxStatisticsAccumulator accumulator, long points, long bytesRead, long size) {
+            updateProgress(bytesRead, size);
+            updateMessage(String.format("Прочитано %.1f из %.1f МБ, точек: %d",
+                    bytesRead / (1024.0 * 1024.0), size / (1024.0 * 1024.0), points));
+            if (accumulator != null) {
+                updateValue(new GpxAnalysis(accumulator.toStatistics(), points));
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
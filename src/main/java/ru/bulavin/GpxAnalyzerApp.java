@@ -1,24 +1,24 @@
 package ru.bulavin;
 
-import io.jenetics.jpx.GPX;
-import io.jenetics.jpx.Track;
-import io.jenetics.jpx.TrackSegment;
-import io.jenetics.jpx.WayPoint;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import netscape.javascript.JSObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -28,6 +28,11 @@ public class GpxAnalyzerApp extends Application {
 
     private TextArea outputArea;
     private WebEngine webEngine;
+    private final GpxAnalysisService analysisService = new GpxAnalysisService();
+    private final GpxTailService tailService = new GpxTailService();
+    private CheckBox followCheckBox;
+    private MapTrack mapTrack;
+    private ProfileChart profileChart;
 
     @Override
     public void start(Stage primaryStage) {
@@ -45,12 +50,57 @@ public class GpxAnalyzerApp extends Application {
 
         button.setOnAction(_ -> chooseFile(primaryStage));
 
-        VBox vbox = new VBox(10, label, button, outputArea);
+        try {
+            analysisService.setCache(GpxStatisticsCache.open(GpxStatisticsCache.defaultDirectory(), GpxStatisticsCache.DEFAULT_MAX_BYTES));
+        } catch (IOException e) {
+            System.err.println("Кэш статистики недоступен: " + e.getMessage());
+        }
+
+        profileChart = new ProfileChart();
+
+        followCheckBox = new CheckBox("Следить за файлом");
+
+        Button cancelButton = new Button("Отмена");
+        cancelButton.disableProperty().bind(analysisService.runningProperty().or(tailService.runningProperty()).not());
+        cancelButton.setOnAction(_ -> {
+            analysisService.cancel();
+            tailService.cancel();
+        });
+
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.progressProperty().bind(analysisService.progressProperty());
+        progressBar.visibleProperty().bind(analysisService.runningProperty());
+        Label statusLabel = new Label();
+        statusLabel.textProperty().bind(analysisService.messageProperty());
+
+        analysisService.valueProperty().addListener((_, _, analysis) -> {
+            if (analysis != null) {
+                showAnalysis(analysis);
+            }
+        });
+        analysisService.setOnSucceeded(_ -> showTrack(analysisService.getValue(), true));
+        analysisService.setOnFailed(_ -> outputArea.setText("Ошибка чтения GPX файла: " + analysisService.getException().getMessage()));
+        analysisService.setOnCancelled(_ -> outputArea.appendText("Анализ отменён\n"));
+
+        tailService.valueProperty().addListener((_, previous, analysis) -> {
+            if (analysis != null && analysis != previous) {
+                showAnalysis(analysis);
+                // Between rebuilds only the statistics change
+                if (previous == null || analysis.track() != previous.track()) {
+                    showTrack(analysis, previous == null || previous.track().isEmpty());
+                }
+            }
+        });
+        tailService.setOnFailed(_ -> outputArea.setText("Ошибка чтения GPX файла: " + tailService.getException().getMessage()));
+
+        HBox controls = new HBox(10, button, followCheckBox, cancelButton, progressBar, statusLabel);
+        VBox vbox = new VBox(10, label, controls, outputArea);
         BorderPane borderPane = new BorderPane();
         borderPane.setTop(vbox);
         borderPane.setCenter(mapView);
+        borderPane.setBottom(profileChart);
 
-        Scene scene = new Scene(borderPane, 800, 700);
+        Scene scene = new Scene(borderPane, 800, 900);
         primaryStage.setScene(scene);
         primaryStage.show();
     }
@@ -65,94 +115,126 @@ public class GpxAnalyzerApp extends Application {
     }
 
     private void analyzeGpxFile(File file) {
-        try {
-            GPX gpx = GPX.read(Paths.get(file.getAbsolutePath()));
-            List<WayPoint> points = gpx.tracks()
-                    .flatMap(Track::segments)
-                    .flatMap(TrackSegment::points)
-                    .toList();
-
-            GpxStatistics statistics = new GpxStatistics(points);
-
-            StringBuilder result = new StringBuilder();
-            result.append("Общая дистанция: ").append(String.format("%.3f", statistics.getTotalDistance())).append(" км\n");
-            result.append("Общее время движения: ").append(statistics.getTotalTimeMoving().toMinutes()).append(" минут\n");
-            result.append("Общее время остановок: ").append(statistics.getTotalTimeStopped().toMinutes()).append(" минут\n");
-            result.append("Грязная средняя скорость: ").append(String.format("%.3f", statistics.getDirtyAverageSpeed())).append(" км/ч\n");
-            result.append("Чистая средняя скорость: ").append(String.format("%.3f", statistics.getCleanAverageSpeed())).append(" км/ч\n");
+        if (followCheckBox.isSelected()) {
+            analysisService.cancel();
+            tailService.follow(file.toPath());
+        } else {
+            tailService.cancel();
+            analysisService.setFile(file.toPath());
+            analysisService.restart();
+        }
+    }
 
+    private void showAnalysis(GpxAnalysis analysis) {
+        outputArea.setText(formatStatistics(analysis.statistics()) + formatEfforts(analysis.efforts()));
+    }
 
-            Optional<Double> minElevation = statistics.getMinElevation();
-            if (minElevation.isPresent()) {
-                result.append("Минимальная высота: ").append(String.format("%.3f", minElevation.get())).append(" м\n");
-            }
+    private void showTrack(GpxAnalysis analysis, boolean center) {
+        try (PipelineMetrics.Timer _ = PipelineMetrics.start(PipelineMetrics.Stage.RENDER).points(analysis.track().size())) {
+            pushTrack(analysis, center);
+        }
+    }
 
-            Optional<Double> maxElevation = statistics.getMaxElevation();
-            if (maxElevation.isPresent()) {
-                result.append("Максимальная высота: ").append(String.format("%.3f", maxElevation.get())).append(" м\n");
-            }
+    private void pushTrack(GpxAnalysis analysis, boolean center) {
+        TrackColumns track = analysis.track();
+        webEngine.executeScript("clearMap();");
+        if (center && !track.isEmpty()) {
+            webEngine.executeScript("setCenter(" +
+                    track.getLatitude(0) + ", " +
+                    track.getLongitude(0) + ");");
+        }
+        // WebView holds Java objects weakly, keep the bridge reachable while it is on the map
+        mapTrack = new MapTrack(analysis.simplifier());
+        JSObject window = (JSObject) webEngine.executeScript("window");
+        window.call("showTrack", mapTrack);
+        profileChart.setProfile(analysis.profile());
+    }
 
-            Optional<Double> maxAscent = statistics.getMaxAscent();
-            if (maxAscent.isPresent()) {
-                result.append("Максимальный подъём: ").append(String.format("%.3f", maxAscent.get())).append(" м\n");
-            }
+    private static String formatStatistics(GpxStatistics statistics) {
+        StringBuilder result = new StringBuilder();
+        result.append("Общая дистанция: ").append(String.format("%.3f", statistics.getTotalDistance())).append(" км\n");
+        result.append("Общее время движения: ").append(statistics.getTotalTimeMoving().toMinutes()).append(" минут\n");
+        result.append("Общее время остановок: ").append(statistics.getTotalTimeStopped().toMinutes()).append(" минут\n");
+        result.append("Грязная средняя скорость: ").append(String.format("%.3f", statistics.getDirtyAverageSpeed())).append(" км/ч\n");
+        result.append("Чистая средняя скорость: ").append(String.format("%.3f", statistics.getCleanAverageSpeed())).append(" км/ч\n");
 
-            Optional<Double> maxDescent = statistics.getMaxDescent();
-            if (maxDescent.isPresent()) {
-                result.append("Максимальный спуск: ").append(String.format("%.3f", maxDescent.get())).append(" м\n");
-            }
 
-            Optional<Double> minTemperature = statistics.getMinTemperature();
-            if (minTemperature.isPresent()) {
-                result.append("Минимальная температура: ").append(String.format("%.3f", minTemperature.get())).append(" °C\n");
-            }
+        Optional<Double> minElevation = statistics.getMinElevation();
+        if (minElevation.isPresent()) {
+            result.append("Минимальная высота: ").append(String.format("%.3f", minElevation.get())).append(" м\n");
+        }
 
-            Optional<Double> maxTemperature = statistics.getMaxTemperature();
-            if (maxTemperature.isPresent()) {
-                result.append("Максимальная температура: ").append(String.format("%.3f", maxTemperature.get())).append(" °C\n");
-            }
+        Optional<Double> maxElevation = statistics.getMaxElevation();
+        if (maxElevation.isPresent()) {
+            result.append("Максимальная высота: ").append(String.format("%.3f", maxElevation.get())).append(" м\n");
+        }
 
-            Optional<Integer> minHeartRate = statistics.getMinHeartRate();
-            if (minHeartRate.isPresent()) {
-                result.append("Минимальное значение пульса: ").append(minHeartRate.get()).append(" уд/м\n");
-            }
+        Optional<Double> maxAscent = statistics.getMaxAscent();
+        if (maxAscent.isPresent()) {
+            result.append("Максимальный подъём: ").append(String.format("%.3f", maxAscent.get())).append(" м\n");
+        }
 
-            Optional<Integer> maxHeartRate = statistics.getMaxHeartRate();
-            if (maxHeartRate.isPresent()) {
-                result.append("Максимальное значение пульса: ").append(maxHeartRate.get()).append(" уд/м\n");
-            }
+        Optional<Double> maxDescent = statistics.getMaxDescent();
+        if (maxDescent.isPresent()) {
+            result.append("Максимальный спуск: ").append(String.format("%.3f", maxDescent.get())).append(" м\n");
+        }
 
-            Optional<Double> averageHeartRate = statistics.getAverageHeartRate();
-            if (averageHeartRate.isPresent()) {
-                result.append("Среднее значение пульса: ").append(String.format("%.3f", averageHeartRate.get())).append(" уд/м\n");
-            }
+        Optional<Double> minTemperature = statistics.getMinTemperature();
+        if (minTemperature.isPresent()) {
+            result.append("Минимальная температура: ").append(String.format("%.3f", minTemperature.get())).append(" °C\n");
+        }
 
-            outputArea.setText(result.toString());
+        Optional<Double> maxTemperature = statistics.getMaxTemperature();
+        if (maxTemperature.isPresent()) {
+            result.append("Максимальная температура: ").append(String.format("%.3f", maxTemperature.get())).append(" °C\n");
+        }
 
-            StringBuilder jsPoints = new StringBuilder();
-            points.forEach(p -> {
-                jsPoints.append("addPoint(")
-                        .append(p.getLatitude().doubleValue()).append(", ")
-                        .append(p.getLongitude().doubleValue()).append(");");
-            });
+        Optional<Integer> minHeartRate = statistics.getMinHeartRate();
+        if (minHeartRate.isPresent()) {
+            result.append("Минимальное значение пульса: ").append(minHeartRate.get()).append(" уд/м\n");
+        }
 
+        Optional<Integer> maxHeartRate = statistics.getMaxHeartRate();
+        if (maxHeartRate.isPresent()) {
+            result.append("Максимальное значение пульса: ").append(maxHeartRate.get()).append(" уд/м\n");
+        }
 
+        Optional<Double> averageHeartRate = statistics.getAverageHeartRate();
+        if (averageHeartRate.isPresent()) {
+            result.append("Среднее значение пульса: ").append(String.format("%.3f", averageHeartRate.get())).append(" уд/м\n");
+        }
 
-            webEngine.executeScript("clearMap();");
-            webEngine.executeScript(jsPoints.toString());
+        return result.toString();
+    }
 
-            if (!points.isEmpty()) {
-                WayPoint firstPoint = points.getFirst();
-                webEngine.executeScript("setCenter(" +
-                        firstPoint.getLatitude().doubleValue() + ", " +
-                        firstPoint.getLongitude().doubleValue() + ");");
+    private static String formatEfforts(List<BestEffort> efforts) {
+        if (efforts.isEmpty()) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder("\nЛучшие отрезки:\n");
+        for (BestEffort effort : efforts) {
+            EffortTarget target = effort.target();
+            switch (target.kind()) {
+                case FASTEST_DISTANCE -> result.append(String.format("%.0f м: %s, %.3f км/ч",
+                        target.getMeters(), formatDuration(effort.duration()), effort.getAverageSpeed()));
+                case BEST_SPEED -> result.append(String.format("Скорость за %d мин: %.3f км/ч",
+                        target.getDuration().toMinutes(), effort.getAverageSpeed()));
+                case BEST_HEART_RATE -> result.append(String.format("Пульс за %d мин: %.1f уд/м",
+                        target.getDuration().toMinutes(), effort.averageHeartRate().orElse(Double.NaN)));
+                case STEEPEST_CLIMB -> result.append(String.format("Подъём на %.0f м: %.1f м, %.1f%%",
+                        target.getMeters(), effort.elevationGain(), effort.getGradient()));
             }
-
-        } catch (IOException e) {
-            outputArea.setText("Ошибка чтения GPX файла: " + e.getMessage());
+            result.append('\n');
         }
+        return result.toString();
     }
+
+    private static String formatDuration(Duration duration) {
+        return String.format("%d:%02d:%02d", duration.toHours(), duration.toMinutesPart(), duration.toSecondsPart());
+    }
+
     public static void main(String[] args) {
+        PipelineMetrics.install();
         launch(args);
     }
 }
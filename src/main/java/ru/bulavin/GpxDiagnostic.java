@@ -0,0 +1,61 @@
+package ru.bulavin;
+
+import java.util.Locale;
+
+/**
+ * A problem found in a track while it was read: {@code point} is the number of the {@code trkpt} in the file from
+ * zero ({@code -1} for the track as a whole), {@code value} the offending text or value.
+ */
+public record GpxDiagnostic(long point, Kind kind, Action action, String value) {
+
+    public enum Kind {
+        /**
+         * A number or timestamp that does not parse; the value is left absent.
+         */
+        MALFORMED_VALUE,
+        /**
+         * Latitude outside -90..90 or longitude outside -180..180, or either missing.
+         */
+        INVALID_COORDINATE,
+        /**
+         * Earlier timestamp than a previous point.
+         */
+        TIME_BACKWARDS,
+        /**
+         * Same timestamp as the previous point.
+         */
+        DUPLICATE_TIME,
+        ELEVATION_OUT_OF_RANGE,
+        HEART_RATE_OUT_OF_RANGE,
+        TEMPERATURE_OUT_OF_RANGE,
+        NO_POINTS
+    }
+
+    public enum Action {
+        /**
+         * Reported only, the point is passed on as it was.
+         */
+        KEPT,
+        DROPPED,
+        /**
+         * The value is removed from the point, the rest of the point is kept.
+         */
+        CLEARED,
+        /**
+         * The point is moved back to its place in time order.
+         */
+        REORDERED
+    }
+
+    /**
+     * Lower case name of an enum constant, as written in diagnostics output.
+     */
+    public static String name(Enum<?> constant) {
+        return constant.name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return (point >= 0 ? "trkpt " + point + ": " : "") + name(kind) + " " + value + " (" + name(action) + ")";
+    }
+}
@@ -0,0 +1,34 @@
+package ru.bulavin;
+
+/**
+ * Track point extension values understood by the analyzer, matched by element local name regardless of namespace
+ * (Garmin TrackPointExtension, Cluetrust, etc.).
+ */
+public enum GpxExtension {
+    HEART_RATE("hr"),
+    TEMPERATURE("temp"),
+    CADENCE("cad"),
+    AMBIENT_TEMPERATURE("atemp"),
+    POWER("power");
+
+    private final String localName;
+
+    GpxExtension(String localName) {
+        this.localName = localName;
+    }
+
+    public String getLocalName() {
+        return localName;
+    }
+
+    public static GpxExtension ofLocalName(String localName) {
+        return switch (localName) {
+            case "hr" -> HEART_RATE;
+            case "temp" -> TEMPERATURE;
+            case "cad" -> CADENCE;
+            case "atemp" -> AMBIENT_TEMPERATURE;
+            case "power" -> POWER;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package ru.bulavin;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reusable holder for the extension values of one point. Not thread-safe: each thread keeps its own instance,
+ * which is what makes {@link GpxHelper#readExtensions} safe to call concurrently.
+ */
+public final class GpxExtensionValues {
+    private static final GpxExtension[] EXTENSIONS = GpxExtension.values();
+
+    private final int wantedMask;
+    private final double[] values = new double[EXTENSIONS.length];
+    private int foundMask;
+
+    public GpxExtensionValues() {
+        this(EnumSet.allOf(GpxExtension.class));
+    }
+
+    public GpxExtensionValues(Set<GpxExtension> wanted) {
+        int mask = 0;
+        for (GpxExtension extension : wanted) {
+            mask |= 1 << extension.ordinal();
+        }
+        wantedMask = mask;
+        clear();
+    }
+
+    public boolean has(GpxExtension extension) {
+        return (foundMask & (1 << extension.ordinal())) != 0;
+    }
+
+    public double get(GpxExtension extension) {
+        return values[extension.ordinal()];
+    }
+
+    public int getInt(GpxExtension extension) {
+        return (int) values[extension.ordinal()];
+    }
+
+    public boolean isWanted(GpxExtension extension) {
+        return (wantedMask & (1 << extension.ordinal())) != 0;
+    }
+
+    public void clear() {
+        foundMask = 0;
+        Arrays.fill(values, Double.NaN);
+    }
+
+    boolean isComplete() {
+        return foundMask == wantedMask;
+    }
+
+    // Only the first occurrence of a key counts, as with the former "//*[local-name()='key']" lookup
+    boolean offer(GpxExtension extension, String text) {
+        int bit = 1 << extension.ordinal();
+        if ((wantedMask & bit) == 0 || (foundMask & bit) != 0) {
+            return false;
+        }
+        values[extension.ordinal()] = Double.parseDouble(text.trim());
+        foundMask |= bit;
+        return true;
+    }
+}
@@ -2,18 +2,12 @@ package ru.bulavin;
 
 import io.jenetics.jpx.WayPoint;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 import java.util.Optional;
 
 public class GpxHelper {
 
-    private static final XPath xPath = XPathFactory.newInstance().newXPath();
-
     public static Optional<Double> getExtensionValueAsDouble(WayPoint point, String key) {
         return getExtensionValue(point, key).map(Double::parseDouble);
     }
@@ -25,17 +19,81 @@ public class GpxHelper {
     public static Optional<String> getExtensionValue(WayPoint point, String key) {
         Optional<Document> extensions = point.getExtensions();
         if (extensions.isPresent()) {
-            try {
-                XPathExpression expr = xPath.compile("//*[local-name()='" + key + "']");
-                Element element = (Element) expr.evaluate(extensions.get(), XPathConstants.NODE);
-                if (element != null) {
-                    return Optional.of(element.getTextContent());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            Node element = findElement(extensions.get(), key);
+            if (element != null) {
+                return Optional.of(element.getTextContent());
             }
         }
         return Optional.empty();
     }
-}
 
+    /**
+     * Resolves all extension keys wanted by {@code values} in a single walk over the point's extension document.
+     * Returns {@code false} if the point has no extensions.
+     */
+    public static boolean readExtensions(WayPoint point, GpxExtensionValues values) {
+        values.clear();
+        if (values.isComplete()) {
+            return false; // nothing wanted, the extensions are not looked at
+        }
+        Optional<Document> extensions = point.getExtensions();
+        if (extensions.isEmpty()) {
+            return false;
+        }
+        readExtensions(extensions.get(), values);
+        return true;
+    }
+
+    public static void readExtensions(Node root, GpxExtensionValues values) {
+        Node node = root;
+        long hits = 0;
+        long misses = 0;
+        while (node != null && !values.isComplete()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                GpxExtension extension = GpxExtension.ofLocalName(localName(node));
+                if (extension != null && values.offer(extension, node.getTextContent())) {
+                    hits++;
+                } else {
+                    misses++;
+                }
+            }
+            node = nextInDocumentOrder(root, node);
+        }
+        PipelineMetrics.extensions(hits, misses);
+    }
+
+    private static Node findElement(Node root, String key) {
+        Node node = root;
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && key.equals(localName(node))) {
+                return node;
+            }
+            node = nextInDocumentOrder(root, node);
+        }
+        return null;
+    }
+
+    private static Node nextInDocumentOrder(Node root, Node node) {
+        Node child = node.getFirstChild();
+        if (child != null) {
+            return child;
+        }
+        while (node != root) {
+            Node sibling = node.getNextSibling();
+            if (sibling != null) {
+                return sibling;
+            }
+            node = node.getParentNode();
+        }
+        return null;
+    }
+
+    private static String localName(Node node) {
+        String localName = node.getLocalName();
+        if (localName != null) {
+            return localName;
+        }
+        String nodeName = node.getNodeName();
+        return nodeName.substring(nodeName.indexOf(':') + 1);
+    }
+}
@@ -0,0 +1,231 @@
+package ru.bulavin;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Merges several recordings of one activity into one time-ordered stream of points: pieces of a recording that a
+ * device split into several files, or the same ride from a watch and a phone.
+ * <p>
+ * Every source is parsed on its own thread into a bounded queue of small chunks, and the queues are merged by point
+ * time with a heap, so memory does not depend on the length of the files. A point of another source that is closer
+ * than the time tolerance and within the distance tolerance of the last kept point is a duplicate: it is dropped, and
+ * values the kept point lacks (elevation, heart rate and other extensions) are taken from it. Sources are expected to be in time order each; a point without
+ * time keeps its place after the previous point of its source.
+ */
+public class GpxMerger {
+    public static final Duration DEFAULT_TIME_TOLERANCE = Duration.ofSeconds(1);
+    public static final double DEFAULT_DISTANCE_TOLERANCE = 5.0;
+
+    static final int CHUNK_POINTS = 1024;
+    static final int QUEUE_CHUNKS = 4;
+
+    private static final TrackPoint[] END = new TrackPoint[0];
+    private static final GpxExtension[] EXTENSIONS = GpxExtension.values();
+
+    private final long timeToleranceMillis;
+    private final double distanceTolerance;
+
+    public GpxMerger() {
+        this(DEFAULT_TIME_TOLERANCE, DEFAULT_DISTANCE_TOLERANCE);
+    }
+
+    /**
+     * @param distanceTolerance meters; 0 keeps points at different places, a negative value turns deduplication off
+     */
+    public GpxMerger(Duration timeTolerance, double distanceTolerance) {
+        this.timeToleranceMillis = timeTolerance.toMillis();
+        this.distanceTolerance = distanceTolerance;
+    }
+
+    /**
+     * Merges {@code sources} into a single-track GPX file.
+     */
+    public Result merge(List<Path> sources, Path output, String trackName) throws IOException, InterruptedException {
+        try (GpxStreamWriter writer = new GpxStreamWriter(output, trackName)) {
+            return merge(sources, writer);
+        }
+    }
+
+    /**
+     * Merges {@code sources} into {@code consumer}, which gets one reused {@link TrackPoint} per call. Throws the
+     * first error of any source.
+     */
+    public Result merge(List<Path> sources, Consumer<TrackPoint> consumer) throws IOException, InterruptedException {
+        ExecutorService readers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gpx-merge-", 0).factory());
+        try {
+            List<Source> started = new ArrayList<>(sources.size());
+            for (Path path : sources) {
+                Source source = new Source(path, started.size());
+                started.add(source);
+                readers.submit(source::read);
+            }
+            return mergeSources(started, consumer);
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private Result mergeSources(List<Source> sources, Consumer<TrackPoint> consumer) throws IOException, InterruptedException {
+        PriorityQueue<Source> heap = new PriorityQueue<>((a, b) -> a.time != b.time
+                ? Long.compare(a.time, b.time)
+                : Integer.compare(a.index, b.index));
+        for (Source source : sources) {
+            if (source.advance()) {
+                heap.add(source);
+            }
+        }
+        TrackPoint kept = new TrackPoint();
+        boolean hasKept = false;
+        int keptSource = -1;
+        long read = 0;
+        long written = 0;
+        while (!heap.isEmpty()) {
+            Source source = heap.poll();
+            TrackPoint point = source.current();
+            read++;
+            if (hasKept && source.index != keptSource && isDuplicate(kept, point)) {
+                fillMissing(kept, point);
+            } else {
+                if (hasKept) {
+                    consumer.accept(kept);
+                    written++;
+                }
+                kept.set(point);
+                hasKept = true;
+                keptSource = source.index;
+            }
+            if (source.advance()) {
+                heap.add(source);
+            }
+        }
+        if (hasKept) {
+            consumer.accept(kept);
+            written++;
+        }
+        return new Result(read, written);
+    }
+
+    private boolean isDuplicate(TrackPoint kept, TrackPoint point) {
+        if (distanceTolerance < 0 || !kept.hasTime() || !point.hasTime()
+                || Math.abs(point.getTime() - kept.getTime()) >= timeToleranceMillis) {
+            return false;
+        }
+        return DistanceModel.EQUIRECTANGULAR.distance(kept.getLatitude(), kept.getLongitude(),
+                point.getLatitude(), point.getLongitude()) <= distanceTolerance;
+    }
+
+    private static void fillMissing(TrackPoint kept, TrackPoint duplicate) {
+        if (!kept.hasElevation() && duplicate.hasElevation()) {
+            kept.setElevation(duplicate.getElevation());
+        }
+        for (GpxExtension extension : EXTENSIONS) {
+            if (!kept.hasExtension(extension) && duplicate.hasExtension(extension)) {
+                kept.setExtension(extension, duplicate.getExtension(extension));
+            }
+        }
+    }
+
+    /**
+     * Points read from all sources and points written; the difference are the dropped duplicates.
+     */
+    public record Result(long pointsRead, long pointsWritten) {
+        public long duplicates() {
+            return pointsRead - pointsWritten;
+        }
+    }
+
+    private static final class Source {
+        private final Path path;
+        private final int index;
+        private final BlockingQueue<TrackPoint[]> chunks = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        private volatile IOException error;
+
+        private TrackPoint[] chunk;
+        private int position;
+        private long time = Long.MIN_VALUE;
+
+        Source(Path path, int index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        // Runs on the reader thread
+        void read() {
+            TrackPoint[][] pending = {new TrackPoint[CHUNK_POINTS]};
+            int[] size = {0};
+            try {
+                // Merged files keep every extension
+                GpxStreamReader.read(path, EnumSet.allOf(GpxExtension.class), point -> {
+                    TrackPoint copy = new TrackPoint();
+                    copy.set(point);
+                    pending[0][size[0]++] = copy;
+                    if (size[0] == CHUNK_POINTS) {
+                        put(pending[0]);
+                        pending[0] = new TrackPoint[CHUNK_POINTS];
+                        size[0] = 0;
+                    }
+                });
+                if (size[0] > 0) {
+                    put(Arrays.copyOf(pending[0], size[0]));
+                }
+            } catch (IOException e) {
+                error = new IOException(path + ": " + e.getMessage(), e);
+            } catch (CancellationException e) {
+                return;
+            } catch (RuntimeException e) {
+                error = new IOException(path + ": " + e, e);
+            }
+            try {
+                chunks.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void put(TrackPoint[] chunk) {
+            try {
+                chunks.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+
+        // Moves to the next point on the merging thread; false at the end of the source
+        boolean advance() throws IOException, InterruptedException {
+            position++;
+            if (chunk == null || position >= chunk.length) {
+                chunk = chunks.take();
+                position = 0;
+                if (chunk == END) {
+                    if (error != null) {
+                        throw error;
+                    }
+                    return false;
+                }
+            }
+            TrackPoint point = chunk[position];
+            if (point.hasTime()) {
+                time = point.getTime();
+            }
+            return true;
+        }
+
+        TrackPoint current() {
+            return chunk[position];
+        }
+    }
+}
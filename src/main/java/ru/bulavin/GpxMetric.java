@@ -0,0 +1,65 @@
+package ru.bulavin;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Groups of {@link GpxStatistics} values that can be computed on their own. Only the selected groups are evaluated,
+ * in one pass: distances between points are computed only for {@link #DISTANCE} and {@link #TIME}, and extensions are
+ * parsed only for {@link #TEMPERATURE} and {@link #HEART_RATE}. The start time is always available.
+ */
+public enum GpxMetric {
+    /**
+     * Total distance; with {@link #TIME} also the average speeds.
+     */
+    DISTANCE,
+    /**
+     * Time moving and stopped. Telling them apart takes the speed, so this needs distances as well.
+     */
+    TIME,
+    /**
+     * Minimum and maximum elevation, the longest ascent and descent.
+     */
+    ELEVATION,
+    TEMPERATURE,
+    /**
+     * Minimum, maximum and average heart rate and the heart rate histogram.
+     */
+    HEART_RATE;
+
+    public static final Set<GpxMetric> ALL = Collections.unmodifiableSet(EnumSet.allOf(GpxMetric.class));
+
+    /**
+     * Comma-separated names in any case, e.g. {@code distance,time}; {@code all} selects every group.
+     */
+    public static Set<GpxMetric> parse(String spec) {
+        if (spec.trim().equalsIgnoreCase("all")) {
+            return ALL;
+        }
+        Set<GpxMetric> metrics = EnumSet.noneOf(GpxMetric.class);
+        for (String name : spec.split(",")) {
+            metrics.add(valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_')));
+        }
+        return Collections.unmodifiableSet(metrics);
+    }
+
+    static boolean needsDistance(Set<GpxMetric> metrics) {
+        return metrics.contains(DISTANCE) || metrics.contains(TIME);
+    }
+
+    /**
+     * Extensions the selected groups read; the others need not be parsed at all.
+     */
+    public static Set<GpxExtension> extensions(Set<GpxMetric> metrics) {
+        Set<GpxExtension> extensions = EnumSet.noneOf(GpxExtension.class);
+        if (metrics.contains(TEMPERATURE)) {
+            extensions.add(GpxExtension.TEMPERATURE);
+        }
+        if (metrics.contains(HEART_RATE)) {
+            extensions.add(GpxExtension.HEART_RATE);
+        }
+        return extensions;
+    }
+}
@@ -1,13 +1,25 @@
 package ru.bulavin;
-import io.jenetics.jpx.Length;
 import io.jenetics.jpx.WayPoint;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Statistics of a track. By default every value is computed; constructors that take a set of {@link GpxMetric} groups
+ * compute only those, in one pass, and the getters of the other groups throw {@link IllegalStateException}.
+ */
 public class GpxStatistics {
+    private Set<GpxMetric> metrics = GpxMetric.ALL;
+
+    private Optional<Instant> startTime = Optional.empty();
+
     private Duration totalTimeMoving = Duration.ZERO;
     private Duration totalTimeStopped = Duration.ZERO;
 
@@ -21,8 +33,6 @@ public class GpxStatistics {
 
     private Optional<Double> maxAscent = Optional.empty();
     private Optional<Double> maxDescent = Optional.empty();
-    private double currentAscent = 0.0;
-    private double currentDescent = 0.0;
 
 
     private Optional<Double> minTemperature = Optional.empty();
@@ -31,208 +41,272 @@ public class GpxStatistics {
     private Optional<Integer> minHeartRate = Optional.empty();
     private Optional<Integer> maxHeartRate = Optional.empty();
     private Optional<Double> averageHeartRate = Optional.empty();
-    private int totalHeartRate = 0;
-    private int heartRateCount = 0;
+    private Optional<HeartRateHistogram> heartRateHistogram = Optional.empty();
+
+    public GpxStatistics(List<WayPoint> points) {
+        this(points, DistanceModel.VINCENTY);
+    }
+
+    public GpxStatistics(List<WayPoint> points, DistanceModel distanceModel) {
+        this(points, distanceModel, GpxMetric.ALL);
+    }
 
+    public GpxStatistics(List<WayPoint> points, DistanceModel distanceModel, Set<GpxMetric> metrics) {
+        calculateStatistics(points, distanceModel, metrics);
+    }
 
+    public GpxStatistics(TrackColumns columns) {
+        this(columns, DistanceModel.VINCENTY);
+    }
 
-    private static final double STOP_SPEED_THRESHOLD = 1.0 / 3.6; // 1 км/ч в м/с
+    public GpxStatistics(TrackColumns columns, DistanceModel distanceModel) {
+        this(columns, distanceModel, GpxMetric.ALL);
+    }
 
-    public GpxStatistics(List<WayPoint> points) {
-        calculateStatistics(points);
+    public GpxStatistics(TrackColumns columns, DistanceModel distanceModel, Set<GpxMetric> metrics) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i, point);
+            accumulator.accept(point);
+        }
+        copyFrom(accumulator);
+    }
+
+    /**
+     * Reads the points straight from the mapped file through one reused {@link TrackPoint}.
+     */
+    public GpxStatistics(BinaryTrack track, DistanceModel distanceModel) {
+        this(track, distanceModel, GpxMetric.ALL);
+    }
+
+    public GpxStatistics(BinaryTrack track, DistanceModel distanceModel, Set<GpxMetric> metrics) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+        track.forEach(accumulator);
+        copyFrom(accumulator);
+    }
+
+    GpxStatistics(GpxStatisticsAccumulator accumulator) {
+        copyFrom(accumulator);
+    }
+
+    private GpxStatistics() {
+    }
+
+    /**
+     * Binary form for {@link GpxStatisticsCache}, which only keeps complete statistics: absent values are written as NaN or {@link Integer#MIN_VALUE}.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(startTime.map(Instant::toEpochMilli).orElse(TrackPoint.NO_TIME));
+        out.writeDouble(totalDistanceToKilometers);
+        out.writeLong(totalTimeMoving.toMillis());
+        out.writeLong(totalTimeStopped.toMillis());
+        out.writeDouble(dirtyAverageSpeed);
+        out.writeDouble(cleanAverageSpeed);
+        out.writeDouble(minElevation.orElse(Double.NaN));
+        out.writeDouble(maxElevation.orElse(Double.NaN));
+        out.writeDouble(maxAscent.orElse(Double.NaN));
+        out.writeDouble(maxDescent.orElse(Double.NaN));
+        out.writeDouble(minTemperature.orElse(Double.NaN));
+        out.writeDouble(maxTemperature.orElse(Double.NaN));
+        out.writeInt(minHeartRate.orElse(Integer.MIN_VALUE));
+        out.writeInt(maxHeartRate.orElse(Integer.MIN_VALUE));
+        out.writeDouble(averageHeartRate.orElse(Double.NaN));
+        HeartRateHistogram.writeTo(heartRateHistogram.orElse(null), out);
+    }
+
+    static GpxStatistics readFrom(DataInput in) throws IOException {
+        GpxStatistics statistics = new GpxStatistics();
+        statistics.startTime = optionalTime(in.readLong());
+        statistics.totalDistanceToKilometers = in.readDouble();
+        statistics.totalTimeMoving = Duration.ofMillis(in.readLong());
+        statistics.totalTimeStopped = Duration.ofMillis(in.readLong());
+        statistics.dirtyAverageSpeed = in.readDouble();
+        statistics.cleanAverageSpeed = in.readDouble();
+        statistics.minElevation = optionalOf(in.readDouble());
+        statistics.maxElevation = optionalOf(in.readDouble());
+        statistics.maxAscent = optionalOf(in.readDouble());
+        statistics.maxDescent = optionalOf(in.readDouble());
+        statistics.minTemperature = optionalOf(in.readDouble());
+        statistics.maxTemperature = optionalOf(in.readDouble());
+        statistics.minHeartRate = optionalOf(in.readInt());
+        statistics.maxHeartRate = optionalOf(in.readInt());
+        statistics.averageHeartRate = optionalOf(in.readDouble());
+        statistics.heartRateHistogram = Optional.ofNullable(HeartRateHistogram.readFrom(in));
+        return statistics;
+    }
+
+    public static GpxStatistics parallel(TrackColumns columns, DistanceModel distanceModel) {
+        return parallel(columns, distanceModel, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Splits the track across {@code pool}. The result is bit-identical to {@link #GpxStatistics(TrackColumns, DistanceModel)}.
+     */
+    public static GpxStatistics parallel(TrackColumns columns, DistanceModel distanceModel, ForkJoinPool pool) {
+        GpxStatisticsTask task = new GpxStatisticsTask(columns, distanceModel, 0, columns.size(), GpxStatisticsTask.DEFAULT_THRESHOLD);
+        return pool.invoke(task).toStatistics();
+    }
+
+    /**
+     * Groups that were computed, {@link GpxMetric#ALL} unless a selection was given.
+     */
+    public Set<GpxMetric> getMetrics() {
+        return metrics;
+    }
+
+    public boolean has(GpxMetric metric) {
+        return metrics.contains(metric);
+    }
+
+    /**
+     * Time of the first point that has one.
+     */
+    public Optional<Instant> getStartTime() {
+        return startTime;
     }
 
     public Duration getTotalTimeMoving() {
+        require(GpxMetric.TIME);
         return totalTimeMoving;
     }
 
     public Duration getTotalTimeStopped() {
+        require(GpxMetric.TIME);
         return totalTimeStopped;
     }
 
     public double getTotalDistance() {
+        require(GpxMetric.DISTANCE);
         return totalDistanceToKilometers;
     }
 
     public double getDirtyAverageSpeed() {
+        require(GpxMetric.DISTANCE);
+        require(GpxMetric.TIME);
         return dirtyAverageSpeed;
     }
 
     public double getCleanAverageSpeed() {
+        require(GpxMetric.DISTANCE);
+        require(GpxMetric.TIME);
         return cleanAverageSpeed;
     }
 
     public Optional<Double> getMinElevation() {
+        require(GpxMetric.ELEVATION);
         return minElevation;
     }
 
     public Optional<Double> getMaxElevation() {
+        require(GpxMetric.ELEVATION);
         return maxElevation;
     }
 
     public Optional<Double> getMaxAscent() {
+        require(GpxMetric.ELEVATION);
         return maxAscent;
     }
 
     public Optional<Double> getMaxDescent() {
+        require(GpxMetric.ELEVATION);
         return maxDescent;
     }
 
     public Optional<Double> getMinTemperature() {
+        require(GpxMetric.TEMPERATURE);
         return minTemperature;
     }
 
     public Optional<Double> getMaxTemperature() {
+        require(GpxMetric.TEMPERATURE);
         return maxTemperature;
     }
 
     public Optional<Integer> getMinHeartRate() {
+        require(GpxMetric.HEART_RATE);
         return minHeartRate;
     }
 
     public Optional<Integer> getMaxHeartRate() {
+        require(GpxMetric.HEART_RATE);
         return maxHeartRate;
     }
 
     public Optional<Double> getAverageHeartRate() {
+        require(GpxMetric.HEART_RATE);
         return averageHeartRate;
     }
 
+    /**
+     * Time at each heart rate, for zones and TRIMP. Empty unless at least two timed points carry heart rate.
+     */
+    public Optional<HeartRateHistogram> getHeartRateHistogram() {
+        require(GpxMetric.HEART_RATE);
+        return heartRateHistogram;
+    }
 
-    private void calculateStatistics(List<WayPoint> points) {
-        WayPoint firstPoint = points.getFirst();
-        initElevationStats(firstPoint);
-        initTemperatureStats(firstPoint);
-        initHeartRateStats(firstPoint);
-        initAscentAndDescent();
-
-        for (int i = 1; i < points.size(); i++) {
-            WayPoint currentPoint = points.get(i);
-            WayPoint prevPoint = points.get(i - 1);
-
-            calculateTotalDistance(currentPoint, prevPoint);
-            calculateTimeStats(currentPoint, prevPoint);
-            calculateElevationStats(currentPoint, prevPoint);
-            calculateTemperatureStats(currentPoint);
-            calculateHeartRateStats(currentPoint);
-        }
-
-        calculateAverageSpeeds();
-        if (heartRateCount > 0) {
-            averageHeartRate = Optional.of((double) totalHeartRate / heartRateCount);
-        }
+    public List<Duration> getTimeInZones(HeartRateZones zones) {
+        return getHeartRateHistogram().map(histogram -> histogram.timeInZones(zones)).orElse(List.of());
     }
 
-    private void calculateTotalDistance(WayPoint currentPoint, WayPoint prevPoint) {
-        double distanceToMeters = currentPoint.distance(prevPoint).doubleValue();
-        double distanceToKilometers = distanceToMeters / 1000;
-        totalDistanceToKilometers += distanceToKilometers;
+    public Optional<Double> getTrimp(HeartRateZones zones) {
+        return getHeartRateHistogram().map(histogram -> histogram.trimp(zones));
     }
 
-    private void calculateTimeStats(WayPoint currentPoint, WayPoint prevPoint) {
-        Optional<Instant> currentTime = currentPoint.getTime();
-        Optional<Instant> prevTime = prevPoint.getTime();
-        if (currentTime.isPresent() && prevTime.isPresent()) {
-            Duration duration = Duration.between(prevTime.get(), currentTime.get());
-            double distanceToMeters = currentPoint.distance(prevPoint).doubleValue();
-            double timeInSeconds = duration.toSeconds();
-            double speed = distanceToMeters / timeInSeconds;
 
-            if (speed > STOP_SPEED_THRESHOLD) {
-                totalTimeMoving = totalTimeMoving.plus(duration);
-            } else {
-                totalTimeStopped = totalTimeStopped.plus(duration);
-            }
+    private void calculateStatistics(List<WayPoint> points, DistanceModel distanceModel, Set<GpxMetric> metrics) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+        GpxExtensionValues extensionValues = new GpxExtensionValues(GpxMetric.extensions(metrics));
+        TrackPoint trackPoint = new TrackPoint();
+        for (WayPoint point : points) {
+            trackPoint.set(point, extensionValues);
+            accumulator.accept(trackPoint);
         }
+        copyFrom(accumulator);
     }
 
-    private void initElevationStats(WayPoint firstPoint) {
-        Optional<Double> currentElevation = firstPoint.getElevation().map(Length::doubleValue);
-        if (currentElevation.isPresent()) {
-            maxElevation = currentElevation;
-            minElevation = currentElevation;
+    private void copyFrom(GpxStatisticsAccumulator accumulator) {
+        metrics = accumulator.getMetrics();
+        startTime = optionalTime(accumulator.getStartTime());
+        totalDistanceToKilometers = accumulator.getTotalDistanceToKilometers();
+        totalTimeMoving = Duration.ofMillis(accumulator.getTotalTimeMovingMillis());
+        totalTimeStopped = Duration.ofMillis(accumulator.getTotalTimeStoppedMillis());
+
+        minElevation = optionalOf(accumulator.getMinElevation());
+        maxElevation = optionalOf(accumulator.getMaxElevation());
+        maxAscent = optionalOf(accumulator.getMaxAscent());
+        maxDescent = optionalOf(accumulator.getMaxDescent());
+
+        minTemperature = optionalOf(accumulator.getMinTemperature());
+        maxTemperature = optionalOf(accumulator.getMaxTemperature());
+
+        if (accumulator.getHeartRateCount() > 0) {
+            minHeartRate = Optional.of(accumulator.getMinHeartRate());
+            maxHeartRate = Optional.of(accumulator.getMaxHeartRate());
+            averageHeartRate = Optional.of((double) accumulator.getTotalHeartRate() / accumulator.getHeartRateCount());
         }
-    }
+        heartRateHistogram = Optional.ofNullable(accumulator.getHeartRateHistogram());
 
-    private void initAscentAndDescent() {
-        maxAscent = Optional.of(0.0);
-        maxDescent = Optional.of(0.0);
-    }
-
-    private void calculateElevationStats(WayPoint currentPoint, WayPoint prevPoint) {
-        Optional<Double> currentElevation = currentPoint.getElevation().map(Length::doubleValue);
-        Optional<Double> prevElevation = prevPoint.getElevation().map(Length::doubleValue);
-        if (currentElevation.isPresent() && prevElevation.isPresent()) {
-            double elevationDifference = currentElevation.get() - prevElevation.get();
-            if (elevationDifference > 0) {
-                currentAscent += elevationDifference;
-                if(maxAscent.isEmpty() || currentAscent > maxAscent.get()) {
-                    maxAscent = Optional.of(currentAscent);
-                }
-                currentDescent = 0;
-            }
-            else
-                if (elevationDifference < 0) {
-                    currentDescent -= elevationDifference;
-                    if(maxDescent.isEmpty() || currentDescent > maxDescent.get()) {
-                        maxDescent = Optional.of(currentDescent);
-                    }
-                    currentAscent = 0;
-
-                }
-        }
-        if (currentElevation.isPresent()) {
-            if(maxElevation.isEmpty() || currentElevation.get() > maxElevation.get()) {
-                maxElevation = currentElevation;
-            }
-            if(minElevation.isEmpty() || currentElevation.get() < minElevation.get()) {
-                minElevation = currentElevation;
-            }
-        }
+        calculateAverageSpeeds();
     }
 
-    private void initTemperatureStats(WayPoint firstPoint) {
-        Optional<Double> temperature = GpxHelper.getExtensionValueAsDouble(firstPoint, "temp");
-        if (temperature.isPresent()) {
-            minTemperature = temperature;
-            maxTemperature = temperature;
+    private void require(GpxMetric metric) {
+        if (!metrics.contains(metric)) {
+            throw new IllegalStateException(metric + " was not computed, metrics: " + metrics);
         }
     }
 
-    private void calculateTemperatureStats(WayPoint currentPoint) {
-        Optional<Double> temperature = GpxHelper.getExtensionValueAsDouble(currentPoint, "temp");
-        if (temperature.isPresent()) {
-            if (minTemperature.isEmpty() || temperature.get() < minTemperature.get()) {
-                minTemperature = temperature;
-            }
-            if (maxTemperature.isEmpty() || temperature.get() > maxTemperature.get()) {
-                maxTemperature = temperature;
-            }
-        }
+    private static Optional<Double> optionalOf(double value) {
+        return Double.isNaN(value) ? Optional.empty() : Optional.of(value);
     }
 
-    private void initHeartRateStats(WayPoint firstPoint) {
-        Optional<Integer> heartRate = GpxHelper.getExtensionValueAsInt(firstPoint, "hr");
-        if (heartRate.isPresent()) {
-            minHeartRate = heartRate;
-            maxHeartRate = heartRate;
-            totalHeartRate += heartRate.get();
-            heartRateCount++;
-        }
+    private static Optional<Instant> optionalTime(long time) {
+        return time == TrackPoint.NO_TIME ? Optional.empty() : Optional.of(Instant.ofEpochMilli(time));
     }
 
-    private void calculateHeartRateStats(WayPoint currentPoint) {
-        Optional<Integer> heartRate = GpxHelper.getExtensionValueAsInt(currentPoint, "hr");
-        if (heartRate.isPresent()) {
-            totalHeartRate += heartRate.get();
-            heartRateCount++;
-            if (minHeartRate.isEmpty() || heartRate.get() < minHeartRate.get()) {
-                minHeartRate = heartRate;
-            }
-            if (maxHeartRate.isEmpty() || heartRate.get() > maxHeartRate.get()) {
-                maxHeartRate = heartRate;
-            }
-        }
+    private static Optional<Integer> optionalOf(int value) {
+        return value == Integer.MIN_VALUE ? Optional.empty() : Optional.of(value);
     }
 
     private void calculateAverageSpeeds() {
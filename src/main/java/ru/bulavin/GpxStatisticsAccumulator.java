@@ -0,0 +1,386 @@
+package ru.bulavin;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Incremental form of {@link GpxStatistics}: points are pushed one at a time and only the previous point is kept,
+ * so memory does not depend on the length of the track.
+ * <p>
+ * Accumulators over consecutive parts of a track can be merged with {@link #combine}. Distances and elevation runs
+ * are summed in whole micrometers, so the merged result is bit-identical to pushing all points into one accumulator,
+ * however the track was split.
+ * <p>
+ * An accumulator can be limited to some {@link GpxMetric} groups; work for the others is skipped in the same pass.
+ * Only accumulators with the same groups can be combined.
+ */
+public class GpxStatisticsAccumulator implements Consumer<TrackPoint> {
+    /**
+     * Longer intervals between heart rate samples, like a paused recording, are left out of the heart rate histogram.
+     */
+    public static final long MAX_HEART_RATE_INTERVAL_MILLIS = 5 * 60_000;
+
+    private final Segment segment;
+    private final Set<GpxMetric> metrics;
+    private final boolean distances;
+    private final boolean times;
+    private final boolean elevations;
+    private final boolean temperatures;
+    private final boolean heartRates;
+    private long pointCount = 0;
+
+    private final TrackPoint firstPoint = new TrackPoint();
+    private long startTime = TrackPoint.NO_TIME;
+
+    private long totalDistanceMicros = 0;
+    private long totalTimeMovingMillis = 0;
+    private long totalTimeStoppedMillis = 0;
+
+    private double minElevation = Double.NaN;
+    private double maxElevation = Double.NaN;
+
+    private final Run ascent = new Run();
+    private final Run descent = new Run();
+
+    private double minTemperature = Double.NaN;
+    private double maxTemperature = Double.NaN;
+
+    private int minHeartRate = TrackPoint.NO_HEART_RATE;
+    private int maxHeartRate = TrackPoint.NO_HEART_RATE;
+    private long totalHeartRate = 0;
+    private long heartRateCount = 0;
+
+    // Time per bpm, allocated with the first interval; see HeartRateHistogram
+    private long[] heartRateMillis;
+    private long firstHeartRateTime = TrackPoint.NO_TIME;
+    private long lastHeartRateTime = TrackPoint.NO_TIME;
+    private int lastHeartRate = TrackPoint.NO_HEART_RATE;
+
+    public GpxStatisticsAccumulator() {
+        this(DistanceModel.VINCENTY);
+    }
+
+    public GpxStatisticsAccumulator(DistanceModel distanceModel) {
+        this(distanceModel, GpxMetric.ALL);
+    }
+
+    public GpxStatisticsAccumulator(DistanceModel distanceModel, Set<GpxMetric> metrics) {
+        this.metrics = Set.copyOf(metrics);
+        segment = new Segment(distanceModel, GpxMetric.needsDistance(metrics));
+        distances = metrics.contains(GpxMetric.DISTANCE);
+        times = metrics.contains(GpxMetric.TIME);
+        elevations = metrics.contains(GpxMetric.ELEVATION);
+        temperatures = metrics.contains(GpxMetric.TEMPERATURE);
+        heartRates = metrics.contains(GpxMetric.HEART_RATE);
+    }
+
+    @Override
+    public void accept(TrackPoint point) {
+        accept(point, segment.advance(point));
+    }
+
+    /**
+     * Accepts a point that ends a part of the step {@code whole}, see {@link Segment#advancePart}.
+     */
+    void acceptPart(TrackPoint point, Segment whole) {
+        accept(point, segment.advancePart(point, whole));
+    }
+
+    private void accept(TrackPoint point, boolean segmentComplete) {
+        if (segmentComplete) {
+            calculateSegmentStats(segment);
+        } else {
+            copyPosition(point, firstPoint);
+        }
+        if (startTime == TrackPoint.NO_TIME && point.hasTime()) {
+            startTime = point.getTime();
+        }
+        if (elevations) {
+            calculateElevationStats(point);
+        }
+        if (temperatures) {
+            calculateTemperatureStats(point);
+        }
+        if (heartRates) {
+            calculateHeartRateStats(point);
+        }
+        pointCount++;
+    }
+
+    /**
+     * Appends the statistics of {@code next}, which must cover the points that directly follow the points of this
+     * accumulator. The segment between the last point here and the first point of {@code next} is computed here.
+     */
+    public GpxStatisticsAccumulator combine(GpxStatisticsAccumulator next) {
+        if (next.pointCount == 0) {
+            return this;
+        }
+        if (pointCount == 0) {
+            copyPosition(next.firstPoint, firstPoint);
+        } else if (segment.advance(next.firstPoint)) {
+            calculateSegmentStats(segment);
+        }
+        segment.continueFrom(next.segment);
+        pointCount += next.pointCount;
+        if (startTime == TrackPoint.NO_TIME) {
+            startTime = next.startTime;
+        }
+
+        totalDistanceMicros += next.totalDistanceMicros;
+        totalTimeMovingMillis += next.totalTimeMovingMillis;
+        totalTimeStoppedMillis += next.totalTimeStoppedMillis;
+
+        ascent.combine(next.ascent);
+        descent.combine(next.descent);
+
+        minElevation = min(minElevation, next.minElevation);
+        maxElevation = max(maxElevation, next.maxElevation);
+        minTemperature = min(minTemperature, next.minTemperature);
+        maxTemperature = max(maxTemperature, next.maxTemperature);
+
+        if (next.heartRateCount > 0) {
+            minHeartRate = heartRateCount == 0 ? next.minHeartRate : Math.min(minHeartRate, next.minHeartRate);
+            maxHeartRate = heartRateCount == 0 ? next.maxHeartRate : Math.max(maxHeartRate, next.maxHeartRate);
+            totalHeartRate += next.totalHeartRate;
+            heartRateCount += next.heartRateCount;
+        }
+        if (next.firstHeartRateTime != TrackPoint.NO_TIME) {
+            if (lastHeartRateTime == TrackPoint.NO_TIME) {
+                firstHeartRateTime = next.firstHeartRateTime;
+            } else {
+                addHeartRateTime(lastHeartRate, next.firstHeartRateTime - lastHeartRateTime);
+            }
+            lastHeartRateTime = next.lastHeartRateTime;
+            lastHeartRate = next.lastHeartRate;
+            if (next.heartRateMillis != null) {
+                if (heartRateMillis == null) {
+                    heartRateMillis = new long[HeartRateHistogram.SIZE];
+                }
+                HeartRateHistogram.add(heartRateMillis, next.heartRateMillis);
+            }
+        }
+        return this;
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    public DistanceModel getDistanceModel() {
+        return segment.getDistanceModel();
+    }
+
+    public Set<GpxMetric> getMetrics() {
+        return metrics;
+    }
+
+    public GpxStatistics toStatistics() {
+        return new GpxStatistics(this);
+    }
+
+    private void calculateSegmentStats(Segment segment) {
+        if (distances) {
+            totalDistanceMicros += Segment.toMicros(segment.getDistance());
+        }
+        if (times) {
+            calculateTimeStats(segment);
+        }
+        if (elevations) {
+            calculateAscentAndDescent(segment);
+        }
+    }
+
+    private void calculateTimeStats(Segment segment) {
+        if (segment.hasDuration()) {
+            if (segment.isMoving()) {
+                totalTimeMovingMillis += segment.getDuration();
+            } else {
+                totalTimeStoppedMillis += segment.getDuration();
+            }
+        }
+    }
+
+    private void calculateAscentAndDescent(Segment segment) {
+        if (segment.hasElevationDifference()) {
+            long elevationDifference = segment.getElevationDifferenceMicros();
+            if (elevationDifference > 0) {
+                ascent.add(elevationDifference);
+                descent.reset();
+            } else if (elevationDifference < 0) {
+                descent.add(-elevationDifference);
+                ascent.reset();
+            }
+        }
+    }
+
+    private void calculateElevationStats(TrackPoint point) {
+        if (point.hasElevation()) {
+            double elevation = point.getElevation();
+            if (Double.isNaN(maxElevation) || elevation > maxElevation) {
+                maxElevation = elevation;
+            }
+            if (Double.isNaN(minElevation) || elevation < minElevation) {
+                minElevation = elevation;
+            }
+        }
+    }
+
+    private void calculateTemperatureStats(TrackPoint point) {
+        if (point.hasTemperature()) {
+            double temperature = point.getTemperature();
+            if (Double.isNaN(minTemperature) || temperature < minTemperature) {
+                minTemperature = temperature;
+            }
+            if (Double.isNaN(maxTemperature) || temperature > maxTemperature) {
+                maxTemperature = temperature;
+            }
+        }
+    }
+
+    private void calculateHeartRateStats(TrackPoint point) {
+        if (point.hasHeartRate()) {
+            int heartRate = point.getHeartRate();
+            totalHeartRate += heartRate;
+            heartRateCount++;
+            if (minHeartRate == TrackPoint.NO_HEART_RATE || heartRate < minHeartRate) {
+                minHeartRate = heartRate;
+            }
+            if (maxHeartRate == TrackPoint.NO_HEART_RATE || heartRate > maxHeartRate) {
+                maxHeartRate = heartRate;
+            }
+            if (point.hasTime()) {
+                long time = point.getTime();
+                if (lastHeartRateTime == TrackPoint.NO_TIME) {
+                    firstHeartRateTime = time;
+                } else {
+                    addHeartRateTime(lastHeartRate, time - lastHeartRateTime);
+                }
+                lastHeartRateTime = time;
+                lastHeartRate = heartRate;
+            }
+        }
+    }
+
+    // The interval counts at the heart rate measured at its start
+    private void addHeartRateTime(int heartRate, long millis) {
+        if (millis <= 0 || millis > MAX_HEART_RATE_INTERVAL_MILLIS) {
+            return;
+        }
+        if (heartRateMillis == null) {
+            heartRateMillis = new long[HeartRateHistogram.SIZE];
+        }
+        heartRateMillis[HeartRateHistogram.bin(heartRate)] += millis;
+    }
+
+    private static void copyPosition(TrackPoint source, TrackPoint target) {
+        target.clear();
+        target.setLatitude(source.getLatitude());
+        target.setLongitude(source.getLongitude());
+        target.setElevation(source.getElevation());
+        target.setTime(source.getTime());
+    }
+
+    private static double min(double a, double b) {
+        return Double.isNaN(a) || b < a ? b : a;
+    }
+
+    private static double max(double a, double b) {
+        return Double.isNaN(a) || b > a ? b : a;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    double getTotalDistanceToKilometers() {
+        return totalDistanceMicros / 1_000_000_000.0;
+    }
+
+    long getTotalTimeMovingMillis() {
+        return totalTimeMovingMillis;
+    }
+
+    long getTotalTimeStoppedMillis() {
+        return totalTimeStoppedMillis;
+    }
+
+    double getMinElevation() {
+        return minElevation;
+    }
+
+    double getMaxElevation() {
+        return maxElevation;
+    }
+
+    double getMaxAscent() {
+        return pointCount == 0 ? Double.NaN : Segment.fromMicros(ascent.max);
+    }
+
+    double getMaxDescent() {
+        return pointCount == 0 ? Double.NaN : Segment.fromMicros(descent.max);
+    }
+
+    double getMinTemperature() {
+        return minTemperature;
+    }
+
+    double getMaxTemperature() {
+        return maxTemperature;
+    }
+
+    int getMinHeartRate() {
+        return minHeartRate;
+    }
+
+    int getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    long getTotalHeartRate() {
+        return totalHeartRate;
+    }
+
+    long getHeartRateCount() {
+        return heartRateCount;
+    }
+
+    HeartRateHistogram getHeartRateHistogram() {
+        return heartRateMillis != null ? new HeartRateHistogram(heartRateMillis.clone()) : null;
+    }
+
+    /**
+     * A run of climbing (or descending) that is broken by a step in the other direction. Besides the current run and
+     * the maximum it remembers the run before the first break, which continues the previous part's current run when
+     * two parts are combined.
+     */
+    private static final class Run {
+        private long leading = 0;
+        private boolean broken = false;
+        private long current = 0;
+        private long max = 0;
+
+        void add(long difference) {
+            current += difference;
+            if (!broken) {
+                leading += difference;
+            }
+            if (current > max) {
+                max = current;
+            }
+        }
+
+        void reset() {
+            current = 0;
+            broken = true;
+        }
+
+        void combine(Run next) {
+            max = Math.max(Math.max(max, next.max), current + next.leading);
+            current = next.broken ? next.current : current + next.current;
+            if (!broken) {
+                leading += next.leading;
+            }
+            broken |= next.broken;
+        }
+    }
+}
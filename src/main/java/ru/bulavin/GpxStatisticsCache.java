@@ -0,0 +1,265 @@
+package ru.bulavin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of statistics, one small binary file per analyzed GPX content. The key is the XXH64 hash and length
+ * of the file plus everything that changes the numbers: {@link #ANALYZER_VERSION}, {@link Segment#STOP_SPEED_THRESHOLD},
+ * the distance model and the preprocessing. The directory is kept under a byte limit by evicting the least recently
+ * used entries; recency survives restarts through the modification time of the entry files.
+ */
+public class GpxStatisticsCache {
+    /**
+     * Bump when the statistics for the same input change, so that old entries are no longer found.
+     */
+    public static final int ANALYZER_VERSION = 3;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int MAGIC = 0x47505853; // "GPXS"
+    private static final String SUFFIX = ".stats";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private GpxStatisticsCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".gpx-analyzer", "cache");
+    }
+
+    /**
+     * Opens (creating if needed) the cache in {@code directory} and indexes the entries already there.
+     */
+    public static GpxStatisticsCache open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        GpxStatisticsCache cache = new GpxStatisticsCache(directory, maxBytes);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+        record Existing(Path path, FileTime modified, long size) {
+        }
+        List<Existing> existing = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                existing.add(new Existing(file, Files.getLastModifiedTime(file), Files.size(file)));
+            } catch (NoSuchFileException e) {
+                // removed concurrently
+            }
+        }
+        existing.sort(Comparator.comparing(Existing::modified));
+        synchronized (cache) {
+            for (Existing entry : existing) {
+                cache.entries.put(entry.path().getFileName().toString(), entry.size());
+                cache.totalBytes += entry.size();
+            }
+            cache.evict();
+        }
+        return cache;
+    }
+
+    /**
+     * Hashes {@code file}; the key is only valid as long as the file does not change.
+     */
+    public Key key(Path file, DistanceModel distanceModel) throws IOException {
+        return key(file, distanceModel, TrackPreprocessing.NONE);
+    }
+
+    public Key key(Path file, DistanceModel distanceModel, TrackPreprocessing preprocessing) throws IOException {
+        return new Key(ContentHash.hash(file), Files.size(file), distanceModel, preprocessing);
+    }
+
+    public Key key(byte[] content, DistanceModel distanceModel) {
+        return key(content, distanceModel, TrackPreprocessing.NONE);
+    }
+
+    public Key key(byte[] content, DistanceModel distanceModel, TrackPreprocessing preprocessing) {
+        return new Key(ContentHash.hash(content), content.length, distanceModel, preprocessing);
+    }
+
+    public Optional<Entry> get(Key key) {
+        String name = key.fileName();
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+        Path path = directory.resolve(name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != ANALYZER_VERSION || in.readLong() != key.contentHash()
+                    || in.readLong() != key.length() || in.readLong() != key.settings()) {
+                throw new IOException("Stale cache entry " + name);
+            }
+            long pointCount = in.readLong();
+            GpxStatistics statistics = GpxStatistics.readFrom(in);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.increment();
+            return Optional.of(new Entry(pointCount, statistics));
+        } catch (IOException e) {
+            remove(name);
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Only complete statistics are kept, so that an entry serves any selection of {@link GpxMetric} groups.
+     */
+    public void put(Key key, long pointCount, GpxStatistics statistics) throws IOException {
+        if (!statistics.getMetrics().containsAll(GpxMetric.ALL)) {
+            throw new IllegalArgumentException("Partial statistics are not cached: " + statistics.getMetrics());
+        }
+        String name = key.fileName();
+        Path path = directory.resolve(name);
+        Path temporary = Files.createTempFile(directory, name, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(ANALYZER_VERSION);
+                out.writeLong(key.contentHash());
+                out.writeLong(key.length());
+                out.writeLong(key.settings());
+                out.writeLong(pointCount);
+                statistics.writeTo(out);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        long size = Files.size(path);
+        synchronized (this) {
+            Long previous = entries.put(name, size);
+            totalBytes += size - (previous != null ? previous : 0);
+            evict();
+        }
+        stores.increment();
+    }
+
+    /**
+     * Cached statistics of {@code file}, or streams the file through a {@link GpxStatisticsAccumulator} and stores
+     * the result.
+     */
+    public Entry analyze(Path file, DistanceModel distanceModel) throws IOException {
+        Key key = key(file, distanceModel);
+        Optional<Entry> cached = get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel);
+        GpxStreamReader.read(file, accumulator);
+        Entry entry = new Entry(accumulator.getPointCount(), accumulator.toStatistics());
+        put(key, entry.pointCount(), entry.statistics());
+        return entry;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Called with the lock held
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            evictions.increment();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public record Key(long contentHash, long length, DistanceModel distanceModel, TrackPreprocessing preprocessing) {
+
+        long settings() {
+            byte[] model = distanceModel.name().getBytes(StandardCharsets.US_ASCII);
+            byte[] filters = preprocessing.spec().getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer settings = ByteBuffer.allocate(Integer.BYTES + Double.BYTES + model.length + filters.length)
+                    .putInt(ANALYZER_VERSION)
+                    .putDouble(Segment.STOP_SPEED_THRESHOLD)
+                    .put(model)
+                    .put(filters);
+            return ContentHash.hash(settings.array());
+        }
+
+        String fileName() {
+            return String.format("%016x-%x-%016x%s", contentHash, length, settings(), SUFFIX);
+        }
+    }
+
+    public record Entry(long pointCount, GpxStatistics statistics) {
+    }
+}
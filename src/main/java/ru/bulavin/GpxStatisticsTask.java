@@ -0,0 +1,47 @@
+package ru.bulavin;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join computation of the statistics over a range of {@link TrackColumns}. Ranges are halved until they are
+ * small enough and the partial accumulators are combined left to right, which gives the same numbers as the
+ * sequential loop.
+ */
+class GpxStatisticsTask extends RecursiveTask<GpxStatisticsAccumulator> {
+    static final int DEFAULT_THRESHOLD = 1 << 16;
+    private static final long serialVersionUID = 1L;
+
+    // Tasks are never serialized, ForkJoinTask only happens to be Serializable
+    private final transient TrackColumns columns;
+    private final DistanceModel distanceModel;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    GpxStatisticsTask(TrackColumns columns, DistanceModel distanceModel, int from, int to, int threshold) {
+        this.columns = columns;
+        this.distanceModel = distanceModel;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected GpxStatisticsAccumulator compute() {
+        if (to - from <= threshold) {
+            GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel);
+            TrackPoint point = new TrackPoint();
+            for (int i = from; i < to; i++) {
+                columns.get(i, point);
+                accumulator.accept(point);
+            }
+            return accumulator;
+        }
+        int middle = (from + to) >>> 1;
+        GpxStatisticsTask left = new GpxStatisticsTask(columns, distanceModel, from, middle, threshold);
+        GpxStatisticsTask right = new GpxStatisticsTask(columns, distanceModel, middle, to, threshold);
+        right.fork();
+        GpxStatisticsAccumulator result = left.compute();
+        return result.combine(right.join());
+    }
+}
@@ -0,0 +1,241 @@
+package ru.bulavin;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Pulls {@code trkpt} elements from a GPX document with StAX one at a time, without building the jpx object model.
+ * Track points are delivered in the same order as {@code gpx.tracks().flatMap(Track::segments).flatMap(TrackSegment::points)}.
+ */
+public class GpxStreamReader {
+    // What the statistics use; a malformed value of any other extension does not fail the document
+    private static final Set<GpxExtension> DEFAULT_EXTENSIONS = GpxMetric.extensions(GpxMetric.ALL);
+
+    public static GpxStatistics readStatistics(Path path) throws IOException {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        read(path, accumulator);
+        return accumulator.toStatistics();
+    }
+
+    /**
+     * Computes only {@code metrics}; extensions the groups do not need are skipped without being parsed.
+     */
+    public static GpxStatistics readStatistics(Path path, DistanceModel distanceModel, Set<GpxMetric> metrics) throws IOException {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+        read(path, GpxMetric.extensions(metrics), accumulator);
+        return accumulator.toStatistics();
+    }
+
+    /**
+     * Reads temperature and heart rate, the extensions {@link GpxStatistics} uses; the others are left absent.
+     */
+    public static void read(Path path, Consumer<TrackPoint> consumer) throws IOException {
+        read(path, DEFAULT_EXTENSIONS, consumer);
+    }
+
+    public static void read(Path path, Set<GpxExtension> extensions, Consumer<TrackPoint> consumer) throws IOException {
+        read(path, extensions, consumer, null);
+    }
+
+    public static void read(Path path, Set<GpxExtension> extensions, Consumer<TrackPoint> consumer,
+                            Consumer<GpxDiagnostic> diagnostics) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            read(in, extensions, consumer, diagnostics);
+        }
+    }
+
+    /**
+     * Reads temperature and heart rate, like {@link #read(Path, Consumer)}.
+     */
+    public static void read(InputStream in, Consumer<TrackPoint> consumer) throws IOException {
+        read(in, DEFAULT_EXTENSIONS, consumer);
+    }
+
+    /**
+     * Reads only the given {@code extensions}, the others are left absent in the points.
+     */
+    public static void read(InputStream in, Set<GpxExtension> extensions, Consumer<TrackPoint> consumer) throws IOException {
+        read(in, extensions, consumer, null);
+    }
+
+    /**
+     * With {@code diagnostics}, values that do not parse are reported as {@link GpxDiagnostic.Kind#MALFORMED_VALUE}
+     * and left absent instead of failing the whole document; a point with a malformed coordinate gets NaN there and
+     * is still passed on, so that point numbers stay those of the file. Without, the first such value fails it.
+     */
+    public static void read(InputStream in, Set<GpxExtension> extensions, Consumer<TrackPoint> consumer,
+                            Consumer<GpxDiagnostic> diagnostics) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = createFactory().createXMLStreamReader(in);
+            readPoints(reader, extensions, consumer, diagnostics);
+        } catch (XMLStreamException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Invalid GPX: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    private static void readPoints(XMLStreamReader reader, Set<GpxExtension> extensions, Consumer<TrackPoint> consumer,
+                                   Consumer<GpxDiagnostic> diagnostics) throws XMLStreamException {
+        boolean anyExtension = !extensions.isEmpty();
+        TrackPoint point = new TrackPoint();
+        long index = -1;
+        boolean inTrack = false;
+        boolean inPoint = false;
+        boolean inExtensions = false;
+        long extensionHits = 0;
+        long extensionMisses = 0;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (inExtensions) {
+                    if (readExtension(reader, name, extensions, point, index, diagnostics)) {
+                        extensionHits++;
+                    } else {
+                        extensionMisses++;
+                    }
+                } else if (inPoint) {
+                    switch (name) {
+                        case "ele" -> point.setElevation(parseNumber(readText(reader), "ele", index, diagnostics));
+                        case "time" -> point.setTime(parseTime(readText(reader), index, diagnostics));
+                        case "extensions" -> {
+                            if (anyExtension) {
+                                inExtensions = true;
+                            } else {
+                                skipElement(reader);
+                            }
+                        }
+                        default -> skipElement(reader);
+                    }
+                } else if (inTrack && name.equals("trkpt")) {
+                    inPoint = true;
+                    index++;
+                    point.clear();
+                    point.setLatitude(parseNumber(reader.getAttributeValue(null, "lat"), "lat", index, diagnostics));
+                    point.setLongitude(parseNumber(reader.getAttributeValue(null, "lon"), "lon", index, diagnostics));
+                } else if (name.equals("trk")) {
+                    inTrack = true;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+                if (inExtensions) {
+                    inExtensions = !name.equals("extensions");
+                } else if (inPoint && name.equals("trkpt")) {
+                    inPoint = false;
+                    consumer.accept(point);
+                } else if (name.equals("trk")) {
+                    inTrack = false;
+                }
+            }
+        }
+        PipelineMetrics.extensions(extensionHits, extensionMisses);
+    }
+
+    // Same lookup as GpxHelper: the first element with the wanted local name anywhere inside <extensions>
+    private static boolean readExtension(XMLStreamReader reader, String name, Set<GpxExtension> extensions, TrackPoint point,
+                                         long index, Consumer<GpxDiagnostic> diagnostics) throws XMLStreamException {
+        GpxExtension extension = GpxExtension.ofLocalName(name);
+        if (extension != null && extensions.contains(extension) && !point.hasExtension(extension)) {
+            double value = parseNumber(readText(reader), name, index, diagnostics);
+            if (!Double.isNaN(value)) {
+                point.setExtension(extension, value);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static double parseNumber(String text, String field, long index, Consumer<GpxDiagnostic> diagnostics) {
+        try {
+            if (text == null) {
+                throw new IllegalArgumentException("no " + field);
+            }
+            return Double.parseDouble(text.trim());
+        } catch (IllegalArgumentException e) {
+            if (diagnostics == null) {
+                throw e;
+            }
+            diagnostics.accept(new GpxDiagnostic(index, GpxDiagnostic.Kind.MALFORMED_VALUE, GpxDiagnostic.Action.CLEARED, field + "=" + text));
+            return Double.NaN;
+        }
+    }
+
+    private static long parseTime(String text, long index, Consumer<GpxDiagnostic> diagnostics) {
+        try {
+            return parseTime(text.trim());
+        } catch (DateTimeParseException e) {
+            if (diagnostics == null) {
+                throw e;
+            }
+            diagnostics.accept(new GpxDiagnostic(index, GpxDiagnostic.Kind.MALFORMED_VALUE, GpxDiagnostic.Action.CLEARED, "time=" + text));
+            return TrackPoint.NO_TIME;
+        }
+    }
+
+    // Concatenated text of the current element and its descendants, like Node.getTextContent()
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> text.append(reader.getText());
+                default -> {
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    static long parseTime(String text) {
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+    }
+}
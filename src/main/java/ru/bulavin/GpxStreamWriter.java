@@ -0,0 +1,133 @@
+package ru.bulavin;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Writes points as a single-track, single-segment GPX 1.1 document with StAX as they arrive. Heart rate, temperature,
+ * cadence and ambient temperature go into the Garmin TrackPointExtension, power next to it, which is where
+ * {@link GpxStreamReader} and other readers look for them.
+ */
+public class GpxStreamWriter implements Consumer<TrackPoint>, Closeable {
+    private static final String GPX_NAMESPACE = "http://www.topografix.com/GPX/1/1";
+    private static final String TPX_NAMESPACE = "http://www.garmin.com/xmlschemas/TrackPointExtension/v1";
+    private static final GpxExtension[] TPX_EXTENSIONS = {
+            GpxExtension.TEMPERATURE, GpxExtension.AMBIENT_TEMPERATURE, GpxExtension.HEART_RATE, GpxExtension.CADENCE};
+
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+
+    public GpxStreamWriter(Path path, String trackName) throws IOException {
+        this(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024), trackName);
+    }
+
+    /**
+     * Takes ownership of {@code out}, which is closed by {@link #close()}.
+     */
+    public GpxStreamWriter(OutputStream out, String trackName) throws IOException {
+        this.out = out;
+        try {
+            writer = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.setDefaultNamespace(GPX_NAMESPACE);
+            writer.setPrefix("gpxtpx", TPX_NAMESPACE);
+            writer.writeStartElement(GPX_NAMESPACE, "gpx");
+            writer.writeDefaultNamespace(GPX_NAMESPACE);
+            writer.writeNamespace("gpxtpx", TPX_NAMESPACE);
+            writer.writeAttribute("version", "1.1");
+            writer.writeAttribute("creator", "GpxAnalyzer");
+            writer.writeCharacters("\n");
+            writer.writeStartElement(GPX_NAMESPACE, "trk");
+            if (trackName != null) {
+                writeElement(GPX_NAMESPACE, "name", trackName);
+            }
+            writer.writeStartElement(GPX_NAMESPACE, "trkseg");
+            writer.writeCharacters("\n");
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot write GPX: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void accept(TrackPoint point) {
+        try {
+            writer.writeStartElement(GPX_NAMESPACE, "trkpt");
+            writer.writeAttribute("lat", String.valueOf(point.getLatitude()));
+            writer.writeAttribute("lon", String.valueOf(point.getLongitude()));
+            if (point.hasElevation()) {
+                writeElement(GPX_NAMESPACE, "ele", String.valueOf(point.getElevation()));
+            }
+            if (point.hasTime()) {
+                writeElement(GPX_NAMESPACE, "time", Instant.ofEpochMilli(point.getTime()).toString());
+            }
+            writeExtensions(point);
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+        } catch (XMLStreamException e) {
+            throw new UncheckedIOException(new IOException("Cannot write GPX: " + e.getMessage(), e));
+        }
+    }
+
+    private void writeExtensions(TrackPoint point) throws XMLStreamException {
+        boolean tpx = false;
+        for (GpxExtension extension : TPX_EXTENSIONS) {
+            tpx |= point.hasExtension(extension);
+        }
+        if (!tpx && !point.hasPower()) {
+            return;
+        }
+        writer.writeStartElement(GPX_NAMESPACE, "extensions");
+        if (tpx) {
+            writer.writeStartElement(TPX_NAMESPACE, "TrackPointExtension");
+            for (GpxExtension extension : TPX_EXTENSIONS) {
+                if (point.hasExtension(extension)) {
+                    writeElement(TPX_NAMESPACE, extension.getLocalName(), format(extension, point.getExtension(extension)));
+                }
+            }
+            writer.writeEndElement();
+        }
+        if (point.hasPower()) {
+            writeElement(GPX_NAMESPACE, GpxExtension.POWER.getLocalName(), format(GpxExtension.POWER, point.getPower()));
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeElement(String namespace, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(namespace, name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    // Whole numbers without ".0", as devices write them
+    private static String format(GpxExtension extension, double value) {
+        if (extension == GpxExtension.HEART_RATE || value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot write GPX: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.bulavin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Follows a GPX file that is being written. Each {@link #poll} reads only the bytes added since the previous one, up
+ * to the last complete {@code </trkpt>}, and parses them as a small document: the original prolog and {@code <gpx>}
+ * start tag (so that namespace prefixes resolve), the new bytes inside {@code <trk><trkseg>}, and closing tags.
+ * Boundaries always fall right after a track point, so the wrapped fragment is balanced even when it crosses into a
+ * new segment or track.
+ */
+public class GpxTailReader {
+    private static final int WINDOW_SIZE = 8 * 1024 * 1024;
+    private static final byte[] POINT_END = "</trkpt>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPENING = "<trk><trkseg>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSING = "</trkseg></trk></gpx>".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path path;
+    private long offset = 0;
+    private byte[] header;
+
+    public GpxTailReader(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Pushes the points completed since the last call to {@code consumer} and returns how many there were.
+     *
+     * @throws IOException if the file is invalid or got shorter than what was already read
+     */
+    public long poll(Consumer<TrackPoint> consumer) throws IOException {
+        long[] count = {0};
+        Consumer<TrackPoint> counting = point -> {
+            count[0]++;
+            consumer.accept(point);
+        };
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                throw new IOException("GPX file was truncated: " + path);
+            }
+            while (offset < size) {
+                byte[] window = read(channel, offset, (int) Math.min(WINDOW_SIZE, size - offset));
+                int end = lastIndexOf(window, POINT_END);
+                if (end < 0) {
+                    break;
+                }
+                int length = end + POINT_END.length;
+                GpxStreamReader.read(document(window, length), counting);
+                offset += length;
+            }
+        }
+        return count[0];
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    private InputStream document(byte[] window, int length) throws IOException {
+        InputStream points = new ByteArrayInputStream(window, 0, length);
+        if (header == null) {
+            header = findHeader(window, length);
+            return new SequenceInputStream(points, new ByteArrayInputStream(CLOSING));
+        }
+        List<InputStream> parts = List.of(new ByteArrayInputStream(header), new ByteArrayInputStream(OPENING),
+                points, new ByteArrayInputStream(CLOSING));
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    private static byte[] findHeader(byte[] start, int length) throws IOException {
+        int gpx = indexOf(start, "<gpx".getBytes(StandardCharsets.US_ASCII), length);
+        if (gpx >= 0) {
+            for (int i = gpx; i < length; i++) {
+                if (start[i] == '>') {
+                    return Arrays.copyOf(start, i + 1);
+                }
+            }
+        }
+        throw new IOException("Invalid GPX: no <gpx> element before the first track point");
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int length) {
+        for (int i = 0; i + pattern.length <= length; i++) {
+            if (matches(data, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] data, byte[] pattern) {
+        for (int i = data.length - pattern.length; i >= 0; i--) {
+            if (matches(data, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] data, int at, byte[] pattern) {
+        for (int j = 0; j < pattern.length; j++) {
+            if (data[at + j] != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
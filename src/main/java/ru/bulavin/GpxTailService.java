@@ -0,0 +1,111 @@
+package ru.bulavin;
+
+import javafx.concurrent.ScheduledService;
+import javafx.concurrent.Task;
+import javafx.util.Duration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Polls a growing GPX file and publishes a new {@link GpxAnalysis} whenever points were appended. Only the new bytes
+ * are parsed and the statistics are updated incrementally on every poll. The track copy, map simplification, best
+ * efforts and profile are rebuilt from the whole track, so they are only rebuilt once the track has grown by
+ * {@code 1/}{@value #REBUILD_GROWTH} or {@link #REBUILD_PERIOD} has passed; in between the previous ones are published
+ * again with the new statistics.
+ */
+public final class GpxTailService extends ScheduledService<GpxAnalysis> {
+    public static final Duration DEFAULT_PERIOD = Duration.seconds(1);
+    static final int REBUILD_GROWTH = 4;
+    static final Duration REBUILD_PERIOD = Duration.seconds(15);
+
+    private FollowedFile followed;
+    private TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+
+    public GpxTailService() {
+        setPeriod(DEFAULT_PERIOD);
+        setRestartOnFailure(false);
+    }
+
+    /**
+     * Filtering for the files followed from now on. Stages that look ahead, like the elevation median, hold the last
+     * few points back until more arrive.
+     */
+    public void setPreprocessing(TrackPreprocessing preprocessing) {
+        this.preprocessing = preprocessing;
+    }
+
+    /**
+     * Starts following {@code file} from its beginning, dropping whatever was followed before.
+     */
+    public void follow(Path file) {
+        followed = new FollowedFile(file, preprocessing);
+        restart();
+    }
+
+    @Override
+    protected Task<GpxAnalysis> createTask() {
+        FollowedFile followed = this.followed;
+        return new Task<>() {
+            @Override
+            protected GpxAnalysis call() throws IOException {
+                return followed.poll();
+            }
+        };
+    }
+
+    // Polled by one task at a time, a new file gets a new instance so a cancelled poll cannot mix into it
+    private static class FollowedFile {
+        private final Path file;
+        private final GpxTailReader reader;
+        private final LiveGpxStatistics statistics = new LiveGpxStatistics();
+        private final TrackFilter filter;
+        private final TrackColumns.Builder track = TrackColumns.builder();
+        private GpxAnalysis analysis;
+        private long rebuilt;
+
+        FollowedFile(Path file, TrackPreprocessing preprocessing) {
+            this.file = file;
+            reader = new GpxTailReader(file);
+            filter = preprocessing.chain(DistanceModel.VINCENTY, statistics::append);
+        }
+
+        synchronized GpxAnalysis poll() throws IOException {
+            long offset = reader.getOffset();
+            PipelineMetrics.Timer readTimer = PipelineMetrics.start(PipelineMetrics.Stage.READ).file(file);
+            PipelineMetrics.Timer statisticsTimer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS).file(file);
+            Consumer<TrackPoint> sampled = statisticsTimer.sample(filter);
+            long added = reader.poll(point -> {
+                sampled.accept(point);
+                track.accept(point);
+            });
+            statisticsTimer.close();
+            readTimer.exclude(statisticsTimer).points(added).bytes(reader.getOffset() - offset).close();
+            if (analysis == null || rebuildDue()) {
+                rebuilt = System.nanoTime();
+                TrackColumns columns = track.build();
+                TrackSimplifier simplifier;
+                try (PipelineMetrics.Timer _ = PipelineMetrics.start(PipelineMetrics.Stage.SIMPLIFY).file(file).points(columns.size())) {
+                    simplifier = TrackSimplifier.of(columns);
+                }
+                List<BestEffort> efforts = BestEfforts.of(columns).find(EffortTarget.DEFAULTS);
+                TrackProfile profile = TrackProfile.of(columns);
+                analysis = new GpxAnalysis(statistics.snapshot(), columns.size(), columns, simplifier, profile, efforts);
+            } else if (added > 0) {
+                analysis = new GpxAnalysis(statistics.snapshot(), track.size(), analysis.track(), analysis.simplifier(),
+                        analysis.profile(), analysis.efforts());
+            }
+            return analysis;
+        }
+
+        // Rebuilds on growth by a fraction cost linear time in total, the period only bounds how stale the map gets,
+        // also when the file stops growing
+        private boolean rebuildDue() {
+            int shown = analysis.track().size();
+            return track.size() - shown >= Math.max(1, shown / REBUILD_GROWTH)
+                    || track.size() > shown && (System.nanoTime() - rebuilt) / 1e6 >= REBUILD_PERIOD.toMillis();
+        }
+    }
+}
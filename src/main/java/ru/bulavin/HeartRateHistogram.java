@@ -0,0 +1,161 @@
+package ru.bulavin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time spent at each heart rate, in milliseconds per 1 bpm bin. Each interval between two consecutive points with
+ * heart rate and time counts at the heart rate of its first point. Histograms of different tracks add up with
+ * {@link #merge}; zone times and TRIMP are derived from the bins, so any {@link HeartRateZones} can be applied later.
+ */
+public final class HeartRateHistogram {
+    /**
+     * Heart rates above this go into the last bin.
+     */
+    public static final int MAX_HEART_RATE = 255;
+    static final int SIZE = MAX_HEART_RATE + 1;
+
+    private final long[] millis;
+
+    // Takes ownership of the array
+    HeartRateHistogram(long[] millis) {
+        this.millis = millis;
+    }
+
+    public static HeartRateHistogram of(long[] millisPerHeartRate) {
+        if (millisPerHeartRate.length != SIZE) {
+            throw new IllegalArgumentException("Expected " + SIZE + " bins: " + millisPerHeartRate.length);
+        }
+        return new HeartRateHistogram(millisPerHeartRate.clone());
+    }
+
+    static int bin(int heartRate) {
+        return Math.clamp(heartRate, 0, MAX_HEART_RATE);
+    }
+
+    /**
+     * Adds {@code from} into {@code to} bin by bin.
+     */
+    static void add(long[] to, long[] from) {
+        for (int i = 0; i < SIZE; i++) {
+            to[i] += from[i];
+        }
+    }
+
+    public long getMillis(int heartRate) {
+        return millis[bin(heartRate)];
+    }
+
+    public Duration getTime(int heartRate) {
+        return Duration.ofMillis(getMillis(heartRate));
+    }
+
+    public Duration getTotalTime() {
+        long total = 0;
+        for (long value : millis) {
+            total += value;
+        }
+        return Duration.ofMillis(total);
+    }
+
+    public long[] toArray() {
+        return millis.clone();
+    }
+
+    /**
+     * Coarser histogram: bin {@code i} holds the time between {@code i * width} and {@code (i + 1) * width - 1} bpm.
+     */
+    public long[] bins(int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Bin width must be positive: " + width);
+        }
+        long[] bins = new long[(SIZE + width - 1) / width];
+        for (int i = 0; i < SIZE; i++) {
+            bins[i / width] += millis[i];
+        }
+        return bins;
+    }
+
+    public HeartRateHistogram merge(HeartRateHistogram other) {
+        long[] merged = millis.clone();
+        add(merged, other.millis);
+        return new HeartRateHistogram(merged);
+    }
+
+    /**
+     * Time in each zone, zone 0 first.
+     */
+    public List<Duration> timeInZones(HeartRateZones zones) {
+        long[] zoneMillis = new long[zones.getZoneCount()];
+        for (int i = 0; i < SIZE; i++) {
+            zoneMillis[zones.zoneOf(i)] += millis[i];
+        }
+        List<Duration> times = new ArrayList<>(zoneMillis.length);
+        for (long value : zoneMillis) {
+            times.add(Duration.ofMillis(value));
+        }
+        return times;
+    }
+
+    /**
+     * Banister training impulse, see {@link HeartRateZones#trimpPerMinute}.
+     */
+    public double trimp(HeartRateZones zones) {
+        double trimp = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (millis[i] > 0) {
+                trimp += millis[i] / 60_000.0 * zones.trimpPerMinute(i);
+            }
+        }
+        return trimp;
+    }
+
+    // Only the bins with time are written: a count, then bpm and millis pairs
+    static void writeTo(HeartRateHistogram histogram, DataOutput out) throws IOException {
+        if (histogram == null) {
+            out.writeShort(0);
+            return;
+        }
+        int count = 0;
+        for (long value : histogram.millis) {
+            if (value != 0) {
+                count++;
+            }
+        }
+        out.writeShort(count);
+        for (int i = 0; i < SIZE; i++) {
+            if (histogram.millis[i] != 0) {
+                out.writeByte(i);
+                out.writeLong(histogram.millis[i]);
+            }
+        }
+    }
+
+    static HeartRateHistogram readFrom(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        if (count == 0) {
+            return null;
+        }
+        long[] millis = new long[SIZE];
+        for (int i = 0; i < count; i++) {
+            int heartRate = in.readUnsignedByte();
+            millis[heartRate] = in.readLong();
+        }
+        return new HeartRateHistogram(millis);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HeartRateHistogram histogram && Arrays.equals(millis, histogram.millis);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(millis);
+    }
+}
@@ -0,0 +1,150 @@
+package ru.bulavin;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Heart rate zones and the Banister TRIMP coefficients of one athlete. Zones are given by their lower bounds in bpm;
+ * zone 0 is everything below the first bound.
+ */
+public final class HeartRateZones {
+    private static final double[] KARVONEN_PERCENTS = {0.5, 0.6, 0.7, 0.8, 0.9};
+
+    private final int restingHeartRate;
+    private final int maxHeartRate;
+    private final int[] lowerBounds;
+    private final boolean female;
+
+    private HeartRateZones(int restingHeartRate, int maxHeartRate, int[] lowerBounds, boolean female) {
+        if (restingHeartRate <= 0 || maxHeartRate <= restingHeartRate) {
+            throw new IllegalArgumentException("Expected 0 < resting < max heart rate: " + restingHeartRate + ", " + maxHeartRate);
+        }
+        for (int i = 0; i < lowerBounds.length; i++) {
+            if (lowerBounds[i] <= 0 || i > 0 && lowerBounds[i] <= lowerBounds[i - 1]) {
+                throw new IllegalArgumentException("Zone bounds must be positive and ascending: " + Arrays.toString(lowerBounds));
+            }
+        }
+        this.restingHeartRate = restingHeartRate;
+        this.maxHeartRate = maxHeartRate;
+        this.lowerBounds = lowerBounds;
+        this.female = female;
+    }
+
+    /**
+     * Five zones starting at 50, 60, 70, 80 and 90% of the heart rate reserve (Karvonen).
+     */
+    public static HeartRateZones of(int restingHeartRate, int maxHeartRate) {
+        int[] bounds = new int[KARVONEN_PERCENTS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = (int) Math.round(restingHeartRate + KARVONEN_PERCENTS[i] * (maxHeartRate - restingHeartRate));
+        }
+        return new HeartRateZones(restingHeartRate, maxHeartRate, bounds, false);
+    }
+
+    public static HeartRateZones of(int restingHeartRate, int maxHeartRate, int... lowerBounds) {
+        return new HeartRateZones(restingHeartRate, maxHeartRate, lowerBounds.clone(), false);
+    }
+
+    /**
+     * Parses {@code rest=60,max=190[,zones=120:140:155:170][,female]}. Without {@code zones} the Karvonen zones of
+     * {@link #of(int, int)} are used.
+     */
+    public static HeartRateZones parse(String spec) {
+        int rest = 0;
+        int max = 0;
+        int[] bounds = null;
+        boolean female = false;
+        for (String option : spec.split(",")) {
+            String[] parts = option.trim().split("=", 2);
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (name.equals("female") && parts.length == 1) {
+                female = true;
+                continue;
+            }
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected name=value: " + option);
+            }
+            String value = parts[1].trim();
+            switch (name) {
+                case "rest" -> rest = Integer.parseInt(value);
+                case "max" -> max = Integer.parseInt(value);
+                case "zones" -> bounds = Arrays.stream(value.split(":")).mapToInt(bound -> Integer.parseInt(bound.trim())).toArray();
+                default -> throw new IllegalArgumentException("Unknown heart rate option: " + parts[0]);
+            }
+        }
+        HeartRateZones zones = bounds != null ? of(rest, max, bounds) : of(rest, max);
+        return female ? zones.female() : zones;
+    }
+
+    /**
+     * Same zones with the TRIMP coefficients for women.
+     */
+    public HeartRateZones female() {
+        return new HeartRateZones(restingHeartRate, maxHeartRate, lowerBounds, true);
+    }
+
+    public int getRestingHeartRate() {
+        return restingHeartRate;
+    }
+
+    public int getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    /**
+     * Number of zones including zone 0.
+     */
+    public int getZoneCount() {
+        return lowerBounds.length + 1;
+    }
+
+    /**
+     * Lower bound of {@code zone} in bpm, 0 for zone 0.
+     */
+    public int getLowerBound(int zone) {
+        return zone == 0 ? 0 : lowerBounds[zone - 1];
+    }
+
+    public int zoneOf(int heartRate) {
+        int zone = Arrays.binarySearch(lowerBounds, heartRate);
+        return zone >= 0 ? zone + 1 : -zone - 1;
+    }
+
+    /**
+     * Banister TRIMP per minute spent at {@code heartRate}: the heart rate reserve fraction weighted by
+     * 0.64·e^(1.92·x), or 0.86·e^(1.67·x) for women. The fraction is clamped to [0, 1].
+     */
+    public double trimpPerMinute(int heartRate) {
+        double reserve = Math.clamp((double) (heartRate - restingHeartRate) / (maxHeartRate - restingHeartRate), 0.0, 1.0);
+        return female
+                ? reserve * 0.86 * Math.exp(1.67 * reserve)
+                : reserve * 0.64 * Math.exp(1.92 * reserve);
+    }
+
+    /**
+     * Canonical form accepted by {@link #parse}.
+     */
+    public String spec() {
+        StringJoiner bounds = new StringJoiner(":");
+        for (int bound : lowerBounds) {
+            bounds.add(String.valueOf(bound));
+        }
+        return "rest=" + restingHeartRate + ",max=" + maxHeartRate + ",zones=" + bounds + (female ? ",female" : "");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof HeartRateZones zones && spec().equals(zones.spec());
+    }
+
+    @Override
+    public int hashCode() {
+        return spec().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return spec();
+    }
+}
@@ -0,0 +1,88 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Statistics of a track that is still growing. Every append updates the running totals in O(1); {@link #snapshot()}
+ * copies them into a {@link GpxStatistics} and can be called from any thread while appends go on. Appends are
+ * serialized by a write lock, snapshots use an optimistic read and only block if an append happened meanwhile.
+ */
+public class LiveGpxStatistics {
+    private final GpxStatisticsAccumulator accumulator;
+    private final TrackPoint point = new TrackPoint();
+    private final StampedLock lock = new StampedLock();
+
+    public LiveGpxStatistics() {
+        this(DistanceModel.VINCENTY);
+    }
+
+    public LiveGpxStatistics(DistanceModel distanceModel) {
+        accumulator = new GpxStatisticsAccumulator(distanceModel);
+    }
+
+    public void append(WayPoint wayPoint) {
+        long stamp = lock.writeLock();
+        try {
+            point.set(wayPoint);
+            accumulator.accept(point);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void append(TrackPoint trackPoint) {
+        long stamp = lock.writeLock();
+        try {
+            accumulator.accept(trackPoint);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Appends points {@code from} (inclusive) to {@code to} (exclusive) of {@code columns} under one lock.
+     */
+    public void append(TrackColumns columns, int from, int to) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = from; i < to; i++) {
+                columns.get(i, point);
+                accumulator.accept(point);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public GpxStatistics snapshot() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            GpxStatistics statistics = accumulator.toStatistics();
+            if (lock.validate(stamp)) {
+                return statistics;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return accumulator.toStatistics();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getPointCount() {
+        long stamp = lock.tryOptimisticRead();
+        long pointCount = accumulator.getPointCount();
+        if (lock.validate(stamp)) {
+            return pointCount;
+        }
+        stamp = lock.readLock();
+        try {
+            return accumulator.getPointCount();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.bulavin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * Bridge object handed to map.html. The page asks for the points of the current view after every zoom or pan and
+ * gets them as Base64 of little-endian float32 latitude/longitude pairs, which it decodes into a Float32Array.
+ */
+public class MapTrack {
+    private final TrackSimplifier simplifier;
+
+    public MapTrack(TrackSimplifier simplifier) {
+        this.simplifier = simplifier;
+    }
+
+    public String points(int zoom, double south, double west, double north, double east) {
+        try (PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.SIMPLIFY)) {
+            float[] points = simplifier.simplify(zoom, south, west, north, east);
+            String encoded = encode(points);
+            timer.points(points.length / 2).bytes(encoded.length());
+            return encoded;
+        }
+    }
+
+    static String encode(float[] points) {
+        ByteBuffer buffer = ByteBuffer.allocate(points.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(points);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+}
@@ -0,0 +1,500 @@
+package ru.bulavin;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Timers and counters for the read → statistics → map pipeline, exposed as MXBeans under {@code ru.bulavin} and as
+ * the JFR event {@code ru.bulavin.PipelineStage}, so both JConsole and a plain {@code jcmd JFR.start} recording work
+ * without any collector.
+ * <p>
+ * Off by default: a stage then costs one volatile read and one check of the JFR event, and nothing is measured per
+ * point. When on, stages are timed once per call, and the statistics that run inline in the reader are timed on every
+ * {@value #SAMPLE_INTERVAL}th point and extrapolated. System properties: {@code gpx.metrics=true} turns it on,
+ * {@code gpx.metrics.log=SECONDS} also prints {@link #summary()} to stderr at that period.
+ */
+public final class PipelineMetrics {
+    public static final String DOMAIN = "ru.bulavin";
+    static final int SAMPLE_INTERVAL = 64;
+
+    public enum Stage {
+        /**
+         * Parsing, without the statistics that run inside it.
+         */
+        READ("чтение"),
+        STATISTICS("статистика"),
+        /**
+         * Building the {@link TrackSimplifier} and answering the map's view queries.
+         */
+        SIMPLIFY("упрощение"),
+        /**
+         * Pushing a track to the map, including the first view query the page makes.
+         */
+        RENDER("отрисовка");
+
+        private final String title;
+
+        Stage(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    private static final StageMetrics[] STAGES = new StageMetrics[Stage.values().length];
+    private static final LongAdder extensionHits = new LongAdder();
+    private static final LongAdder extensionMisses = new LongAdder();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    private static final Timer NONE = new Timer(null, null);
+
+    private static volatile boolean enabled = Boolean.getBoolean("gpx.metrics");
+    private static boolean registered;
+    private static ScheduledExecutorService summaryLog;
+
+    static {
+        for (Stage stage : Stage.values()) {
+            STAGES[stage.ordinal()] = new StageMetrics();
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Registers the MXBeans and starts the summary log if {@code gpx.metrics.log} asks for it. Safe to call again.
+     */
+    public static void install() {
+        registerMBeans();
+        long period = Long.getLong("gpx.metrics.log", 0);
+        if (period > 0) {
+            setEnabled(true);
+            startSummaryLog(Duration.ofSeconds(period), System.err);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PipelineMetrics.enabled = enabled;
+    }
+
+    /**
+     * Starts timing one call of {@code stage} on the current thread. With metrics off and no JFR recording of the
+     * event this is a shared no-op timer.
+     */
+    public static Timer start(Stage stage) {
+        StageEvent event = new StageEvent();
+        if (!enabled && !event.isEnabled()) {
+            return NONE;
+        }
+        event.begin();
+        return new Timer(stage, event);
+    }
+
+    /**
+     * Adds extension elements that were used ({@code hits}) and walked over without being used ({@code misses}).
+     */
+    public static void extensions(long hits, long misses) {
+        if (enabled) {
+            extensionHits.add(hits);
+            extensionMisses.add(misses);
+        }
+    }
+
+    public static StageMXBean getStage(Stage stage) {
+        return STAGES[stage.ordinal()];
+    }
+
+    public static long getExtensionHits() {
+        return extensionHits.sum();
+    }
+
+    public static long getExtensionMisses() {
+        return extensionMisses.sum();
+    }
+
+    public static void reset() {
+        for (StageMetrics stage : STAGES) {
+            stage.reset();
+        }
+        extensionHits.reset();
+        extensionMisses.reset();
+    }
+
+    /**
+     * One line with the totals of every stage that ran.
+     */
+    public static String summary() {
+        StringBuilder result = new StringBuilder("Метрики:");
+        for (Stage stage : Stage.values()) {
+            StageMetrics metrics = STAGES[stage.ordinal()];
+            if (metrics.getCount() == 0) {
+                continue;
+            }
+            result.append(String.format(Locale.ROOT, " %s %d за %.3f с (макс. %.3f с), точек %d",
+                    stage.getTitle(), metrics.getCount(), metrics.getTotalTimeMillis() / 1000.0,
+                    metrics.getMaxTimeMillis() / 1000.0, metrics.getPoints()));
+            if (metrics.getBytes() > 0) {
+                result.append(String.format(Locale.ROOT, ", %.1f МБ", metrics.getBytes() / (1024.0 * 1024.0)));
+            }
+            if (metrics.getAllocatedBytes() > 0) {
+                result.append(String.format(Locale.ROOT, ", выделено %.1f МБ", metrics.getAllocatedBytes() / (1024.0 * 1024.0)));
+            }
+            result.append(';');
+        }
+        result.append(" расширения: найдено ").append(getExtensionHits())
+                .append(", пропущено ").append(getExtensionMisses());
+        return result.toString();
+    }
+
+    public static synchronized void registerMBeans() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new Pipeline(), new ObjectName(DOMAIN + ":type=Pipeline"));
+            for (Stage stage : Stage.values()) {
+                server.registerMBean(STAGES[stage.ordinal()],
+                        new ObjectName(DOMAIN + ":type=PipelineStage,name=" + stage.name().toLowerCase(Locale.ROOT)));
+            }
+            registered = true;
+        } catch (JMException e) {
+            System.err.println("Метрики не зарегистрированы в JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints {@link #summary()} to {@code out} every {@code period} on a daemon thread, skipping periods in which no
+     * stage ran. A second call replaces the first.
+     */
+    public static synchronized void startSummaryLog(Duration period, PrintStream out) {
+        stopSummaryLog();
+        summaryLog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gpx-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastCount = {-1};
+        summaryLog.scheduleAtFixedRate(() -> {
+            long count = 0;
+            for (StageMetrics stage : STAGES) {
+                count += stage.getCount();
+            }
+            if (count != lastCount[0]) {
+                lastCount[0] = count;
+                out.println(summary());
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopSummaryLog() {
+        if (summaryLog != null) {
+            summaryLog.shutdownNow();
+            summaryLog = null;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Measures one call of a stage. Time and allocations are taken on the thread that called {@link #start}, which
+     * must also {@link #close()} it.
+     */
+    public static final class Timer implements AutoCloseable {
+        private final Stage stage;
+        private final StageEvent event;
+        private final long startNanos;
+        private final long startAllocated;
+        private long points = -1;
+        private long bytes;
+        private Sampled sampled;
+        private Timer excluded;
+        private long nanos;
+
+        private Timer(Stage stage, StageEvent event) {
+            this.stage = stage;
+            this.event = event;
+            startNanos = stage != null ? System.nanoTime() : 0;
+            startAllocated = stage != null ? allocatedBytes() : 0;
+        }
+
+        public Timer points(long points) {
+            this.points = points;
+            return this;
+        }
+
+        public Timer bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        public Timer file(Path file) {
+            if (event != null) {
+                event.file = file.toString();
+            }
+            return this;
+        }
+
+        /**
+         * Wraps a per-point consumer that runs inside another stage. The time of this stage becomes the sampled
+         * estimate for {@code consumer} instead of the wall time, and the points are counted. Allocations are left to
+         * the enclosing stage.
+         */
+        public Consumer<TrackPoint> sample(Consumer<TrackPoint> consumer) {
+            if (stage == null) {
+                return consumer;
+            }
+            sampled = new Sampled(consumer);
+            return sampled;
+        }
+
+        /**
+         * Subtracts the time of {@code inner}, closed before this one, from this stage.
+         */
+        public Timer exclude(Timer inner) {
+            excluded = inner;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (stage == null) {
+                return;
+            }
+            long allocated = sampled != null ? 0 : allocatedBytes() - startAllocated;
+            nanos = sampled != null ? sampled.estimatedNanos() : System.nanoTime() - startNanos;
+            if (excluded != null) {
+                nanos = Math.max(0, nanos - excluded.nanos);
+            }
+            long points = this.points >= 0 ? this.points : sampled != null ? sampled.calls : 0;
+            if (enabled) {
+                STAGES[stage.ordinal()].record(nanos, points, bytes, allocated);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.stageTime = nanos;
+                event.points = points;
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    // Two nanoTime calls per point would cost more than a cheap consumer, so only every SAMPLE_INTERVALth call is timed
+    private static final class Sampled implements Consumer<TrackPoint> {
+        private final Consumer<TrackPoint> downstream;
+        private long calls;
+        private long sampledNanos;
+
+        Sampled(Consumer<TrackPoint> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (calls++ % SAMPLE_INTERVAL != 0) {
+                downstream.accept(point);
+                return;
+            }
+            long start = System.nanoTime();
+            downstream.accept(point);
+            sampledNanos += System.nanoTime() - start;
+        }
+
+        // The calls 0, SAMPLE_INTERVAL, 2 * SAMPLE_INTERVAL, ... were timed, so a short run is not scaled up by the
+        // full interval
+        long estimatedNanos() {
+            long sampledCalls = (calls + SAMPLE_INTERVAL - 1) / SAMPLE_INTERVAL;
+            return sampledCalls == 0 ? 0 : Math.round((double) sampledNanos * calls / sampledCalls);
+        }
+    }
+
+    public interface PipelineMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        long getExtensionHits();
+
+        long getExtensionMisses();
+
+        String getSummary();
+
+        void reset();
+    }
+
+    public interface StageMXBean {
+        long getCount();
+
+        long getTotalTimeMillis();
+
+        long getMaxTimeMillis();
+
+        long getPoints();
+
+        long getBytes();
+
+        long getAllocatedBytes();
+
+        double getPointsPerSecond();
+    }
+
+    private static final class Pipeline implements PipelineMXBean {
+        @Override
+        public boolean isEnabled() {
+            return PipelineMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            PipelineMetrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getExtensionHits() {
+            return PipelineMetrics.getExtensionHits();
+        }
+
+        @Override
+        public long getExtensionMisses() {
+            return PipelineMetrics.getExtensionMisses();
+        }
+
+        @Override
+        public String getSummary() {
+            return PipelineMetrics.summary();
+        }
+
+        @Override
+        public void reset() {
+            PipelineMetrics.reset();
+        }
+    }
+
+    private static final class StageMetrics implements StageMXBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder points = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+
+        void record(long nanos, long points, long bytes, long allocated) {
+            count.increment();
+            this.nanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            this.points.add(points);
+            this.bytes.add(bytes);
+            this.allocated.add(allocated);
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+            maxNanos.reset();
+            points.reset();
+            bytes.reset();
+            allocated.reset();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getTotalTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+        }
+
+        @Override
+        public long getMaxTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        @Override
+        public long getPoints() {
+            return points.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return allocated.sum();
+        }
+
+        @Override
+        public double getPointsPerSecond() {
+            long total = nanos.sum();
+            return total == 0 ? 0 : points.sum() * 1e9 / total;
+        }
+    }
+
+    @Name("ru.bulavin.PipelineStage")
+    @Label("GPX Pipeline Stage")
+    @Category("GPX Analyzer")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("File")
+        String file;
+
+        @Label("Stage Time")
+        @Description("Own time of the stage, estimated from samples for the statistics run inside the reader")
+        @Timespan
+        long stageTime;
+
+        @Label("Points")
+        long points;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+}
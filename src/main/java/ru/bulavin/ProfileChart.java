@@ -0,0 +1,176 @@
+package ru.bulavin;
+
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.util.StringConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chart of a {@link TrackProfile} under the map: minimum and maximum of every pixel and an LTTB line over them, built
+ * again from the profile on every zoom or pan. Scroll zooms around the cursor, drag pans, double click shows the
+ * whole track.
+ */
+public final class ProfileChart extends VBox {
+    // Shortest visible range in meters
+    private static final double MIN_RANGE = 10.0;
+
+    private final NumberAxis xAxis = new NumberAxis();
+    private final NumberAxis yAxis = new NumberAxis();
+    private final ChoiceBox<TrackProfile.Channel> channelBox = new ChoiceBox<>();
+    private final XYChart.Series<Number, Number> maxSeries = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> minSeries = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> lineSeries = new XYChart.Series<>();
+    private TrackProfile profile;
+    // Visible range in meters
+    private double from;
+    private double to;
+    private double dragX;
+
+    public ProfileChart() {
+        super(5);
+        xAxis.setAutoRanging(false);
+        xAxis.setLabel("Дистанция, км");
+        yAxis.setForceZeroInRange(false);
+        maxSeries.setName("Максимум");
+        minSeries.setName("Минимум");
+        lineSeries.setName("Профиль");
+
+        LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+        chart.setCreateSymbols(false);
+        chart.setAnimated(false);
+        chart.setLegendVisible(false);
+        chart.getData().addAll(List.of(maxSeries, minSeries, lineSeries));
+        chart.setMinHeight(180.);
+        chart.setPrefHeight(220.);
+        VBox.setVgrow(chart, Priority.ALWAYS);
+
+        channelBox.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(TrackProfile.Channel channel) {
+                return channel == null ? "" : channel.getLabel();
+            }
+
+            @Override
+            public TrackProfile.Channel fromString(String label) {
+                return null;
+            }
+        });
+        channelBox.valueProperty().addListener((_, _, _) -> refresh());
+        xAxis.widthProperty().addListener((_, _, _) -> refresh());
+
+        chart.setOnScroll(event -> {
+            if (profile == null || event.getDeltaY() == 0) {
+                return;
+            }
+            double cursor = distanceAt(event.getSceneX());
+            double factor = event.getDeltaY() > 0 ? 0.8 : 1.25;
+            show(cursor - (cursor - from) * factor, cursor + (to - cursor) * factor);
+        });
+        chart.setOnMousePressed(event -> dragX = event.getSceneX());
+        chart.setOnMouseDragged(event -> {
+            if (profile == null || xAxis.getWidth() <= 0) {
+                return;
+            }
+            double shift = (dragX - event.getSceneX()) * (to - from) / xAxis.getWidth();
+            dragX = event.getSceneX();
+            double total = profile.getTotalDistance();
+            shift = Math.max(-from, Math.min(total - to, shift));
+            show(from + shift, to + shift);
+        });
+        chart.setOnMouseClicked(event -> {
+            if (profile != null && event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                show(0, profile.getTotalDistance());
+            }
+        });
+
+        getChildren().addAll(channelBox, chart);
+    }
+
+    /**
+     * Shows the whole of {@code profile}, keeping the selected channel when the track has it; {@code null} clears the
+     * chart.
+     */
+    public void setProfile(TrackProfile profile) {
+        TrackProfile.Channel selected = channelBox.getValue();
+        this.profile = null;
+        List<TrackProfile.Channel> channels = new ArrayList<>();
+        if (profile != null) {
+            for (TrackProfile.Channel channel : TrackProfile.Channel.values()) {
+                if (profile.has(channel)) {
+                    channels.add(channel);
+                }
+            }
+        }
+        channelBox.getItems().setAll(channels);
+        channelBox.setValue(channels.contains(selected) ? selected : channels.isEmpty() ? null : channels.getFirst());
+        this.profile = profile;
+        from = 0;
+        to = profile == null ? 0 : profile.getTotalDistance();
+        refresh();
+    }
+
+    private void show(double start, double end) {
+        double total = profile.getTotalDistance();
+        double range = Math.min(Math.max(end - start, MIN_RANGE), total);
+        start = Math.max(0, Math.min(start, total - range));
+        from = start;
+        to = start + range;
+        refresh();
+    }
+
+    private double distanceAt(double sceneX) {
+        double x = xAxis.sceneToLocal(sceneX, 0).getX();
+        return xAxis.getValueForDisplay(x).doubleValue() * 1000.0;
+    }
+
+    private void refresh() {
+        TrackProfile.Channel channel = channelBox.getValue();
+        int width = (int) xAxis.getWidth();
+        if (profile == null || channel == null || to <= from || width < 1) {
+            maxSeries.getData().clear();
+            minSeries.getData().clear();
+            lineSeries.getData().clear();
+            return;
+        }
+        yAxis.setLabel(channel.getLabel());
+        xAxis.setLowerBound(from / 1000.0);
+        xAxis.setUpperBound(to / 1000.0);
+        xAxis.setTickUnit(tickUnit((to - from) / 1000.0));
+
+        TrackProfile.Buckets buckets = profile.buckets(channel, from, to, width);
+        List<XYChart.Data<Number, Number>> max = new ArrayList<>(width);
+        List<XYChart.Data<Number, Number>> min = new ArrayList<>(width);
+        double step = (to - from) / width;
+        for (int i = 0; i < width; i++) {
+            if (!Float.isNaN(buckets.min()[i])) {
+                double x = (from + (i + 0.5) * step) / 1000.0;
+                max.add(new XYChart.Data<>(x, buckets.max()[i]));
+                min.add(new XYChart.Data<>(x, buckets.min()[i]));
+            }
+        }
+        TrackProfile.Line line = profile.lttb(channel, from, to, Math.max(width, 3));
+        List<XYChart.Data<Number, Number>> points = new ArrayList<>(line.values().length);
+        for (int i = 0; i < line.values().length; i++) {
+            points.add(new XYChart.Data<>(line.distances()[i] / 1000.0, line.values()[i]));
+        }
+        maxSeries.getData().setAll(max);
+        minSeries.getData().setAll(min);
+        lineSeries.getData().setAll(points);
+    }
+
+    // 1, 2 or 5 times a power of ten, for about ten ticks
+    private static double tickUnit(double range) {
+        double unit = Math.pow(10, Math.floor(Math.log10(range / 10)));
+        if (range / unit > 50) {
+            return unit * 5;
+        }
+        return range / unit > 20 ? unit * 2 : unit;
+    }
+}
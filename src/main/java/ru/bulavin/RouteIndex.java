@@ -0,0 +1,168 @@
+package ru.bulavin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Finds routes that are the same as a given one among many {@link RouteSignature}s, e.g. every ride of a commute or
+ * of a leaderboard segment in an activity archive.
+ * <p>
+ * Candidates come from locality-sensitive hashing of the MinHash sketches: {@value #BANDS} bands of
+ * {@value #ROWS} hashes each. Two routes whose cell sets have Jaccard similarity {@code J} share at least one band with
+ * probability {@code 1 - (1 - J^4)^16}: about 0.34 at 0.4, 0.64 at 0.5, 0.89 at 0.6, 0.99 at 0.7 and above. Rides of
+ * the same route usually overlap by far more than that, while a route that shares only half its cells with the query
+ * is missed about one time in three.
+ * <p>
+ * Every band is a sorted array of (band hash, route) pairs, 8 bytes per route, and a lookup is a binary search, so
+ * finding candidates does not depend on the size of the archive beyond a logarithm. Candidates are confirmed with the
+ * banded discrete Fréchet distance in parallel.
+ * <p>
+ * Built once with a {@link Builder}; the index itself is immutable and can be queried from any thread.
+ */
+public final class RouteIndex {
+    static final int BANDS = 16;
+    static final int ROWS = RouteSignature.HASHES / BANDS;
+
+    private final RouteSignature[] signatures;
+    private final long[][] bands;
+
+    private RouteIndex(RouteSignature[] signatures, long[][] bands) {
+        this.signatures = signatures;
+        this.bands = bands;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return signatures.length;
+    }
+
+    public RouteSignature get(int route) {
+        return signatures[route];
+    }
+
+    /**
+     * Routes that share at least one band with {@code query}, in ascending order.
+     */
+    public int[] candidates(RouteSignature query) {
+        int[] result = new int[16];
+        int count = 0;
+        for (int band = 0; band < BANDS; band++) {
+            int hash = bandHash(query, band);
+            long[] entries = bands[band];
+            for (int i = lowerBound(entries, (long) hash << 32); i < entries.length && (int) (entries[i] >>> 32) == hash; i++) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = (int) entries[i];
+            }
+        }
+        Arrays.sort(result, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || result[unique - 1] != result[i]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    public List<Match> find(RouteSignature query, double maxDistance) {
+        return find(query, maxDistance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Routes within {@code maxDistance} meters of {@code query} by Fréchet distance, nearest first.
+     */
+    public List<Match> find(RouteSignature query, double maxDistance, ForkJoinPool pool) {
+        int[] candidates = candidates(query);
+        return pool.submit(() -> Arrays.stream(candidates).parallel()
+                .mapToObj(route -> new Match(route, query.frechetDistance(signatures[route], maxDistance)))
+                .filter(match -> match.distance() <= maxDistance)
+                .sorted(Comparator.comparingDouble(Match::distance))
+                .toList()).join();
+    }
+
+    public List<Pair> matchAll(double maxDistance) {
+        return matchAll(maxDistance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Every pair of routes in the index within {@code maxDistance} meters of each other, each pair once with the
+     * smaller route first, ordered by route.
+     */
+    public List<Pair> matchAll(double maxDistance, ForkJoinPool pool) {
+        return pool.submit(() -> IntStream.range(0, signatures.length).parallel()
+                .boxed()
+                .flatMap(first -> {
+                    RouteSignature signature = signatures[first];
+                    return Arrays.stream(candidates(signature))
+                            .filter(second -> second > first)
+                            .mapToObj(second -> new Pair(first, second, signature.frechetDistance(signatures[second], maxDistance)))
+                            .filter(pair -> pair.distance() <= maxDistance);
+                })
+                .toList()).join();
+    }
+
+    static int bandHash(RouteSignature signature, int band) {
+        long hash = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            hash = RouteSignature.mix(hash + (signature.getMinHash(row) & 0xFFFFFFFFL));
+        }
+        return (int) (hash >>> 32);
+    }
+
+    private static int lowerBound(long[] entries, long key) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public record Match(int route, double distance) {
+    }
+
+    public record Pair(int first, int second, double distance) {
+    }
+
+    /**
+     * Collects signatures; a route's number is its position in the order of {@link #add}.
+     */
+    public static final class Builder {
+        private final List<RouteSignature> signatures = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public int add(RouteSignature signature) {
+            signatures.add(signature);
+            return signatures.size() - 1;
+        }
+
+        public RouteIndex build() {
+            RouteSignature[] array = signatures.toArray(new RouteSignature[0]);
+            long[][] bands = new long[BANDS][array.length];
+            for (int band = 0; band < BANDS; band++) {
+                long[] entries = bands[band];
+                for (int route = 0; route < array.length; route++) {
+                    entries[route] = (long) bandHash(array[route], band) << 32 | route;
+                }
+                Arrays.sort(entries);
+            }
+            return new RouteIndex(array, bands);
+        }
+    }
+}
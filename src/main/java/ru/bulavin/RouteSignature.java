@@ -0,0 +1,300 @@
+package ru.bulavin;
+
+import java.util.Arrays;
+
+/**
+ * Compact description of a track's route for {@link RouteIndex}: a MinHash sketch of the grid cells the track passes
+ * through and the track resampled at equal steps along its length.
+ * <p>
+ * Cells are those of a precision-7 geohash (about 150 m), taken every {@code spacing} meters along the track. The
+ * resampled polyline keeps at most {@link #MAX_POINTS} points in local meters, so a signature takes about 4 KB
+ * whatever the length of the track; the discrete Fréchet distance between two polylines is accurate to half their
+ * step.
+ */
+public final class RouteSignature {
+    public static final double DEFAULT_SPACING = 25.0;
+    public static final int MAX_POINTS = 512;
+    static final int HASHES = 64;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * Geodesy.MEAN_RADIUS;
+    private static final int LATITUDE_BITS = 17;
+    private static final int LONGITUDE_BITS = 18;
+    private static final int[] SEEDS = new int[HASHES];
+
+    static {
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = (int) seed;
+        }
+    }
+
+    private final int[] minHash;
+    // Meters east and north of the first point, in the equirectangular projection at its latitude
+    private final double originLatitude;
+    private final double originLongitude;
+    private final float[] xs;
+    private final float[] ys;
+    private final double length;
+
+    private RouteSignature(int[] minHash, double originLatitude, double originLongitude, float[] xs, float[] ys, double length) {
+        this.minHash = minHash;
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.xs = xs;
+        this.ys = ys;
+        this.length = length;
+    }
+
+    public static RouteSignature of(TrackColumns track) {
+        return of(track, DEFAULT_SPACING);
+    }
+
+    public static RouteSignature of(TrackColumns track, double spacing) {
+        if (track.isEmpty()) {
+            throw new IllegalArgumentException("Empty track");
+        }
+        Resampler resampler = new Resampler(spacing);
+        for (int i = 0; i < track.size(); i++) {
+            resampler.add(track.getLatitude(i), track.getLongitude(i));
+        }
+        return resampler.finish();
+    }
+
+    /**
+     * Length of the track in meters, in the local projection.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    int getMinHash(int index) {
+        return minHash[index];
+    }
+
+    /**
+     * Estimated Jaccard similarity of the cells of both routes.
+     */
+    public double similarity(RouteSignature other) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (minHash[i] == other.minHash[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / HASHES;
+    }
+
+    /**
+     * Discrete Fréchet distance in meters to {@code other}, or {@link Double#POSITIVE_INFINITY} as soon as it is
+     * known to exceed {@code limit}. Only couplings within a band around the diagonal are considered, which is
+     * exact for routes that progress at a similar rate and an upper bound otherwise. The direction of travel
+     * matters: a route ridden the other way round is not the same route.
+     */
+    public double frechetDistance(RouteSignature other, double limit) {
+        int n = xs.length;
+        int m = other.xs.length;
+        // The other polyline in this projection
+        double cosLatitude = Math.cos(Math.toRadians(originLatitude));
+        double scaleX = cosLatitude / Math.cos(Math.toRadians(other.originLatitude));
+        double shiftX = (other.originLongitude - originLongitude) * METERS_PER_DEGREE * cosLatitude;
+        double shiftY = (other.originLatitude - originLatitude) * METERS_PER_DEGREE;
+        double[] otherX = new double[m];
+        double[] otherY = new double[m];
+        for (int j = 0; j < m; j++) {
+            otherX[j] = other.xs[j] * scaleX + shiftX;
+            otherY[j] = other.ys[j] + shiftY;
+        }
+        double limitSquared = limit * limit;
+        if (distanceSquared(0, otherX[0], otherY[0]) > limitSquared
+                || distanceSquared(n - 1, otherX[m - 1], otherY[m - 1]) > limitSquared) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double slope = n > 1 ? (double) (m - 1) / (n - 1) : 0;
+        int band = Math.max(Math.max(16, (int) Math.ceil(slope) + 1), Math.max(n, m) / 10);
+
+        // Squared coupling distances of the previous and current row at j + 1. The band only moves right, so cells
+        // right of it were never written and stay infinite; the one left of it is reset for every row.
+        double[] previous = new double[m + 1];
+        double[] current = new double[m + 1];
+        Arrays.fill(previous, Double.POSITIVE_INFINITY);
+        Arrays.fill(current, Double.POSITIVE_INFINITY);
+        previous[0] = 0;
+        for (int i = 0; i < n; i++) {
+            int center = n > 1 ? (int) Math.round(i * slope) : m - 1;
+            int from = i == 0 ? 0 : Math.max(0, center - band);
+            int to = i == n - 1 ? m - 1 : Math.min(m - 1, center + band);
+            double x = xs[i];
+            double y = ys[i];
+            double rowMin = Double.POSITIVE_INFINITY;
+            current[from] = Double.POSITIVE_INFINITY;
+            for (int j = from; j <= to; j++) {
+                // Plain comparisons rather than Math.min/max, which also order -0.0 and NaN
+                double reach = previous[j] < previous[j + 1] ? previous[j] : previous[j + 1];
+                reach = current[j] < reach ? current[j] : reach;
+                double dx = x - otherX[j];
+                double dy = y - otherY[j];
+                double squared = dx * dx + dy * dy;
+                double value = reach > squared ? reach : squared;
+                current[j + 1] = value;
+                rowMin = value < rowMin ? value : rowMin;
+            }
+            if (rowMin > limitSquared) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+            if (i == 0) {
+                current[0] = Double.POSITIVE_INFINITY;
+            }
+        }
+        double distance = previous[m];
+        return distance > limitSquared ? Double.POSITIVE_INFINITY : Math.sqrt(distance);
+    }
+
+    private double distanceSquared(int i, double x, double y) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        return dx * dx + dy * dy;
+    }
+
+    // Index of the precision-7 geohash cell, latitude and longitude bits side by side rather than interleaved
+    static long cell(double latitude, double longitude) {
+        long latitudeCell = (long) ((latitude + 90.0) / 180.0 * (1 << LATITUDE_BITS));
+        long longitudeCell = (long) ((longitude + 180.0) / 360.0 * (1 << LONGITUDE_BITS));
+        return Math.min(latitudeCell, (1 << LATITUDE_BITS) - 1) << LONGITUDE_BITS
+                | Math.min(longitudeCell, (1 << LONGITUDE_BITS) - 1);
+    }
+
+    // SplitMix64 finalizer
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Walks the track in local equirectangular meters and takes a sample every {@code spacing} meters, plus both
+     * ends. Every sample contributes its cell; the polyline keeps every k-th sample so that it fits in
+     * {@link #MAX_POINTS}.
+     */
+    private static final class Resampler {
+        private final double spacing;
+        private double[] sampleX = new double[256];
+        private double[] sampleY = new double[256];
+        private long[] cells = new long[256];
+        private int samples = 0;
+        private int cellCount = 0;
+
+        private double originLatitude;
+        private double originLongitude;
+        private double metersPerLongitude;
+        private double lastX;
+        private double lastY;
+        private double lastLatitude;
+        private double lastLongitude;
+        private double length = 0;
+        // Distance walked since the last sample
+        private double walked = 0;
+
+        Resampler(double spacing) {
+            if (!(spacing > 0)) {
+                throw new IllegalArgumentException("Spacing must be positive: " + spacing);
+            }
+            this.spacing = spacing;
+        }
+
+        void add(double latitude, double longitude) {
+            boolean first = samples == 0;
+            if (first) {
+                originLatitude = latitude;
+                originLongitude = longitude;
+                metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+            }
+            double x = (longitude - originLongitude) * metersPerLongitude;
+            double y = (latitude - originLatitude) * METERS_PER_DEGREE;
+            if (first) {
+                sample(x, y, latitude, longitude);
+            } else {
+                double dx = x - lastX;
+                double dy = y - lastY;
+                double step = Math.sqrt(dx * dx + dy * dy);
+                length += step;
+                double position = spacing - walked;
+                while (position <= step) {
+                    double fraction = position / step;
+                    sample(lastX + dx * fraction, lastY + dy * fraction,
+                            lastLatitude + (latitude - lastLatitude) * fraction,
+                            lastLongitude + (longitude - lastLongitude) * fraction);
+                    position += spacing;
+                }
+                walked = step - (position - spacing);
+            }
+            lastX = x;
+            lastY = y;
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+
+        RouteSignature finish() {
+            if (walked > 0) {
+                sample(lastX, lastY, lastLatitude, lastLongitude);
+            }
+            int stride = (samples + MAX_POINTS - 2) / (MAX_POINTS - 1);
+            int size = (samples - 1 + stride - 1) / stride + 1;
+            float[] xs = new float[size];
+            float[] ys = new float[size];
+            for (int i = 0; i < size - 1; i++) {
+                xs[i] = (float) sampleX[i * stride];
+                ys[i] = (float) sampleY[i * stride];
+            }
+            xs[size - 1] = (float) sampleX[samples - 1];
+            ys[size - 1] = (float) sampleY[samples - 1];
+            return new RouteSignature(minHash(), originLatitude, originLongitude, xs, ys, length);
+        }
+
+        private void sample(double x, double y, double latitude, double longitude) {
+            if (samples == sampleX.length) {
+                sampleX = Arrays.copyOf(sampleX, samples * 2);
+                sampleY = Arrays.copyOf(sampleY, samples * 2);
+            }
+            sampleX[samples] = x;
+            sampleY[samples] = y;
+            samples++;
+            long cell = cell(latitude, longitude);
+            if (cellCount == 0 || cells[cellCount - 1] != cell) {
+                if (cellCount == cells.length) {
+                    cells = Arrays.copyOf(cells, cellCount * 2);
+                }
+                cells[cellCount++] = cell;
+            }
+        }
+
+        private int[] minHash() {
+            long[] unique = Arrays.copyOf(cells, cellCount);
+            Arrays.sort(unique);
+            int[] minHash = new int[HASHES];
+            Arrays.fill(minHash, Integer.MAX_VALUE);
+            long previous = 0;
+            for (int c = 0; c < unique.length; c++) {
+                if (c > 0 && unique[c] == previous) {
+                    continue;
+                }
+                previous = unique[c];
+                long hash = mix(previous);
+                for (int i = 0; i < HASHES; i++) {
+                    int value = (int) mix(hash ^ SEEDS[i]);
+                    if (value < minHash[i]) {
+                        minHash[i] = value;
+                    }
+                }
+            }
+            return minHash;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.bulavin;
+
+/**
+ * Per-segment kernel: the step between two consecutive track points. Distance is computed once per segment and the
+ * derived values (duration, speed, moving/stopped, elevation change) are shared by every metric that needs them.
+ * Reused for the whole track, so it never allocates.
+ */
+public final class Segment {
+    public static final double STOP_SPEED_THRESHOLD = 1.0 / 3.6; // 1 км/ч в м/с
+
+    static final long NO_ELEVATION = Long.MIN_VALUE;
+    private static final double MICROS_PER_METER = 1_000_000.0;
+
+    private final DistanceModel distanceModel;
+    private final boolean distances;
+
+    private boolean hasStart = false;
+    private double startLatitude;
+    private double startLongitude;
+    private long startElevation = NO_ELEVATION;
+    private long startTime = TrackPoint.NO_TIME;
+
+    private double distance;
+    private long duration;
+    private double speed;
+    private long elevationDifference;
+
+    public Segment(DistanceModel distanceModel) {
+        this(distanceModel, true);
+    }
+
+    /**
+     * Without {@code distances} the geodesic step is skipped: distance and speed are NaN, duration and elevation
+     * change are still there.
+     */
+    Segment(DistanceModel distanceModel, boolean distances) {
+        this.distanceModel = distanceModel;
+        this.distances = distances;
+    }
+
+    /**
+     * Moves the segment forward so that it ends at {@code point}.
+     * Returns {@code false} for the first point of a track, when there is no segment yet.
+     */
+    public boolean advance(TrackPoint point) {
+        boolean complete = hasStart;
+        long elevation = point.hasElevation() ? toMicros(point.getElevation()) : NO_ELEVATION;
+        if (complete) {
+            distance = distances
+                    ? distanceModel.distance(point.getLatitude(), point.getLongitude(), startLatitude, startLongitude)
+                    : Double.NaN;
+            if (point.hasTime() && startTime != TrackPoint.NO_TIME) {
+                duration = point.getTime() - startTime;
+                speed = distance / Math.floorDiv(duration, 1000);
+            } else {
+                duration = TrackPoint.NO_TIME;
+                speed = Double.NaN;
+            }
+            elevationDifference = elevation != NO_ELEVATION && startElevation != NO_ELEVATION ? elevation - startElevation : NO_ELEVATION;
+        }
+        hasStart = true;
+        startLatitude = point.getLatitude();
+        startLongitude = point.getLongitude();
+        startElevation = elevation;
+        startTime = point.getTime();
+        return complete;
+    }
+
+    /**
+     * Like {@link #advance}, for a point that cuts the step {@code whole} in two (a split boundary). The part takes
+     * the speed of the whole step, so both parts are counted as moving or stopped exactly as the step itself.
+     */
+    boolean advancePart(TrackPoint point, Segment whole) {
+        boolean complete = advance(point);
+        speed = whole.speed;
+        return complete;
+    }
+
+    public void reset() {
+        hasStart = false;
+        startElevation = NO_ELEVATION;
+        startTime = TrackPoint.NO_TIME;
+    }
+
+    /**
+     * Continues from where {@code other} currently ends, as if the same points had been passed to this segment.
+     */
+    void continueFrom(Segment other) {
+        hasStart = other.hasStart;
+        startLatitude = other.startLatitude;
+        startLongitude = other.startLongitude;
+        startElevation = other.startElevation;
+        startTime = other.startTime;
+    }
+
+    public DistanceModel getDistanceModel() {
+        return distanceModel;
+    }
+
+    /**
+     * Distance in meters.
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    public boolean hasDuration() {
+        return duration != TrackPoint.NO_TIME;
+    }
+
+    /**
+     * Duration in milliseconds, may be zero or negative for unordered timestamps.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Speed in m/s over whole seconds of the duration, as the statistics have always measured it.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public boolean isMoving() {
+        return speed > STOP_SPEED_THRESHOLD;
+    }
+
+    public boolean hasElevationDifference() {
+        return elevationDifference != NO_ELEVATION;
+    }
+
+    public double getElevationDifference() {
+        return fromMicros(elevationDifference);
+    }
+
+    /**
+     * Elevation change in micrometers. Elevations are rounded to whole micrometers before subtracting, so sums of
+     * differences are exact and do not depend on the order in which partial sums are combined.
+     */
+    public long getElevationDifferenceMicros() {
+        return elevationDifference;
+    }
+
+    static long toMicros(double meters) {
+        return Math.round(meters * MICROS_PER_METER);
+    }
+
+    static double fromMicros(long micros) {
+        return micros / MICROS_PER_METER;
+    }
+}
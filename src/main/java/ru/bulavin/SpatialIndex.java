@@ -0,0 +1,593 @@
+package ru.bulavin;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Static R-tree over the points of one or more tracks, packed with Sort-Tile-Recursive and built in O(n log n).
+ * Coordinates are kept as E7 fixed point (about 1 cm), so the index takes about 13 bytes per point and is written
+ * to disk as plain little-endian int arrays.
+ * <p>
+ * Points are reported as a track number (in the order the tracks were added) and the point's index in that track.
+ * Distances are great-circle distances on the mean-radius sphere, as {@link DistanceModel#HAVERSINE}.
+ */
+public final class SpatialIndex {
+    static final int NODE_SIZE = 16;
+
+    private static final double E7 = 1e7;
+    private static final double RADIANS_PER_E7 = Math.toRadians(1) / E7;
+
+    private static final int MAGIC = 0x49585047; // "GPXI" little-endian
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final int[] trackOffsets;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final int[] ids;
+    // Node bounds per level, index 0 holds the leaves; children of a node are NODE_SIZE consecutive entries
+    // of the level below, starting at firstChildren
+    private final int[][] minLatitudes;
+    private final int[][] minLongitudes;
+    private final int[][] maxLatitudes;
+    private final int[][] maxLongitudes;
+    private final int[][] firstChildren;
+
+    private SpatialIndex(int[] trackOffsets, int[] latitudes, int[] longitudes, int[] ids, int levels) {
+        this.trackOffsets = trackOffsets;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.ids = ids;
+        minLatitudes = new int[levels][];
+        minLongitudes = new int[levels][];
+        maxLatitudes = new int[levels][];
+        maxLongitudes = new int[levels][];
+        firstChildren = new int[levels][];
+    }
+
+    public static SpatialIndex of(TrackColumns track) {
+        return of(List.of(track));
+    }
+
+    public static SpatialIndex of(List<TrackColumns> tracks) {
+        Builder builder = builder();
+        for (int i = 0; i < tracks.size(); i++) {
+            if (i > 0) {
+                builder.nextTrack();
+            }
+            tracks.get(i).forEach(builder);
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    public int getTrackCount() {
+        return trackOffsets.length - 1;
+    }
+
+    /**
+     * Visits every point inside the box, borders included. A box with {@code west > east} crosses the antimeridian.
+     *
+     * @return the number of points visited
+     */
+    public int inBox(double south, double west, double north, double east, PointVisitor visitor) {
+        if (size() == 0) {
+            return 0;
+        }
+        int s = toE7(south);
+        int n = toE7(north);
+        if (west > east) {
+            return inBox(levels(), 0, s, toE7(west), n, toE7(180), visitor)
+                    + inBox(levels(), 0, s, toE7(-180), n, toE7(east), visitor);
+        }
+        return inBox(levels(), 0, s, toE7(west), n, toE7(east), visitor);
+    }
+
+    /**
+     * Visits every point within {@code meters} of the given coordinate.
+     *
+     * @return the number of points visited
+     */
+    public int inRadius(double latitude, double longitude, double meters, PointVisitor visitor) {
+        if (size() == 0) {
+            return 0;
+        }
+        return inRadius(levels(), 0, new Query(latitude, longitude), meters / Geodesy.MEAN_RADIUS, visitor);
+    }
+
+    /**
+     * Up to {@code count} points nearest to the given coordinate, closest first. Nodes are expanded best-first, so
+     * only the part of the tree around the answer is touched.
+     */
+    public List<Neighbor> nearest(double latitude, double longitude, int count) {
+        List<Neighbor> neighbors = new ArrayList<>(Math.min(count, size()));
+        if (size() == 0 || count <= 0) {
+            return neighbors;
+        }
+        Query query = new Query(latitude, longitude);
+        NodeQueue queue = new NodeQueue();
+        queue.add(0, levels(), 0);
+        while (!queue.isEmpty() && neighbors.size() < count) {
+            double angle = queue.peekAngle();
+            int level = queue.peekLevel();
+            int node = queue.peekNode();
+            queue.poll();
+            if (level == 0) {
+                int id = ids[node];
+                int track = trackOf(id);
+                neighbors.add(new Neighbor(track, id - trackOffsets[track], angle * Geodesy.MEAN_RADIUS));
+                continue;
+            }
+            int from = firstChildren[level - 1][node];
+            int to = Math.min(from + NODE_SIZE, levelSize(level - 1));
+            for (int i = from; i < to; i++) {
+                if (level == 1) {
+                    queue.add(query.angle(latitudes[i], longitudes[i]), 0, i);
+                } else {
+                    queue.add(lowerBound(query, level - 2, i), level - 1, i);
+                }
+            }
+        }
+        return neighbors;
+    }
+
+    public void write(Path path) throws IOException {
+        long bytes = HEADER_SIZE + 4L * trackOffsets.length + 12L * size();
+        for (int[] level : firstChildren) {
+            bytes += 20L * level.length;
+        }
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+            file.set(INT, 0, MAGIC);
+            file.set(SHORT, 4, VERSION);
+            file.set(SHORT, 6, (short) NODE_SIZE);
+            file.set(INT, 8, getTrackCount());
+            file.set(INT, 12, size());
+            long offset = HEADER_SIZE;
+            offset = put(file, offset, trackOffsets);
+            offset = put(file, offset, latitudes);
+            offset = put(file, offset, longitudes);
+            offset = put(file, offset, ids);
+            for (int level = 0; level < levels(); level++) {
+                offset = put(file, offset, minLatitudes[level]);
+                offset = put(file, offset, minLongitudes[level]);
+                offset = put(file, offset, maxLatitudes[level]);
+                offset = put(file, offset, maxLongitudes[level]);
+                offset = put(file, offset, firstChildren[level]);
+            }
+            file.force();
+        }
+    }
+
+    public static SpatialIndex read(Path path) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (file.byteSize() < HEADER_SIZE || file.get(INT, 0) != MAGIC || file.get(SHORT, 4) != VERSION
+                    || file.get(SHORT, 6) != NODE_SIZE) {
+                throw new IOException("Invalid spatial index: bad header");
+            }
+            int trackCount = file.get(INT, 8);
+            int size = file.get(INT, 12);
+            int[] levelSizes = levelSizes(size);
+            long bytes = HEADER_SIZE + 4L * (trackCount + 1) + 12L * size + 20L * Arrays.stream(levelSizes).asLongStream().sum();
+            if (trackCount < 0 || size < 0 || file.byteSize() != bytes) {
+                throw new IOException("Invalid spatial index: " + file.byteSize() + " bytes for " + size + " points");
+            }
+            long[] offset = {HEADER_SIZE};
+            int[] trackOffsets = get(file, offset, trackCount + 1);
+            SpatialIndex index = new SpatialIndex(trackOffsets, get(file, offset, size), get(file, offset, size),
+                    get(file, offset, size), levelSizes.length);
+            for (int level = 0; level < levelSizes.length; level++) {
+                index.minLatitudes[level] = get(file, offset, levelSizes[level]);
+                index.minLongitudes[level] = get(file, offset, levelSizes[level]);
+                index.maxLatitudes[level] = get(file, offset, levelSizes[level]);
+                index.maxLongitudes[level] = get(file, offset, levelSizes[level]);
+                index.firstChildren[level] = get(file, offset, levelSizes[level]);
+                int children = level == 0 ? size : levelSizes[level - 1];
+                for (int first : index.firstChildren[level]) {
+                    if (first < 0 || first >= children || first % NODE_SIZE != 0) {
+                        throw new IOException("Invalid spatial index: child " + first + " of " + children);
+                    }
+                }
+            }
+            if (trackOffsets[0] != 0 || trackOffsets[trackCount] != size) {
+                throw new IOException("Invalid spatial index: tracks do not cover " + size + " points");
+            }
+            return index;
+        }
+    }
+
+    private int inBox(int level, int node, int s, int w, int n, int e, PointVisitor visitor) {
+        int from = firstChildren[level - 1][node];
+        int to = Math.min(from + NODE_SIZE, levelSize(level - 1));
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (level == 1) {
+                if (latitudes[i] >= s && latitudes[i] <= n && longitudes[i] >= w && longitudes[i] <= e) {
+                    visit(i, visitor);
+                    count++;
+                }
+            } else if (minLatitudes[level - 2][i] <= n && maxLatitudes[level - 2][i] >= s
+                    && minLongitudes[level - 2][i] <= e && maxLongitudes[level - 2][i] >= w) {
+                count += inBox(level - 1, i, s, w, n, e, visitor);
+            }
+        }
+        return count;
+    }
+
+    private int inRadius(int level, int node, Query query, double maxAngle, PointVisitor visitor) {
+        int from = firstChildren[level - 1][node];
+        int to = Math.min(from + NODE_SIZE, levelSize(level - 1));
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (level == 1) {
+                if (query.angle(latitudes[i], longitudes[i]) <= maxAngle) {
+                    visit(i, visitor);
+                    count++;
+                }
+            } else if (lowerBound(query, level - 2, i) <= maxAngle) {
+                count += inRadius(level - 1, i, query, maxAngle, visitor);
+            }
+        }
+        return count;
+    }
+
+    private double lowerBound(Query query, int level, int node) {
+        return query.lowerBound(minLatitudes[level][node], minLongitudes[level][node],
+                maxLatitudes[level][node], maxLongitudes[level][node]);
+    }
+
+    private void visit(int index, PointVisitor visitor) {
+        int id = ids[index];
+        int track = trackOf(id);
+        visitor.visit(track, id - trackOffsets[track]);
+    }
+
+    // Last track starting at or before id, which skips empty tracks
+    private int trackOf(int id) {
+        int low = 0;
+        int high = trackOffsets.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (trackOffsets[middle] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int levels() {
+        return firstChildren.length;
+    }
+
+    private int levelSize(int level) {
+        return level == 0 ? latitudes.length : firstChildren[level - 1].length;
+    }
+
+    private static SpatialIndex pack(int[] trackOffsets, int[] latitudes, int[] longitudes) {
+        int size = latitudes.length;
+        int[] order = sortTileRecursive(size, latitudes, longitudes, latitudes, longitudes);
+        int[] levelSizes = levelSizes(size);
+        SpatialIndex index = new SpatialIndex(trackOffsets, permute(latitudes, order), permute(longitudes, order),
+                order, levelSizes.length);
+
+        int[] south = index.latitudes;
+        int[] west = index.longitudes;
+        int[] north = index.latitudes;
+        int[] east = index.longitudes;
+        int count = size;
+        for (int level = 0; level < levelSizes.length; level++) {
+            int nodes = levelSizes[level];
+            int[] minLatitudes = new int[nodes];
+            int[] minLongitudes = new int[nodes];
+            int[] maxLatitudes = new int[nodes];
+            int[] maxLongitudes = new int[nodes];
+            int[] firstChildren = new int[nodes];
+            for (int node = 0; node < nodes; node++) {
+                int from = node * NODE_SIZE;
+                int to = Math.min(from + NODE_SIZE, count);
+                minLatitudes[node] = min(south, from, to);
+                minLongitudes[node] = min(west, from, to);
+                maxLatitudes[node] = max(north, from, to);
+                maxLongitudes[node] = max(east, from, to);
+                firstChildren[node] = from;
+            }
+            if (nodes > 1) {
+                // Order the nodes for grouping into the next level; they keep their children through firstChildren
+                order = sortTileRecursive(nodes, minLatitudes, minLongitudes, maxLatitudes, maxLongitudes);
+                minLatitudes = permute(minLatitudes, order);
+                minLongitudes = permute(minLongitudes, order);
+                maxLatitudes = permute(maxLatitudes, order);
+                maxLongitudes = permute(maxLongitudes, order);
+                firstChildren = permute(firstChildren, order);
+            }
+            index.minLatitudes[level] = south = minLatitudes;
+            index.minLongitudes[level] = west = minLongitudes;
+            index.maxLatitudes[level] = north = maxLatitudes;
+            index.maxLongitudes[level] = east = maxLongitudes;
+            index.firstChildren[level] = firstChildren;
+            count = nodes;
+        }
+        return index;
+    }
+
+    /**
+     * Order of the boxes for packing: sorted by center longitude into about sqrt(n / NODE_SIZE) vertical slices,
+     * each sorted by center latitude. The index is kept in the low half of the sort key.
+     */
+    private static int[] sortTileRecursive(int count, int[] south, int[] west, int[] north, int[] east) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) center(west[i], east[i]) << 32 | i;
+        }
+        Arrays.parallelSort(keys);
+        int nodes = ceilDiv(count, NODE_SIZE);
+        int sliceSize = NODE_SIZE * ceilDiv(nodes, Math.max(1, (int) Math.ceil(Math.sqrt(nodes))));
+        for (int from = 0; from < count; from += sliceSize) {
+            int to = Math.min(count, from + sliceSize);
+            for (int k = from; k < to; k++) {
+                int i = (int) keys[k];
+                keys[k] = (long) center(south[i], north[i]) << 32 | i;
+            }
+            Arrays.sort(keys, from, to);
+        }
+        int[] order = new int[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = (int) keys[k];
+        }
+        return order;
+    }
+
+    private static int[] levelSizes(int size) {
+        List<Integer> sizes = new ArrayList<>();
+        int count = size;
+        while (count > 1 || count == 1 && sizes.isEmpty()) {
+            count = ceilDiv(count, NODE_SIZE);
+            sizes.add(count);
+        }
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+        int[] permuted = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            permuted[i] = values[order[i]];
+        }
+        return permuted;
+    }
+
+    private static int min(int[] values, int from, int to) {
+        int min = values[from];
+        for (int i = from + 1; i < to; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    private static int max(int[] values, int from, int to) {
+        int max = values[from];
+        for (int i = from + 1; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    private static int center(int min, int max) {
+        return (int) (((long) min + max) >> 1);
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static int toE7(double degrees) {
+        return (int) Math.round(degrees * E7);
+    }
+
+    private static long put(MemorySegment file, long offset, int[] values) {
+        MemorySegment.copy(values, 0, file, INT, offset, values.length);
+        return offset + 4L * values.length;
+    }
+
+    private static int[] get(MemorySegment file, long[] offset, int count) {
+        int[] values = new int[count];
+        MemorySegment.copy(file, INT, offset[0], values, 0, count);
+        offset[0] += 4L * count;
+        return values;
+    }
+
+    @FunctionalInterface
+    public interface PointVisitor {
+        void visit(int track, int point);
+    }
+
+    public record Neighbor(int track, int point, double distance) {
+    }
+
+    /**
+     * Collects points track by track; the first track is started implicitly, {@link #nextTrack} starts the next one.
+     */
+    public static final class Builder implements Consumer<TrackPoint> {
+        private int size = 0;
+        private int[] latitudes = new int[1024];
+        private int[] longitudes = new int[1024];
+        private int[] trackOffsets = new int[8];
+        private int trackCount = 1;
+
+        private Builder() {
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (size == latitudes.length) {
+                int capacity = latitudes.length + (latitudes.length >> 1);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+            }
+            latitudes[size] = toE7(point.getLatitude());
+            longitudes[size] = toE7(point.getLongitude());
+            size++;
+        }
+
+        public void nextTrack() {
+            if (trackCount == trackOffsets.length) {
+                trackOffsets = Arrays.copyOf(trackOffsets, trackOffsets.length * 2);
+            }
+            trackOffsets[trackCount++] = size;
+        }
+
+        public SpatialIndex build() {
+            int[] offsets = Arrays.copyOf(trackOffsets, trackCount + 1);
+            offsets[trackCount] = size;
+            return pack(offsets, Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size));
+        }
+    }
+
+    /**
+     * Query coordinate in radians with the great-circle distances to points and boxes, as central angles.
+     */
+    private static final class Query {
+        private final double latitude;
+        private final double longitude;
+        private final double cosLatitude;
+
+        Query(double latitude, double longitude) {
+            this.latitude = Math.toRadians(latitude);
+            this.longitude = Math.toRadians(longitude);
+            cosLatitude = Math.cos(this.latitude);
+        }
+
+        double angle(int latitudeE7, int longitudeE7) {
+            return angle(haversin(longitudeE7 * RADIANS_PER_E7 - longitude), latitudeE7 * RADIANS_PER_E7);
+        }
+
+        /**
+         * Angle to the nearest point of the box. From outside its longitudes that point lies on the nearer meridian
+         * edge, either at the latitude where the great circle to the meridian is perpendicular or at a corner.
+         */
+        double lowerBound(int southE7, int westE7, int northE7, int eastE7) {
+            double south = southE7 * RADIANS_PER_E7;
+            double north = northE7 * RADIANS_PER_E7;
+            double west = westE7 * RADIANS_PER_E7;
+            double east = eastE7 * RADIANS_PER_E7;
+            if (longitude >= west && longitude <= east) {
+                if (latitude < south) {
+                    return south - latitude;
+                }
+                return latitude > north ? latitude - north : 0;
+            }
+            double haversinLongitude = Math.min(haversin(longitude - west), haversin(longitude - east));
+            double cosLongitude = 1 - 2 * haversinLongitude;
+            double extremum = cosLongitude <= 0
+                    ? Math.copySign(Math.PI / 2, latitude)
+                    : Math.atan(Math.tan(latitude) / cosLongitude);
+            if (extremum > south && extremum < north) {
+                return angle(haversinLongitude, extremum);
+            }
+            return Math.min(angle(haversinLongitude, south), angle(haversinLongitude, north));
+        }
+
+        private double angle(double haversinLongitude, double pointLatitude) {
+            double h = haversin(pointLatitude - latitude) + cosLatitude * Math.cos(pointLatitude) * haversinLongitude;
+            return 2.0 * Math.asin(Math.min(1.0, Math.sqrt(h)));
+        }
+
+        private static double haversin(double angle) {
+            double sin = Math.sin(angle * 0.5);
+            return sin * sin;
+        }
+    }
+
+    /**
+     * Binary min-heap of tree entries by central angle; level 0 entries are points.
+     */
+    private static final class NodeQueue {
+        private double[] angles = new double[64];
+        private long[] entries = new long[64];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekAngle() {
+            return angles[0];
+        }
+
+        int peekLevel() {
+            return (int) (entries[0] >>> 32);
+        }
+
+        int peekNode() {
+            return (int) entries[0];
+        }
+
+        void add(double angle, int level, int node) {
+            if (size == angles.length) {
+                angles = Arrays.copyOf(angles, size * 2);
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            int position = size++;
+            long entry = (long) level << 32 | node;
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (angles[parent] <= angle) {
+                    break;
+                }
+                angles[position] = angles[parent];
+                entries[position] = entries[parent];
+                position = parent;
+            }
+            angles[position] = angle;
+            entries[position] = entry;
+        }
+
+        void poll() {
+            size--;
+            double angle = angles[size];
+            long entry = entries[size];
+            int position = 0;
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && angles[child + 1] < angles[child]) {
+                    child++;
+                }
+                if (angle <= angles[child]) {
+                    break;
+                }
+                angles[position] = angles[child];
+                entries[position] = entries[child];
+                position = child;
+            }
+            angles[position] = angle;
+            entries[position] = entry;
+        }
+    }
+}
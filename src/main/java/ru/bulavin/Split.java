@@ -0,0 +1,9 @@
+package ru.bulavin;
+
+/**
+ * One split or lap: where it starts and ends (meters from the start of the track, epoch millis or
+ * {@link TrackPoint#NO_TIME}) and the statistics of its points, boundary points interpolated.
+ */
+public record Split(int number, double startDistance, double endDistance, long startTime, long endTime,
+                    long pointCount, GpxStatistics statistics) {
+}
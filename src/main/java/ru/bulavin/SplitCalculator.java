@@ -0,0 +1,168 @@
+package ru.bulavin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits a track by several {@link SplitPlan plans} in one pass. Each plan keeps one accumulator for its current
+ * split; when a step crosses a boundary the point on the boundary is interpolated linearly (position, elevation and
+ * time; no sensor values), closes the split and opens the next one. The step distance is computed once here and once
+ * per split accumulator, so the whole pass is O(n) whatever the number of splits.
+ */
+public class SplitCalculator implements Consumer<TrackPoint> {
+    private final DistanceModel distanceModel;
+    private final Segment segment;
+    private final List<PlanState> states = new ArrayList<>();
+    private final TrackPoint previous = new TrackPoint();
+    private final TrackPoint boundaryPoint = new TrackPoint();
+
+    private double distance = 0;
+    private long origin = TrackPoint.NO_TIME;
+
+    public SplitCalculator(List<SplitPlan> plans) {
+        this(DistanceModel.VINCENTY, plans);
+    }
+
+    public SplitCalculator(DistanceModel distanceModel, List<SplitPlan> plans) {
+        this.distanceModel = distanceModel;
+        segment = new Segment(distanceModel);
+        for (SplitPlan plan : plans) {
+            states.add(new PlanState(plan));
+        }
+    }
+
+    public static List<Split> split(TrackColumns track, SplitPlan plan) {
+        SplitCalculator calculator = new SplitCalculator(List.of(plan));
+        track.forEach(calculator);
+        return calculator.finish().getFirst();
+    }
+
+    @Override
+    public void accept(TrackPoint point) {
+        if (origin == TrackPoint.NO_TIME && point.hasTime()) {
+            origin = point.getTime();
+        }
+        if (!segment.advance(point)) {
+            for (PlanState state : states) {
+                state.start(point);
+            }
+        } else {
+            double before = distance;
+            distance += segment.getDistance();
+            for (PlanState state : states) {
+                state.advance(point, before, distance);
+            }
+        }
+        copy(point, previous);
+    }
+
+    /**
+     * Closes the last split of every plan and returns the splits per plan, in the order the plans were given.
+     */
+    public List<List<Split>> finish() {
+        List<List<Split>> result = new ArrayList<>();
+        for (PlanState state : states) {
+            state.finish();
+            result.add(state.splits);
+        }
+        return result;
+    }
+
+    private final class PlanState {
+        private final SplitPlan plan;
+        private final List<Split> splits = new ArrayList<>();
+        private GpxStatisticsAccumulator accumulator;
+        private int boundaryIndex = 0;
+        private double startDistance = 0;
+        private long startTime = TrackPoint.NO_TIME;
+
+        PlanState(SplitPlan plan) {
+            this.plan = plan;
+            accumulator = new GpxStatisticsAccumulator(distanceModel);
+        }
+
+        void start(TrackPoint point) {
+            accumulator.accept(point);
+            startTime = point.getTime();
+        }
+
+        void advance(TrackPoint point, double before, double after) {
+            boolean cut = false;
+            double fraction;
+            while (!Double.isNaN(fraction = nextFraction(point, before, after))) {
+                interpolate(previous, point, fraction, boundaryPoint);
+                accumulator.acceptPart(boundaryPoint, segment);
+                double boundaryDistance = before + (after - before) * fraction;
+                close(boundaryDistance, boundaryPoint.getTime());
+
+                accumulator = new GpxStatisticsAccumulator(distanceModel);
+                accumulator.accept(boundaryPoint);
+                startDistance = boundaryDistance;
+                startTime = boundaryPoint.getTime();
+                boundaryIndex++;
+                cut = true;
+            }
+            if (cut) {
+                accumulator.acceptPart(point, segment);
+            } else {
+                accumulator.accept(point);
+            }
+        }
+
+        // Position of the next boundary within the step from previous to point, NaN if it is not in this step
+        private double nextFraction(TrackPoint point, double before, double after) {
+            if (plan.getAxis() == SplitPlan.Axis.DISTANCE) {
+                double boundary = plan.boundary(boundaryIndex, 0);
+                if (boundary > after) {
+                    return Double.NaN;
+                }
+                return after > before ? Math.max(0, (boundary - before) / (after - before)) : 0;
+            }
+            if (origin == TrackPoint.NO_TIME || !previous.hasTime() || !point.hasTime()) {
+                return Double.NaN;
+            }
+            double boundary = plan.boundary(boundaryIndex, origin);
+            if (boundary > point.getTime()) {
+                return Double.NaN;
+            }
+            long duration = point.getTime() - previous.getTime();
+            return duration > 0 ? Math.max(0, (boundary - previous.getTime()) / duration) : 0;
+        }
+
+        void finish() {
+            if (accumulator.getPointCount() > 1 || (splits.isEmpty() && accumulator.getPointCount() > 0)) {
+                close(distance, previous.getTime());
+            }
+        }
+
+        private void close(double endDistance, long endTime) {
+            splits.add(new Split(splits.size() + 1, startDistance, endDistance, startTime, endTime,
+                    accumulator.getPointCount(), accumulator.toStatistics()));
+        }
+    }
+
+    private static void interpolate(TrackPoint from, TrackPoint to, double fraction, TrackPoint target) {
+        target.clear();
+        target.setLatitude(from.getLatitude() + (to.getLatitude() - from.getLatitude()) * fraction);
+        target.setLongitude(from.getLongitude() + (to.getLongitude() - from.getLongitude()) * fraction);
+        if (from.hasElevation() && to.hasElevation()) {
+            target.setElevation(from.getElevation() + (to.getElevation() - from.getElevation()) * fraction);
+        }
+        if (from.hasTime() && to.hasTime()) {
+            target.setTime(from.getTime() + Math.round((to.getTime() - from.getTime()) * fraction));
+        }
+    }
+
+    private static void copy(TrackPoint source, TrackPoint target) {
+        target.clear();
+        target.setLatitude(source.getLatitude());
+        target.setLongitude(source.getLongitude());
+        if (source.hasElevation()) {
+            target.setElevation(source.getElevation());
+        }
+        if (source.hasTime()) {
+            target.setTime(source.getTime());
+        }
+    }
+}
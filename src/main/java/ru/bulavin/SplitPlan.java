@@ -0,0 +1,82 @@
+package ru.bulavin;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Where a track is split: every N meters or every N of elapsed time, or at explicit lap boundaries given as distances
+ * from the start or as points in time.
+ */
+public final class SplitPlan {
+    enum Axis {DISTANCE, TIME}
+
+    private final Axis axis;
+    private final double interval;
+    private final double[] boundaries;
+
+    private SplitPlan(Axis axis, double interval, double[] boundaries) {
+        this.axis = axis;
+        this.interval = interval;
+        this.boundaries = boundaries;
+    }
+
+    public static SplitPlan everyKilometer() {
+        return everyDistance(1000);
+    }
+
+    public static SplitPlan everyDistance(double meters) {
+        if (!(meters > 0)) {
+            throw new IllegalArgumentException("Split distance must be positive: " + meters);
+        }
+        return new SplitPlan(Axis.DISTANCE, meters, null);
+    }
+
+    /**
+     * Splits by time elapsed since the first point that has a time.
+     */
+    public static SplitPlan everyDuration(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("Split duration must be positive: " + duration);
+        }
+        return new SplitPlan(Axis.TIME, duration.toMillis(), null);
+    }
+
+    /**
+     * Lap boundaries in meters from the start, ascending.
+     */
+    public static SplitPlan atDistances(double... meters) {
+        return new SplitPlan(Axis.DISTANCE, 0, checkAscending(meters.clone()));
+    }
+
+    /**
+     * Lap boundaries as points in time, ascending, e.g. lap button presses.
+     */
+    public static SplitPlan atTimes(List<Instant> times) {
+        return new SplitPlan(Axis.TIME, 0, checkAscending(times.stream().mapToDouble(Instant::toEpochMilli).toArray()));
+    }
+
+    Axis getAxis() {
+        return axis;
+    }
+
+    /**
+     * The {@code index}-th boundary in meters from the start or in epoch millis, {@code origin} being the time of the
+     * first timed point; infinity after the last one.
+     */
+    double boundary(int index, double origin) {
+        if (boundaries == null) {
+            return origin + (index + 1) * interval;
+        }
+        return index < boundaries.length ? boundaries[index] : Double.POSITIVE_INFINITY;
+    }
+
+    private static double[] checkAscending(double[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] <= values[i - 1]) {
+                throw new IllegalArgumentException("Lap boundaries must be ascending");
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,236 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Columnar, primitive representation of a track: one array per field and a presence bitset per optional field.
+ * Takes about 38 bytes per point instead of a WayPoint object graph.
+ */
+public final class TrackColumns {
+    // Fraction digits tried by widen(), 10^8 times a float is still exact in a double
+    private static final int MAX_WIDEN_DIGITS = 8;
+
+    private final int size;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] elevations;
+    private final long[] times;
+    private final float[] temperatures;
+    private final short[] heartRates;
+    private final BitSet elevationPresent;
+    private final BitSet timePresent;
+    private final BitSet temperaturePresent;
+    private final BitSet heartRatePresent;
+
+    private TrackColumns(Builder builder) {
+        size = builder.size;
+        latitudes = Arrays.copyOf(builder.latitudes, size);
+        longitudes = Arrays.copyOf(builder.longitudes, size);
+        elevations = Arrays.copyOf(builder.elevations, size);
+        times = Arrays.copyOf(builder.times, size);
+        temperatures = Arrays.copyOf(builder.temperatures, size);
+        heartRates = Arrays.copyOf(builder.heartRates, size);
+        elevationPresent = (BitSet) builder.elevationPresent.clone();
+        timePresent = (BitSet) builder.timePresent.clone();
+        temperaturePresent = (BitSet) builder.temperaturePresent.clone();
+        heartRatePresent = (BitSet) builder.heartRatePresent.clone();
+    }
+
+    public static TrackColumns of(List<WayPoint> points) {
+        Builder builder = new Builder(points.size());
+        TrackPoint trackPoint = new TrackPoint();
+        for (WayPoint point : points) {
+            trackPoint.set(point);
+            builder.accept(trackPoint);
+        }
+        return builder.build();
+    }
+
+    public static TrackColumns read(Path path) throws IOException {
+        Builder builder = new Builder();
+        GpxStreamReader.read(path, builder);
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public boolean hasElevation(int index) {
+        return elevationPresent.get(index);
+    }
+
+    public double getElevation(int index) {
+        return elevations[index];
+    }
+
+    public boolean hasTime(int index) {
+        return timePresent.get(index);
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public boolean hasTemperature(int index) {
+        return temperaturePresent.get(index);
+    }
+
+    public float getTemperature(int index) {
+        return temperatures[index];
+    }
+
+    /**
+     * Temperature as it was read: temperatures are kept as float, and {@code (double) 22.3f} would be
+     * 22.299999237060547. The shortest decimal of the float is the value of the GPX text as long as it has at most
+     * seven significant digits. It is the first of {@code n / 10^k} for k = 0, 1, ... that rounds back to the float,
+     * found without a string; both operands are exact, so the division gives the same double as parsing the decimal.
+     */
+    static double widen(float value) {
+        if (Float.isFinite(value) && Math.abs(value) < 1e7) {
+            double scale = 1;
+            for (int digits = 0; digits <= MAX_WIDEN_DIGITS; digits++) {
+                double decimal = Math.rint(value * scale) / scale;
+                if ((float) decimal == value) {
+                    return decimal;
+                }
+                scale *= 10;
+            }
+        }
+        // Far outside the range of temperatures
+        return Double.parseDouble(Float.toString(value));
+    }
+
+    public boolean hasHeartRate(int index) {
+        return heartRatePresent.get(index);
+    }
+
+    public short getHeartRate(int index) {
+        return heartRates[index];
+    }
+
+    /**
+     * Copies the point at {@code index} into the reusable {@code point}, leaving absent fields unset.
+     */
+    public void get(int index, TrackPoint point) {
+        point.clear();
+        point.setLatitude(latitudes[index]);
+        point.setLongitude(longitudes[index]);
+        if (elevationPresent.get(index)) {
+            point.setElevation(elevations[index]);
+        }
+        if (timePresent.get(index)) {
+            point.setTime(times[index]);
+        }
+        if (temperaturePresent.get(index)) {
+            point.setTemperature(widen(temperatures[index]));
+        }
+        if (heartRatePresent.get(index)) {
+            point.setHeartRate(heartRates[index]);
+        }
+    }
+
+    public void forEach(Consumer<TrackPoint> consumer) {
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < size; i++) {
+            get(i, point);
+            consumer.accept(point);
+        }
+    }
+
+    public static final class Builder implements Consumer<TrackPoint> {
+        private static final int DEFAULT_CAPACITY = 1024;
+
+        private int size = 0;
+        private double[] latitudes;
+        private double[] longitudes;
+        private double[] elevations;
+        private long[] times;
+        private float[] temperatures;
+        private short[] heartRates;
+        private final BitSet elevationPresent = new BitSet();
+        private final BitSet timePresent = new BitSet();
+        private final BitSet temperaturePresent = new BitSet();
+        private final BitSet heartRatePresent = new BitSet();
+
+        private Builder() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        private Builder(int capacity) {
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            elevations = new double[capacity];
+            times = new long[capacity];
+            temperatures = new float[capacity];
+            heartRates = new short[capacity];
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (size == latitudes.length) {
+                grow();
+            }
+            latitudes[size] = point.getLatitude();
+            longitudes[size] = point.getLongitude();
+            if (point.hasElevation()) {
+                elevations[size] = point.getElevation();
+                elevationPresent.set(size);
+            }
+            if (point.hasTime()) {
+                times[size] = point.getTime();
+                timePresent.set(size);
+            }
+            if (point.hasTemperature()) {
+                temperatures[size] = (float) point.getTemperature();
+                temperaturePresent.set(size);
+            }
+            if (point.hasHeartRate()) {
+                heartRates[size] = (short) point.getHeartRate();
+                heartRatePresent.set(size);
+            }
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public TrackColumns build() {
+            return new TrackColumns(this);
+        }
+
+        private void grow() {
+            int capacity = Math.max(DEFAULT_CAPACITY, latitudes.length + (latitudes.length >> 1));
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            elevations = Arrays.copyOf(elevations, capacity);
+            times = Arrays.copyOf(times, capacity);
+            temperatures = Arrays.copyOf(temperatures, capacity);
+            heartRates = Arrays.copyOf(heartRates, capacity);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.bulavin;
+
+import java.util.function.Consumer;
+
+/**
+ * Stage of a preprocessing chain in front of the statistics: takes points one at a time and passes the points it
+ * keeps, possibly changed, to the next consumer. A stage never changes the point it was given, and may hold a bounded
+ * number of points back until {@link #finish()}.
+ */
+public abstract class TrackFilter implements Consumer<TrackPoint> {
+    protected final Consumer<TrackPoint> downstream;
+
+    protected TrackFilter(Consumer<TrackPoint> downstream) {
+        this.downstream = downstream;
+    }
+
+    /**
+     * Passes on the points still held back and finishes the following stages. Call once after the last point.
+     */
+    public void finish() {
+        if (downstream instanceof TrackFilter next) {
+            next.finish();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.Length;
+import io.jenetics.jpx.WayPoint;
+
+import java.time.Instant;
+
+/**
+ * Mutable, reusable view of a single track point with primitive fields.
+ * Readers fill one instance per point and hand it to a consumer, so the consumer must not keep a reference to it.
+ */
+public final class TrackPoint {
+    public static final long NO_TIME = Long.MIN_VALUE;
+    public static final int NO_HEART_RATE = Integer.MIN_VALUE;
+
+    private double latitude;
+    private double longitude;
+    private double elevation = Double.NaN;
+    private long time = NO_TIME;
+    private double temperature = Double.NaN;
+    private int heartRate = NO_HEART_RATE;
+    private double cadence = Double.NaN;
+    private double ambientTemperature = Double.NaN;
+    private double power = Double.NaN;
+
+    private GpxExtensionValues extensionValues;
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getElevation() {
+        return elevation;
+    }
+
+    public boolean hasElevation() {
+        return !Double.isNaN(elevation);
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public boolean hasTime() {
+        return time != NO_TIME;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public boolean hasTemperature() {
+        return !Double.isNaN(temperature);
+    }
+
+    public int getHeartRate() {
+        return heartRate;
+    }
+
+    public boolean hasHeartRate() {
+        return heartRate != NO_HEART_RATE;
+    }
+
+    public double getCadence() {
+        return cadence;
+    }
+
+    public boolean hasCadence() {
+        return !Double.isNaN(cadence);
+    }
+
+    public double getAmbientTemperature() {
+        return ambientTemperature;
+    }
+
+    public boolean hasAmbientTemperature() {
+        return !Double.isNaN(ambientTemperature);
+    }
+
+    public double getPower() {
+        return power;
+    }
+
+    public boolean hasPower() {
+        return !Double.isNaN(power);
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public void setElevation(double elevation) {
+        this.elevation = elevation;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public void setTemperature(double temperature) {
+        this.temperature = temperature;
+    }
+
+    public void setHeartRate(int heartRate) {
+        this.heartRate = heartRate;
+    }
+
+    public void setCadence(double cadence) {
+        this.cadence = cadence;
+    }
+
+    public void setAmbientTemperature(double ambientTemperature) {
+        this.ambientTemperature = ambientTemperature;
+    }
+
+    public void setPower(double power) {
+        this.power = power;
+    }
+
+    public void setExtension(GpxExtension extension, double value) {
+        switch (extension) {
+            case HEART_RATE -> heartRate = (int) value;
+            case TEMPERATURE -> temperature = value;
+            case CADENCE -> cadence = value;
+            case AMBIENT_TEMPERATURE -> ambientTemperature = value;
+            case POWER -> power = value;
+        }
+    }
+
+    /**
+     * Value of {@code extension}, NaN if absent; heart rate is returned as a double.
+     */
+    public double getExtension(GpxExtension extension) {
+        return switch (extension) {
+            case HEART_RATE -> hasHeartRate() ? heartRate : Double.NaN;
+            case TEMPERATURE -> temperature;
+            case CADENCE -> cadence;
+            case AMBIENT_TEMPERATURE -> ambientTemperature;
+            case POWER -> power;
+        };
+    }
+
+    public boolean hasExtension(GpxExtension extension) {
+        return switch (extension) {
+            case HEART_RATE -> hasHeartRate();
+            case TEMPERATURE -> hasTemperature();
+            case CADENCE -> hasCadence();
+            case AMBIENT_TEMPERATURE -> hasAmbientTemperature();
+            case POWER -> hasPower();
+        };
+    }
+
+    public void clear() {
+        latitude = 0.0;
+        longitude = 0.0;
+        elevation = Double.NaN;
+        time = NO_TIME;
+        temperature = Double.NaN;
+        heartRate = NO_HEART_RATE;
+        cadence = Double.NaN;
+        ambientTemperature = Double.NaN;
+        power = Double.NaN;
+    }
+
+    /**
+     * Copies every field of {@code point}.
+     */
+    public void set(TrackPoint point) {
+        latitude = point.latitude;
+        longitude = point.longitude;
+        elevation = point.elevation;
+        time = point.time;
+        temperature = point.temperature;
+        heartRate = point.heartRate;
+        cadence = point.cadence;
+        ambientTemperature = point.ambientTemperature;
+        power = point.power;
+    }
+
+    /**
+     * Reads the extensions {@link GpxStatistics} uses, temperature and heart rate; the others are left absent, so a
+     * malformed value there does not fail the point.
+     */
+    public void set(WayPoint point) {
+        if (extensionValues == null) {
+            extensionValues = new GpxExtensionValues(GpxMetric.extensions(GpxMetric.ALL));
+        }
+        set(point, extensionValues);
+    }
+
+    /**
+     * Reads only the extensions wanted by {@code extensionValues}, the others are left absent.
+     */
+    public void set(WayPoint point, GpxExtensionValues extensionValues) {
+        latitude = point.getLatitude().doubleValue();
+        longitude = point.getLongitude().doubleValue();
+        elevation = point.getElevation().map(Length::doubleValue).orElse(Double.NaN);
+        time = point.getTime().map(Instant::toEpochMilli).orElse(NO_TIME);
+        GpxHelper.readExtensions(point, extensionValues);
+        temperature = extensionValues.get(GpxExtension.TEMPERATURE);
+        heartRate = extensionValues.has(GpxExtension.HEART_RATE) ? extensionValues.getInt(GpxExtension.HEART_RATE) : NO_HEART_RATE;
+        cadence = extensionValues.get(GpxExtension.CADENCE);
+        ambientTemperature = extensionValues.get(GpxExtension.AMBIENT_TEMPERATURE);
+        power = extensionValues.get(GpxExtension.POWER);
+    }
+}
@@ -0,0 +1,421 @@
+package ru.bulavin;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * Noise filtering and smoothing applied to the points before the statistics. Every stage is optional and they always
+ * run in this order:
+ * <ol>
+ *     <li>{@code interval}: drops points less than the given seconds after the previous kept point, including equal
+ *     and backward timestamps, which otherwise give infinite or undefined speeds;</li>
+ *     <li>{@code spike}: drops points that would need more than the given speed in m/s from the previous kept point;
+ *     after {@value #MAX_REJECTED_SPIKES} drops in a row the track is taken to have really moved;</li>
+ *     <li>{@code kalman}: smooths positions with a Kalman filter for the given GPS accuracy in meters, optionally
+ *     followed by the expected speed change in m/s ({@code kalman=5:3});</li>
+ *     <li>{@code median}: replaces elevations with the moving median over the given odd number of points;</li>
+ *     <li>{@code hysteresis}: ignores elevation changes until they exceed the given meters, so jitter does not add to
+ *     ascent and descent.</li>
+ * </ol>
+ * The stages are streaming and keep at most the median window of points, in preallocated {@link TrackPoint}s.
+ */
+public final class TrackPreprocessing {
+    public static final TrackPreprocessing NONE = builder().build();
+
+    static final int MAX_REJECTED_SPIKES = 4;
+    private static final double DEFAULT_KALMAN_SPEED = 3.0;
+
+    private final long minIntervalMillis;
+    private final double maxSpeed;
+    private final double kalmanAccuracy;
+    private final double kalmanSpeed;
+    private final int medianWindow;
+    private final double hysteresis;
+
+    private TrackPreprocessing(Builder builder) {
+        minIntervalMillis = builder.minIntervalMillis;
+        maxSpeed = builder.maxSpeed;
+        kalmanAccuracy = builder.kalmanAccuracy;
+        kalmanSpeed = builder.kalmanSpeed;
+        medianWindow = builder.medianWindow;
+        hysteresis = builder.hysteresis;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Parses a comma-separated list such as {@code interval=1,spike=50,median=5,hysteresis=2}; {@code none} or an empty
+     * string turn every stage off.
+     */
+    public static TrackPreprocessing parse(String spec) {
+        Builder builder = builder();
+        if (spec.isBlank() || spec.trim().equalsIgnoreCase("none")) {
+            return builder.build();
+        }
+        for (String option : spec.split(",")) {
+            String[] parts = option.trim().split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected name=value: " + option);
+            }
+            String value = parts[1].trim();
+            switch (parts[0].trim().toLowerCase(Locale.ROOT)) {
+                case "interval" -> builder.minInterval(Duration.ofMillis(Math.round(Double.parseDouble(value) * 1000)));
+                case "spike" -> builder.maxSpeed(Double.parseDouble(value));
+                case "kalman" -> {
+                    String[] values = value.split(":", 2);
+                    builder.kalman(Double.parseDouble(values[0]),
+                            values.length > 1 ? Double.parseDouble(values[1]) : DEFAULT_KALMAN_SPEED);
+                }
+                case "median" -> builder.elevationMedian(Integer.parseInt(value));
+                case "hysteresis" -> builder.elevationHysteresis(Double.parseDouble(value));
+                default -> throw new IllegalArgumentException("Unknown filter: " + parts[0]);
+            }
+        }
+        return builder.build();
+    }
+
+    public boolean isNone() {
+        return minIntervalMillis == 0 && maxSpeed == 0 && kalmanAccuracy == 0 && medianWindow == 0 && hysteresis == 0;
+    }
+
+    /**
+     * Canonical form accepted by {@link #parse}, the same for equal settings.
+     */
+    public String spec() {
+        if (isNone()) {
+            return "none";
+        }
+        StringJoiner spec = new StringJoiner(",");
+        if (minIntervalMillis > 0) {
+            spec.add("interval=" + minIntervalMillis / 1000.0);
+        }
+        if (maxSpeed > 0) {
+            spec.add("spike=" + maxSpeed);
+        }
+        if (kalmanAccuracy > 0) {
+            spec.add("kalman=" + kalmanAccuracy + ":" + kalmanSpeed);
+        }
+        if (medianWindow > 0) {
+            spec.add("median=" + medianWindow);
+        }
+        if (hysteresis > 0) {
+            spec.add("hysteresis=" + hysteresis);
+        }
+        return spec.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TrackPreprocessing preprocessing && spec().equals(preprocessing.spec());
+    }
+
+    @Override
+    public int hashCode() {
+        return spec().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return spec();
+    }
+
+    /**
+     * A fresh chain of the enabled stages feeding {@code downstream}; it keeps the state of one track.
+     *
+     * @param distanceModel model for the speeds of the spike stage
+     */
+    public TrackFilter chain(DistanceModel distanceModel, Consumer<TrackPoint> downstream) {
+        Consumer<TrackPoint> next = downstream;
+        if (hysteresis > 0) {
+            next = new HysteresisFilter(next, hysteresis);
+        }
+        if (medianWindow > 0) {
+            next = new MedianFilter(next, medianWindow);
+        }
+        if (kalmanAccuracy > 0) {
+            next = new KalmanFilter(next, kalmanAccuracy, kalmanSpeed);
+        }
+        if (maxSpeed > 0) {
+            next = new SpikeFilter(next, maxSpeed, distanceModel);
+        }
+        if (minIntervalMillis > 0) {
+            next = new IntervalFilter(next, minIntervalMillis);
+        }
+        return next instanceof TrackFilter filter ? filter : new PassFilter(next);
+    }
+
+    public static final class Builder {
+        private long minIntervalMillis = 0;
+        private double maxSpeed = 0;
+        private double kalmanAccuracy = 0;
+        private double kalmanSpeed = DEFAULT_KALMAN_SPEED;
+        private int medianWindow = 0;
+        private double hysteresis = 0;
+
+        private Builder() {
+        }
+
+        public Builder minInterval(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("Minimum interval must be positive: " + interval);
+            }
+            minIntervalMillis = interval.toMillis();
+            return this;
+        }
+
+        /**
+         * @param metersPerSecond fastest plausible speed between two points
+         */
+        public Builder maxSpeed(double metersPerSecond) {
+            maxSpeed = positive(metersPerSecond, "Spike speed");
+            return this;
+        }
+
+        /**
+         * @param accuracy        GPS position error in meters
+         * @param metersPerSecond how much the speed is expected to change per second
+         */
+        public Builder kalman(double accuracy, double metersPerSecond) {
+            kalmanAccuracy = positive(accuracy, "Kalman accuracy");
+            kalmanSpeed = positive(metersPerSecond, "Kalman speed");
+            return this;
+        }
+
+        public Builder elevationMedian(int window) {
+            if (window < 3 || window % 2 == 0) {
+                throw new IllegalArgumentException("Median window must be odd and at least 3: " + window);
+            }
+            medianWindow = window;
+            return this;
+        }
+
+        public Builder elevationHysteresis(double meters) {
+            hysteresis = positive(meters, "Hysteresis");
+            return this;
+        }
+
+        public TrackPreprocessing build() {
+            return new TrackPreprocessing(this);
+        }
+
+        private static double positive(double value, String name) {
+            if (!(value > 0) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+
+    private static final class PassFilter extends TrackFilter {
+        PassFilter(Consumer<TrackPoint> downstream) {
+            super(downstream);
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            downstream.accept(point);
+        }
+    }
+
+    private static final class IntervalFilter extends TrackFilter {
+        private final long minInterval;
+        private long lastTime = TrackPoint.NO_TIME;
+
+        IntervalFilter(Consumer<TrackPoint> downstream, long minInterval) {
+            super(downstream);
+            this.minInterval = minInterval;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (point.hasTime()) {
+                if (lastTime != TrackPoint.NO_TIME && point.getTime() - lastTime < minInterval) {
+                    return;
+                }
+                lastTime = point.getTime();
+            }
+            downstream.accept(point);
+        }
+    }
+
+    private static final class SpikeFilter extends TrackFilter {
+        private final double maxSpeed;
+        private final DistanceModel distanceModel;
+        private boolean hasLast = false;
+        private double lastLatitude;
+        private double lastLongitude;
+        private long lastTime;
+        private int rejected = 0;
+
+        SpikeFilter(Consumer<TrackPoint> downstream, double maxSpeed, DistanceModel distanceModel) {
+            super(downstream);
+            this.maxSpeed = maxSpeed;
+            this.distanceModel = distanceModel;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (hasLast && point.hasTime() && lastTime != TrackPoint.NO_TIME && point.getTime() > lastTime
+                    && rejected < MAX_REJECTED_SPIKES) {
+                double distance = distanceModel.distance(lastLatitude, lastLongitude, point.getLatitude(), point.getLongitude());
+                if (distance * 1000.0 / (point.getTime() - lastTime) > maxSpeed) {
+                    rejected++;
+                    return;
+                }
+            }
+            rejected = 0;
+            hasLast = true;
+            lastLatitude = point.getLatitude();
+            lastLongitude = point.getLongitude();
+            lastTime = point.getTime();
+            downstream.accept(point);
+        }
+    }
+
+    /**
+     * Constant-position Kalman filter per coordinate: the variance in m² grows with the squared expected speed change
+     * over the time since the last point (one second for untimed points) and shrinks with every measurement.
+     */
+    private static final class KalmanFilter extends TrackFilter {
+        private final double measurementVariance;
+        private final double speedVariance;
+        private final TrackPoint smoothed = new TrackPoint();
+        private double variance = -1;
+        private double latitude;
+        private double longitude;
+        private long lastTime = TrackPoint.NO_TIME;
+
+        KalmanFilter(Consumer<TrackPoint> downstream, double accuracy, double speed) {
+            super(downstream);
+            measurementVariance = accuracy * accuracy;
+            speedVariance = speed * speed;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (variance < 0) {
+                variance = measurementVariance;
+                latitude = point.getLatitude();
+                longitude = point.getLongitude();
+            } else {
+                long elapsed = point.hasTime() && lastTime != TrackPoint.NO_TIME ? point.getTime() - lastTime : 1000;
+                variance += Math.max(0, elapsed) * speedVariance / 1000.0;
+                double gain = variance / (variance + measurementVariance);
+                latitude += gain * (point.getLatitude() - latitude);
+                longitude += gain * (point.getLongitude() - longitude);
+                variance *= 1 - gain;
+            }
+            if (point.hasTime()) {
+                lastTime = point.getTime();
+            }
+            smoothed.set(point);
+            smoothed.setLatitude(latitude);
+            smoothed.setLongitude(longitude);
+            downstream.accept(smoothed);
+        }
+    }
+
+    /**
+     * Holds back half a window of points in a ring; near the ends of the track the window is cut short. Points
+     * without elevation keep none and are left out of their neighbours' medians.
+     */
+    private static final class MedianFilter extends TrackFilter {
+        private final int half;
+        private final TrackPoint[] ring;
+        private final double[] window;
+        private long received = 0;
+        private long emitted = 0;
+
+        MedianFilter(Consumer<TrackPoint> downstream, int size) {
+            super(downstream);
+            half = size / 2;
+            ring = new TrackPoint[size];
+            for (int i = 0; i < size; i++) {
+                ring[i] = new TrackPoint();
+            }
+            window = new double[size];
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            // Overwrites the point a whole window back, which no remaining median needs
+            ring[(int) (received % ring.length)].set(point);
+            received++;
+            if (received > half) {
+                emit(received - 1 - half);
+            }
+        }
+
+        @Override
+        public void finish() {
+            while (emitted < received) {
+                emit(emitted);
+            }
+            super.finish();
+        }
+
+        private void emit(long center) {
+            TrackPoint point = ring[(int) (center % ring.length)];
+            if (point.hasElevation()) {
+                int count = 0;
+                for (long i = Math.max(0, center - half); i <= Math.min(received - 1, center + half); i++) {
+                    TrackPoint neighbour = ring[(int) (i % ring.length)];
+                    if (neighbour.hasElevation()) {
+                        window[count++] = neighbour.getElevation();
+                    }
+                }
+                Arrays.sort(window, 0, count);
+                double median = count % 2 == 1
+                        ? window[count / 2]
+                        : (window[count / 2 - 1] + window[count / 2]) / 2;
+                // The median of the next center still needs the raw elevation of this point
+                double raw = point.getElevation();
+                point.setElevation(median);
+                downstream.accept(point);
+                point.setElevation(raw);
+            } else {
+                downstream.accept(point);
+            }
+            emitted = center + 1;
+        }
+    }
+
+    /**
+     * Dead band around the reported elevation: it only follows the raw elevation once that is more than the threshold
+     * away, and then stays exactly the threshold behind.
+     */
+    private static final class HysteresisFilter extends TrackFilter {
+        private final double threshold;
+        private final TrackPoint filtered = new TrackPoint();
+        private double elevation = Double.NaN;
+
+        HysteresisFilter(Consumer<TrackPoint> downstream, double threshold) {
+            super(downstream);
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void accept(TrackPoint point) {
+            if (!point.hasElevation()) {
+                downstream.accept(point);
+                return;
+            }
+            double raw = point.getElevation();
+            if (Double.isNaN(elevation)) {
+                elevation = raw;
+            } else if (raw > elevation + threshold) {
+                elevation = raw - threshold;
+            } else if (raw < elevation - threshold) {
+                elevation = raw + threshold;
+            }
+            filtered.set(point);
+            filtered.setElevation(elevation);
+            downstream.accept(filtered);
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package ru.bulavin;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * Elevation, speed and heart rate of a track along its distance, for charts. The values are kept off heap in
+ * {@link MemorySegment}s together with a pyramid of block summaries (minimum, maximum and sum of every
+ * {@value #FANOUT}, {@value #FANOUT}² ... points), so a series for any visible range is built from the pyramid
+ * instead of from the raw points: about a hundred reads per pixel, whatever the zoom.
+ * <p>
+ * Two kinds of series are produced: {@link #buckets} with minimum, maximum and average per pixel, and {@link #lttb},
+ * a line of the given number of points picked with Largest-Triangle-Three-Buckets from the minima and maxima of
+ * narrower buckets (MinMaxLTTB).
+ * <p>
+ * Memory is owned by the arena: {@link #of(TrackColumns)} releases it when the profile is garbage collected,
+ * {@link #of(TrackColumns, DistanceModel, Arena)} when the given arena is closed.
+ */
+public final class TrackProfile {
+    static final int FANOUT = 16;
+    // Ratio of MinMaxLTTB candidates to output points
+    private static final int LTTB_RATIO = 4;
+
+    private static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE;
+
+    public enum Channel {
+        ELEVATION("Высота, м"),
+        SPEED("Скорость, км/ч"),
+        HEART_RATE("Пульс, уд/мин");
+
+        private final String label;
+
+        Channel(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final int size;
+    // Distance from the start in meters, non-decreasing
+    private final MemorySegment distances;
+    // Per channel, null when no point has a value
+    private final Column[] columns;
+
+    private TrackProfile(int size, MemorySegment distances, Column[] columns) {
+        this.size = size;
+        this.distances = distances;
+        this.columns = columns;
+    }
+
+    public static TrackProfile of(TrackColumns track) {
+        return of(track, DistanceModel.EQUIRECTANGULAR, Arena.ofAuto());
+    }
+
+    public static TrackProfile of(TrackColumns track, DistanceModel distanceModel, Arena arena) {
+        int size = track.size();
+        MemorySegment distances = allocate(arena, FLOAT, Math.max(size, 1));
+        MemorySegment elevations = allocate(arena, FLOAT, Math.max(size, 1));
+        MemorySegment speeds = allocate(arena, FLOAT, Math.max(size, 1));
+        MemorySegment heartRates = allocate(arena, FLOAT, Math.max(size, 1));
+        boolean hasElevation = false;
+        boolean hasSpeed = false;
+        boolean hasHeartRate = false;
+        double distance = 0;
+        for (int i = 0; i < size; i++) {
+            float speed = Float.NaN;
+            if (i > 0) {
+                double step = distanceModel.distance(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                        track.getLatitude(i), track.getLongitude(i));
+                distance += step;
+                if (track.hasTime(i - 1) && track.hasTime(i) && track.getTime(i) > track.getTime(i - 1)) {
+                    speed = (float) (step / (track.getTime(i) - track.getTime(i - 1)) * 3600.0);
+                    hasSpeed = true;
+                }
+            }
+            distances.setAtIndex(FLOAT, i, (float) distance);
+            speeds.setAtIndex(FLOAT, i, speed);
+            if (track.hasElevation(i)) {
+                elevations.setAtIndex(FLOAT, i, (float) track.getElevation(i));
+                hasElevation = true;
+            } else {
+                elevations.setAtIndex(FLOAT, i, Float.NaN);
+            }
+            if (track.hasHeartRate(i)) {
+                heartRates.setAtIndex(FLOAT, i, track.getHeartRate(i));
+                hasHeartRate = true;
+            } else {
+                heartRates.setAtIndex(FLOAT, i, Float.NaN);
+            }
+        }
+        Column[] columns = new Column[Channel.values().length];
+        columns[Channel.ELEVATION.ordinal()] = hasElevation ? new Column(elevations, size, arena) : null;
+        columns[Channel.SPEED.ordinal()] = hasSpeed ? new Column(speeds, size, arena) : null;
+        columns[Channel.HEART_RATE.ordinal()] = hasHeartRate ? new Column(heartRates, size, arena) : null;
+        return new TrackProfile(size, distances, columns);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Length of the track in meters.
+     */
+    public double getTotalDistance() {
+        return size == 0 ? 0 : distances.getAtIndex(FLOAT, size - 1);
+    }
+
+    public boolean has(Channel channel) {
+        return columns[channel.ordinal()] != null;
+    }
+
+    /**
+     * Splits {@code [from, to]} meters into {@code width} equal buckets, one per pixel. Buckets without values are NaN.
+     */
+    public Buckets buckets(Channel channel, double from, double to, int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Width must be positive: " + width);
+        }
+        float[] min = new float[width];
+        float[] max = new float[width];
+        float[] average = new float[width];
+        Column column = column(channel);
+        int[] bounds = bounds(from, to, width);
+        Summary summary = new Summary();
+        for (int bucket = 0; bucket < width; bucket++) {
+            column.summarize(bounds[bucket], bounds[bucket + 1], summary);
+            min[bucket] = summary.count > 0 ? summary.min : Float.NaN;
+            max[bucket] = summary.count > 0 ? summary.max : Float.NaN;
+            average[bucket] = summary.count > 0 ? (float) (summary.sum / summary.count) : Float.NaN;
+        }
+        return new Buckets(from, to, min, max, average);
+    }
+
+    /**
+     * At most {@code points} points of {@code [from, to]} meters that keep the shape of the line, always including the
+     * first and last point with a value.
+     */
+    public Line lttb(Channel channel, double from, double to, int points) {
+        if (points < 3) {
+            throw new IllegalArgumentException("At least 3 points: " + points);
+        }
+        Column column = column(channel);
+        int[] range = bounds(from, to, 1);
+        int[] candidates = candidates(column, range[0], range[1], points);
+        int[] selected = candidates.length <= points ? candidates : largestTriangles(column, candidates, points);
+        float[] x = new float[selected.length];
+        float[] y = new float[selected.length];
+        for (int i = 0; i < selected.length; i++) {
+            x[i] = distances.getAtIndex(FLOAT, selected[i]);
+            y[i] = column.values.getAtIndex(FLOAT, selected[i]);
+        }
+        return new Line(x, y);
+    }
+
+    // Points with a value in [start, end): all of them when there are few, else first, last and the extremes of
+    // LTTB_RATIO * points / 2 buckets, in order
+    private int[] candidates(Column column, int start, int end, int points) {
+        int limit = points * LTTB_RATIO;
+        if (end - start <= limit) {
+            int[] result = new int[end - start];
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (!Float.isNaN(column.values.getAtIndex(FLOAT, i))) {
+                    result[count++] = i;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+        int buckets = limit / 2;
+        int[] result = new int[limit + 2];
+        int count = 0;
+        Summary summary = new Summary();
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int from = start + (int) ((long) (end - start) * bucket / buckets);
+            int to = start + (int) ((long) (end - start) * (bucket + 1) / buckets);
+            column.summarize(from, to, summary);
+            if (summary.count > 0) {
+                result[count++] = Math.min(summary.minIndex, summary.maxIndex);
+                if (summary.minIndex != summary.maxIndex) {
+                    result[count++] = Math.max(summary.minIndex, summary.maxIndex);
+                }
+            }
+        }
+        int first = start;
+        while (first < end && Float.isNaN(column.values.getAtIndex(FLOAT, first))) {
+            first++;
+        }
+        int last = end - 1;
+        while (last > first && Float.isNaN(column.values.getAtIndex(FLOAT, last))) {
+            last--;
+        }
+        if (first == end) {
+            return new int[0];
+        }
+        int[] ordered = new int[count + 2];
+        ordered[0] = first;
+        int size = 1;
+        for (int i = 0; i < count; i++) {
+            if (result[i] > ordered[size - 1] && result[i] < last) {
+                ordered[size++] = result[i];
+            }
+        }
+        if (last > first) {
+            ordered[size++] = last;
+        }
+        return Arrays.copyOf(ordered, size);
+    }
+
+    private int[] largestTriangles(Column column, int[] candidates, int points) {
+        int[] selected = new int[points];
+        selected[0] = candidates[0];
+        int previous = candidates[0];
+        double bucketSize = (double) (candidates.length - 2) / (points - 2);
+        for (int bucket = 0; bucket < points - 2; bucket++) {
+            int from = 1 + (int) (bucket * bucketSize);
+            int to = 1 + (int) ((bucket + 1) * bucketSize);
+            int nextTo = Math.min(1 + (int) ((bucket + 2) * bucketSize), candidates.length - 1);
+            // Average of the next bucket; the last point for the last one
+            double nextX = 0;
+            double nextY = 0;
+            if (bucket == points - 3 || nextTo <= to) {
+                nextX = distances.getAtIndex(FLOAT, candidates[candidates.length - 1]);
+                nextY = column.values.getAtIndex(FLOAT, candidates[candidates.length - 1]);
+            } else {
+                for (int i = to; i < nextTo; i++) {
+                    nextX += distances.getAtIndex(FLOAT, candidates[i]);
+                    nextY += column.values.getAtIndex(FLOAT, candidates[i]);
+                }
+                nextX /= nextTo - to;
+                nextY /= nextTo - to;
+            }
+            double previousX = distances.getAtIndex(FLOAT, previous);
+            double previousY = column.values.getAtIndex(FLOAT, previous);
+            double maxArea = -1;
+            int best = candidates[from];
+            for (int i = from; i < to; i++) {
+                double x = distances.getAtIndex(FLOAT, candidates[i]);
+                double y = column.values.getAtIndex(FLOAT, candidates[i]);
+                double area = Math.abs((previousX - nextX) * (y - previousY) - (previousX - x) * (nextY - previousY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = candidates[i];
+                }
+            }
+            selected[bucket + 1] = best;
+            previous = best;
+        }
+        selected[points - 1] = candidates[candidates.length - 1];
+        return selected;
+    }
+
+    // Point index bounds of width equal distance buckets over [from, to]
+    private int[] bounds(double from, double to, int width) {
+        int[] bounds = new int[width + 1];
+        double step = (to - from) / width;
+        bounds[0] = search(from, false);
+        for (int bucket = 1; bucket < width; bucket++) {
+            bounds[bucket] = search(from + bucket * step, false);
+        }
+        bounds[width] = search(to, true);
+        return bounds;
+    }
+
+    // First point further than (or, not inclusive, at least as far as) the given distance
+    private int search(double distance, boolean inclusive) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            float value = distances.getAtIndex(FLOAT, middle);
+            if (value < distance || inclusive && value == distance) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Column column(Channel channel) {
+        Column column = columns[channel.ordinal()];
+        if (column == null) {
+            throw new IllegalArgumentException("No " + channel + " in the track");
+        }
+        return column;
+    }
+
+    private static MemorySegment allocate(Arena arena, ValueLayout layout, long count) {
+        return arena.allocate(layout.byteSize() * count, layout.byteAlignment());
+    }
+
+    /**
+     * Per-pixel series of {@code [from, to]} meters; the values of bucket {@code i} start at
+     * {@code from + i * (to - from) / width}.
+     */
+    public record Buckets(double from, double to, float[] min, float[] max, float[] average) {
+    }
+
+    /**
+     * Points of a line: distance in meters and value.
+     */
+    public record Line(float[] distances, float[] values) {
+    }
+
+    /**
+     * Running minimum, maximum and sum of a range; reused for every bucket.
+     */
+    private static final class Summary {
+        private float min;
+        private float max;
+        private int minIndex;
+        private int maxIndex;
+        private double sum;
+        private long count;
+
+        void reset() {
+            min = Float.POSITIVE_INFINITY;
+            max = Float.NEGATIVE_INFINITY;
+            minIndex = -1;
+            maxIndex = -1;
+            sum = 0;
+            count = 0;
+        }
+
+        void add(float value, int index) {
+            add(value, index, value, index, value, 1);
+        }
+
+        void add(float blockMin, int blockMinIndex, float blockMax, int blockMaxIndex, double blockSum, long blockCount) {
+            if (blockMin < min) {
+                min = blockMin;
+                minIndex = blockMinIndex;
+            }
+            if (blockMax > max) {
+                max = blockMax;
+                maxIndex = blockMaxIndex;
+            }
+            sum += blockSum;
+            count += blockCount;
+        }
+    }
+
+    /**
+     * Raw values and the pyramid above them. Level {@code k} (from 1) summarizes blocks of {@code FANOUT^k} points;
+     * blocks without values have a count of zero.
+     */
+    private static final class Column {
+        private final MemorySegment values;
+        private final Level[] levels;
+
+        Column(MemorySegment values, int size, Arena arena) {
+            this.values = values;
+            int levelCount = 0;
+            for (long blocks = size; blocks > FANOUT; blocks = (blocks + FANOUT - 1) / FANOUT) {
+                levelCount++;
+            }
+            levels = new Level[levelCount];
+            long below = size;
+            for (int level = 0; level < levelCount; level++) {
+                long blocks = (below + FANOUT - 1) / FANOUT;
+                Level summary = new Level(arena, blocks);
+                Summary block = new Summary();
+                for (long b = 0; b < blocks; b++) {
+                    block.reset();
+                    long end = Math.min(below, (b + 1) * FANOUT);
+                    for (long i = b * FANOUT; i < end; i++) {
+                        add(level, i, block);
+                    }
+                    summary.set(b, block);
+                }
+                levels[level] = summary;
+                below = blocks;
+            }
+        }
+
+        /**
+         * Summary of the points in [start, end): partial blocks at both ends from the level below, whole blocks from
+         * the highest level that still has some.
+         */
+        void summarize(int start, int end, Summary summary) {
+            summary.reset();
+            long from = start;
+            long to = end;
+            int level = 0;
+            while (from < to) {
+                if (level < levels.length && to - from >= 2 * FANOUT) {
+                    for (; from % FANOUT != 0; from++) {
+                        add(level, from, summary);
+                    }
+                    for (; to % FANOUT != 0; ) {
+                        add(level, --to, summary);
+                    }
+                    from /= FANOUT;
+                    to /= FANOUT;
+                    level++;
+                } else {
+                    for (; from < to; from++) {
+                        add(level, from, summary);
+                    }
+                }
+            }
+        }
+
+        // Entry i of a level: a point at level 0, a block of level - 1 above
+        private void add(int level, long i, Summary summary) {
+            if (level == 0) {
+                float value = values.getAtIndex(FLOAT, i);
+                if (!Float.isNaN(value)) {
+                    summary.add(value, (int) i);
+                }
+            } else {
+                Level blocks = levels[level - 1];
+                int count = blocks.counts.getAtIndex(INT, i);
+                if (count > 0) {
+                    summary.add(blocks.mins.getAtIndex(FLOAT, i), blocks.minIndexes.getAtIndex(INT, i),
+                            blocks.maxs.getAtIndex(FLOAT, i), blocks.maxIndexes.getAtIndex(INT, i),
+                            blocks.sums.getAtIndex(DOUBLE, i), count);
+                }
+            }
+        }
+    }
+
+    private static final class Level {
+        private final MemorySegment mins;
+        private final MemorySegment maxs;
+        private final MemorySegment minIndexes;
+        private final MemorySegment maxIndexes;
+        private final MemorySegment sums;
+        private final MemorySegment counts;
+
+        Level(Arena arena, long blocks) {
+            mins = allocate(arena, FLOAT, blocks);
+            maxs = allocate(arena, FLOAT, blocks);
+            minIndexes = allocate(arena, INT, blocks);
+            maxIndexes = allocate(arena, INT, blocks);
+            sums = allocate(arena, DOUBLE, blocks);
+            counts = allocate(arena, INT, blocks);
+        }
+
+        void set(long block, Summary summary) {
+            mins.setAtIndex(FLOAT, block, summary.min);
+            maxs.setAtIndex(FLOAT, block, summary.max);
+            minIndexes.setAtIndex(INT, block, summary.minIndex);
+            maxIndexes.setAtIndex(INT, block, summary.maxIndex);
+            sums.setAtIndex(DOUBLE, block, summary.sum);
+            counts.setAtIndex(INT, block, (int) summary.count);
+        }
+    }
+}
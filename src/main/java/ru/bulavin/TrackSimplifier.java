@@ -0,0 +1,281 @@
+package ru.bulavin;
+
+import java.util.Arrays;
+
+/**
+ * Visvalingam–Whyatt simplification of a track for display. The effective area of every point is computed once, in
+ * Web Mercator world units, so a simplification for any zoom level is a single pass that keeps the points whose area
+ * is at least {@link #MIN_AREA_PIXELS} square pixels at that zoom. Areas are made monotone in removal order, so a
+ * higher zoom always keeps a superset of the points of a lower one. The first and last points are always kept.
+ */
+public final class TrackSimplifier {
+    public static final double MIN_AREA_PIXELS = 0.5;
+    private static final double TILE_SIZE = 256.0;
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final double VIEW_PADDING = 0.25;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] x;
+    private final double[] y;
+    private final double[] importance;
+
+    private TrackSimplifier(double[] latitudes, double[] longitudes) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        int size = latitudes.length;
+        x = new double[size];
+        y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = mercatorX(longitudes[i]);
+            y[i] = mercatorY(latitudes[i]);
+        }
+        importance = new double[size];
+        computeImportance();
+    }
+
+    public static TrackSimplifier of(TrackColumns track) {
+        double[] latitudes = new double[track.size()];
+        double[] longitudes = new double[track.size()];
+        for (int i = 0; i < track.size(); i++) {
+            latitudes[i] = track.getLatitude(i);
+            longitudes[i] = track.getLongitude(i);
+        }
+        return new TrackSimplifier(latitudes, longitudes);
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * Effective area of the point in square Web Mercator world units, where the whole world is 1 x 1.
+     */
+    double getImportance(int index) {
+        return importance[index];
+    }
+
+    /**
+     * Points to draw at {@code zoom} as latitude/longitude pairs.
+     */
+    public float[] simplify(int zoom) {
+        return simplify(zoom, -90, -180, 90, 180);
+    }
+
+    /**
+     * Points to draw at {@code zoom} inside the given view (padded by a quarter of its size on every side), as
+     * latitude/longitude pairs. Where the track leaves the view and comes back, the parts are separated by a NaN pair;
+     * the first point outside the view on either side is kept so the line runs to the edge.
+     */
+    public float[] simplify(int zoom, double south, double west, double north, double east) {
+        double worldPixels = TILE_SIZE * Math.pow(2, zoom);
+        double threshold = MIN_AREA_PIXELS / (worldPixels * worldPixels);
+
+        double minX = mercatorX(west);
+        double maxX = mercatorX(east);
+        double minY = mercatorY(north);
+        double maxY = mercatorY(south);
+        double padX = (maxX - minX) * VIEW_PADDING;
+        double padY = (maxY - minY) * VIEW_PADDING;
+        minX -= padX;
+        maxX += padX;
+        minY -= padY;
+        maxY += padY;
+
+        PointBuffer out = new PointBuffer();
+        int last = -1;
+        boolean lastInside = false;
+        boolean open = false;
+        for (int i = 0; i < importance.length; i++) {
+            if (importance[i] < threshold) {
+                continue;
+            }
+            boolean inside = x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY;
+            if (inside) {
+                if (!open) {
+                    if (out.size() > 0) {
+                        out.add(Float.NaN, Float.NaN);
+                    }
+                    if (last >= 0) {
+                        out.add((float) latitudes[last], (float) longitudes[last]);
+                    }
+                    open = true;
+                }
+                out.add((float) latitudes[i], (float) longitudes[i]);
+            } else if (lastInside) {
+                out.add((float) latitudes[i], (float) longitudes[i]);
+            } else {
+                open = false;
+            }
+            last = i;
+            lastInside = inside;
+        }
+        return out.toArray();
+    }
+
+    private void computeImportance() {
+        int size = importance.length;
+        if (size == 0) {
+            return;
+        }
+        importance[0] = Double.POSITIVE_INFINITY;
+        importance[size - 1] = Double.POSITIVE_INFINITY;
+        if (size <= 2) {
+            return;
+        }
+
+        int[] previous = new int[size];
+        int[] next = new int[size];
+        for (int i = 0; i < size; i++) {
+            previous[i] = i - 1;
+            next[i] = i + 1;
+        }
+        AreaHeap heap = new AreaHeap(size);
+        for (int i = 1; i < size - 1; i++) {
+            heap.add(i, area(i - 1, i, i + 1));
+        }
+
+        double maxArea = 0;
+        while (!heap.isEmpty()) {
+            int i = heap.peek();
+            maxArea = Math.max(maxArea, heap.area(i));
+            heap.poll();
+            importance[i] = maxArea;
+
+            int p = previous[i];
+            int n = next[i];
+            next[p] = n;
+            previous[n] = p;
+            if (p > 0) {
+                heap.update(p, area(previous[p], p, n));
+            }
+            if (n < size - 1) {
+                heap.update(n, area(p, n, next[n]));
+            }
+        }
+    }
+
+    private double area(int a, int b, int c) {
+        return Math.abs((x[b] - x[a]) * (y[c] - y[a]) - (x[c] - x[a]) * (y[b] - y[a])) * 0.5;
+    }
+
+    private static double mercatorX(double longitude) {
+        return (longitude + 180.0) / 360.0;
+    }
+
+    private static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Binary min-heap of point indices by area, with the position of every index so its area can be changed.
+     */
+    private static final class AreaHeap {
+        private final int[] heap;
+        private final int[] positions;
+        private final double[] areas;
+        private int size = 0;
+
+        AreaHeap(int capacity) {
+            heap = new int[capacity];
+            positions = new int[capacity];
+            areas = new double[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        double area(int index) {
+            return areas[index];
+        }
+
+        void add(int index, double area) {
+            areas[index] = area;
+            heap[size] = index;
+            positions[index] = size;
+            siftUp(size++);
+        }
+
+        void poll() {
+            size--;
+            if (size > 0) {
+                move(heap[size], 0);
+                siftDown(0);
+            }
+        }
+
+        void update(int index, double area) {
+            double old = areas[index];
+            areas[index] = area;
+            if (area < old) {
+                siftUp(positions[index]);
+            } else {
+                siftDown(positions[index]);
+            }
+        }
+
+        private void siftUp(int position) {
+            int index = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (areas[heap[parent]] <= areas[index]) {
+                    break;
+                }
+                move(heap[parent], position);
+                position = parent;
+            }
+            move(index, position);
+        }
+
+        private void siftDown(int position) {
+            int index = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && areas[heap[child + 1]] < areas[heap[child]]) {
+                    child++;
+                }
+                if (areas[index] <= areas[heap[child]]) {
+                    break;
+                }
+                move(heap[child], position);
+                position = child;
+            }
+            move(index, position);
+        }
+
+        private void move(int index, int position) {
+            heap[position] = index;
+            positions[index] = position;
+        }
+    }
+
+    private static final class PointBuffer {
+        private float[] values = new float[1024];
+        private int size = 0;
+
+        void add(float latitude, float longitude) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = latitude;
+            values[size++] = longitude;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
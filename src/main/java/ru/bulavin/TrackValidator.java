@@ -0,0 +1,211 @@
+package ru.bulavin;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * First stage in front of the preprocessing and statistics: checks coordinates, time order and the ranges of
+ * elevation, heart rate and temperature of every point as it is read. Each problem becomes a {@link GpxDiagnostic}
+ * handed to the diagnostics consumer at once; what happens to the point depends on the {@link Mode}.
+ * <p>
+ * Only the primitive fields of the point are looked at, in the same pass as the parse. In {@link Mode#REPAIR} at most
+ * {@value #REORDER_WINDOW} points are held back, in preallocated {@link TrackPoint}s.
+ */
+public final class TrackValidator extends TrackFilter {
+    static final int REORDER_WINDOW = 16;
+
+    static final double MIN_ELEVATION = -500.0;
+    static final double MAX_ELEVATION = 9_000.0;
+    static final int MIN_HEART_RATE = 20;
+    static final int MAX_HEART_RATE = 250;
+    static final double MIN_TEMPERATURE = -60.0;
+    static final double MAX_TEMPERATURE = 70.0;
+
+    public enum Mode {
+        /**
+         * Fails with an {@link IllegalArgumentException} at the first problem, before the rest of the file is parsed.
+         */
+        STRICT,
+        /**
+         * Reports problems and passes every point on unchanged.
+         */
+        REPORT,
+        /**
+         * Drops points without valid coordinates and with repeated timestamps, clears values out of range and moves
+         * points with earlier timestamps back into order within {@value #REORDER_WINDOW} points, dropping those that
+         * are further off.
+         */
+        REPAIR;
+
+        public static Mode of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Mode mode;
+    private final Consumer<GpxDiagnostic> diagnostics;
+    private final TrackPoint repaired = new TrackPoint();
+    // Held back points in time order, REPAIR only
+    private final TrackPoint[] window;
+    private int held = 0;
+    private long received = 0;
+    private long problems = 0;
+    private long latestTime = TrackPoint.NO_TIME;
+    private long emittedTime = TrackPoint.NO_TIME;
+
+    /**
+     * @param diagnostics receives every problem as it is found, may be null to only count them
+     */
+    public TrackValidator(Mode mode, Consumer<TrackPoint> downstream, Consumer<GpxDiagnostic> diagnostics) {
+        super(downstream);
+        this.mode = mode;
+        this.diagnostics = diagnostics;
+        window = new TrackPoint[mode == Mode.REPAIR ? REORDER_WINDOW : 0];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = new TrackPoint();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Number of diagnostics so far.
+     */
+    public long getProblemCount() {
+        return problems;
+    }
+
+    @Override
+    public void accept(TrackPoint point) {
+        long index = received++;
+        double latitude = point.getLatitude();
+        double longitude = point.getLongitude();
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)
+                && problem(index, GpxDiagnostic.Kind.INVALID_COORDINATE, GpxDiagnostic.Action.DROPPED, latitude + "," + longitude)) {
+            return;
+        }
+
+        TrackPoint current = point;
+        if (point.hasElevation() && !(point.getElevation() >= MIN_ELEVATION && point.getElevation() <= MAX_ELEVATION)
+                && problem(index, GpxDiagnostic.Kind.ELEVATION_OUT_OF_RANGE, GpxDiagnostic.Action.CLEARED, String.valueOf(point.getElevation()))) {
+            current = repaired(point, current);
+            current.setElevation(Double.NaN);
+        }
+        if (point.hasHeartRate() && (point.getHeartRate() < MIN_HEART_RATE || point.getHeartRate() > MAX_HEART_RATE)
+                && problem(index, GpxDiagnostic.Kind.HEART_RATE_OUT_OF_RANGE, GpxDiagnostic.Action.CLEARED, String.valueOf(point.getHeartRate()))) {
+            current = repaired(point, current);
+            current.setHeartRate(TrackPoint.NO_HEART_RATE);
+        }
+        if (point.hasTemperature() && !(point.getTemperature() >= MIN_TEMPERATURE && point.getTemperature() <= MAX_TEMPERATURE)
+                && problem(index, GpxDiagnostic.Kind.TEMPERATURE_OUT_OF_RANGE, GpxDiagnostic.Action.CLEARED, String.valueOf(point.getTemperature()))) {
+            current = repaired(point, current);
+            current.setTemperature(Double.NaN);
+        }
+
+        // Make room first, so that the check below sees every point that has already been passed on
+        if (held == window.length && held > 0) {
+            emitFirst();
+        }
+        if (point.hasTime() && latestTime != TrackPoint.NO_TIME) {
+            long time = point.getTime();
+            if (time == latestTime) {
+                if (problem(index, GpxDiagnostic.Kind.DUPLICATE_TIME, GpxDiagnostic.Action.DROPPED, formatTime(time))) {
+                    return;
+                }
+            } else if (time < latestTime) {
+                GpxDiagnostic.Action action = canReorder(time) ? GpxDiagnostic.Action.REORDERED : GpxDiagnostic.Action.DROPPED;
+                if (problem(index, GpxDiagnostic.Kind.TIME_BACKWARDS, action, formatTime(time)) && action == GpxDiagnostic.Action.DROPPED) {
+                    return;
+                }
+            }
+        }
+        if (point.hasTime() && (latestTime == TrackPoint.NO_TIME || point.getTime() > latestTime)) {
+            latestTime = point.getTime();
+        }
+
+        if (mode == Mode.REPAIR) {
+            hold(current);
+        } else {
+            downstream.accept(current);
+        }
+    }
+
+    @Override
+    public void finish() {
+        while (held > 0) {
+            emitFirst();
+        }
+        if (received == 0) {
+            problem(-1, GpxDiagnostic.Kind.NO_POINTS, GpxDiagnostic.Action.KEPT, "");
+        }
+        super.finish();
+    }
+
+    // Reports the problem and tells whether the point is to be repaired
+    private boolean problem(long point, GpxDiagnostic.Kind kind, GpxDiagnostic.Action repair, String value) {
+        problems++;
+        GpxDiagnostic diagnostic = new GpxDiagnostic(point, kind, mode == Mode.REPAIR ? repair : GpxDiagnostic.Action.KEPT, value);
+        if (mode == Mode.STRICT) {
+            throw new IllegalArgumentException(diagnostic.toString());
+        }
+        if (diagnostics != null) {
+            diagnostics.accept(diagnostic);
+        }
+        return mode == Mode.REPAIR;
+    }
+
+    // The given point is never changed, repairs go to a copy
+    private TrackPoint repaired(TrackPoint point, TrackPoint current) {
+        if (current == point) {
+            repaired.set(point);
+        }
+        return repaired;
+    }
+
+    // After a later point, an earlier timestamp can still be put in place if nothing after it was passed on, it
+    // does not repeat a held one and its place is not behind a held point without time
+    private boolean canReorder(long time) {
+        if (mode != Mode.REPAIR || emittedTime != TrackPoint.NO_TIME && time <= emittedTime) {
+            return false;
+        }
+        for (int i = held - 1; i >= 0; i--) {
+            TrackPoint previous = window[i];
+            if (!previous.hasTime() || previous.getTime() == time) {
+                return false;
+            }
+            if (previous.getTime() < time) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    private void hold(TrackPoint point) {
+        TrackPoint slot = window[held];
+        slot.set(point);
+        int i = held++;
+        // Points without time keep their place and stop the move
+        while (slot.hasTime() && i > 0 && window[i - 1].hasTime() && window[i - 1].getTime() > slot.getTime()) {
+            window[i] = window[i - 1];
+            i--;
+        }
+        window[i] = slot;
+    }
+
+    private void emitFirst() {
+        TrackPoint first = window[0];
+        if (first.hasTime()) {
+            emittedTime = first.getTime();
+        }
+        downstream.accept(first);
+        System.arraycopy(window, 1, window, 0, held - 1);
+        window[--held] = first;
+    }
+
+    private static String formatTime(long time) {
+        return Instant.ofEpochMilli(time).toString();
+    }
+}
@@ -0,0 +1,569 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.BinaryTrack;
+import ru.bulavin.DistanceModel;
+import ru.bulavin.GpxDiagnostic;
+import ru.bulavin.GpxExtension;
+import ru.bulavin.GpxMetric;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.GpxStatisticsAccumulator;
+import ru.bulavin.GpxStatisticsCache;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.HeartRateZones;
+import ru.bulavin.PipelineMetrics;
+import ru.bulavin.TrackColumns;
+import ru.bulavin.TrackFilter;
+import ru.bulavin.TrackPoint;
+import ru.bulavin.TrackPreprocessing;
+import ru.bulavin.TrackValidator;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point that analyzes whole directories of GPX files.
+ * <p>
+ * Every file gets a virtual thread that reads it from disk; parsing and statistics run on a fixed pool of
+ * {@code --workers} platform threads. At most two files per worker are held in memory at once. Results are written
+ * as soon as each file is done, one CSV row or JSON line per file, and a failed file becomes an error record
+ * instead of stopping the run.
+ */
+public class BatchAnalyzer {
+    private static final long PRELOAD_LIMIT = 32L * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_SECONDS = 2;
+
+    private final int workers;
+    private final DistanceModel distanceModel;
+    private final ResultFormat format;
+    private final Writer output;
+    private final PrintStream progress;
+    private GpxStatisticsCache cache;
+    private boolean binaryTracks;
+    private TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+    private StatisticsRollups rollups;
+    private HeartRateZones heartRateZones;
+    private Set<GpxMetric> metrics = GpxMetric.ALL;
+    private TrackValidator.Mode validation;
+    private Writer diagnosticsOutput;
+
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder pointsDone = new LongAdder();
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder diagnosticsFound = new LongAdder();
+
+    public BatchAnalyzer(int workers, DistanceModel distanceModel, ResultFormat format, Writer output, PrintStream progress) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers " + workers);
+        }
+        this.workers = workers;
+        this.distanceModel = distanceModel;
+        this.format = format;
+        this.output = output;
+        this.progress = progress;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+        DistanceModel distanceModel = DistanceModel.VINCENTY;
+        ResultFormat format = ResultFormat.CSV;
+        Path outputPath = null;
+        Path cachePath = null;
+        long cacheBytes = GpxStatisticsCache.DEFAULT_MAX_BYTES;
+        boolean binaryTracks = false;
+        TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+        Path rollupPath = null;
+        HeartRateZones heartRateZones = null;
+        Set<GpxMetric> metrics = GpxMetric.ALL;
+        TrackValidator.Mode validation = null;
+        Path diagnosticsPath = null;
+        RollupPeriod rollupPeriod = RollupPeriod.MONTH;
+        boolean quiet = false;
+        List<String> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--workers" -> workers = Integer.parseInt(args[++i]);
+                    case "--distance-model" -> distanceModel = DistanceModel.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "--format" -> format = ResultFormat.of(args[++i]);
+                    case "--output" -> outputPath = Paths.get(args[++i]);
+                    case "--cache" -> cachePath = Paths.get(args[++i]);
+                    case "--cache-size" -> cacheBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                    case "--binary" -> binaryTracks = true;
+                    case "--filter" -> preprocessing = TrackPreprocessing.parse(args[++i]);
+                    case "--hr-zones" -> heartRateZones = HeartRateZones.parse(args[++i]);
+                    case "--only" -> metrics = GpxMetric.parse(args[++i]);
+                    case "--validate" -> validation = TrackValidator.Mode.of(args[++i]);
+                    case "--diagnostics" -> diagnosticsPath = Paths.get(args[++i]);
+                    case "--rollup" -> rollupPath = Paths.get(args[++i]);
+                    case "--rollup-period" -> rollupPeriod = RollupPeriod.of(args[++i]);
+                    case "--metrics" -> PipelineMetrics.setEnabled(true);
+                    case "--quiet" -> quiet = true;
+                    case "--help" -> {
+                        printUsage();
+                        return;
+                    }
+                    default -> inputs.add(args[i]);
+                }
+            }
+            if (workers < 1) {
+                throw new IllegalArgumentException("--workers должно быть не меньше 1, указано " + workers);
+            }
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("no input files");
+            }
+            if (diagnosticsPath != null && validation == null) {
+                validation = TrackValidator.Mode.REPORT;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        PipelineMetrics.install();
+        List<Path> files = findFiles(inputs);
+        Writer output = outputPath != null
+                ? Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        BatchAnalyzer analyzer = new BatchAnalyzer(workers, distanceModel, format, output, quiet ? null : System.err);
+        analyzer.setBinaryTracks(binaryTracks);
+        analyzer.setPreprocessing(preprocessing);
+        analyzer.setHeartRateZones(heartRateZones);
+        analyzer.setMetrics(metrics);
+        analyzer.setValidation(validation);
+        Writer diagnostics = diagnosticsPath != null ? Files.newBufferedWriter(diagnosticsPath, StandardCharsets.UTF_8) : null;
+        analyzer.setDiagnostics(diagnostics);
+        if (cachePath != null) {
+            analyzer.setCache(GpxStatisticsCache.open(cachePath, cacheBytes));
+        }
+        StatisticsRollups rollups = rollupPath != null ? new StatisticsRollups() : null;
+        analyzer.setRollups(rollups);
+        long failed;
+        try (output; diagnostics) {
+            failed = analyzer.run(files);
+        }
+        if (rollups != null) {
+            try (Writer rollupOutput = Files.newBufferedWriter(rollupPath, StandardCharsets.UTF_8)) {
+                writeRollups(rollups, rollupPeriod, format, heartRateZones, rollupOutput);
+            }
+        }
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Использование: BatchAnalyzer [параметры] <каталог | файл | glob>...
+                  --workers N              число потоков для разбора и расчёта (по умолчанию по числу ядер)
+                  --format csv|json        формат результатов: CSV или JSON lines (по умолчанию csv)
+                  --output FILE            файл результатов (по умолчанию stdout)
+                  --distance-model MODEL   vincenty, equirectangular или haversine (по умолчанию vincenty)
+                  --cache DIR              каталог кэша статистики, неизменённые файлы не пересчитываются
+                  --cache-size MB          предельный размер кэша (по умолчанию 64)
+                  --binary                 сохранять рядом с GPX компактную копию .gpxb и читать её при повторном анализе
+                  --filter SPEC            фильтрация шума перед расчётом, например interval=1,spike=50,median=5,hysteresis=2
+                                           (также kalman=ТОЧНОСТЬ_М[:СКОРОСТЬ_М/С])
+                  --only GROUPS            считать только эти группы через запятую: distance, time, elevation,
+                                           temperature, heart_rate (по умолчанию все)
+                  --validate MODE          проверка точек при чтении: strict (ошибка на первой проблеме), report
+                                           (только диагностика) или repair (исправлять: отбросить, очистить, упорядочить)
+                  --diagnostics FILE       записать диагностику проверки в CSV (без --validate включает report)
+                  --hr-zones SPEC          TRIMP и время в зонах пульса: rest=60,max=190[,zones=120:140:155:170][,female]
+                                           (без zones — зоны от 50 до 90% резерва пульса)
+                  --rollup FILE            итоги по каталогам (спортсмен, машина): всего и по периодам
+                  --rollup-period P        week или month, период итогов (по умолчанию month)
+                  --metrics                замерять этапы разбора и расчёта, итог в stderr, также через JMX и JFR
+                  --quiet                  не выводить прогресс в stderr
+                Код возврата 1, если хотя бы один файл не удалось обработать.""");
+    }
+
+    public void setCache(GpxStatisticsCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Writes a {@link BinaryTrack} next to every parsed GPX file and analyzes that copy instead of the GPX as long as
+     * it is newer. {@code .gpxb} inputs are read as binary tracks either way.
+     */
+    public void setBinaryTracks(boolean binaryTracks) {
+        this.binaryTracks = binaryTracks;
+    }
+
+    /**
+     * Noise filtering in front of the statistics; part of the cache key. Binary copies keep the raw points.
+     */
+    public void setPreprocessing(TrackPreprocessing preprocessing) {
+        this.preprocessing = preprocessing;
+    }
+
+    /**
+     * Adds TRIMP and time-in-zone columns to the results and rollups. Derived from the heart rate histogram of the
+     * statistics, so cached statistics serve any zones.
+     */
+    public void setHeartRateZones(HeartRateZones heartRateZones) {
+        this.heartRateZones = heartRateZones;
+    }
+
+    /**
+     * Computes only the given groups; the columns of the others stay empty. Such partial results are not written to
+     * the cache, but complete cached entries are still used.
+     */
+    public void setMetrics(Set<GpxMetric> metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs a {@link TrackValidator} in front of the preprocessing; {@code null} turns it off. In {@code STRICT} mode a
+     * file fails at its first problem, in the others malformed values no longer fail it. Validated files bypass the
+     * cache, so that every run reports their diagnostics.
+     */
+    public void setValidation(TrackValidator.Mode validation) {
+        this.validation = validation;
+    }
+
+    /**
+     * Writes every diagnostic as a CSV row {@code file,point,kind,action,value} as soon as it is found.
+     */
+    public void setDiagnostics(Writer diagnosticsOutput) {
+        this.diagnosticsOutput = diagnosticsOutput;
+    }
+
+    /**
+     * Adds every successfully analyzed file to {@code rollups} under the key {@link #rollupKey}.
+     */
+    public void setRollups(StatisticsRollups rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Rollup key of a file: its directory as given on the command line, e.g. one directory per athlete.
+     */
+    static String rollupKey(Path file) {
+        Path directory = file.getParent();
+        return directory != null ? directory.toString() : ".";
+    }
+
+    /**
+     * Writes the all-time total of every key followed by its buckets of {@code period}; {@code zones} may be null.
+     */
+    public static void writeRollups(StatisticsRollups rollups, RollupPeriod period, ResultFormat format,
+                                    HeartRateZones zones, Writer output) {
+        format.rollupHeader(zones).ifPresent(header -> writeLine(output, header));
+        for (String key : rollups.keys()) {
+            rollups.total(key).ifPresent(total -> writeLine(output, format.formatRollup(key, null, null, total, zones)));
+            rollups.buckets(key, period).forEach((start, bucket) ->
+                    writeLine(output, format.formatRollup(key, period, start, bucket, zones)));
+        }
+    }
+
+    /**
+     * Analyzes all {@code files} and returns the number of files that failed.
+     */
+    public long run(List<Path> files) throws IOException, InterruptedException {
+        format.header(heartRateZones).ifPresent(this::writeLine);
+        if (diagnosticsOutput != null) {
+            writeLine(diagnosticsOutput, "file,point,kind,action,value");
+        }
+        long started = System.nanoTime();
+        ExecutorService cpu = Executors.newFixedThreadPool(workers);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+        if (progress != null) {
+            reporter.scheduleAtFixedRate(() -> printProgress(files.size(), started, false),
+                    PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+        Semaphore inFlight = new Semaphore(workers * 2);
+        try (ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) {
+                io.submit(() -> process(file, cpu, inFlight));
+            }
+        } finally {
+            cpu.shutdown();
+            reporter.shutdownNow();
+        }
+        output.flush();
+        if (diagnosticsOutput != null) {
+            diagnosticsOutput.flush();
+        }
+        if (progress != null) {
+            printProgress(files.size(), started, true);
+            if (validation != null && validation != TrackValidator.Mode.STRICT) {
+                progress.printf(Locale.ROOT, "Проверка (%s): найдено проблем %d%n", GpxDiagnostic.name(validation), diagnosticsFound.sum());
+            }
+            if (cache != null) {
+                progress.printf(Locale.ROOT, "Кэш: попаданий %d, промахов %d (%.0f%%), вытеснено %d, записей %d, %.1f МБ%n",
+                        cache.getHits(), cache.getMisses(), cache.getHitRate() * 100, cache.getEvictions(),
+                        cache.getEntryCount(), cache.getSizeBytes() / (1024.0 * 1024.0));
+            }
+            if (PipelineMetrics.isEnabled()) {
+                progress.println(PipelineMetrics.summary());
+            }
+        }
+        return filesFailed.sum();
+    }
+
+    private void process(Path file, ExecutorService cpu, Semaphore inFlight) {
+        FileResult result;
+        try {
+            inFlight.acquire();
+            try {
+                long size = Files.size(file);
+                Path binary = findBinary(file);
+                byte[] content = binary == null && size <= PRELOAD_LIMIT ? Files.readAllBytes(file) : null;
+                Future<FileResult> analysis = cpu.submit(() -> binary != null
+                        ? analyzeBinary(file, size, binary)
+                        : analyze(file, size, content));
+                result = analysis.get();
+            } finally {
+                inFlight.release();
+            }
+        } catch (ExecutionException e) {
+            result = FileResult.failure(file, 0, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = FileResult.failure(file, 0, e);
+        } catch (IOException | RuntimeException e) {
+            result = FileResult.failure(file, 0, e);
+        }
+        record(result);
+    }
+
+    private FileResult analyze(Path file, long size, byte[] content) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+        try {
+            GpxStatisticsCache.Key key = null;
+            if (cache != null && validation == null) {
+                key = content != null
+                        ? cache.key(content, distanceModel, preprocessing)
+                        : cache.key(file, distanceModel, preprocessing);
+                Optional<GpxStatisticsCache.Entry> cached = cache.get(key);
+                if (cached.isPresent()) {
+                    return FileResult.success(file, cached.get().pointCount(), size, cached.get().statistics());
+                }
+            }
+            TrackColumns.Builder track = binaryTracks ? TrackColumns.builder() : null;
+            Consumer<GpxDiagnostic> diagnostics = diagnostics(file);
+            TrackFilter filter = validate(preprocessing.chain(distanceModel, accumulator), diagnostics);
+            PipelineMetrics.Timer readTimer = PipelineMetrics.start(PipelineMetrics.Stage.READ).file(file).bytes(size);
+            PipelineMetrics.Timer statisticsTimer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS).file(file);
+            Consumer<TrackPoint> sampled = statisticsTimer.sample(filter);
+            Consumer<TrackPoint> consumer = track != null ? sampled.andThen(track) : sampled;
+            // The binary copy holds temperature and heart rate, whatever is computed now
+            Set<GpxExtension> extensions = GpxMetric.extensions(track != null ? GpxMetric.ALL : metrics);
+            if (content != null) {
+                GpxStreamReader.read(new ByteArrayInputStream(content), extensions, consumer, diagnostics);
+            } else {
+                GpxStreamReader.read(file, extensions, consumer, diagnostics);
+            }
+            filter.finish();
+            statisticsTimer.close();
+            readTimer.exclude(statisticsTimer).points(accumulator.getPointCount()).close();
+            GpxStatistics statistics = accumulator.toStatistics();
+            if (key != null && metrics.containsAll(GpxMetric.ALL)) {
+                store(key, accumulator.getPointCount(), statistics);
+            }
+            if (track != null) {
+                writeBinary(track.build(), binaryPath(file));
+            }
+            return FileResult.success(file, accumulator.getPointCount(), size, statistics);
+        } catch (IOException | RuntimeException e) {
+            return FileResult.failure(file, size, e);
+        }
+    }
+
+    private FileResult analyzeBinary(Path file, long size, Path binary) {
+        try (BinaryTrack track = BinaryTrack.open(binary);
+             PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS).file(file)) {
+            timer.points(track.size()).bytes(Files.size(binary));
+            if (preprocessing.isNone() && validation == null) {
+                return FileResult.success(file, track.size(), size, new GpxStatistics(track, distanceModel, metrics));
+            }
+            GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel, metrics);
+            TrackFilter filter = validate(preprocessing.chain(distanceModel, accumulator), diagnostics(file));
+            track.forEach(filter);
+            filter.finish();
+            return FileResult.success(file, accumulator.getPointCount(), size, accumulator.toStatistics());
+        } catch (IOException | RuntimeException e) {
+            return FileResult.failure(file, size, e);
+        }
+    }
+
+    private TrackFilter validate(TrackFilter filter, Consumer<GpxDiagnostic> diagnostics) {
+        return validation != null ? new TrackValidator(validation, filter, diagnostics) : filter;
+    }
+
+    // Strict validation throws at the first problem, malformed values included, so it needs no consumer
+    private Consumer<GpxDiagnostic> diagnostics(Path file) {
+        if (validation == null || validation == TrackValidator.Mode.STRICT) {
+            return null;
+        }
+        return diagnostic -> {
+            diagnosticsFound.increment();
+            if (diagnosticsOutput != null) {
+                String line = String.format(Locale.ROOT, "%s,%d,%s,%s,%s", ResultFormat.quoteCsv(file.toString()),
+                        diagnostic.point(), GpxDiagnostic.name(diagnostic.kind()), GpxDiagnostic.name(diagnostic.action()),
+                        ResultFormat.quoteCsv(diagnostic.value()));
+                synchronized (diagnosticsOutput) {
+                    writeLine(diagnosticsOutput, line);
+                }
+            }
+        };
+    }
+
+    private Path findBinary(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(BinaryTrack.EXTENSION)) {
+            return file;
+        }
+        if (!binaryTracks) {
+            return null;
+        }
+        Path binary = binaryPath(file);
+        return Files.exists(binary) && Files.getLastModifiedTime(binary).compareTo(Files.getLastModifiedTime(file)) >= 0
+                ? binary
+                : null;
+    }
+
+    private static Path binaryPath(Path file) {
+        return file.resolveSibling(file.getFileName() + BinaryTrack.EXTENSION);
+    }
+
+    private void writeBinary(TrackColumns track, Path binary) {
+        try {
+            Path temporary = Files.createTempFile(binary.getParent(), binary.getFileName().toString(), ".tmp");
+            try {
+                BinaryTrack.write(track, temporary);
+                Files.move(temporary, binary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            if (progress != null) {
+                progress.println("Не удалось сохранить " + binary + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // A cache that cannot be written only costs the next run time, the result is still valid
+    private void store(GpxStatisticsCache.Key key, long points, GpxStatistics statistics) {
+        try {
+            cache.put(key, points, statistics);
+        } catch (IOException e) {
+            if (progress != null) {
+                progress.println("Не удалось записать в кэш: " + e.getMessage());
+            }
+        }
+    }
+
+    private void record(FileResult result) {
+        filesDone.increment();
+        pointsDone.add(result.points());
+        bytesDone.add(result.bytes());
+        if (!result.isSuccess()) {
+            filesFailed.increment();
+        } else if (rollups != null) {
+            rollups.add(rollupKey(result.file()), result.statistics());
+        }
+        writeLine(format.format(result, heartRateZones));
+    }
+
+    private void writeLine(String line) {
+        synchronized (output) {
+            writeLine(output, line);
+        }
+    }
+
+    private static void writeLine(Writer output, String line) {
+        try {
+            output.write(line);
+            output.write('\n');
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось записать результат: " + e.getMessage(), e);
+        }
+    }
+
+    private void printProgress(int total, long started, boolean last) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        long files = filesDone.sum();
+        progress.printf(Locale.ROOT, "%s %d/%d файлов (ошибок: %d), %.1f файлов/с, %.0f точек/с, %.1f МБ/с, %.1f с%n",
+                last ? "Готово:" : "Обработано",
+                files, total, filesFailed.sum(),
+                files / seconds, pointsDone.sum() / seconds, bytesDone.sum() / seconds / (1024 * 1024), seconds);
+    }
+
+    /**
+     * Expands the command line inputs: directories are searched recursively for {@code .gpx} files, arguments with
+     * glob characters are matched relative to their longest literal directory, anything else is taken as a file.
+     */
+    static List<Path> findFiles(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (isGlob(input)) {
+                Path base = globBase(input);
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+                try (Stream<Path> walk = Files.walk(base)) {
+                    walk.map(Path::normalize).filter(Files::isRegularFile).filter(matcher::matches).sorted().forEach(files::add);
+                }
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> walk = Files.walk(path)) {
+                        walk.filter(Files::isRegularFile)
+                                .filter(p -> p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gpx"))
+                                .sorted()
+                                .forEach(files::add);
+                    }
+                } else {
+                    files.add(path);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static boolean isGlob(String input) {
+        return firstGlobChar(input) < input.length();
+    }
+
+    private static Path globBase(String glob) {
+        String literal = glob.substring(0, firstGlobChar(glob));
+        int separator = Math.max(literal.lastIndexOf('/'), literal.lastIndexOf(File.separatorChar));
+        return separator >= 0 ? Paths.get(literal.substring(0, separator + 1)) : Paths.get(".");
+    }
+
+    private static int firstGlobChar(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return glob.length();
+    }
+}
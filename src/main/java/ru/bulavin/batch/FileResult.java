@@ -0,0 +1,25 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxStatistics;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of analyzing one file: either statistics or the error that stopped the analysis.
+ */
+public record FileResult(Path file, long points, long bytes, GpxStatistics statistics, String error) {
+
+    public static FileResult success(Path file, long points, long bytes, GpxStatistics statistics) {
+        return new FileResult(file, points, bytes, statistics, null);
+    }
+
+    public static FileResult failure(Path file, long bytes, Throwable error) {
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        message = message.replace("\r", "").replace("\n", " ");
+        return new FileResult(file, 0, bytes, null, message);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,108 @@
+package ru.bulavin.batch;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load generator for {@link GpxServer}: {@code --concurrency} virtual threads post the given GPX files in turn
+ * until {@code --requests} are sent, then the throughput, status counts and latency percentiles are printed.
+ */
+public final class GpxLoadGenerator {
+
+    private GpxLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + GpxServer.DEFAULT_PORT + "/analyze");
+        int concurrency = 16;
+        long requests = 1000;
+        List<String> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--url" -> uri = URI.create(args[++i]);
+                    case "--concurrency" -> concurrency = Integer.parseInt(args[++i]);
+                    case "--requests" -> requests = Long.parseLong(args[++i]);
+                    case "--help" -> {
+                        printUsage();
+                        return;
+                    }
+                    default -> inputs.add(args[i]);
+                }
+            }
+            if (inputs.isEmpty() || concurrency < 1) {
+                throw new IllegalArgumentException("no input files");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        List<Path> files = BatchAnalyzer.findFiles(inputs);
+        List<byte[]> bodies = new ArrayList<>();
+        for (Path file : files) {
+            bodies.add(Files.readAllBytes(file));
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder ok = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        LongAdder errors = new LongAdder();
+        AtomicLong next = new AtomicLong();
+        long total = requests;
+        long started = System.nanoTime();
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+             ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            URI target = uri;
+            for (int i = 0; i < concurrency; i++) {
+                senders.execute(() -> {
+                    for (long n = next.getAndIncrement(); n < total; n = next.getAndIncrement()) {
+                        byte[] body = bodies.get((int) (n % bodies.size()));
+                        HttpRequest request = HttpRequest.newBuilder(target)
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                                .build();
+                        long sent = System.nanoTime();
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            latency.record(System.nanoTime() - sent);
+                            (status == 200 ? ok : status == 429 ? rejected : errors).increment();
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.err.printf(Locale.ROOT, "Запросов %d за %.1f с (%.0f в секунду): 200 — %d, 429 — %d, ошибок %d%n",
+                total, seconds, total / seconds, ok.sum(), rejected.sum(), errors.sum());
+        System.err.printf(Locale.ROOT, "Задержка, мс: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, максимум %.2f%n",
+                latency.getPercentile(0.5).toNanos() / 1e6, latency.getPercentile(0.9).toNanos() / 1e6,
+                latency.getPercentile(0.99).toNanos() / 1e6, latency.getPercentile(0.999).toNanos() / 1e6,
+                latency.getMax().toNanos() / 1e6);
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Использование: GpxLoadGenerator [параметры] <каталог | файл | glob>...
+                  --url URL                адрес сервиса (по умолчанию http://127.0.0.1:8085/analyze)
+                  --concurrency N          одновременных запросов (по умолчанию 16)
+                  --requests N             всего запросов (по умолчанию 1000)""");
+    }
+}
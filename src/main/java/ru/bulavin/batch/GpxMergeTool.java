@@ -0,0 +1,72 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxMerger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line front end of {@link GpxMerger}: merges GPX files, directories or globs into one track.
+ */
+public final class GpxMergeTool {
+
+    private GpxMergeTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = null;
+        String name = null;
+        Duration timeTolerance = GpxMerger.DEFAULT_TIME_TOLERANCE;
+        double distanceTolerance = GpxMerger.DEFAULT_DISTANCE_TOLERANCE;
+        List<String> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--output" -> output = Paths.get(args[++i]);
+                    case "--name" -> name = args[++i];
+                    case "--time-tolerance" -> timeTolerance = Duration.ofMillis(Math.round(Double.parseDouble(args[++i]) * 1000));
+                    case "--distance-tolerance" -> distanceTolerance = Double.parseDouble(args[++i]);
+                    case "--no-dedup" -> distanceTolerance = -1;
+                    case "--help" -> {
+                        printUsage();
+                        return;
+                    }
+                    default -> inputs.add(args[i]);
+                }
+            }
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("no input files");
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("no --output");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        List<Path> files = BatchAnalyzer.findFiles(inputs);
+        long started = System.nanoTime();
+        GpxMerger.Result result = new GpxMerger(timeTolerance, distanceTolerance).merge(files, output, name);
+        System.err.printf("Объединено файлов: %d, точек прочитано %d, записано %d, дубликатов %d, %.1f с%n",
+                files.size(), result.pointsRead(), result.pointsWritten(), result.duplicates(),
+                (System.nanoTime() - started) / 1e9);
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Использование: GpxMergeTool --output FILE [параметры] <каталог | файл | glob>...
+                  --output FILE              файл GPX с объединённым треком
+                  --name NAME                название трека
+                  --time-tolerance S         точки ближе по времени считаются дубликатами (по умолчанию 1)
+                  --distance-tolerance M     ... и по расстоянию, в метрах (по умолчанию 5)
+                  --no-dedup                 не удалять дубликаты
+                Точки всех файлов упорядочиваются по времени; у дубликата берутся недостающие высота и пульс.""");
+    }
+}
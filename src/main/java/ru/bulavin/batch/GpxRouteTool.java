@@ -0,0 +1,134 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.RouteIndex;
+import ru.bulavin.RouteSignature;
+import ru.bulavin.TrackColumns;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line front end of {@link RouteIndex}: finds GPX files that follow the same route, either every pair in the
+ * archive or the files matching {@code --query}. Prints CSV rows {@code first,second,frechet_m}.
+ */
+public final class GpxRouteTool {
+
+    private GpxRouteTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+        double maxDistance = 100.0;
+        double spacing = RouteSignature.DEFAULT_SPACING;
+        Path query = null;
+        List<String> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--workers" -> workers = Integer.parseInt(args[++i]);
+                    case "--max-distance" -> maxDistance = Double.parseDouble(args[++i]);
+                    case "--spacing" -> spacing = Double.parseDouble(args[++i]);
+                    case "--query" -> query = Paths.get(args[++i]);
+                    case "--help" -> {
+                        printUsage();
+                        return;
+                    }
+                    default -> inputs.add(args[i]);
+                }
+            }
+            if (inputs.isEmpty() || workers < 1) {
+                throw new IllegalArgumentException("no input files");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        List<Path> files = BatchAnalyzer.findFiles(inputs);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        long started = System.nanoTime();
+        double step = spacing;
+        List<RouteSignature> signatures = pool.submit(() -> files.parallelStream()
+                .map(file -> signature(file, step))
+                .toList()).join();
+        RouteIndex.Builder builder = RouteIndex.builder();
+        List<Path> routes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (signatures.get(i) != null) {
+                builder.add(signatures.get(i));
+                routes.add(files.get(i));
+            }
+        }
+        RouteIndex index = builder.build();
+        long indexed = System.nanoTime();
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        out.println("first,second,frechet_m");
+        long matches;
+        if (query != null) {
+            RouteSignature signature = signature(query, spacing);
+            if (signature == null) {
+                out.flush();
+                System.exit(1);
+                return;
+            }
+            List<RouteIndex.Match> found = index.find(signature, maxDistance, pool);
+            for (RouteIndex.Match match : found) {
+                printRow(out, query, routes.get(match.route()), match.distance());
+            }
+            matches = found.size();
+        } else {
+            List<RouteIndex.Pair> pairs = index.matchAll(maxDistance, pool);
+            for (RouteIndex.Pair pair : pairs) {
+                printRow(out, routes.get(pair.first()), routes.get(pair.second()), pair.distance());
+            }
+            matches = pairs.size();
+        }
+        out.flush();
+        System.err.printf(Locale.ROOT, "Маршрутов %d из %d файлов, сигнатуры %.1f с, сравнение %.1f с, совпадений %d%n",
+                index.size(), files.size(), (indexed - started) / 1e9, (System.nanoTime() - indexed) / 1e9, matches);
+        pool.shutdown();
+    }
+
+    private static RouteSignature signature(Path file, double spacing) {
+        try {
+            TrackColumns.Builder track = TrackColumns.builder();
+            GpxStreamReader.read(file, Set.of(), track);
+            if (track.size() == 0) {
+                System.err.println("Нет точек: " + file);
+                return null;
+            }
+            return RouteSignature.of(track.build(), spacing);
+        } catch (IOException e) {
+            System.err.println("Не удалось прочитать " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void printRow(PrintWriter out, Path first, Path second, double distance) {
+        out.printf(Locale.ROOT, "%s,%s,%.1f%n", ResultFormat.quoteCsv(first.toString()), ResultFormat.quoteCsv(second.toString()), distance);
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Использование: GpxRouteTool [параметры] <каталог | файл | glob>...
+                  --max-distance M         наибольшее расстояние Фреше между треками одного маршрута (по умолчанию 100 м)
+                  --query FILE             искать только маршрут этого файла, иначе все пары
+                  --spacing M              шаг выборки точек по треку (по умолчанию 25 м)
+                  --workers N              число потоков (по умолчанию по числу ядер)
+                Направление важно: маршрут, пройденный в обратную сторону, считается другим.""");
+    }
+}
@@ -0,0 +1,356 @@
+package ru.bulavin.batch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.bulavin.DistanceModel;
+import ru.bulavin.GpxStatisticsAccumulator;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.HeartRateZones;
+import ru.bulavin.PipelineMetrics;
+import ru.bulavin.TrackFilter;
+import ru.bulavin.TrackPreprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded HTTP service that analyzes GPX uploads: {@code POST /analyze} with the GPX as the body returns the
+ * statistics as one JSON object in the {@link ResultFormat#JSON} layout, {@code GET /metrics} returns request counts
+ * and latency percentiles.
+ * <p>
+ * Every exchange runs on a virtual thread, parsing runs on a fixed pool of {@code workers} platform threads like in
+ * {@link BatchAnalyzer}: the server's request streams are synchronized and would pin a virtual thread to its carrier
+ * while it waits for a slow upload. A request is admitted only while fewer than {@code workers + queue} requests are
+ * in the service, otherwise it gets 429 without its body being read. Admitted requests wait for a worker without
+ * reading their body, so a slow queue pushes back on the senders through TCP. Bodies larger than
+ * {@value #SMALL_REQUEST_BYTES} bytes or without a length are parsed straight from the socket. Smaller ones are read
+ * into memory and collected for at most {@link #BATCH_DELAY}, up to {@value #MAX_BATCH} at a time; each such batch is
+ * split evenly over the workers, so a burst of small uploads uses every core.
+ * <p>
+ * A worker parsing from the socket is held for as long as the upload takes and there is no read timeout, so
+ * {@code workers} slow or stalled uploads of large files hold up every other request until they finish or the client
+ * disconnects. Put a proxy that buffers request bodies in front of the service when uploads come from untrusted or slow
+ * networks.
+ */
+public final class GpxServer implements Closeable {
+    public static final int DEFAULT_PORT = 8085;
+    static final int SMALL_REQUEST_BYTES = 64 * 1024;
+    static final int MAX_BATCH = 32;
+    static final Duration BATCH_DELAY = Duration.ofMillis(2);
+
+    private final int workers;
+    private final int queue;
+    private final DistanceModel distanceModel;
+    private final Semaphore admission;
+    private final ExecutorService cpu;
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private final BlockingQueue<SmallRequest> smallRequests = new LinkedBlockingQueue<>();
+    private final AtomicInteger busy = new AtomicInteger();
+    // Results that exchanges wait for, failed on close so that no exchange waits for a worker that is gone
+    private final Set<CompletableFuture<FileResult>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+    private HeartRateZones heartRateZones;
+    private HttpServer server;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRequests = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    public GpxServer(int workers, int queue, DistanceModel distanceModel) {
+        if (workers < 1 || queue < 0) {
+            throw new IllegalArgumentException("workers " + workers + ", queue " + queue);
+        }
+        this.workers = workers;
+        this.queue = queue;
+        this.distanceModel = distanceModel;
+        admission = new Semaphore(workers + queue);
+        cpu = Executors.newFixedThreadPool(workers, Thread.ofPlatform().daemon().factory());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        int port = DEFAULT_PORT;
+        DistanceModel distanceModel = DistanceModel.VINCENTY;
+        TrackPreprocessing preprocessing = TrackPreprocessing.NONE;
+        HeartRateZones heartRateZones = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host" -> host = args[++i];
+                    case "--port" -> port = Integer.parseInt(args[++i]);
+                    case "--workers" -> workers = Integer.parseInt(args[++i]);
+                    case "--queue" -> queue = Integer.parseInt(args[++i]);
+                    case "--distance-model" -> distanceModel = DistanceModel.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "--filter" -> preprocessing = TrackPreprocessing.parse(args[++i]);
+                    case "--hr-zones" -> heartRateZones = HeartRateZones.parse(args[++i]);
+                    case "--metrics" -> PipelineMetrics.setEnabled(true);
+                    case "--help" -> {
+                        printUsage();
+                        return;
+                    }
+                    default -> throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Неверные аргументы: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        PipelineMetrics.install();
+        GpxServer server = new GpxServer(workers, queue >= 0 ? queue : 4 * workers, distanceModel);
+        server.setPreprocessing(preprocessing);
+        server.setHeartRateZones(heartRateZones);
+        server.start(new InetSocketAddress(host, port));
+        System.err.printf("Сервер анализа GPX: http://%s:%d/analyze, потоков %d, очередь %d%n",
+                host, server.getPort(), server.workers, server.queue);
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Использование: GpxServer [параметры]
+                  --host HOST              адрес (по умолчанию 127.0.0.1)
+                  --port N                 порт (по умолчанию 8085, 0 — любой свободный)
+                  --workers N              одновременно анализируемых запросов (по умолчанию по числу ядер)
+                  --queue N                запросов в ожидании, сверх них ответ 429 (по умолчанию 4 на поток)
+                  --distance-model MODEL   vincenty, equirectangular или haversine (по умолчанию vincenty)
+                  --filter SPEC            фильтрация шума перед расчётом, как у BatchAnalyzer
+                  --hr-zones SPEC          TRIMP и время в зонах пульса, как у BatchAnalyzer
+                  --metrics                замерять этапы разбора и расчёта, через JMX и JFR
+                POST /analyze с файлом GPX в теле возвращает статистику в JSON, GET /metrics — задержки и счётчики.
+                Большие файлы читаются из сокета потоком анализа без тайм-аута: --workers медленных загрузок задерживают
+                все остальные запросы, для медленных сетей ставьте перед сервером прокси с буферизацией тела.""");
+    }
+
+    public void setPreprocessing(TrackPreprocessing preprocessing) {
+        this.preprocessing = preprocessing;
+    }
+
+    public void setHeartRateZones(HeartRateZones heartRateZones) {
+        this.heartRateZones = heartRateZones;
+    }
+
+    public void start(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.setExecutor(io);
+        server.createContext("/analyze", this::analyze);
+        server.createContext("/metrics", this::metrics);
+        io.execute(this::collectBatches);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (server != null) {
+            server.stop(0);
+        }
+        io.shutdownNow();
+        cpu.shutdownNow();
+        for (CompletableFuture<FileResult> future : pending) {
+            future.completeExceptionally(new IllegalStateException("server closed"));
+        }
+    }
+
+    private void analyze(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "{\"error\":\"POST only\"}");
+                return;
+            }
+            long length;
+            try {
+                length = contentLength(exchange);
+            } catch (NumberFormatException e) {
+                exchange.getResponseHeaders().set("Connection", "close");
+                respond(exchange, 400, "{\"error\":\"invalid Content-Length\"}");
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                rejected.increment();
+                // The body is not read, so the connection cannot be reused
+                exchange.getResponseHeaders().set("Connection", "close");
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"error\":\"overloaded\"}");
+                return;
+            }
+            long started = System.nanoTime();
+            try {
+                requests.increment();
+                CompletableFuture<FileResult> future;
+                if (length >= 0 && length <= SMALL_REQUEST_BYTES) {
+                    SmallRequest request = new SmallRequest(exchange.getRequestBody().readNBytes((int) length));
+                    smallRequests.add(request);
+                    future = request.result;
+                } else {
+                    InputStream body = new BufferedInputStream(exchange.getRequestBody(), 64 * 1024);
+                    future = CompletableFuture.supplyAsync(() -> analyze(body, length), cpu);
+                }
+                pending.add(future);
+                FileResult result;
+                try {
+                    if (closed) {
+                        future.completeExceptionally(new IllegalStateException("server closed"));
+                    }
+                    result = future.join();
+                } catch (CompletionException e) {
+                    respond(exchange, 503, "{\"error\":\"server closed\"}");
+                    return;
+                } finally {
+                    pending.remove(future);
+                }
+                if (!result.isSuccess()) {
+                    failed.increment();
+                }
+                respond(exchange, result.isSuccess() ? 200 : 400, ResultFormat.JSON.format(result, heartRateZones));
+            } finally {
+                admission.release();
+                latency.record(System.nanoTime() - started);
+            }
+        }
+    }
+
+    private FileResult analyze(InputStream in, long length) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(distanceModel);
+        busy.incrementAndGet();
+        try {
+            TrackFilter filter = preprocessing.chain(distanceModel, accumulator);
+            try (PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.READ)) {
+                GpxStreamReader.read(in, filter);
+                filter.finish();
+                timer.points(accumulator.getPointCount()).bytes(Math.max(0, length));
+            }
+            bytesRead.add(Math.max(0, length));
+            return FileResult.success(null, accumulator.getPointCount(), Math.max(0, length), accumulator.toStatistics());
+        } catch (IOException | RuntimeException e) {
+            return FileResult.failure(null, Math.max(0, length), e);
+        } finally {
+            busy.decrementAndGet();
+        }
+    }
+
+    // Groups small requests that arrive together and spreads every group over the workers
+    private void collectBatches() {
+        try {
+            while (true) {
+                List<SmallRequest> batch = new ArrayList<>();
+                batch.add(smallRequests.take());
+                long deadline = System.nanoTime() + BATCH_DELAY.toNanos();
+                while (batch.size() < MAX_BATCH) {
+                    SmallRequest next = smallRequests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                batchedRequests.add(batch.size());
+                // One part per worker, so that the last request of a burst does not wait for all the others
+                int share = (batch.size() + workers - 1) / workers;
+                for (int from = 0; from < batch.size(); from += share) {
+                    List<SmallRequest> part = batch.subList(from, Math.min(batch.size(), from + share));
+                    batches.increment();
+                    cpu.execute(() -> runBatch(part));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runBatch(List<SmallRequest> batch) {
+        for (SmallRequest request : batch) {
+            request.result.complete(analyze(new ByteArrayInputStream(request.body), request.body.length));
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if ("POST".equals(exchange.getRequestMethod()) && exchange.getRequestURI().getPath().endsWith("/reset")) {
+                latency.reset();
+            }
+            respond(exchange, 200, metricsJson());
+        }
+    }
+
+    String metricsJson() {
+        int available = admission.availablePermits();
+        int busy = this.busy.get();
+        return String.format(Locale.ROOT, "{\"requests\":%d,\"rejected\":%d,\"failed\":%d,\"in_flight\":%d,"
+                        + "\"queued\":%d,\"workers\":%d,\"queue\":%d,\"batches\":%d,\"batched_requests\":%d,"
+                        + "\"bytes\":%d,\"latency_ms\":{\"count\":%d,\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,"
+                        + "\"p99\":%.3f,\"p999\":%.3f,\"max\":%.3f}}",
+                requests.sum(), rejected.sum(), failed.sum(), busy, Math.max(0, workers + queue - available - busy),
+                workers, queue, batches.sum(), batchedRequests.sum(), bytesRead.sum(), latency.getCount(),
+                millis(latency.getMean()), millis(latency.getPercentile(0.5)), millis(latency.getPercentile(0.9)),
+                millis(latency.getPercentile(0.99)), millis(latency.getPercentile(0.999)), millis(latency.getMax()));
+    }
+
+    private static double millis(Duration duration) {
+        return duration.toNanos() / 1e6;
+    }
+
+    // -1 for chunked uploads
+    private static long contentLength(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        long value = Long.parseLong(length.trim());
+        if (value < 0) {
+            throw new NumberFormatException(length);
+        }
+        return value;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private record SmallRequest(byte[] body, CompletableFuture<FileResult> result) {
+        SmallRequest(byte[] body) {
+            this(body, new CompletableFuture<>());
+        }
+    }
+}
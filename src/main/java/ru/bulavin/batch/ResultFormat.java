@@ -0,0 +1,278 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxMetric;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.HeartRateHistogram;
+import ru.bulavin.HeartRateZones;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Line-oriented output formats for analysis results. Every {@link GpxStatistics} metric gets its own column or field;
+ * metrics that are absent for a track are left empty (CSV) or {@code null} (JSON), as are NaN and infinite values in
+ * JSON. With {@link HeartRateZones} the
+ * rows also get {@code trimp} and the seconds in every zone, {@code zone0_s} being the time below the first zone.
+ */
+public enum ResultFormat {
+    CSV {
+        @Override
+        Optional<String> header(List<String> columns) {
+            return Optional.of(String.join(",", columns));
+        }
+
+        @Override
+        String line(List<String> columns, List<String> values) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                String value = values.get(i);
+                if (value != null) {
+                    line.append(TEXT_COLUMNS.contains(columns.get(i)) ? quoteCsv(value) : value);
+                }
+            }
+            return line.toString();
+        }
+    },
+    JSON {
+        @Override
+        Optional<String> header(List<String> columns) {
+            return Optional.empty();
+        }
+
+        @Override
+        String line(List<String> columns, List<String> values) {
+            StringBuilder line = new StringBuilder("{");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append('"').append(columns.get(i)).append("\":");
+                String value = values.get(i);
+                // JSON has no NaN or infinity
+                if (value == null || value.equals("NaN") || value.endsWith("Infinity")) {
+                    line.append("null");
+                } else if (TEXT_COLUMNS.contains(columns.get(i))) {
+                    line.append(quoteJson(value));
+                } else {
+                    line.append(value);
+                }
+            }
+            return line.append('}').toString();
+        }
+    };
+
+    static final List<String> COLUMNS = List.of(
+            "file",
+            "status",
+            "points",
+            "bytes",
+            "total_distance_km",
+            "moving_time_s",
+            "stopped_time_s",
+            "dirty_average_speed_kmh",
+            "clean_average_speed_kmh",
+            "min_elevation_m",
+            "max_elevation_m",
+            "max_ascent_m",
+            "max_descent_m",
+            "min_temperature_c",
+            "max_temperature_c",
+            "min_heart_rate",
+            "max_heart_rate",
+            "average_heart_rate",
+            "error");
+
+    static final List<String> ROLLUP_COLUMNS = List.of(
+            "key",
+            "period",
+            "bucket_start",
+            "activities",
+            "total_distance_km",
+            "moving_time_s",
+            "stopped_time_s",
+            "min_elevation_m",
+            "max_elevation_m",
+            "min_heart_rate",
+            "max_heart_rate",
+            "average_heart_rate");
+
+    private static final Set<String> TEXT_COLUMNS = Set.of("file", "status", "error", "key", "period", "bucket_start");
+
+    abstract Optional<String> header(List<String> columns);
+
+    abstract String line(List<String> columns, List<String> values);
+
+    public Optional<String> header() {
+        return header(COLUMNS);
+    }
+
+    public Optional<String> header(HeartRateZones zones) {
+        return header(withZones(COLUMNS, zones));
+    }
+
+    public String format(FileResult result) {
+        return line(COLUMNS, columnValues(result));
+    }
+
+    public String format(FileResult result, HeartRateZones zones) {
+        if (zones == null) {
+            return format(result);
+        }
+        List<String> values = new ArrayList<>(columnValues(result));
+        GpxStatistics statistics = result.statistics();
+        values.addAll(zoneValues(statistics != null && statistics.has(GpxMetric.HEART_RATE)
+                ? statistics.getHeartRateHistogram()
+                : Optional.empty(), zones));
+        return line(withZones(COLUMNS, zones), values);
+    }
+
+    public Optional<String> rollupHeader() {
+        return header(ROLLUP_COLUMNS);
+    }
+
+    public Optional<String> rollupHeader(HeartRateZones zones) {
+        return header(withZones(ROLLUP_COLUMNS, zones));
+    }
+
+    /**
+     * One rollup row; {@code period} and {@code bucketStart} are null for the all-time total of the key.
+     */
+    public String formatRollup(String key, RollupPeriod period, LocalDate bucketStart, RollupStatistics statistics) {
+        return line(ROLLUP_COLUMNS, rollupValues(key, period, bucketStart, statistics));
+    }
+
+    public String formatRollup(String key, RollupPeriod period, LocalDate bucketStart, RollupStatistics statistics,
+                               HeartRateZones zones) {
+        if (zones == null) {
+            return formatRollup(key, period, bucketStart, statistics);
+        }
+        List<String> values = new ArrayList<>(rollupValues(key, period, bucketStart, statistics));
+        values.addAll(zoneValues(statistics.heartRateHistogram(), zones));
+        return line(withZones(ROLLUP_COLUMNS, zones), values);
+    }
+
+    private static List<String> rollupValues(String key, RollupPeriod period, LocalDate bucketStart, RollupStatistics statistics) {
+        return Arrays.asList(
+                key,
+                period != null ? period.name().toLowerCase(Locale.ROOT) : "total",
+                bucketStart != null ? bucketStart.toString() : null,
+                String.valueOf(statistics.activities()),
+                String.valueOf(statistics.totalDistance()),
+                String.valueOf(statistics.totalTimeMoving().toSeconds()),
+                String.valueOf(statistics.totalTimeStopped().toSeconds()),
+                orNull(statistics.minElevation()),
+                orNull(statistics.maxElevation()),
+                orNull(statistics.minHeartRate()),
+                orNull(statistics.maxHeartRate()),
+                orNull(statistics.averageHeartRate()));
+    }
+
+    public static ResultFormat of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    private static List<String> columnValues(FileResult result) {
+        String[] values = new String[COLUMNS.size()];
+        values[0] = result.file() != null ? result.file().toString() : "";
+        values[1] = result.isSuccess() ? "ok" : "error";
+        values[2] = String.valueOf(result.points());
+        values[3] = String.valueOf(result.bytes());
+        GpxStatistics statistics = result.statistics();
+        // Groups that were not computed stay empty
+        if (statistics != null && statistics.has(GpxMetric.DISTANCE)) {
+            values[4] = String.valueOf(statistics.getTotalDistance());
+        }
+        if (statistics != null && statistics.has(GpxMetric.TIME)) {
+            values[5] = String.valueOf(statistics.getTotalTimeMoving().toSeconds());
+            values[6] = String.valueOf(statistics.getTotalTimeStopped().toSeconds());
+            if (statistics.has(GpxMetric.DISTANCE)) {
+                values[7] = String.valueOf(statistics.getDirtyAverageSpeed());
+                values[8] = String.valueOf(statistics.getCleanAverageSpeed());
+            }
+        }
+        if (statistics != null && statistics.has(GpxMetric.ELEVATION)) {
+            values[9] = orNull(statistics.getMinElevation());
+            values[10] = orNull(statistics.getMaxElevation());
+            values[11] = orNull(statistics.getMaxAscent());
+            values[12] = orNull(statistics.getMaxDescent());
+        }
+        if (statistics != null && statistics.has(GpxMetric.TEMPERATURE)) {
+            values[13] = orNull(statistics.getMinTemperature());
+            values[14] = orNull(statistics.getMaxTemperature());
+        }
+        if (statistics != null && statistics.has(GpxMetric.HEART_RATE)) {
+            values[15] = orNull(statistics.getMinHeartRate());
+            values[16] = orNull(statistics.getMaxHeartRate());
+            values[17] = orNull(statistics.getAverageHeartRate());
+        }
+        values[18] = result.error();
+        return Arrays.asList(values);
+    }
+
+    private static List<String> withZones(List<String> columns, HeartRateZones zones) {
+        if (zones == null) {
+            return columns;
+        }
+        List<String> result = new ArrayList<>(columns);
+        result.add("trimp");
+        for (int zone = 0; zone < zones.getZoneCount(); zone++) {
+            result.add("zone" + zone + "_s");
+        }
+        return result;
+    }
+
+    private static List<String> zoneValues(Optional<HeartRateHistogram> histogram, HeartRateZones zones) {
+        List<String> values = new ArrayList<>(zones.getZoneCount() + 1);
+        if (histogram.isEmpty()) {
+            values.addAll(Arrays.asList(new String[zones.getZoneCount() + 1]));
+            return values;
+        }
+        values.add(String.valueOf(histogram.get().trimp(zones)));
+        for (Duration time : histogram.get().timeInZones(zones)) {
+            values.add(String.valueOf(time.toSeconds()));
+        }
+        return values;
+    }
+
+    private static String orNull(Optional<?> value) {
+        return value.map(String::valueOf).orElse(null);
+    }
+
+    static String quoteCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
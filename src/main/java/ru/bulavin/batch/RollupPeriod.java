@@ -0,0 +1,32 @@
+package ru.bulavin.batch;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Calendar bucket of a rollup, identified by its first day.
+ */
+public enum RollupPeriod {
+    /**
+     * ISO week, starting on Monday.
+     */
+    WEEK {
+        @Override
+        public LocalDate bucketStart(LocalDate date) {
+            return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+    },
+    MONTH {
+        @Override
+        public LocalDate bucketStart(LocalDate date) {
+            return date.withDayOfMonth(1);
+        }
+    };
+
+    public abstract LocalDate bucketStart(LocalDate date);
+
+    public static RollupPeriod of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
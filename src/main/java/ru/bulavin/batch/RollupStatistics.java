@@ -0,0 +1,23 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.HeartRateHistogram;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Totals over a group of activities. The average heart rate is weighted by the elapsed time of each activity, so
+ * activities without timestamps only count towards the heart rate minimum and maximum.
+ */
+public record RollupStatistics(
+        long activities,
+        double totalDistance,
+        Duration totalTimeMoving,
+        Duration totalTimeStopped,
+        Optional<Double> minElevation,
+        Optional<Double> maxElevation,
+        Optional<Integer> minHeartRate,
+        Optional<Integer> maxHeartRate,
+        Optional<Double> averageHeartRate,
+        Optional<HeartRateHistogram> heartRateHistogram) {
+}
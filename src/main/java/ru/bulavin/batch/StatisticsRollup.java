@@ -0,0 +1,118 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxMetric;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.HeartRateHistogram;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals over any number of {@link GpxStatistics}, added to from many threads without locking. Sums go into
+ * striped {@link LongAdder}s and extremes into striped {@link LongAccumulator}s, so concurrent adds rarely contend.
+ * Distances and heart rate are summed in fixed point, which makes the totals independent of the order of adds.
+ * <p>
+ * A {@link #snapshot()} taken while adds are running may see some fields of an activity and not others.
+ */
+public final class StatisticsRollup {
+    private final LongAdder activities = new LongAdder();
+    private final LongAdder distanceMicros = new LongAdder();
+    private final LongAdder movingMillis = new LongAdder();
+    private final LongAdder stoppedMillis = new LongAdder();
+
+    // Elevations as order-preserving long keys, see sortable(double)
+    private final LongAccumulator minElevation = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxElevation = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    private final LongAccumulator minHeartRate = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxHeartRate = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    // Average heart rate in 1/100 bpm times elapsed millis
+    private final LongAdder heartRateSum = new LongAdder();
+    private final LongAdder heartRateMillis = new LongAdder();
+    private final AtomicLongArray heartRateHistogram = new AtomicLongArray(HeartRateHistogram.MAX_HEART_RATE + 1);
+
+    /**
+     * Groups that were not computed for {@code statistics} add nothing; the average heart rate needs {@link GpxMetric#TIME}
+     * for its weights.
+     */
+    public void add(GpxStatistics statistics) {
+        activities.increment();
+        long moving = 0;
+        long stopped = 0;
+        if (statistics.has(GpxMetric.DISTANCE)) {
+            distanceMicros.add(Math.round(statistics.getTotalDistance() * 1e9));
+        }
+        if (statistics.has(GpxMetric.TIME)) {
+            moving = statistics.getTotalTimeMoving().toMillis();
+            stopped = statistics.getTotalTimeStopped().toMillis();
+            movingMillis.add(moving);
+            stoppedMillis.add(stopped);
+        }
+        if (statistics.has(GpxMetric.ELEVATION)) {
+            statistics.getMinElevation().ifPresent(elevation -> minElevation.accumulate(sortable(elevation)));
+            statistics.getMaxElevation().ifPresent(elevation -> maxElevation.accumulate(sortable(elevation)));
+        }
+        if (!statistics.has(GpxMetric.HEART_RATE)) {
+            return;
+        }
+        long elapsed = moving + stopped;
+        statistics.getMinHeartRate().ifPresent(minHeartRate::accumulate);
+        statistics.getMaxHeartRate().ifPresent(maxHeartRate::accumulate);
+        statistics.getAverageHeartRate().ifPresent(heartRate -> {
+            if (elapsed > 0) {
+                heartRateSum.add(Math.round(heartRate * 100) * elapsed);
+                heartRateMillis.add(elapsed);
+            }
+        });
+        statistics.getHeartRateHistogram().ifPresent(histogram -> {
+            long[] bins = histogram.toArray();
+            for (int i = 0; i < bins.length; i++) {
+                if (bins[i] != 0) {
+                    heartRateHistogram.addAndGet(i, bins[i]);
+                }
+            }
+        });
+    }
+
+    public RollupStatistics snapshot() {
+        long minElevationKey = minElevation.get();
+        long maxElevationKey = maxElevation.get();
+        long minHeartRateValue = minHeartRate.get();
+        long maxHeartRateValue = maxHeartRate.get();
+        long heartRateWeight = heartRateMillis.sum();
+        return new RollupStatistics(
+                activities.sum(),
+                distanceMicros.sum() / 1e9,
+                Duration.ofMillis(movingMillis.sum()),
+                Duration.ofMillis(stoppedMillis.sum()),
+                minElevationKey == Long.MAX_VALUE ? Optional.empty() : Optional.of(fromSortable(minElevationKey)),
+                maxElevationKey == Long.MIN_VALUE ? Optional.empty() : Optional.of(fromSortable(maxElevationKey)),
+                minHeartRateValue == Long.MAX_VALUE ? Optional.empty() : Optional.of((int) minHeartRateValue),
+                maxHeartRateValue == Long.MIN_VALUE ? Optional.empty() : Optional.of((int) maxHeartRateValue),
+                heartRateWeight == 0 ? Optional.empty() : Optional.of(heartRateSum.sum() / 100.0 / heartRateWeight),
+                histogram());
+    }
+
+    private Optional<HeartRateHistogram> histogram() {
+        long[] bins = new long[heartRateHistogram.length()];
+        boolean empty = true;
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] = heartRateHistogram.get(i);
+            empty &= bins[i] == 0;
+        }
+        return empty ? Optional.empty() : Optional.of(HeartRateHistogram.of(bins));
+    }
+
+    // Flips the magnitude bits of negative doubles so that signed long order matches double order
+    static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ (bits >> 63 & Long.MAX_VALUE);
+    }
+
+    static double fromSortable(long key) {
+        return Double.longBitsToDouble(key ^ (key >> 63 & Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,91 @@
+package ru.bulavin.batch;
+
+import ru.bulavin.GpxStatistics;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Per-key rollups of activity statistics, for example per athlete or vehicle, that worker threads add to
+ * concurrently. Every activity goes into the key's all-time total and into its week and month buckets by start
+ * date, so a query by key or by bucket reads one {@link StatisticsRollup} instead of merging activities.
+ * Activities without a start time only count towards the total.
+ */
+public final class StatisticsRollups {
+    private final ZoneId zone;
+    private final ConcurrentHashMap<String, KeyRollup> rollups = new ConcurrentHashMap<>();
+
+    public StatisticsRollups() {
+        this(ZoneOffset.UTC);
+    }
+
+    /**
+     * @param zone time zone in which start times are turned into calendar dates
+     */
+    public StatisticsRollups(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public void add(String key, GpxStatistics statistics) {
+        KeyRollup rollup = rollups.computeIfAbsent(key, _ -> new KeyRollup());
+        rollup.total.add(statistics);
+        statistics.getStartTime().ifPresent(startTime -> {
+            LocalDate date = LocalDate.ofInstant(startTime, zone);
+            rollup.buckets.forEach((period, buckets) ->
+                    buckets.computeIfAbsent(period.bucketStart(date), _ -> new StatisticsRollup()).add(statistics));
+        });
+    }
+
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(new TreeSet<>(rollups.keySet()));
+    }
+
+    public Optional<RollupStatistics> total(String key) {
+        KeyRollup rollup = rollups.get(key);
+        return rollup != null ? Optional.of(rollup.total.snapshot()) : Optional.empty();
+    }
+
+    /**
+     * The bucket of {@code period} that contains {@code date}.
+     */
+    public Optional<RollupStatistics> bucket(String key, RollupPeriod period, LocalDate date) {
+        KeyRollup rollup = rollups.get(key);
+        StatisticsRollup bucket = rollup != null ? rollup.buckets.get(period).get(period.bucketStart(date)) : null;
+        return bucket != null ? Optional.of(bucket.snapshot()) : Optional.empty();
+    }
+
+    /**
+     * Non-empty buckets of {@code period} by their first day.
+     */
+    public NavigableMap<LocalDate, RollupStatistics> buckets(String key, RollupPeriod period) {
+        NavigableMap<LocalDate, RollupStatistics> snapshots = new TreeMap<>();
+        KeyRollup rollup = rollups.get(key);
+        if (rollup != null) {
+            rollup.buckets.get(period).forEach((start, bucket) -> snapshots.put(start, bucket.snapshot()));
+        }
+        return snapshots;
+    }
+
+    private static final class KeyRollup {
+        private final StatisticsRollup total = new StatisticsRollup();
+        private final Map<RollupPeriod, ConcurrentNavigableMap<LocalDate, StatisticsRollup>> buckets = new EnumMap<>(RollupPeriod.class);
+
+        KeyRollup() {
+            for (RollupPeriod period : RollupPeriod.values()) {
+                buckets.put(period, new ConcurrentSkipListMap<>());
+            }
+        }
+    }
+}
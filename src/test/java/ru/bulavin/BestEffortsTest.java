@@ -0,0 +1,205 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BestEffortsTest {
+    private static final TrackColumns TRACK = GpxUtils.generateTrack(3000, true, 20);
+
+    @Test
+    public void testSameAsBruteForce() {
+        int n = TRACK.size();
+        double[] time = new double[n];
+        double[] distance = new double[n];
+        double[] elevation = new double[n];
+        for (int k = 0; k < n; k++) {
+            time[k] = TRACK.getTime(k);
+            elevation[k] = TRACK.getElevation(k);
+            if (k > 0) {
+                distance[k] = distance[k - 1] + DistanceModel.EQUIRECTANGULAR.distance(TRACK.getLatitude(k - 1),
+                        TRACK.getLongitude(k - 1), TRACK.getLatitude(k), TRACK.getLongitude(k));
+            }
+        }
+        BestEfforts efforts = BestEfforts.of(TRACK);
+
+        for (double meters : new double[]{500, 2000}) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < j; i++) {
+                    double start = distance[j] - meters;
+                    if (distance[i] <= start && start < distance[i + 1]) {
+                        best = Math.min(best, time[j] - interpolate(time, distance, i, start));
+                    }
+                    double end = distance[i] + meters;
+                    if (distance[j - 1] < end && end <= distance[j]) {
+                        best = Math.min(best, interpolate(time, distance, j - 1, end) - time[i]);
+                    }
+                }
+            }
+            BestEffort effort = efforts.find(EffortTarget.fastest(meters)).orElseThrow();
+            assertEquals(best, effort.duration().toMillis(), 1);
+            assertEquals(meters, effort.distance(), 1e-3);
+        }
+
+        for (Duration window : List.of(Duration.ofMinutes(5), Duration.ofMinutes(20))) {
+            double bestDistance = Double.NEGATIVE_INFINITY;
+            double bestHeartRate = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < j; i++) {
+                    double start = time[j] - window.toMillis();
+                    if (time[i] <= start && start < time[i + 1]) {
+                        bestDistance = Math.max(bestDistance, distance[j] - interpolate(distance, time, i, start));
+                        double beats = TRACK.getHeartRate(i) * (time[i + 1] - start);
+                        for (int k = i + 1; k < j; k++) {
+                            beats += TRACK.getHeartRate(k) * (time[k + 1] - time[k]);
+                        }
+                        bestHeartRate = Math.max(bestHeartRate, beats / window.toMillis());
+                    }
+                    double end = time[i] + window.toMillis();
+                    if (time[j - 1] < end && end <= time[j]) {
+                        bestDistance = Math.max(bestDistance, interpolate(distance, time, j - 1, end) - distance[i]);
+                        double beats = TRACK.getHeartRate(j - 1) * (end - time[j - 1]);
+                        for (int k = i; k < j - 1; k++) {
+                            beats += TRACK.getHeartRate(k) * (time[k + 1] - time[k]);
+                        }
+                        bestHeartRate = Math.max(bestHeartRate, beats / window.toMillis());
+                    }
+                }
+            }
+            BestEffort speed = efforts.find(EffortTarget.bestSpeed(window)).orElseThrow();
+            assertEquals(bestDistance, speed.distance(), 1e-3);
+            assertEquals(window, speed.duration());
+            BestEffort heartRate = efforts.find(EffortTarget.bestHeartRate(window)).orElseThrow();
+            assertEquals(bestHeartRate, heartRate.averageHeartRate().orElseThrow(), 1e-6);
+        }
+
+        double bestGain = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < j; i++) {
+                double start = distance[j] - 200;
+                if (distance[i] <= start && start < distance[i + 1]) {
+                    bestGain = Math.max(bestGain, elevation[j] - interpolate(elevation, distance, i, start));
+                }
+                double end = distance[i] + 200;
+                if (distance[j - 1] < end && end <= distance[j]) {
+                    bestGain = Math.max(bestGain, interpolate(elevation, distance, j - 1, end) - elevation[i]);
+                }
+            }
+        }
+        BestEffort climb = efforts.find(EffortTarget.steepestClimb(200)).orElseThrow();
+        assertEquals(bestGain, climb.elevationGain(), 1e-6);
+        assertEquals(bestGain / 2, climb.getGradient(), 1e-6);
+    }
+
+    @Test
+    public void testWindowStartIsInterpolated() {
+        // About 10 m a second, then a 100 s stretch at 20 m a second; heart rate 100, then 160 from the fast stretch.
+        // The meridian degree is taken as 111.195 km, so distances are off by a few 1e-4
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double meters = 0;
+        for (int second = 0; second <= 600; second++) {
+            point.clear();
+            point.setLatitude(51 + meters / 111_194.93);
+            point.setLongitude(39);
+            point.setElevation(meters / 100);
+            point.setTime(second * 1000L);
+            point.setHeartRate(second < 200 ? 100 : 160);
+            builder.accept(point);
+            meters += second >= 200 && second < 300 ? 20 : 10;
+        }
+        BestEfforts efforts = BestEfforts.of(builder.build());
+
+        BestEffort fastest = efforts.find(EffortTarget.fastest(1000)).orElseThrow();
+        assertEquals(50_000, fastest.duration().toMillis(), 50);
+        assertTrue(fastest.startIndex() >= 200 && fastest.endIndex() <= 300);
+        assertEquals(1000, fastest.distance(), 1e-3);
+
+        // Best 150 s: the fast 100 s plus 50 s at 10 m/s = 2500 m
+        BestEffort speed = efforts.find(EffortTarget.bestSpeed(Duration.ofSeconds(150))).orElseThrow();
+        assertEquals(2500, speed.distance(), 2.5);
+
+        // The first 5 minutes that are all at 160 start with the change
+        BestEffort heartRate = efforts.find(EffortTarget.bestHeartRate(Duration.ofMinutes(5))).orElseThrow();
+        assertEquals(160, heartRate.averageHeartRate().orElseThrow(), 1e-9);
+        assertEquals(Instant.ofEpochSecond(200), heartRate.startTime());
+
+        BestEffort climb = efforts.find(EffortTarget.steepestClimb(500)).orElseThrow();
+        assertEquals(5, climb.elevationGain(), 5e-3);
+        assertEquals(1, climb.getGradient(), 1e-3);
+    }
+
+    @Test
+    public void testWindowEndIsInterpolated() {
+        // 500 m in 10 s, then 1000 m in 1000 s: the fastest 1 km starts at the first point and ends inside the slow
+        // step, not 1000 s at its end. Degrees to meters are off by about 1e-3 here, a second in the slow step
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double[] meters = {0, 500, 1500};
+        long[] seconds = {0, 10, 1010};
+        for (int i = 0; i < meters.length; i++) {
+            point.clear();
+            point.setLatitude(51 + meters[i] / 111_194.93);
+            point.setLongitude(39);
+            point.setElevation(meters[i] / 10);
+            point.setTime(seconds[i] * 1000);
+            builder.accept(point);
+        }
+        BestEfforts efforts = BestEfforts.of(builder.build());
+
+        BestEffort fastest = efforts.find(EffortTarget.fastest(1000)).orElseThrow();
+        assertEquals(510_000, fastest.duration().toMillis(), 1000);
+        assertEquals(1000, fastest.distance(), 1e-3);
+        assertEquals(0, fastest.startIndex());
+        assertEquals(1, fastest.endIndex());
+        assertEquals(Instant.EPOCH, fastest.startTime());
+
+        // The first 20 s cover 500 m and then 10 s of the slow step
+        BestEffort speed = efforts.find(EffortTarget.bestSpeed(Duration.ofSeconds(20))).orElseThrow();
+        assertEquals(510, speed.distance(), 1);
+        assertEquals(Duration.ofSeconds(20), speed.duration());
+
+        BestEffort climb = efforts.find(EffortTarget.steepestClimb(600)).orElseThrow();
+        assertEquals(60, climb.elevationGain(), 0.1);
+    }
+
+    @Test
+    public void testPointsWithoutTimeAndShortTracks() {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < 400; i++) {
+            TRACK.get(i, point);
+            if (i % 3 == 1) {
+                point.setTime(TrackPoint.NO_TIME);
+            }
+            builder.accept(point);
+        }
+        BestEfforts efforts = BestEfforts.of(builder.build());
+        assertEquals(400 - 133, efforts.size());
+
+        BestEffort effort = efforts.find(EffortTarget.bestSpeed(Duration.ofMinutes(1))).orElseThrow();
+        assertTrue(effort.startIndex() % 3 != 1 && effort.endIndex() % 3 != 1);
+        long end = effort.startTime().plus(effort.duration()).toEpochMilli();
+        assertTrue(TRACK.getTime((int) effort.endIndex()) <= end, effort.toString());
+        assertTrue(end < TRACK.getTime((int) effort.endIndex() + (effort.endIndex() % 3 == 0 ? 2 : 1)), effort.toString());
+
+        assertEquals(Optional.empty(), efforts.find(EffortTarget.fastest(100_000)));
+        assertEquals(Optional.empty(), efforts.find(EffortTarget.bestSpeed(Duration.ofHours(5))));
+        assertEquals(List.of(), BestEfforts.builder().build().find(EffortTarget.DEFAULTS));
+
+        TrackColumns withoutHeartRate = GpxUtils.generateTrack(400, false, 20);
+        assertEquals(Optional.empty(), BestEfforts.of(withoutHeartRate).find(EffortTarget.bestHeartRate(Duration.ofMinutes(1))));
+    }
+
+    private static double interpolate(double[] values, double[] by, int i, double at) {
+        return values[i] + (values[i + 1] - values[i]) * (at - by[i]) / (by[i + 1] - by[i]);
+    }
+}
@@ -0,0 +1,117 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinaryTrackTest {
+
+    @Test
+    public void testRoundTripGeneratedTrack(@TempDir Path directory) throws IOException {
+        TrackColumns columns = GpxUtils.generateTrack(5000, true, 3);
+        Path file = directory.resolve("track" + BinaryTrack.EXTENSION);
+        BinaryTrack.write(columns, file);
+
+        try (BinaryTrack track = BinaryTrack.open(file)) {
+            assertEquals(columns.size(), track.size());
+            for (int i = 0; i < columns.size(); i++) {
+                assertEquals(columns.getLatitude(i), track.getLatitude(i));
+                assertEquals(columns.getLongitude(i), track.getLongitude(i));
+                assertEquals(columns.getElevation(i), track.getElevation(i));
+                assertEquals(columns.getTime(i), track.getTime(i));
+                assertEquals(columns.getTemperature(i), track.getTemperature(i));
+                assertEquals(columns.getHeartRate(i), track.getHeartRate(i));
+            }
+            GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(columns), new GpxStatistics(track, DistanceModel.VINCENTY));
+        }
+    }
+
+    @Test
+    public void testSampleFileWithoutOptionalColumns(@TempDir Path directory) throws IOException {
+        TrackColumns columns = TrackColumns.of(GpxUtils.getPoints());
+        Path file = directory.resolve("points" + BinaryTrack.EXTENSION);
+        BinaryTrack.write(columns, file);
+
+        try (BinaryTrack track = BinaryTrack.open(file)) {
+            assertFalse(track.hasHeartRate(0));
+            assertFalse(track.hasTemperature(0));
+            assertTrue(track.hasElevation(2));
+            GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(GpxUtils.getPoints()), new GpxStatistics(track, DistanceModel.VINCENTY));
+        }
+    }
+
+    @Test
+    public void testStatisticsMatchTheGpxFile(@TempDir Path directory) throws IOException {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double[] temperatures = {21.7, 22.3, 22.3, 21.95};
+        for (int i = 0; i < temperatures.length; i++) {
+            point.clear();
+            point.setLatitude(51.66 + i * 0.001);
+            point.setLongitude(39.2);
+            point.setElevation(150.1 + i);
+            point.setTime(i * 60_000L);
+            point.setTemperature(temperatures[i]);
+            point.setHeartRate(120 + i);
+            builder.accept(point);
+        }
+        Path gpx = directory.resolve("track.gpx");
+        GpxUtils.writeGpx(builder.build(), gpx);
+        Path binary = directory.resolve("track.gpx" + BinaryTrack.EXTENSION);
+        BinaryTrack.write(TrackColumns.read(gpx), binary);
+
+        GpxStatistics expected = GpxStreamReader.readStatistics(gpx);
+        try (BinaryTrack track = BinaryTrack.open(binary)) {
+            GpxStreamReaderTest.assertSameStatistics(expected, new GpxStatistics(track, DistanceModel.VINCENTY));
+        }
+        assertEquals(22.3, expected.getMaxTemperature().orElseThrow());
+    }
+
+    @Test
+    public void testMissingValuesAndLongGaps(@TempDir Path directory) throws IOException {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        long[] times = {1_000L, TrackPoint.NO_TIME, 5_000L, 5_000L + 40L * 24 * 3600 * 1000};
+        for (int i = 0; i < times.length; i++) {
+            point.clear();
+            point.setLatitude(51.0 + i * 0.001);
+            point.setLongitude(39.0);
+            if (times[i] != TrackPoint.NO_TIME) {
+                point.setTime(times[i]);
+            }
+            if (i == 1) {
+                point.setHeartRate(120);
+            }
+            builder.accept(point);
+        }
+        TrackColumns columns = builder.build();
+        Path file = directory.resolve("gaps" + BinaryTrack.EXTENSION);
+        BinaryTrack.write(columns, file);
+
+        try (BinaryTrack track = BinaryTrack.open(file)) {
+            assertFalse(track.hasTime(1));
+            assertEquals(times[3], track.getTime(3));
+            assertFalse(track.hasHeartRate(0));
+            assertEquals(120, track.getHeartRate(1));
+            assertFalse(track.hasElevation(0));
+            GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(columns), new GpxStatistics(track, DistanceModel.VINCENTY));
+        }
+    }
+
+    @Test
+    public void testInvalidFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("bad" + BinaryTrack.EXTENSION);
+        Files.write(file, new byte[100]);
+
+        assertThrows(IOException.class, () -> BinaryTrack.open(file));
+    }
+}
@@ -0,0 +1,36 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ContentHashTest {
+
+    @Test
+    public void testReferenceValues() {
+        assertEquals(0xEF46DB3751D8E999L, ContentHash.hash(new byte[0]));
+        assertEquals(0xD24EC4F1A98C6E5BL, ContentHash.hash("a".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0x44BC2CF5AD770999L, ContentHash.hash("abc".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0xFBCEA83C8A378BF1L, ContentHash.hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testMappedChunksMatchArray(@TempDir Path directory) throws IOException {
+        byte[] data = new byte[100_003];
+        new Random(5).nextBytes(data);
+        Path file = directory.resolve("data.bin");
+        Files.write(file, data);
+
+        long expected = ContentHash.hash(data);
+        assertEquals(expected, ContentHash.hash(file));
+        assertEquals(expected, ContentHash.hash(file, 4096));
+        assertEquals(expected, ContentHash.hash(file, 32));
+    }
+}
@@ -0,0 +1,62 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DistanceModelTest {
+
+    @Test
+    public void testVincentyMatchesJpx() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            double latitude = -85 + 170 * random.nextDouble();
+            double longitude = -179 + 358 * random.nextDouble();
+            double otherLatitude = latitude + (random.nextDouble() - 0.5);
+            double otherLongitude = longitude + (random.nextDouble() - 0.5);
+
+            double expected = WayPoint.of(latitude, longitude).distance(WayPoint.of(otherLatitude, otherLongitude)).doubleValue();
+            assertEquals(expected, DistanceModel.VINCENTY.distance(latitude, longitude, otherLatitude, otherLongitude));
+        }
+    }
+
+    @Test
+    public void testApproximationErrorBounds() {
+        assertTrue(maxRelativeError(DistanceModel.EQUIRECTANGULAR, 1000) < 4e-8);
+        assertTrue(maxRelativeError(DistanceModel.EQUIRECTANGULAR, 10_000) < 4e-6);
+        assertTrue(maxRelativeError(DistanceModel.HAVERSINE, 10_000) < 0.0057);
+    }
+
+    @Test
+    public void testStatisticsWithApproximateModels() {
+        List<WayPoint> points = GpxUtils.getPoints();
+        double expected = new GpxStatistics(points).getTotalDistance();
+
+        assertEquals(expected, new GpxStatistics(points, DistanceModel.EQUIRECTANGULAR).getTotalDistance(), expected * 1e-6);
+        assertEquals(expected, new GpxStatistics(points, DistanceModel.HAVERSINE).getTotalDistance(), expected * 0.0057);
+    }
+
+    private static double maxRelativeError(DistanceModel model, double maxLength) {
+        Random random = new Random(7);
+        double maxError = 0.0;
+        for (int i = 0; i < 100_000; i++) {
+            double latitude = -80 + 160 * random.nextDouble();
+            double longitude = -179 + 358 * random.nextDouble();
+            double length = 1.0 + maxLength * random.nextDouble();
+            double bearing = 2 * Math.PI * random.nextDouble();
+            double otherLatitude = latitude + length * Math.cos(bearing) / 111_000.0;
+            double otherLongitude = longitude + length * Math.sin(bearing) / (111_000.0 * Math.cos(Math.toRadians(latitude)));
+
+            double expected = DistanceModel.VINCENTY.distance(latitude, longitude, otherLatitude, otherLongitude);
+            double actual = model.distance(latitude, longitude, otherLatitude, otherLongitude);
+            maxError = Math.max(maxError, Math.abs(actual - expected) / expected);
+        }
+        return maxError;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxHelperTest {
+
+    @Test
+    public void testReadExtensionsMatchesSingleKeyLookup() throws IOException {
+        List<WayPoint> points = GpxUtils.getPoints(GpxUtils.getSamplePath());
+        GpxExtensionValues values = new GpxExtensionValues();
+        for (WayPoint point : points) {
+            assertTrue(GpxHelper.readExtensions(point, values));
+            assertEquals(GpxHelper.getExtensionValueAsInt(point, "hr"), Optional.of(values.getInt(GpxExtension.HEART_RATE)));
+            assertEquals(GpxHelper.getExtensionValueAsDouble(point, "temp"), Optional.of(values.get(GpxExtension.TEMPERATURE)));
+            assertFalse(values.has(GpxExtension.CADENCE));
+            assertFalse(values.has(GpxExtension.POWER));
+        }
+    }
+
+    @Test
+    public void testOnlyWantedKeysAreRead() throws IOException {
+        WayPoint point = GpxUtils.getPoints(GpxUtils.getSamplePath()).getFirst();
+        GpxExtensionValues values = new GpxExtensionValues(EnumSet.of(GpxExtension.HEART_RATE));
+
+        GpxHelper.readExtensions(point, values);
+
+        assertEquals(80, values.getInt(GpxExtension.HEART_RATE));
+        assertFalse(values.has(GpxExtension.TEMPERATURE));
+    }
+
+    @Test
+    public void testPointWithoutExtensions() {
+        GpxExtensionValues values = new GpxExtensionValues();
+
+        assertFalse(GpxHelper.readExtensions(GpxUtils.getPoints().getFirst(), values));
+        assertFalse(values.has(GpxExtension.HEART_RATE));
+    }
+
+    @Test
+    public void testConcurrentReads() throws IOException {
+        List<WayPoint> points = GpxUtils.getPoints(GpxUtils.getSamplePath());
+        int expected = points.stream().mapToInt(p -> GpxHelper.getExtensionValueAsInt(p, "hr").orElseThrow()).sum();
+
+        IntStream.range(0, 64).parallel().forEach(_ -> {
+            GpxExtensionValues values = new GpxExtensionValues();
+            int sum = 0;
+            for (WayPoint point : points) {
+                GpxHelper.readExtensions(point, values);
+                sum += values.getInt(GpxExtension.HEART_RATE);
+            }
+            assertEquals(expected, sum);
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxMergerTest {
+    private static final TrackColumns TRACK = GpxUtils.generateTrack(5000, true, 19);
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("merge");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testWriterRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TrackPoint extra = new TrackPoint();
+        extra.setLatitude(51.7);
+        extra.setLongitude(39.2);
+        extra.setCadence(88);
+        extra.setPower(251.5);
+        try (GpxStreamWriter writer = new GpxStreamWriter(bytes, "Заезд")) {
+            TRACK.forEach(writer);
+            writer.accept(extra);
+        }
+
+        TrackColumns.Builder read = TrackColumns.builder();
+        List<TrackPoint> last = new ArrayList<>();
+        GpxStreamReader.read(new ByteArrayInputStream(bytes.toByteArray()), EnumSet.allOf(GpxExtension.class), point -> {
+            read.accept(point);
+            TrackPoint copy = new TrackPoint();
+            copy.set(point);
+            last.add(copy);
+        });
+        TrackColumns columns = read.build();
+        assertEquals(TRACK.size() + 1, columns.size());
+        for (int i = 0; i < TRACK.size(); i++) {
+            assertEquals(TRACK.getLatitude(i), columns.getLatitude(i));
+            assertEquals(TRACK.getTime(i), columns.getTime(i));
+            assertEquals(TRACK.getElevation(i), columns.getElevation(i));
+            assertEquals(TRACK.getHeartRate(i), columns.getHeartRate(i));
+            assertEquals(TRACK.getTemperature(i), columns.getTemperature(i));
+        }
+        TrackPoint point = last.getLast();
+        assertEquals(88.0, point.getCadence());
+        assertEquals(251.5, point.getPower());
+        assertTrue(!point.hasTime() && !point.hasHeartRate());
+    }
+
+    @Test
+    public void testSplitRecordingIsJoinedInTimeOrder() throws Exception {
+        // Pieces listed out of order, one of them empty
+        List<Path> pieces = List.of(
+                write("part3.gpx", 3500, TRACK.size()),
+                write("part1.gpx", 0, 2000),
+                write("empty.gpx", 0, 0),
+                write("part2.gpx", 2000, 3500));
+
+        TrackColumns.Builder merged = TrackColumns.builder();
+        GpxMerger.Result result = new GpxMerger().merge(pieces, merged);
+
+        assertEquals(new GpxMerger.Result(TRACK.size(), TRACK.size()), result);
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(TRACK), new GpxStatistics(merged.build()));
+    }
+
+    @Test
+    public void testWatchAndPhoneAreDeduplicated() throws Exception {
+        // The phone records the same ride 300 ms later, a meter off and without heart rate or temperature
+        TrackColumns.Builder phone = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < TRACK.size(); i++) {
+            TRACK.get(i, point);
+            point.setTime(point.getTime() + 300);
+            point.setLatitude(point.getLatitude() + 0.00001);
+            point.setHeartRate(TrackPoint.NO_HEART_RATE);
+            point.setTemperature(Double.NaN);
+            phone.accept(point);
+        }
+        Path phoneFile = directory.resolve("phone.gpx");
+        GpxUtils.writeGpx(phone.build(), phoneFile);
+        Path watchFile = write("watch.gpx", 0, TRACK.size());
+        Path output = directory.resolve("merged.gpx");
+
+        GpxMerger.Result result = new GpxMerger().merge(List.of(phoneFile, watchFile), output, null);
+
+        assertEquals(2L * TRACK.size(), result.pointsRead());
+        assertEquals(TRACK.size(), result.pointsWritten());
+        TrackColumns.Builder builder = TrackColumns.builder();
+        GpxStreamReader.read(output, builder);
+        TrackColumns merged = builder.build();
+        for (int i = 0; i < merged.size(); i++) {
+            assertEquals(TRACK.getTime(i), merged.getTime(i));
+            assertEquals(TRACK.getHeartRate(i), merged.getHeartRate(i));
+        }
+
+        GpxMerger.Result kept = new GpxMerger(Duration.ofSeconds(1), -1).merge(List.of(phoneFile, watchFile), _ -> {
+        });
+        assertEquals(2L * TRACK.size(), kept.pointsWritten());
+    }
+
+    @Test
+    public void testErrorOfAnySourceIsThrown() throws Exception {
+        Path good = write("good.gpx", 0, TRACK.size());
+        Path bad = directory.resolve("bad.gpx");
+        Files.writeString(bad, "<gpx><trk><trkseg><trkpt lat=\"51\" lon=\"39\"></trkseg>");
+
+        IOException error = assertThrows(IOException.class, () -> new GpxMerger().merge(List.of(good, bad), _ -> {
+        }));
+        assertTrue(error.getMessage().contains("bad.gpx"));
+    }
+
+    private Path write(String name, int from, int to) throws IOException {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = from; i < to; i++) {
+            TRACK.get(i, point);
+            builder.accept(point);
+        }
+        Path file = directory.resolve(name);
+        GpxUtils.writeGpx(builder.build(), file);
+        return file;
+    }
+}
@@ -0,0 +1,103 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxMetricTest {
+
+    @Test
+    public void testSelectedGroupsMatchFullStatistics() {
+        TrackColumns track = GpxUtils.generateTrack(5_000, true, 7);
+        GpxStatistics full = new GpxStatistics(track, DistanceModel.VINCENTY);
+
+        for (GpxMetric metric : GpxMetric.values()) {
+            GpxStatistics partial = new GpxStatistics(track, DistanceModel.VINCENTY, EnumSet.of(metric));
+            assertEquals(Set.of(metric), partial.getMetrics());
+            assertEquals(full.getStartTime(), partial.getStartTime());
+            assertSameGroup(metric, full, partial);
+        }
+        GpxStatistics speeds = new GpxStatistics(track, DistanceModel.VINCENTY, EnumSet.of(GpxMetric.DISTANCE, GpxMetric.TIME));
+        assertEquals(full.getDirtyAverageSpeed(), speeds.getDirtyAverageSpeed());
+        assertEquals(full.getCleanAverageSpeed(), speeds.getCleanAverageSpeed());
+    }
+
+    @Test
+    public void testUnselectedGroupsThrow() {
+        GpxStatistics statistics = new GpxStatistics(GpxUtils.getPoints(), DistanceModel.VINCENTY, EnumSet.of(GpxMetric.DISTANCE));
+
+        assertTrue(statistics.getTotalDistance() > 0);
+        assertThrows(IllegalStateException.class, statistics::getTotalTimeMoving);
+        assertThrows(IllegalStateException.class, statistics::getDirtyAverageSpeed);
+        assertThrows(IllegalStateException.class, statistics::getMaxElevation);
+        assertThrows(IllegalStateException.class, statistics::getMinTemperature);
+        assertThrows(IllegalStateException.class, statistics::getHeartRateHistogram);
+        assertTrue(new GpxStatistics(GpxUtils.getPoints()).getMetrics().containsAll(GpxMetric.ALL));
+    }
+
+    @Test
+    public void testAllReadersSkipUnwantedExtensions(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("track.gpx");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(2_000, true, 11), file);
+        List<WayPoint> points = GpxUtils.getPoints(file);
+        GpxStatistics full = new GpxStatistics(points);
+
+        Set<GpxMetric> metrics = EnumSet.of(GpxMetric.DISTANCE, GpxMetric.HEART_RATE);
+        GpxStatistics fromPoints = new GpxStatistics(points, DistanceModel.VINCENTY, metrics);
+        GpxStatistics streamed = GpxStreamReader.readStatistics(file, DistanceModel.VINCENTY, metrics);
+        for (GpxStatistics statistics : List.of(fromPoints, streamed)) {
+            assertSameGroup(GpxMetric.DISTANCE, full, statistics);
+            assertSameGroup(GpxMetric.HEART_RATE, full, statistics);
+        }
+
+        GpxStreamReader.read(file, GpxMetric.extensions(EnumSet.of(GpxMetric.DISTANCE)), point -> {
+            assertFalse(point.hasHeartRate());
+            assertFalse(point.hasTemperature());
+        });
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(EnumSet.of(GpxMetric.DISTANCE, GpxMetric.HEART_RATE), GpxMetric.parse("distance, heart-rate"));
+        assertEquals(GpxMetric.ALL, GpxMetric.parse("all"));
+        assertThrows(IllegalArgumentException.class, () -> GpxMetric.parse("pace"));
+    }
+
+    private static void assertSameGroup(GpxMetric metric, GpxStatistics expected, GpxStatistics actual) {
+        switch (metric) {
+            case DISTANCE -> assertEquals(expected.getTotalDistance(), actual.getTotalDistance());
+            case TIME -> {
+                assertEquals(expected.getTotalTimeMoving(), actual.getTotalTimeMoving());
+                assertEquals(expected.getTotalTimeStopped(), actual.getTotalTimeStopped());
+            }
+            case ELEVATION -> {
+                assertEquals(expected.getMinElevation(), actual.getMinElevation());
+                assertEquals(expected.getMaxElevation(), actual.getMaxElevation());
+                assertEquals(expected.getMaxAscent(), actual.getMaxAscent());
+                assertEquals(expected.getMaxDescent(), actual.getMaxDescent());
+            }
+            case TEMPERATURE -> {
+                assertEquals(expected.getMinTemperature(), actual.getMinTemperature());
+                assertEquals(expected.getMaxTemperature(), actual.getMaxTemperature());
+            }
+            case HEART_RATE -> {
+                assertEquals(expected.getMinHeartRate(), actual.getMinHeartRate());
+                assertEquals(expected.getMaxHeartRate(), actual.getMaxHeartRate());
+                assertEquals(expected.getAverageHeartRate(), actual.getAverageHeartRate());
+                assertEquals(expected.getHeartRateHistogram(), actual.getHeartRateHistogram());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxStatisticsCacheTest {
+
+    @Test
+    public void testRepeatedAnalysisIsServedFromCache(@TempDir Path directory) throws IOException {
+        GpxStatisticsCache cache = GpxStatisticsCache.open(directory, GpxStatisticsCache.DEFAULT_MAX_BYTES);
+
+        GpxStatisticsCache.Entry first = cache.analyze(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+        GpxStatisticsCache.Entry second = cache.analyze(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(first.pointCount(), second.pointCount());
+        GpxStreamReaderTest.assertSameStatistics(GpxStreamReader.readStatistics(GpxUtils.getSamplePath()), second.statistics());
+    }
+
+    @Test
+    public void testDistanceModelIsPartOfKey(@TempDir Path directory) throws IOException {
+        GpxStatisticsCache cache = GpxStatisticsCache.open(directory, GpxStatisticsCache.DEFAULT_MAX_BYTES);
+
+        cache.analyze(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+        cache.analyze(GpxUtils.getSamplePath(), DistanceModel.HAVERSINE);
+
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void testPreprocessingIsPartOfKey(@TempDir Path directory) throws IOException {
+        GpxStatisticsCache cache = GpxStatisticsCache.open(directory, GpxStatisticsCache.DEFAULT_MAX_BYTES);
+        GpxStatisticsCache.Key raw = cache.key(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+        GpxStatisticsCache.Key filtered = cache.key(GpxUtils.getSamplePath(), DistanceModel.VINCENTY, TrackPreprocessing.parse("median=5"));
+
+        cache.put(raw, 1, GpxStreamReader.readStatistics(GpxUtils.getSamplePath()));
+
+        assertTrue(cache.get(raw).isPresent());
+        assertFalse(cache.get(filtered).isPresent());
+        assertEquals(raw, cache.key(GpxUtils.getSamplePath(), DistanceModel.VINCENTY, TrackPreprocessing.parse("none")));
+    }
+
+    @Test
+    public void testEntriesSurviveReopen(@TempDir Path directory) throws IOException {
+        GpxStatisticsCache.open(directory, GpxStatisticsCache.DEFAULT_MAX_BYTES).analyze(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+
+        GpxStatisticsCache reopened = GpxStatisticsCache.open(directory, GpxStatisticsCache.DEFAULT_MAX_BYTES);
+        GpxStatisticsCache.Key key = reopened.key(GpxUtils.getSamplePath(), DistanceModel.VINCENTY);
+
+        assertTrue(reopened.get(key).isPresent());
+        assertEquals(1, reopened.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted(@TempDir Path directory) throws IOException {
+        GpxStatisticsCache cache = GpxStatisticsCache.open(directory.resolve("cache"), GpxStatisticsCache.DEFAULT_MAX_BYTES);
+        long entrySize = putGenerated(cache, directory, 1);
+        cache = GpxStatisticsCache.open(directory.resolve("cache"), 2 * entrySize);
+
+        GpxStatisticsCache.Key first = keyOfGenerated(cache, directory, 1);
+        putGenerated(cache, directory, 2);
+        cache.get(first);
+        putGenerated(cache, directory, 3);
+
+        assertEquals(2, cache.getEntryCount());
+        assertTrue(cache.get(first).isPresent());
+        assertFalse(cache.get(keyOfGenerated(cache, directory, 2)).isPresent());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    private static long putGenerated(GpxStatisticsCache cache, Path directory, long seed) throws IOException {
+        GpxStatisticsCache.Key key = keyOfGenerated(cache, directory, seed);
+        cache.put(key, 10, new GpxStatistics(GpxUtils.generateTrack(10, true, seed)));
+        return cache.getSizeBytes();
+    }
+
+    private static GpxStatisticsCache.Key keyOfGenerated(GpxStatisticsCache cache, Path directory, long seed) throws IOException {
+        Path file = directory.resolve("track-" + seed + ".gpx");
+        if (!Files.exists(file)) {
+            GpxUtils.writeGpx(GpxUtils.generateTrack(10, true, seed), file);
+        }
+        return cache.key(file, DistanceModel.VINCENTY);
+    }
+}
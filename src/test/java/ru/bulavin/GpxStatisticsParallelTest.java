@@ -0,0 +1,49 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GpxStatisticsParallelTest {
+
+    private static final TrackColumns track = GpxUtils.generateTrack(300_000, true, 42);
+
+    @Test
+    public void testParallelMatchesSequential() {
+        GpxStatistics sequential = new GpxStatistics(track, DistanceModel.VINCENTY);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GpxStreamReaderTest.assertSameStatistics(sequential, GpxStatistics.parallel(track, DistanceModel.VINCENTY, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCombineWithTinyChunksMatchesSequential() {
+        TrackColumns columns = GpxUtils.generateTrack(5_000, true, 7);
+        GpxStatistics sequential = new GpxStatistics(columns, DistanceModel.EQUIRECTANGULAR);
+
+        for (int threshold : new int[]{1, 2, 3, 17, 1000}) {
+            GpxStatisticsTask task = new GpxStatisticsTask(columns, DistanceModel.EQUIRECTANGULAR, 0, columns.size(), threshold);
+            GpxStreamReaderTest.assertSameStatistics(sequential, ForkJoinPool.commonPool().invoke(task).toStatistics());
+        }
+    }
+
+    @Test
+    public void testCombineWithEmptyParts() {
+        TrackColumns columns = GpxUtils.generateTrack(10, false, 1);
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        columns.forEach(accumulator);
+
+        GpxStatisticsAccumulator combined = new GpxStatisticsAccumulator()
+                .combine(accumulator)
+                .combine(new GpxStatisticsAccumulator());
+
+        assertEquals(10, combined.getPointCount());
+        GpxStreamReaderTest.assertSameStatistics(accumulator.toStatistics(), combined.toStatistics());
+    }
+}
@@ -0,0 +1,93 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class GpxStreamReaderTest {
+
+    @Test
+    public void testStreamingMatchesListOnSampleFile() throws IOException {
+        GpxStatistics expected = new GpxStatistics(GpxUtils.getPoints(GpxUtils.getSamplePath()));
+        GpxStatistics actual = GpxStreamReader.readStatistics(GpxUtils.getSamplePath());
+
+        assertSameStatistics(expected, actual);
+    }
+
+    @Test
+    public void testStreamingMatchesListOnGeneratedTrack() throws IOException {
+        List<WayPoint> points = GpxUtils.getPoints();
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        GpxStreamReader.read(new ByteArrayInputStream(GpxUtils.toGpxBytes(points)), accumulator);
+
+        assertEquals(points.size(), accumulator.getPointCount());
+        assertSameStatistics(new GpxStatistics(points), accumulator.toStatistics());
+    }
+
+    @Test
+    public void testEmptyTrack() throws IOException {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        GpxStreamReader.read(new ByteArrayInputStream(GpxUtils.toGpxBytes(List.of())), accumulator);
+        GpxStatistics statistics = accumulator.toStatistics();
+
+        assertEquals(0, accumulator.getPointCount());
+        assertEquals(0.0, statistics.getTotalDistance());
+        assertFalse(statistics.getMinElevation().isPresent());
+        assertFalse(statistics.getMaxAscent().isPresent());
+    }
+
+    @Test
+    public void testMalformedXml() {
+        byte[] gpx = "<gpx><trk><trkseg><trkpt lat=\"51.0\" lon=\"39.0\"></trkseg>".getBytes();
+
+        assertThrows(IOException.class, () -> GpxStreamReader.read(new ByteArrayInputStream(gpx), _ -> {
+        }));
+    }
+
+    @Test
+    public void testMalformedUnusedExtensionsAreSkippedByDefault() throws IOException {
+        byte[] gpx = """
+                <gpx><trk><trkseg>
+                <trkpt lat="51.0" lon="39.0"><time>2022-01-01T10:00:00Z</time>
+                  <extensions><power>n/a</power><hr>120</hr><cad>-</cad></extensions></trkpt>
+                </trkseg></trk></gpx>""".getBytes(StandardCharsets.UTF_8);
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+
+        GpxStreamReader.read(new ByteArrayInputStream(gpx), accumulator);
+
+        assertEquals(Optional.of(120), accumulator.toStatistics().getMaxHeartRate());
+        assertThrows(IOException.class, () -> GpxStreamReader.read(new ByteArrayInputStream(gpx),
+                EnumSet.allOf(GpxExtension.class), _ -> {
+                }));
+    }
+
+    static void assertSameStatistics(GpxStatistics expected, GpxStatistics actual) {
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getHeartRateHistogram(), actual.getHeartRateHistogram());
+        assertEquals(expected.getTotalDistance(), actual.getTotalDistance());
+        assertEquals(expected.getTotalTimeMoving(), actual.getTotalTimeMoving());
+        assertEquals(expected.getTotalTimeStopped(), actual.getTotalTimeStopped());
+        assertEquals(expected.getDirtyAverageSpeed(), actual.getDirtyAverageSpeed());
+        assertEquals(expected.getCleanAverageSpeed(), actual.getCleanAverageSpeed());
+        assertEquals(expected.getMinElevation(), actual.getMinElevation());
+        assertEquals(expected.getMaxElevation(), actual.getMaxElevation());
+        assertEquals(expected.getMaxAscent(), actual.getMaxAscent());
+        assertEquals(expected.getMaxDescent(), actual.getMaxDescent());
+        assertEquals(expected.getMinTemperature(), actual.getMinTemperature());
+        assertEquals(expected.getMaxTemperature(), actual.getMaxTemperature());
+        assertEquals(expected.getMinHeartRate(), actual.getMinHeartRate());
+        assertEquals(expected.getMaxHeartRate(), actual.getMaxHeartRate());
+        assertEquals(expected.getAverageHeartRate(), actual.getAverageHeartRate());
+    }
+}
@@ -0,0 +1,74 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class GpxTailReaderTest {
+
+    @Test
+    public void testGrowingFileMatchesFullRead(@TempDir Path directory) throws IOException {
+        byte[] content = Files.readAllBytes(GpxUtils.getSamplePath());
+        Path file = directory.resolve("live.gpx");
+        Files.write(file, new byte[0]);
+        GpxTailReader tail = new GpxTailReader(file);
+        LiveGpxStatistics live = new LiveGpxStatistics();
+
+        // Arbitrary cut points, most of them in the middle of an element
+        int written = 0;
+        for (int cut = 137; written < content.length; cut += 211) {
+            int end = Math.min(content.length, cut);
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                out.write(Arrays.copyOfRange(content, written, end));
+            }
+            written = end;
+            tail.poll(live::append);
+        }
+
+        TrackColumns expected = TrackColumns.read(GpxUtils.getSamplePath());
+        assertEquals(expected.size(), live.getPointCount());
+        GpxStreamReaderTest.assertSameStatistics(GpxStreamReader.readStatistics(GpxUtils.getSamplePath()), live.snapshot());
+    }
+
+    @Test
+    public void testNoNewPointsUntilPointIsComplete(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("live.gpx");
+        Files.writeString(file, """
+                <gpx version="1.1" xmlns="http://www.topografix.com/GPX/1/1"><trk><trkseg>
+                <trkpt lat="51.0" lon="39.0"><ele>100</ele></trkpt>
+                <trkpt lat="51.1" lon="39.0"><ele>""");
+        GpxTailReader tail = new GpxTailReader(file);
+
+        assertEquals(1, tail.poll(_ -> {
+        }));
+        assertEquals(0, tail.poll(_ -> {
+        }));
+
+        Files.writeString(file, "110</ele></trkpt></trkseg><trkseg><trkpt lat=\"51.2\" lon=\"39.0\"></trkpt>", StandardOpenOption.APPEND);
+        assertEquals(2, tail.poll(_ -> {
+        }));
+    }
+
+    @Test
+    public void testTruncatedFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("live.gpx");
+        Files.copy(GpxUtils.getSamplePath(), file);
+        GpxTailReader tail = new GpxTailReader(file);
+        tail.poll(_ -> {
+        });
+
+        Files.writeString(file, "<gpx>");
+        assertThrows(IOException.class, () -> tail.poll(_ -> {
+        }));
+    }
+}
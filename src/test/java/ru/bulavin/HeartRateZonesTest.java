@@ -0,0 +1,117 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HeartRateZonesTest {
+
+    @Test
+    public void testKarvonenZonesAndParse() {
+        HeartRateZones zones = HeartRateZones.of(60, 190);
+
+        assertEquals(6, zones.getZoneCount());
+        assertEquals(List.of(0, 125, 138, 151, 164, 177),
+                List.of(zones.getLowerBound(0), zones.getLowerBound(1), zones.getLowerBound(2),
+                        zones.getLowerBound(3), zones.getLowerBound(4), zones.getLowerBound(5)));
+        assertEquals(0, zones.zoneOf(124));
+        assertEquals(1, zones.zoneOf(125));
+        assertEquals(5, zones.zoneOf(230));
+        assertEquals(zones, HeartRateZones.parse("max=190, rest=60"));
+        assertEquals(zones, HeartRateZones.parse(zones.spec()));
+        assertEquals("rest=50,max=180,zones=120:150,female", HeartRateZones.parse("rest=50,max=180,zones=120:150,female").spec());
+        assertThrows(IllegalArgumentException.class, () -> HeartRateZones.parse("rest=60,max=190,zones=150:140"));
+        assertThrows(IllegalArgumentException.class, () -> HeartRateZones.parse("rest=60"));
+    }
+
+    @Test
+    public void testIntervalsCountAtTheirStartingHeartRate() {
+        // 100 bpm for 2 s, 120 bpm for 1 s, a 10 min pause that is left out, then 150 bpm for 3 s
+        TrackColumns track = track(new long[]{0, 1000, 2000, 3000, 603_000, 606_000}, new int[]{100, 100, 120, 150, 150, 90});
+        GpxStatistics statistics = new GpxStatistics(track);
+        HeartRateHistogram histogram = statistics.getHeartRateHistogram().orElseThrow();
+
+        assertEquals(2000, histogram.getMillis(100));
+        assertEquals(1000, histogram.getMillis(120));
+        assertEquals(3000, histogram.getMillis(150));
+        assertEquals(0, histogram.getMillis(90));
+        assertEquals(Duration.ofSeconds(6), histogram.getTotalTime());
+
+        HeartRateZones zones = HeartRateZones.of(60, 160, 110, 140);
+        assertEquals(List.of(Duration.ofSeconds(2), Duration.ofSeconds(1), Duration.ofSeconds(3)), statistics.getTimeInZones(zones));
+        double expected = 2 / 60.0 * zones.trimpPerMinute(100) + 1 / 60.0 * zones.trimpPerMinute(120)
+                + 3 / 60.0 * zones.trimpPerMinute(150);
+        assertEquals(expected, statistics.getTrimp(zones).orElseThrow(), 1e-12);
+        assertEquals(0.64 * Math.exp(1.92), zones.trimpPerMinute(170), 1e-12);
+        assertEquals(0.0, zones.trimpPerMinute(50));
+    }
+
+    @Test
+    public void testNoHeartRateGivesNoHistogram() {
+        GpxStatistics statistics = new GpxStatistics(GpxUtils.generateTrack(100, false, 3));
+
+        assertFalse(statistics.getHeartRateHistogram().isPresent());
+        assertEquals(List.of(), statistics.getTimeInZones(HeartRateZones.of(60, 190)));
+        assertFalse(statistics.getTrimp(HeartRateZones.of(60, 190)).isPresent());
+    }
+
+    @Test
+    public void testMergeAndBins() {
+        HeartRateHistogram first = new GpxStatistics(GpxUtils.generateTrack(2000, true, 5)).getHeartRateHistogram().orElseThrow();
+        HeartRateHistogram second = new GpxStatistics(GpxUtils.generateTrack(3000, true, 6)).getHeartRateHistogram().orElseThrow();
+
+        HeartRateHistogram merged = first.merge(second);
+        for (int heartRate = 0; heartRate <= HeartRateHistogram.MAX_HEART_RATE; heartRate++) {
+            assertEquals(first.getMillis(heartRate) + second.getMillis(heartRate), merged.getMillis(heartRate));
+        }
+        assertEquals(first.getTotalTime().plus(second.getTotalTime()), merged.getTotalTime());
+        HeartRateZones zones = HeartRateZones.of(60, 190);
+        assertEquals(first.trimp(zones) + second.trimp(zones), merged.trimp(zones), 1e-9);
+
+        long[] bins = merged.bins(10);
+        assertEquals(26, bins.length);
+        long binned = 0;
+        for (int heartRate = 120; heartRate < 130; heartRate++) {
+            binned += merged.getMillis(heartRate);
+        }
+        assertEquals(binned, bins[12]);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        HeartRateHistogram histogram = new GpxStatistics(GpxUtils.generateTrack(1000, true, 8)).getHeartRateHistogram().orElseThrow();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HeartRateHistogram.writeTo(histogram, new DataOutputStream(bytes));
+        HeartRateHistogram.writeTo(null, new DataOutputStream(bytes));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertArrayEquals(histogram.toArray(), HeartRateHistogram.readFrom(in).toArray());
+        assertEquals(null, HeartRateHistogram.readFrom(in));
+    }
+
+    private static TrackColumns track(long[] times, int[] heartRates) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < times.length; i++) {
+            point.clear();
+            point.setLatitude(51.675);
+            point.setLongitude(39.2089 + i * 0.0001);
+            point.setTime(times[i]);
+            point.setHeartRate(heartRates[i]);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+}
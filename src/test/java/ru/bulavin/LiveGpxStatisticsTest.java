@@ -0,0 +1,69 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LiveGpxStatisticsTest {
+
+    @Test
+    public void testSnapshotsMatchPrefixes() throws IOException {
+        List<WayPoint> points = GpxUtils.getPoints(GpxUtils.getSamplePath());
+        LiveGpxStatistics live = new LiveGpxStatistics();
+
+        for (int i = 0; i < points.size(); i++) {
+            live.append(points.get(i));
+
+            assertEquals(i + 1, live.getPointCount());
+            GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(points.subList(0, i + 1)), live.snapshot());
+        }
+    }
+
+    @Test
+    public void testBatchAppendMatchesWholeTrack() {
+        TrackColumns columns = GpxUtils.generateTrack(10_000, true, 4);
+        LiveGpxStatistics live = new LiveGpxStatistics();
+
+        for (int from = 0; from < columns.size(); from += 777) {
+            live.append(columns, from, Math.min(columns.size(), from + 777));
+        }
+
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(columns), live.snapshot());
+    }
+
+    @Test
+    public void testSnapshotWhileAppending() throws InterruptedException {
+        TrackColumns columns = GpxUtils.generateTrack(200_000, true, 5);
+        LiveGpxStatistics live = new LiveGpxStatistics();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = Thread.ofPlatform().start(() -> {
+            TrackPoint point = new TrackPoint();
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i, point);
+                live.append(point);
+            }
+        });
+        double previousDistance = 0;
+        while (writer.isAlive()) {
+            GpxStatistics snapshot = live.snapshot();
+            if (snapshot.getTotalDistance() < previousDistance) {
+                failure.set(new AssertionError("distance went back"));
+            }
+            previousDistance = snapshot.getTotalDistance();
+        }
+        writer.join();
+
+        assertNull(failure.get());
+        assertTrue(previousDistance > 0);
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(columns), live.snapshot());
+    }
+}
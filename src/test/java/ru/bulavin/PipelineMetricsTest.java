@@ -0,0 +1,158 @@
+package ru.bulavin;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PipelineMetricsTest {
+    private static final TrackColumns TRACK = GpxUtils.generateTrack(10_000, true, 17);
+
+    @AfterEach
+    public void tearDown() {
+        PipelineMetrics.setEnabled(false);
+        PipelineMetrics.reset();
+    }
+
+    @Test
+    public void testDisabledMeasuresNothing() throws Exception {
+        PipelineMetrics.setEnabled(false);
+        PipelineMetrics.reset();
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+
+        try (PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS)) {
+            assertSame(accumulator, timer.sample(accumulator));
+            GpxStreamReader.read(new ByteArrayInputStream(gpx()), accumulator);
+        }
+
+        assertEquals(TRACK.size(), accumulator.getPointCount());
+        assertEquals(0, PipelineMetrics.getStage(PipelineMetrics.Stage.STATISTICS).getCount());
+        assertEquals(0, PipelineMetrics.getExtensionHits());
+    }
+
+    @Test
+    public void testStagesAndExtensionsAreCounted() throws Exception {
+        PipelineMetrics.setEnabled(true);
+        PipelineMetrics.reset();
+        byte[] gpx = gpx();
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+
+        read(gpx, accumulator);
+
+        PipelineMetrics.StageMXBean read = PipelineMetrics.getStage(PipelineMetrics.Stage.READ);
+        PipelineMetrics.StageMXBean statistics = PipelineMetrics.getStage(PipelineMetrics.Stage.STATISTICS);
+        assertEquals(1, read.getCount());
+        assertEquals(TRACK.size(), read.getPoints());
+        assertEquals(gpx.length, read.getBytes());
+        assertTrue(read.getAllocatedBytes() > 0);
+        assertEquals(1, statistics.getCount());
+        assertEquals(TRACK.size(), statistics.getPoints());
+        // hr and temp are used, the TrackPointExtension wrapper around them is walked over
+        assertEquals(2L * TRACK.size(), PipelineMetrics.getExtensionHits());
+        assertEquals(TRACK.size(), PipelineMetrics.getExtensionMisses());
+        assertTrue(PipelineMetrics.summary().contains("чтение 1"));
+    }
+
+    @Test
+    public void testFewSampledCallsAreNotScaledUp() {
+        PipelineMetrics.setEnabled(true);
+        PipelineMetrics.reset();
+        TrackPoint point = new TrackPoint();
+
+        try (PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS)) {
+            Consumer<TrackPoint> sampled = timer.sample(_ -> LockSupport.parkNanos(5_000_000));
+            for (int i = 0; i < 3; i++) {
+                sampled.accept(point);
+            }
+        }
+
+        // Three calls of at least 5 ms, the first of them timed; scaled by the whole interval it would be 320 ms
+        PipelineMetrics.StageMXBean statistics = PipelineMetrics.getStage(PipelineMetrics.Stage.STATISTICS);
+        assertEquals(3, statistics.getPoints());
+        assertTrue(statistics.getTotalTimeMillis() >= 15 && statistics.getTotalTimeMillis() < 200,
+                statistics.getTotalTimeMillis() + " ms");
+    }
+
+    @Test
+    public void testMBeansAreRegistered() throws Exception {
+        PipelineMetrics.registerMBeans();
+        PipelineMetrics.registerMBeans();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pipeline = new ObjectName(PipelineMetrics.DOMAIN + ":type=Pipeline");
+
+        server.setAttribute(pipeline, new Attribute("Enabled", true));
+        assertTrue(PipelineMetrics.isEnabled());
+        PipelineMetrics.reset();
+        read(gpx(), new GpxStatisticsAccumulator());
+
+        ObjectName read = new ObjectName(PipelineMetrics.DOMAIN + ":type=PipelineStage,name=read");
+        assertEquals(1L, server.getAttribute(read, "Count"));
+        assertEquals((long) TRACK.size(), server.getAttribute(read, "Points"));
+        assertEquals(PipelineMetrics.getExtensionHits(), server.getAttribute(pipeline, "ExtensionHits"));
+    }
+
+    @Test
+    public void testJfrEventsWithMetricsOff() throws Exception {
+        PipelineMetrics.setEnabled(false);
+        Path file = Files.createTempFile("pipeline", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PipelineMetrics.StageEvent.class);
+            recording.start();
+            read(gpx(), new GpxStatisticsAccumulator());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(List.of("READ", "STATISTICS"), events.stream()
+                    .map(event -> event.getString("stage")).sorted().toList());
+            for (RecordedEvent event : events) {
+                assertEquals(TRACK.size(), event.getLong("points"));
+            }
+            assertEquals(0, PipelineMetrics.getStage(PipelineMetrics.Stage.READ).getCount());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        assertFalse(PipelineMetrics.isEnabled());
+    }
+
+    private static void read(byte[] gpx, Consumer<TrackPoint> consumer) throws Exception {
+        PipelineMetrics.Timer read = PipelineMetrics.start(PipelineMetrics.Stage.READ).bytes(gpx.length);
+        PipelineMetrics.Timer statistics = PipelineMetrics.start(PipelineMetrics.Stage.STATISTICS);
+        long[] points = {0};
+        Consumer<TrackPoint> sampled = statistics.sample(consumer);
+        GpxStreamReader.read(new ByteArrayInputStream(gpx), point -> {
+            sampled.accept(point);
+            points[0]++;
+        });
+        statistics.close();
+        read.exclude(statistics).points(points[0]).close();
+    }
+
+    private static byte[] gpx() throws Exception {
+        Path file = Files.createTempFile("pipeline", ".gpx");
+        try {
+            GpxUtils.writeGpx(TRACK, file);
+            return Files.readAllBytes(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RouteIndexTest {
+    private static final double METERS_PER_DEGREE = 111_195.0;
+
+    @Test
+    public void testFindsNoisyRidesOfTheSameRoute() {
+        TrackColumns route = route(3_000, 1);
+        RouteIndex.Builder builder = RouteIndex.builder();
+        int original = builder.add(RouteSignature.of(route));
+        int resampled = builder.add(RouteSignature.of(ride(route, 3, 0, 2)));
+        int noisy = builder.add(RouteSignature.of(ride(route, 1, 8, 3)));
+        int reversed = builder.add(RouteSignature.of(reverse(route)));
+        for (int seed = 10; seed < 60; seed++) {
+            builder.add(RouteSignature.of(route(3_000, seed)));
+        }
+        RouteIndex index = builder.build();
+
+        List<RouteIndex.Match> matches = index.find(RouteSignature.of(ride(route, 2, 5, 4)), 50);
+
+        Set<Integer> found = new HashSet<>();
+        matches.forEach(match -> found.add(match.route()));
+        assertEquals(Set.of(original, resampled, noisy), found);
+        assertTrue(matches.getFirst().distance() < 30, "distance " + matches.getFirst().distance());
+        assertTrue(index.candidates(index.get(original)).length < index.size() / 2);
+        assertEquals(Double.POSITIVE_INFINITY, index.get(original).frechetDistance(index.get(reversed), 50));
+    }
+
+    @Test
+    public void testFrechetDistanceOfParallelLines() {
+        TrackColumns line = line(0);
+        TrackColumns shifted = line(30 / METERS_PER_DEGREE);
+
+        double distance = RouteSignature.of(line).frechetDistance(RouteSignature.of(shifted), 100);
+
+        assertEquals(30, distance, 0.5);
+        assertEquals(Double.POSITIVE_INFINITY, RouteSignature.of(line).frechetDistance(RouteSignature.of(shifted), 20));
+        assertEquals(0, RouteSignature.of(line).frechetDistance(RouteSignature.of(line), 1), 1e-6);
+    }
+
+    @Test
+    public void testMatchAllAgreesWithPairwiseComparison() {
+        RouteIndex.Builder builder = RouteIndex.builder();
+        for (int seed = 0; seed < 6; seed++) {
+            TrackColumns route = route(1_500, seed);
+            builder.add(RouteSignature.of(route));
+            builder.add(RouteSignature.of(ride(route, 2, 5, seed + 100)));
+        }
+        RouteIndex index = builder.build();
+
+        Set<List<Integer>> expected = new HashSet<>();
+        for (int first = 0; first < index.size(); first++) {
+            for (int second = first + 1; second < index.size(); second++) {
+                if (index.get(first).frechetDistance(index.get(second), 50) <= 50) {
+                    expected.add(List.of(first, second));
+                }
+            }
+        }
+        Set<List<Integer>> actual = new HashSet<>();
+        index.matchAll(50).forEach(pair -> actual.add(List.of(pair.first(), pair.second())));
+
+        assertEquals(expected, actual);
+        for (int route = 0; route < index.size(); route += 2) {
+            assertTrue(actual.contains(List.of(route, route + 1)));
+        }
+    }
+
+    // Winding route from a common start, 5 m between points, heading away in a direction that depends on the seed
+    private static TrackColumns route(int size, long seed) {
+        Random random = new Random(seed);
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double latitude = 51.6750;
+        double longitude = 39.2089;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < size; i++) {
+            point.clear();
+            point.setLatitude(latitude);
+            point.setLongitude(longitude);
+            builder.accept(point);
+            heading += random.nextGaussian() * 0.05;
+            latitude += 5 * Math.cos(heading) / METERS_PER_DEGREE;
+            longitude += 5 * Math.sin(heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        }
+        return builder.build();
+    }
+
+    // Every stride-th point of the route with Gaussian noise of the given meters
+    private static TrackColumns ride(TrackColumns route, int stride, double noise, long seed) {
+        Random random = new Random(seed);
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < route.size(); i += stride) {
+            route.get(i, point);
+            point.setLatitude(point.getLatitude() + random.nextGaussian() * noise / METERS_PER_DEGREE);
+            point.setLongitude(point.getLongitude() + random.nextGaussian() * noise / METERS_PER_DEGREE / 0.62);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+
+    private static TrackColumns reverse(TrackColumns route) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = route.size() - 1; i >= 0; i--) {
+            route.get(i, point);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+
+    // Two kilometers due east
+    private static TrackColumns line(double latitudeOffset) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i <= 200; i++) {
+            point.clear();
+            point.setLatitude(51.0 + latitudeOffset);
+            point.setLongitude(39.0 + i * 10 / (METERS_PER_DEGREE * Math.cos(Math.toRadians(51.0))));
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+}
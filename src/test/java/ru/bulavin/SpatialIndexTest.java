@@ -0,0 +1,151 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpatialIndexTest {
+    private static final List<TrackColumns> TRACKS = List.of(
+            GpxUtils.generateTrack(30_000, false, 1),
+            GpxUtils.generateTrack(0, false, 2),
+            GpxUtils.generateTrack(20_000, false, 3),
+            worldTrack(10_000, 4));
+    private static final SpatialIndex INDEX = SpatialIndex.of(TRACKS);
+
+    @Test
+    public void testBoxMatchesScan() {
+        assertEquals(60_000, INDEX.size());
+        assertEquals(4, INDEX.getTrackCount());
+        assertBox(51.67, 39.20, 51.68, 39.215);
+        assertBox(-10, -20, 60, 50);
+        assertBox(-30, 170, 30, -170);
+        assertBox(10, 10, 10.0001, 10.0001);
+    }
+
+    @Test
+    public void testRadiusMatchesScan() {
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            double latitude = i < 25 ? 51.675 + random.nextDouble() * 0.01 : random.nextDouble() * 178 - 89;
+            double longitude = i < 25 ? 39.209 + random.nextDouble() * 0.01 : random.nextDouble() * 360 - 180;
+            double meters = i < 25 ? random.nextDouble() * 300 : random.nextDouble() * 2_000_000;
+
+            Set<Long> found = new HashSet<>();
+            int count = INDEX.inRadius(latitude, longitude, meters, (track, point) -> found.add(key(track, point)));
+
+            Set<Long> expected = new HashSet<>();
+            forEachPoint((track, point) -> {
+                if (distance(latitude, longitude, track, point) <= meters) {
+                    expected.add(key(track, point));
+                }
+            });
+            assertEquals(expected.size(), count);
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testNearestMatchesScan() {
+        Random random = new Random(6);
+        for (int i = 0; i < 50; i++) {
+            double latitude = i < 25 ? 51.675 + random.nextDouble() * 0.01 : random.nextDouble() * 180 - 90;
+            double longitude = i < 25 ? 39.209 + random.nextDouble() * 0.01 : random.nextDouble() * 360 - 180;
+
+            List<SpatialIndex.Neighbor> nearest = INDEX.nearest(latitude, longitude, 10);
+
+            List<Double> expected = new ArrayList<>();
+            forEachPoint((track, point) -> expected.add(distance(latitude, longitude, track, point)));
+            expected.sort(Comparator.naturalOrder());
+            assertEquals(10, nearest.size());
+            for (int k = 0; k < nearest.size(); k++) {
+                SpatialIndex.Neighbor neighbor = nearest.get(k);
+                assertEquals(expected.get(k), neighbor.distance(), 1e-6);
+                assertEquals(distance(latitude, longitude, neighbor.track(), neighbor.point()), neighbor.distance(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndRead(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("tracks.idx");
+        INDEX.write(file);
+        SpatialIndex index = SpatialIndex.read(file);
+
+        assertEquals(INDEX.size(), index.size());
+        assertEquals(INDEX.getTrackCount(), index.getTrackCount());
+        assertEquals(INDEX.nearest(51.676, 39.21, 20), index.nearest(51.676, 39.21, 20));
+        List<Long> expected = new ArrayList<>();
+        List<Long> actual = new ArrayList<>();
+        INDEX.inBox(-90, -180, 90, 180, (track, point) -> expected.add(key(track, point)));
+        index.inBox(-90, -180, 90, 180, (track, point) -> actual.add(key(track, point)));
+        assertEquals(expected, actual);
+
+        SpatialIndex empty = SpatialIndex.builder().build();
+        empty.write(file);
+        assertEquals(0, SpatialIndex.read(file).size());
+        assertTrue(SpatialIndex.read(file).nearest(0, 0, 1).isEmpty());
+    }
+
+    private static void assertBox(double south, double west, double north, double east) {
+        Set<Long> found = new HashSet<>();
+        int count = INDEX.inBox(south, west, north, east, (track, point) -> found.add(key(track, point)));
+
+        Set<Long> expected = new HashSet<>();
+        forEachPoint((track, point) -> {
+            double latitude = TRACKS.get(track).getLatitude(point);
+            double longitude = TRACKS.get(track).getLongitude(point);
+            boolean inLongitude = west <= east
+                    ? longitude >= west && longitude <= east
+                    : longitude >= west || longitude <= east;
+            if (latitude >= south && latitude <= north && inLongitude) {
+                expected.add(key(track, point));
+            }
+        });
+        assertEquals(expected.size(), count);
+        assertEquals(expected, found);
+    }
+
+    private static void forEachPoint(SpatialIndex.PointVisitor visitor) {
+        for (int track = 0; track < TRACKS.size(); track++) {
+            for (int point = 0; point < TRACKS.get(track).size(); point++) {
+                visitor.visit(track, point);
+            }
+        }
+    }
+
+    // Index coordinates are rounded to 1e-7 degrees
+    private static double distance(double latitude, double longitude, int track, int point) {
+        return Geodesy.haversine(latitude, longitude,
+                Math.round(TRACKS.get(track).getLatitude(point) * 1e7) / 1e7,
+                Math.round(TRACKS.get(track).getLongitude(point) * 1e7) / 1e7);
+    }
+
+    private static long key(int track, int point) {
+        return (long) track << 32 | point;
+    }
+
+    private static TrackColumns worldTrack(int size, long seed) {
+        Random random = new Random(seed);
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < size; i++) {
+            point.clear();
+            point.setLatitude(Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1)));
+            point.setLongitude(random.nextDouble() * 360 - 180);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,96 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SplitCalculatorTest {
+    private static final TrackColumns TRACK = GpxUtils.generateTrack(20_000, true, 11);
+
+    @Test
+    public void testKilometerSplitsAddUpToTrack() {
+        GpxStatistics total = new GpxStatistics(TRACK);
+
+        List<Split> splits = SplitCalculator.split(TRACK, SplitPlan.everyKilometer());
+
+        assertEquals((int) Math.ceil(total.getTotalDistance()), splits.size());
+        double distance = 0;
+        Duration moving = Duration.ZERO;
+        Duration stopped = Duration.ZERO;
+        for (int i = 0; i < splits.size(); i++) {
+            Split split = splits.get(i);
+            assertEquals(i + 1, split.number());
+            if (i < splits.size() - 1) {
+                assertEquals(1.0, split.statistics().getTotalDistance(), 1e-6);
+                assertEquals((i + 1) * 1000.0, split.endDistance(), 1e-6);
+            }
+            distance += split.statistics().getTotalDistance();
+            moving = moving.plus(split.statistics().getTotalTimeMoving());
+            stopped = stopped.plus(split.statistics().getTotalTimeStopped());
+        }
+        assertEquals(total.getTotalDistance(), distance, 1e-6);
+        assertEquals(total.getTotalTimeMoving(), moving);
+        assertEquals(total.getTotalTimeStopped(), stopped);
+    }
+
+    @Test
+    public void testTimeSplitsHaveExactDuration() {
+        List<Split> splits = SplitCalculator.split(TRACK, SplitPlan.everyDuration(Duration.ofMinutes(5)));
+
+        for (int i = 0; i < splits.size() - 1; i++) {
+            Split split = splits.get(i);
+            assertEquals(Duration.ofMinutes(5).toMillis(), split.endTime() - split.startTime());
+            assertEquals(split.endTime(), splits.get(i + 1).startTime());
+        }
+        assertEquals(TRACK.getTime(TRACK.size() - 1), splits.getLast().endTime());
+    }
+
+    @Test
+    public void testLapsAtTimesAndHeartRate() {
+        Instant start = Instant.ofEpochMilli(TRACK.getTime(0));
+        List<Split> laps = SplitCalculator.split(TRACK, SplitPlan.atTimes(List.of(start.plusSeconds(600), start.plusSeconds(4000))));
+
+        assertEquals(3, laps.size());
+        assertEquals(start.plusSeconds(600).toEpochMilli(), laps.get(0).endTime());
+        int maxHeartRate = new GpxStatistics(TRACK).getMaxHeartRate().orElseThrow();
+        int maxOfLaps = laps.stream().mapToInt(lap -> lap.statistics().getMaxHeartRate().orElseThrow()).max().orElseThrow();
+        assertEquals(maxHeartRate, maxOfLaps);
+        for (Split lap : laps) {
+            assertTrue(lap.statistics().getAverageHeartRate().isPresent());
+        }
+    }
+
+    @Test
+    public void testSeveralPlansInOnePass() {
+        List<SplitPlan> plans = List.of(SplitPlan.everyKilometer(), SplitPlan.everyDuration(Duration.ofMinutes(10)),
+                SplitPlan.atDistances(1500, 2500.5));
+        SplitCalculator calculator = new SplitCalculator(plans);
+        TRACK.forEach(calculator);
+        List<List<Split>> result = calculator.finish();
+
+        for (int i = 0; i < plans.size(); i++) {
+            List<Split> separate = SplitCalculator.split(TRACK, plans.get(i));
+            assertEquals(separate.size(), result.get(i).size());
+            for (int j = 0; j < separate.size(); j++) {
+                GpxStreamReaderTest.assertSameStatistics(separate.get(j).statistics(), result.get(i).get(j).statistics());
+            }
+        }
+        assertEquals(3, result.get(2).size());
+        assertEquals(2500.5, result.get(2).get(1).endDistance(), 1e-9);
+    }
+
+    @Test
+    public void testShortTrackIsOneSplit() {
+        TrackColumns points = TrackColumns.of(GpxUtils.getPoints());
+        List<Split> splits = SplitCalculator.split(points, SplitPlan.everyDistance(100_000));
+
+        assertEquals(1, splits.size());
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(points), splits.getFirst().statistics());
+    }
+}
@@ -0,0 +1,155 @@
+package ru.bulavin;
+
+import io.jenetics.jpx.WayPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackColumnsTest {
+
+    @Test
+    public void testColumnsFromWayPoints() {
+        List<WayPoint> points = GpxUtils.getPoints();
+        TrackColumns columns = TrackColumns.of(points);
+
+        assertEquals(3, columns.size());
+        assertEquals(51.6615, columns.getLatitude(1));
+        assertEquals(39.2003, columns.getLongitude(1));
+        assertTrue(columns.hasElevation(1));
+        assertEquals(160.0, columns.getElevation(1));
+        assertTrue(columns.hasTime(2));
+        assertEquals(points.get(2).getTime().orElseThrow().toEpochMilli(), columns.getTime(2));
+        assertFalse(columns.hasTemperature(0));
+        assertFalse(columns.hasHeartRate(0));
+    }
+
+    @Test
+    public void testColumnsFromStreamReader() throws IOException {
+        TrackColumns columns = TrackColumns.read(GpxUtils.getSamplePath());
+
+        assertEquals(4, columns.size());
+        assertTrue(columns.hasHeartRate(0));
+        assertEquals(80, columns.getHeartRate(0));
+        assertTrue(columns.hasTemperature(1));
+        assertEquals(22.0f, columns.getTemperature(1));
+    }
+
+    @Test
+    public void testStatisticsFromColumnsMatchWayPoints() throws IOException {
+        List<WayPoint> points = GpxUtils.getPoints(GpxUtils.getSamplePath());
+
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(points), new GpxStatistics(TrackColumns.of(points)));
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(GpxUtils.getPoints()), new GpxStatistics(TrackColumns.of(GpxUtils.getPoints())));
+    }
+
+    @Test
+    public void testDecimalTemperaturesMatchWayPoints(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("temperatures.gpx");
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double[] temperatures = {21.7, 22.3, 22.05};
+        for (int i = 0; i < temperatures.length; i++) {
+            point.clear();
+            point.setLatitude(51.66 + i * 0.001);
+            point.setLongitude(39.2);
+            point.setTime(i * 60_000L);
+            point.setTemperature(temperatures[i]);
+            builder.accept(point);
+        }
+        GpxUtils.writeGpx(builder.build(), file);
+        List<WayPoint> points = GpxUtils.getPoints(file);
+
+        GpxStatistics statistics = new GpxStatistics(TrackColumns.of(points));
+
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(points), statistics);
+        GpxStreamReaderTest.assertSameStatistics(GpxStreamReader.readStatistics(file), new GpxStatistics(TrackColumns.read(file)));
+        assertEquals(Optional.of(21.7), statistics.getMinTemperature());
+        assertEquals(Optional.of(22.3), statistics.getMaxTemperature());
+    }
+
+    @Test
+    public void testWidenMatchesTheShortestDecimal() {
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            float value = switch (i % 4) {
+                case 0 -> (float) (Math.round(random.nextDouble(-60, 70) * 10) / 10.0);
+                case 1 -> (float) (Math.round(random.nextDouble(-60, 70) * 1000) / 1000.0);
+                case 2 -> (float) random.nextDouble(-60, 70);
+                default -> Float.intBitsToFloat(random.nextInt());
+            };
+            assertEquals(Double.parseDouble(Float.toString(value)), TrackColumns.widen(value), "" + value);
+        }
+        assertEquals(22.3, TrackColumns.widen(22.3f));
+        assertEquals(-0.0, TrackColumns.widen(-0.0f));
+        assertEquals(1e-5, TrackColumns.widen(1e-5f));
+    }
+
+    @Test
+    public void testMalformedUnusedExtensionsAreIgnored(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("power.gpx");
+        Files.writeString(file, """
+                <gpx xmlns="http://www.topografix.com/GPX/1/1"
+                     xmlns:gpxtpx="http://www.garmin.com/xmlschemas/TrackPointExtension/v1" version="1.1" creator="test">
+                <trk><trkseg>
+                <trkpt lat="51.0" lon="39.0"><time>2022-01-01T10:00:00Z</time><extensions><power>n/a</power>
+                  <gpxtpx:TrackPointExtension><gpxtpx:hr>120</gpxtpx:hr><gpxtpx:cad>-</gpxtpx:cad></gpxtpx:TrackPointExtension>
+                </extensions></trkpt>
+                </trkseg></trk></gpx>""");
+        List<WayPoint> points = GpxUtils.getPoints(file);
+
+        TrackColumns columns = TrackColumns.of(points);
+        LiveGpxStatistics statistics = new LiveGpxStatistics();
+        statistics.append(points.getFirst());
+
+        assertEquals(120, columns.getHeartRate(0));
+        assertEquals(Optional.of(120), statistics.snapshot().getMaxHeartRate());
+    }
+
+    @Test
+    public void testBuilderGrowsPastInitialCapacity() {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < 5000; i++) {
+            point.clear();
+            point.setLatitude(50.0 + i * 1e-5);
+            point.setLongitude(39.0);
+            point.setTime(i * 1000L);
+            builder.accept(point);
+        }
+        TrackColumns columns = builder.build();
+
+        assertEquals(5000, columns.size());
+        assertEquals(4999000L, columns.getTime(4999));
+        assertFalse(columns.hasElevation(4999));
+    }
+
+    @Test
+    public void testGeneratedTrackRoundTripsThroughGpx(@TempDir Path directory) throws IOException {
+        TrackColumns generated = GpxUtils.generateTrack(2000, true, 7);
+        Path file = directory.resolve("generated.gpx");
+        GpxUtils.writeGpx(generated, file);
+
+        TrackColumns read = TrackColumns.read(file);
+
+        assertEquals(generated.size(), read.size());
+        for (int i = 0; i < generated.size(); i++) {
+            assertEquals(generated.getLatitude(i), read.getLatitude(i));
+            assertEquals(generated.getLongitude(i), read.getLongitude(i));
+            assertEquals(generated.getElevation(i), read.getElevation(i));
+            assertEquals(generated.getTime(i), read.getTime(i));
+            assertEquals(generated.getHeartRate(i), read.getHeartRate(i));
+            assertEquals(generated.getTemperature(i), read.getTemperature(i));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackPreprocessingTest {
+    private static final TrackColumns TRACK = GpxUtils.generateTrack(5000, true, 21);
+
+    @Test
+    public void testNoneChangesNothing() {
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(TRACK), statistics(TrackPreprocessing.NONE, TRACK));
+    }
+
+    @Test
+    public void testIntervalDropsSubSecondAndBackwardPoints() {
+        TrackColumns track = track(new long[]{0, 400, 1000, 1000, 900, 2500, 3000, 3999, 4000}, new double[9]);
+
+        List<Long> times = new ArrayList<>();
+        TrackFilter filter = TrackPreprocessing.parse("interval=1").chain(DistanceModel.VINCENTY, point -> times.add(point.getTime()));
+        track.forEach(filter);
+        filter.finish();
+
+        assertEquals(List.of(0L, 1000L, 2500L, 3999L), times);
+        GpxStatistics filtered = statistics(TrackPreprocessing.parse("interval=1"), track);
+        assertEquals(3999, filtered.getTotalTimeMoving().plus(filtered.getTotalTimeStopped()).toMillis());
+    }
+
+    @Test
+    public void testSpikeIsDroppedAndJumpIsFollowed() {
+        TrackColumns.Builder spiked = TrackColumns.builder();
+        TrackColumns.Builder jumped = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < TRACK.size(); i++) {
+            TRACK.get(i, point);
+            spiked.accept(point);
+            if (i == 2000) {
+                point.setTime(point.getTime() + 500);
+                point.setLatitude(point.getLatitude() + 0.01);
+                spiked.accept(point);
+                TRACK.get(i, point);
+            }
+            if (i >= 3000) {
+                point.setLongitude(point.getLongitude() + 0.1);
+            }
+            jumped.accept(point);
+        }
+        TrackPreprocessing preprocessing = TrackPreprocessing.builder().maxSpeed(50).build();
+
+        GpxStreamReaderTest.assertSameStatistics(new GpxStatistics(TRACK), statistics(preprocessing, spiked.build()));
+        assertEquals(TRACK.size() - TrackPreprocessing.MAX_REJECTED_SPIKES, count(preprocessing, jumped.build()));
+    }
+
+    @Test
+    public void testMedianRemovesElevationOutliers() {
+        double[] elevations = {100, 101, 300, 102, 103, 104, 50, 105};
+        TrackColumns track = track(new long[]{0, 1000, 2000, 3000, 4000, 5000, 6000, 7000}, elevations);
+
+        List<Double> filtered = new ArrayList<>();
+        TrackFilter filter = TrackPreprocessing.parse("median=3").chain(DistanceModel.VINCENTY, point -> filtered.add(point.getElevation()));
+        track.forEach(filter);
+        filter.finish();
+
+        assertEquals(List.of(100.5, 101.0, 102.0, 103.0, 103.0, 103.0, 104.0, 77.5), filtered);
+        assertEquals(200.0, new GpxStatistics(track).getMaxAscent().orElseThrow(), 1e-9);
+        assertEquals(3.5, statistics(TrackPreprocessing.parse("median=3"), track).getMaxAscent().orElseThrow(), 1e-9);
+    }
+
+    @Test
+    public void testHysteresisIgnoresJitter() {
+        int size = 400;
+        long[] times = new long[size];
+        double[] elevations = new double[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = i * 1000L;
+            double jitter = i % 2 == 0 ? 0.8 : -0.8;
+            elevations[i] = (i < 200 ? 100 : 100 + (i - 200) * 0.5) + jitter;
+        }
+        TrackColumns track = track(times, elevations);
+
+        GpxStatistics raw = new GpxStatistics(track);
+        GpxStatistics filtered = statistics(TrackPreprocessing.builder().elevationHysteresis(2).build(), track);
+
+        assertEquals(1.6, raw.getMaxDescent().orElseThrow(), 1e-9);
+        assertEquals(0.0, filtered.getMaxDescent().orElseThrow(), 1e-9);
+        // From the first elevation 100.8 up to the highest raw 199.8 minus the band
+        assertEquals(199.8 - 2 - 100.8, filtered.getMaxAscent().orElseThrow(), 1e-9);
+    }
+
+    @Test
+    public void testKalmanShortensNoisyTrack() {
+        TrackColumns.Builder noisy = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        Random random = new Random(3);
+        for (int i = 0; i < 600; i++) {
+            point.clear();
+            point.setLatitude(51.675 + i * 0.00002 + random.nextGaussian() * 0.00003);
+            point.setLongitude(39.2089 + random.nextGaussian() * 0.00005);
+            point.setTime(i * 1000L);
+            noisy.accept(point);
+        }
+        TrackColumns track = noisy.build();
+        double straight = DistanceModel.VINCENTY.distance(51.675, 39.2089, 51.675 + 599 * 0.00002, 39.2089) / 1000;
+
+        double raw = new GpxStatistics(track).getTotalDistance();
+        double smoothed = statistics(TrackPreprocessing.parse("kalman=5:1"), track).getTotalDistance();
+
+        assertTrue(smoothed < raw / 2, smoothed + " vs " + raw);
+        assertTrue(smoothed > straight * 0.9, smoothed + " vs " + straight);
+    }
+
+    @Test
+    public void testSpec() {
+        TrackPreprocessing preprocessing = TrackPreprocessing.parse(" hysteresis=2, interval=1 ,kalman=5,median=5,spike=50");
+
+        assertEquals("interval=1.0,spike=50.0,kalman=5.0:3.0,median=5,hysteresis=2.0", preprocessing.spec());
+        assertEquals(preprocessing.spec(), TrackPreprocessing.parse(preprocessing.spec()).spec());
+        assertTrue(TrackPreprocessing.parse("none").isNone());
+        assertThrows(IllegalArgumentException.class, () -> TrackPreprocessing.parse("median=4"));
+        assertThrows(IllegalArgumentException.class, () -> TrackPreprocessing.parse("smooth=1"));
+        assertThrows(IllegalArgumentException.class, () -> TrackPreprocessing.parse("spike=-1"));
+    }
+
+    private static GpxStatistics statistics(TrackPreprocessing preprocessing, TrackColumns track) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        TrackFilter filter = preprocessing.chain(DistanceModel.VINCENTY, accumulator);
+        track.forEach(filter);
+        filter.finish();
+        return accumulator.toStatistics();
+    }
+
+    private static long count(TrackPreprocessing preprocessing, TrackColumns track) {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator();
+        TrackFilter filter = preprocessing.chain(DistanceModel.VINCENTY, accumulator);
+        track.forEach(filter);
+        filter.finish();
+        return accumulator.getPointCount();
+    }
+
+    // Points 3 m apart along a meridian
+    private static TrackColumns track(long[] times, double[] elevations) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < times.length; i++) {
+            point.clear();
+            point.setLatitude(51.675 + i * 0.000027);
+            point.setLongitude(39.2089);
+            point.setElevation(elevations[i]);
+            point.setTime(times[i]);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+}
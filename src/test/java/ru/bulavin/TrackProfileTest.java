@@ -0,0 +1,112 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackProfileTest {
+
+    @Test
+    public void testBucketsMatchBruteForce() {
+        TrackColumns track = GpxUtils.generateTrack(100_000, true, 1);
+        TrackProfile profile = TrackProfile.of(track);
+        float[] distances = distances(track);
+        double from = profile.getTotalDistance() * 0.13;
+        double to = profile.getTotalDistance() * 0.71;
+        int width = 333;
+
+        TrackProfile.Buckets buckets = profile.buckets(TrackProfile.Channel.ELEVATION, from, to, width);
+
+        float[] min = new float[width];
+        float[] max = new float[width];
+        double[] sum = new double[width];
+        int[] count = new int[width];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        double step = (to - from) / width;
+        for (int i = 0; i < track.size(); i++) {
+            if (distances[i] < from || distances[i] > to) {
+                continue;
+            }
+            int bucket = Math.min((int) ((distances[i] - from) / step), width - 1);
+            while (bucket > 0 && distances[i] < from + bucket * step) {
+                bucket--;
+            }
+            while (bucket < width - 1 && distances[i] >= from + (bucket + 1) * step) {
+                bucket++;
+            }
+            float value = (float) track.getElevation(i);
+            min[bucket] = Math.min(min[bucket], value);
+            max[bucket] = Math.max(max[bucket], value);
+            sum[bucket] += value;
+            count[bucket]++;
+        }
+        for (int bucket = 0; bucket < width; bucket++) {
+            assertTrue(count[bucket] > 0);
+            assertEquals(min[bucket], buckets.min()[bucket], "bucket " + bucket);
+            assertEquals(max[bucket], buckets.max()[bucket], "bucket " + bucket);
+            assertEquals(sum[bucket] / count[bucket], buckets.average()[bucket], 1e-3, "bucket " + bucket);
+        }
+    }
+
+    @Test
+    public void testLttbKeepsEndsAndOrder() {
+        TrackColumns track = GpxUtils.generateTrack(200_000, true, 2);
+        TrackProfile profile = TrackProfile.of(track);
+
+        TrackProfile.Line line = profile.lttb(TrackProfile.Channel.HEART_RATE, 0, profile.getTotalDistance(), 500);
+
+        assertEquals(500, line.values().length);
+        assertEquals(0f, line.distances()[0]);
+        assertEquals(track.getHeartRate(0), line.values()[0]);
+        assertEquals((float) profile.getTotalDistance(), line.distances()[499]);
+        assertEquals(track.getHeartRate(track.size() - 1), line.values()[499]);
+        for (int i = 1; i < 500; i++) {
+            assertTrue(line.distances()[i] > line.distances()[i - 1], "point " + i);
+        }
+    }
+
+    @Test
+    public void testLttbOfShortRangeIsTheRawPoints() {
+        TrackColumns track = GpxUtils.generateTrack(10_000, false, 3);
+        TrackProfile profile = TrackProfile.of(track);
+        float[] distances = distances(track);
+
+        TrackProfile.Line line = profile.lttb(TrackProfile.Channel.ELEVATION, distances[5000], distances[5099], 500);
+
+        assertEquals(100, line.values().length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(distances[5000 + i], line.distances()[i]);
+            assertEquals((float) track.getElevation(5000 + i), line.values()[i]);
+        }
+    }
+
+    @Test
+    public void testMissingChannel() {
+        TrackProfile profile = TrackProfile.of(GpxUtils.generateTrack(1_000, false, 4));
+
+        assertTrue(profile.has(TrackProfile.Channel.ELEVATION));
+        assertTrue(profile.has(TrackProfile.Channel.SPEED));
+        assertFalse(profile.has(TrackProfile.Channel.HEART_RATE));
+        assertThrows(IllegalArgumentException.class,
+                () -> profile.buckets(TrackProfile.Channel.HEART_RATE, 0, profile.getTotalDistance(), 100));
+    }
+
+    // Cumulative distances the way the profile computes them
+    private static float[] distances(TrackColumns track) {
+        float[] distances = new float[track.size()];
+        double distance = 0;
+        for (int i = 1; i < track.size(); i++) {
+            distance += DistanceModel.EQUIRECTANGULAR.distance(track.getLatitude(i - 1), track.getLongitude(i - 1),
+                    track.getLatitude(i), track.getLongitude(i));
+            distances[i] = (float) distance;
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.utils.GpxUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackSimplifierTest {
+
+    @Test
+    public void testStraightLineKeepsEndpoints() {
+        TrackSimplifier simplifier = TrackSimplifier.of(line(100));
+
+        float[] points = simplifier.simplify(19);
+
+        assertEquals(4, points.length);
+        assertEquals(51.0f, points[0]);
+        assertEquals((float) (51.0 + 99 * 1e-4), points[2]);
+    }
+
+    @Test
+    public void testHigherZoomKeepsMorePoints() {
+        TrackSimplifier simplifier = TrackSimplifier.of(GpxUtils.generateTrack(20_000, false, 1));
+
+        int previous = 0;
+        for (int zoom = 0; zoom <= 19; zoom++) {
+            int count = simplifier.simplify(zoom).length / 2;
+            assertTrue(count >= previous, "zoom " + zoom);
+            previous = count;
+        }
+        assertTrue(simplifier.simplify(10).length / 2 < 1000);
+        assertTrue(previous > 1000);
+    }
+
+    @Test
+    public void testImportanceIsMonotoneInRemovalOrder() {
+        TrackSimplifier simplifier = TrackSimplifier.of(GpxUtils.generateTrack(5000, false, 2));
+        double threshold = simplifier.getImportance(2500);
+        int kept = 0;
+        for (int i = 0; i < simplifier.size(); i++) {
+            if (simplifier.getImportance(i) >= threshold) {
+                kept++;
+            }
+        }
+
+        assertTrue(Double.isInfinite(simplifier.getImportance(0)));
+        assertTrue(Double.isInfinite(simplifier.getImportance(4999)));
+        assertTrue(kept >= 3);
+    }
+
+    @Test
+    public void testViewSplitsTrackThatLeavesIt() {
+        // Goes north out of the view and comes back
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double[][] coordinates = {{51.0, 39.0}, {51.001, 39.0005}, {52.0, 39.0}, {53.0, 39.001}, {51.001, 39.002}, {51.0, 39.002}};
+        for (double[] coordinate : coordinates) {
+            point.clear();
+            point.setLatitude(coordinate[0]);
+            point.setLongitude(coordinate[1]);
+            builder.accept(point);
+        }
+        TrackSimplifier simplifier = TrackSimplifier.of(builder.build());
+
+        float[] points = simplifier.simplify(19, 50.999, 38.999, 51.002, 39.003);
+
+        // 51.0, 51.001, exit to 52.0, break, enter from 53.0, 51.001, 51.0
+        assertEquals(14, points.length);
+        assertEquals(52.0f, points[4]);
+        assertTrue(Float.isNaN(points[6]));
+        assertEquals(53.0f, points[8]);
+        assertEquals(51.0f, points[12]);
+    }
+
+    private static TrackColumns line(int size) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < size; i++) {
+            point.clear();
+            point.setLatitude(51.0 + i * 1e-4);
+            point.setLongitude(39.0);
+            builder.accept(point);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,182 @@
+package ru.bulavin;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackValidatorTest {
+
+    @Test
+    public void testRepairPutsTimestampsInOrder() {
+        // 3 s comes back after 4 s, 4 s repeats, 1 s is more than the window behind
+        long[] seconds = {0, 1, 2, 4, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 1, 20};
+        List<GpxDiagnostic> diagnostics = new ArrayList<>();
+        TrackColumns.Builder track = TrackColumns.builder();
+        TrackValidator validator = new TrackValidator(TrackValidator.Mode.REPAIR, track, diagnostics::add);
+
+        TrackPoint point = new TrackPoint();
+        for (long second : seconds) {
+            point.clear();
+            point.setLatitude(51.0 + second * 1e-4);
+            point.setLongitude(39.0);
+            point.setTime(second * 1000);
+            validator.accept(point);
+        }
+        validator.finish();
+
+        TrackColumns columns = track.build();
+        assertEquals(21, columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            assertEquals(i * 1000L, columns.getTime(i));
+        }
+        assertEquals(List.of(
+                new GpxDiagnostic(4, GpxDiagnostic.Kind.TIME_BACKWARDS, GpxDiagnostic.Action.REORDERED, "1970-01-01T00:00:03Z"),
+                new GpxDiagnostic(5, GpxDiagnostic.Kind.DUPLICATE_TIME, GpxDiagnostic.Action.DROPPED, "1970-01-01T00:00:04Z"),
+                new GpxDiagnostic(21, GpxDiagnostic.Kind.TIME_BACKWARDS, GpxDiagnostic.Action.DROPPED, "1970-01-01T00:00:01Z")), diagnostics);
+        assertEquals(3, validator.getProblemCount());
+    }
+
+    @Test
+    public void testRepairReordersOnlyWhatTheFullWindowStillHolds() {
+        List<GpxDiagnostic> diagnostics = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        TrackValidator validator = new TrackValidator(TrackValidator.Mode.REPAIR, point -> times.add(point.getTime()), diagnostics::add);
+
+        TrackPoint point = new TrackPoint();
+        point.setLatitude(51.0);
+        point.setLongitude(39.0);
+        for (long second = 10; second < 10 + TrackValidator.REORDER_WINDOW; second++) {
+            point.setTime(second * 1000);
+            validator.accept(point);
+        }
+        // 10 s leaves the window to make room, 5 s is before it and 10.5 s still fits after it
+        point.setTime(5000);
+        validator.accept(point);
+        point.setTime(10_500);
+        validator.accept(point);
+        // Nothing moves back across a point without time
+        point.setTime(TrackPoint.NO_TIME);
+        validator.accept(point);
+        point.setTime(40_000);
+        validator.accept(point);
+        point.setTime(30_000);
+        validator.accept(point);
+        validator.finish();
+
+        List<Long> timed = times.stream().filter(time -> time != TrackPoint.NO_TIME).toList();
+        assertEquals(timed.stream().sorted().toList(), timed);
+        assertEquals(List.of(10_000L, 10_500L, 11_000L), times.subList(0, 3));
+        assertEquals(TrackValidator.REORDER_WINDOW + 3, times.size());
+        assertEquals(List.of(GpxDiagnostic.Action.DROPPED, GpxDiagnostic.Action.REORDERED, GpxDiagnostic.Action.DROPPED),
+                diagnostics.stream().map(GpxDiagnostic::action).toList());
+    }
+
+    @Test
+    public void testRepairClearsValuesAndDropsBadCoordinates() {
+        List<GpxDiagnostic> diagnostics = new ArrayList<>();
+        TrackColumns.Builder track = TrackColumns.builder();
+        TrackValidator validator = new TrackValidator(TrackValidator.Mode.REPAIR, track, diagnostics::add);
+
+        TrackPoint point = new TrackPoint();
+        point.setLatitude(51.0);
+        point.setLongitude(39.0);
+        point.setElevation(-9999);
+        point.setHeartRate(0);
+        point.setTemperature(20);
+        point.setTime(1000);
+        validator.accept(point);
+        assertEquals(-9999, point.getElevation());
+        point.setLatitude(Double.NaN);
+        point.setTime(2000);
+        validator.accept(point);
+        point.setLatitude(51.001);
+        point.setElevation(150);
+        point.setHeartRate(140);
+        point.setTime(3000);
+        validator.accept(point);
+        validator.finish();
+
+        TrackColumns columns = track.build();
+        assertEquals(2, columns.size());
+        assertFalse(columns.hasElevation(0));
+        assertFalse(columns.hasHeartRate(0));
+        assertEquals(20, columns.getTemperature(0));
+        assertEquals(140, columns.getHeartRate(1));
+        assertEquals(List.of(GpxDiagnostic.Kind.ELEVATION_OUT_OF_RANGE, GpxDiagnostic.Kind.HEART_RATE_OUT_OF_RANGE,
+                        GpxDiagnostic.Kind.INVALID_COORDINATE),
+                diagnostics.stream().map(GpxDiagnostic::kind).toList());
+        assertEquals(GpxDiagnostic.Action.DROPPED, diagnostics.get(2).action());
+    }
+
+    @Test
+    public void testReportKeepsPointsAndStrictFailsFast() {
+        List<GpxDiagnostic> diagnostics = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        TrackValidator report = new TrackValidator(TrackValidator.Mode.REPORT, point -> times.add(point.getTime()), diagnostics::add);
+        List<Long> strictTimes = new ArrayList<>();
+        TrackValidator strict = new TrackValidator(TrackValidator.Mode.STRICT, point -> strictTimes.add(point.getTime()), null);
+
+        TrackPoint point = new TrackPoint();
+        point.setLatitude(51.0);
+        point.setLongitude(39.0);
+        for (long time : new long[]{2000, 1000, 3000}) {
+            point.setTime(time);
+            report.accept(point);
+        }
+        report.finish();
+        point.setTime(2000);
+        strict.accept(point);
+        point.setTime(1000);
+
+        assertEquals(List.of(2000L, 1000L, 3000L), times);
+        assertEquals(List.of(new GpxDiagnostic(1, GpxDiagnostic.Kind.TIME_BACKWARDS, GpxDiagnostic.Action.KEPT, "1970-01-01T00:00:01Z")),
+                diagnostics);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> strict.accept(point));
+        assertTrue(e.getMessage().contains("time_backwards"), e.getMessage());
+        assertEquals(List.of(2000L), strictTimes);
+        assertThrows(IllegalArgumentException.class, new TrackValidator(TrackValidator.Mode.STRICT, _ -> {
+        }, null)::finish);
+    }
+
+    @Test
+    public void testMalformedValuesAreReportedInsteadOfFailing() throws IOException {
+        byte[] gpx = """
+                <gpx><trk><trkseg>
+                <trkpt lat="51.0" lon="39.0"><ele>150</ele><time>2022-01-01T10:00:00Z</time>
+                  <extensions><hr>abc</hr><temp>20</temp></extensions></trkpt>
+                <trkpt lat="x" lon="39.0"><time>2022-01-01T10:00:01Z</time></trkpt>
+                <trkpt lat="51.001" lon="39.0"><ele>?</ele><time>yesterday</time><extensions><hr>120</hr></extensions></trkpt>
+                <trkpt lat="51.002" lon="39.0"><ele>151</ele><time>2022-01-01T10:00:03Z</time></trkpt>
+                </trkseg></trk></gpx>""".getBytes(StandardCharsets.UTF_8);
+        List<GpxDiagnostic> diagnostics = new ArrayList<>();
+        TrackColumns.Builder track = TrackColumns.builder();
+        TrackValidator validator = new TrackValidator(TrackValidator.Mode.REPAIR, track, diagnostics::add);
+
+        GpxStreamReader.read(new ByteArrayInputStream(gpx), EnumSet.allOf(GpxExtension.class), validator, diagnostics::add);
+        validator.finish();
+
+        TrackColumns columns = track.build();
+        assertEquals(3, columns.size());
+        assertFalse(columns.hasHeartRate(0));
+        assertEquals(20, columns.getTemperature(0));
+        assertFalse(columns.hasElevation(1));
+        assertFalse(columns.hasTime(1));
+        assertEquals(120, columns.getHeartRate(1));
+        assertArrayEquals(new long[]{0, 1, 1, 2, 2}, diagnostics.stream().mapToLong(GpxDiagnostic::point).toArray());
+        assertEquals("hr=abc", diagnostics.get(0).value());
+        assertEquals(GpxDiagnostic.Kind.INVALID_COORDINATE, diagnostics.get(2).kind());
+        assertThrows(IOException.class, () -> GpxStreamReader.read(new ByteArrayInputStream(gpx), _ -> {
+        }));
+    }
+}
@@ -0,0 +1,143 @@
+package ru.bulavin.batch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bulavin.DistanceModel;
+import ru.bulavin.GpxMetric;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.HeartRateZones;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchAnalyzerTest {
+
+    @Test
+    public void testDirectoriesAndGlobsAreExpanded(@TempDir Path directory) throws IOException {
+        Path athlete = Files.createDirectories(directory.resolve("athlete"));
+        Path nested = Files.createDirectories(athlete.resolve("2024"));
+        Path other = Files.createDirectories(directory.resolve("other"));
+        Path first = Files.createFile(athlete.resolve("a.gpx"));
+        Path second = Files.createFile(nested.resolve("b.GPX"));
+        Files.createFile(athlete.resolve("notes.txt"));
+        Path third = Files.createFile(other.resolve("c.gpx"));
+        Files.createFile(other.resolve("c.gpx.gpxb"));
+        Path missing = directory.resolve("missing.gpx");
+
+        assertEquals(List.of(second, first), BatchAnalyzer.findFiles(List.of(athlete.toString())));
+        assertEquals(List.of(third), BatchAnalyzer.findFiles(List.of(directory + "/*/c.gpx")));
+        assertEquals(List.of(first, third), BatchAnalyzer.findFiles(List.of(directory + "/*/?.gpx")));
+        assertEquals(List.of(missing), BatchAnalyzer.findFiles(List.of(missing.toString())));
+    }
+
+    @Test
+    public void testCsvRowsHaveEveryMetric(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("ride.gpx");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(2_000, true, 6), file);
+        HeartRateZones zones = HeartRateZones.of(60, 190);
+
+        List<String> lines = run(ResultFormat.CSV, zones, List.of(file), 0);
+
+        assertEquals(2, lines.size());
+        List<String> header = List.of(lines.get(0).split(","));
+        assertEquals(ResultFormat.COLUMNS, header.subList(0, ResultFormat.COLUMNS.size()));
+        assertEquals("trimp", header.get(ResultFormat.COLUMNS.size()));
+        String[] row = lines.get(1).split(",", -1);
+        assertEquals(header.size(), row.length);
+        for (int i = 0; i < row.length; i++) {
+            assertFalse(row[i].isEmpty() && !header.get(i).equals("error"), header.get(i));
+        }
+        GpxStatistics expected = GpxStreamReader.readStatistics(file, DistanceModel.VINCENTY, GpxMetric.ALL);
+        assertEquals(file.toString(), row[0]);
+        assertEquals("ok", row[1]);
+        assertEquals("2000", row[2]);
+        assertEquals(String.valueOf(Files.size(file)), row[3]);
+        assertEquals(expected.getTotalDistance(), Double.parseDouble(row[header.indexOf("total_distance_km")]));
+        assertEquals(expected.getMaxHeartRate().orElseThrow(), Integer.parseInt(row[header.indexOf("max_heart_rate")]));
+        assertEquals(expected.getMinTemperature().orElseThrow(), Double.parseDouble(row[header.indexOf("min_temperature_c")]));
+    }
+
+    @Test
+    public void testJsonLinesHaveEveryMetric(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("ride.gpx");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(500, true, 7), file);
+
+        List<String> lines = run(ResultFormat.JSON, null, List.of(file), 0);
+
+        assertEquals(1, lines.size());
+        String line = lines.getFirst();
+        assertTrue(line.startsWith("{\"file\":\"" + file.toString().replace("\\", "\\\\") + "\",\"status\":\"ok\",\"points\":500,"), line);
+        for (String column : ResultFormat.COLUMNS) {
+            assertTrue(line.contains("\"" + column + "\":"), column);
+        }
+        // Only the error is absent
+        assertEquals(1, line.split("null", -1).length - 1, line);
+        assertTrue(line.endsWith("\"error\":null}"), line);
+    }
+
+    @Test
+    public void testFailedFilesBecomeRowsAndTheRunGoesOn(@TempDir Path directory) throws Exception {
+        Path first = directory.resolve("1.gpx");
+        Path broken = directory.resolve("2.gpx");
+        Path missing = directory.resolve("3.gpx");
+        Path last = directory.resolve("4.gpx");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(300, false, 8), first);
+        Files.writeString(broken, "<gpx><trk><trkseg><trkpt lat=\"51.0\" lon=\"39.0\"></trkseg>");
+        GpxUtils.writeGpx(GpxUtils.generateTrack(300, false, 9), last);
+
+        List<String> lines = run(ResultFormat.CSV, null, List.of(first, broken, missing, last), 2);
+
+        assertEquals(5, lines.size());
+        List<String> rows = new ArrayList<>(lines.subList(1, 5));
+        rows.sort(null);
+        assertTrue(rows.get(0).startsWith(first + ",ok,300,"), rows.get(0));
+        assertTrue(rows.get(1).startsWith(broken + ",error,0,"), rows.get(1));
+        assertTrue(rows.get(2).startsWith(missing + ",error,0,0,"), rows.get(2));
+        assertTrue(rows.get(3).startsWith(last + ",ok,300,"), rows.get(3));
+        for (String row : rows.subList(1, 3)) {
+            String[] values = row.split(",", -1);
+            assertFalse(values[values.length - 1].isEmpty(), row);
+        }
+    }
+
+    @Test
+    public void testJsonHasNoNonFiniteNumbers() {
+        List<String> columns = List.of("file", "total_distance_km", "max_ascent_m", "max_descent_m", "points");
+
+        String line = ResultFormat.JSON.line(columns, Arrays.asList("a.gpx", "NaN", "Infinity", "-Infinity", "1"));
+
+        assertEquals("{\"file\":\"a.gpx\",\"total_distance_km\":null,\"max_ascent_m\":null,\"max_descent_m\":null,"
+                + "\"points\":1}", line);
+        assertEquals("a.gpx,NaN,,", ResultFormat.CSV.line(columns.subList(0, 4), Arrays.asList("a.gpx", "NaN", null, null)));
+    }
+
+    @Test
+    public void testInvalidWorkerCount() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> new BatchAnalyzer(0,
+                DistanceModel.VINCENTY, ResultFormat.CSV, new StringWriter(), null));
+        assertNotNull(e.getMessage());
+    }
+
+    private static List<String> run(ResultFormat format, HeartRateZones zones, List<Path> files, long expectedFailures)
+            throws Exception {
+        StringWriter output = new StringWriter();
+        BatchAnalyzer analyzer = new BatchAnalyzer(2, DistanceModel.VINCENTY, format, output, null);
+        analyzer.setHeartRateZones(zones);
+
+        assertEquals(expectedFailures, analyzer.run(files));
+        return output.toString().lines().toList();
+    }
+}
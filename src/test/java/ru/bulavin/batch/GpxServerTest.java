@@ -0,0 +1,249 @@
+package ru.bulavin.batch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.bulavin.DistanceModel;
+import ru.bulavin.GpxStatisticsAccumulator;
+import ru.bulavin.GpxStreamReader;
+import ru.bulavin.TrackColumns;
+import ru.bulavin.utils.GpxUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GpxServerTest {
+    private GpxServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void setUp() {
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+        client.close();
+    }
+
+    @Test
+    public void testSmallAndStreamedUploads() throws Exception {
+        start(2, 8);
+        byte[] small = gpx(200, 1);
+        byte[] large = gpx(5000, 2);
+        assertTrue(small.length <= GpxServer.SMALL_REQUEST_BYTES && large.length > GpxServer.SMALL_REQUEST_BYTES);
+
+        HttpResponse<String> response = post(HttpRequest.BodyPublishers.ofByteArray(small));
+        assertEquals(200, response.statusCode());
+        assertEquals(expected(small, small.length), response.body().trim());
+
+        // Without a length the body is parsed from the socket as it arrives
+        response = post(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(large)));
+        assertEquals(200, response.statusCode());
+        assertEquals(expected(large, 0), response.body().trim());
+
+        response = post(HttpRequest.BodyPublishers.ofString("<gpx><trk><trkseg><trkpt lat=\"51\">"));
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"status\":\"error\""));
+
+        HttpResponse<String> get = client.send(HttpRequest.newBuilder(uri("/analyze")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+    }
+
+    @Test
+    public void testSmallRequestsAreBatched() throws Exception {
+        start(1, 64);
+        byte[] small = gpx(100, 3);
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            responses.add(client.sendAsync(request(HttpRequest.BodyPublishers.ofByteArray(small)),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+        }
+
+        String metrics = client.send(HttpRequest.newBuilder(uri("/metrics")).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        assertTrue(metrics.contains("\"requests\":40,\"rejected\":0,\"failed\":0"), metrics);
+        assertTrue(metrics.contains("\"batched_requests\":40"), metrics);
+        assertTrue(metrics.contains("\"latency_ms\":{\"count\":40,"), metrics);
+    }
+
+    @Test
+    public void testBatchesAreSpreadOverWorkers() throws Exception {
+        start(4, 64);
+        byte[] small = gpx(100, 5);
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            responses.add(client.sendAsync(request(HttpRequest.BodyPublishers.ofByteArray(small)),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+        }
+
+        // No worker task gets more than a quarter of a full batch
+        String metrics = client.send(HttpRequest.newBuilder(uri("/metrics")).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        Matcher batches = Pattern.compile("\"batches\":(\\d+)").matcher(metrics);
+        assertTrue(batches.find(), metrics);
+        assertTrue(Integer.parseInt(batches.group(1)) >= 40 / (GpxServer.MAX_BATCH / 4), metrics);
+    }
+
+    @Test
+    public void testOverloadIsRejected() throws Exception {
+        start(1, 0);
+        byte[] body = gpx(2000, 4);
+        // A raw socket so that the upload can stop halfway
+        try (Socket slow = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream upload = slow.getOutputStream();
+            upload.write(("POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            upload.write(body, 0, 1000);
+            upload.flush();
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!server.metricsJson().contains("\"in_flight\":1") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            HttpResponse<String> rejected = post(HttpRequest.BodyPublishers.ofByteArray(body));
+            assertEquals(429, rejected.statusCode());
+            assertEquals("1", rejected.headers().firstValue("Retry-After").orElseThrow());
+
+            upload.write(body, 1000, body.length - 1000);
+            upload.flush();
+            BufferedReader response = new BufferedReader(new InputStreamReader(slow.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 200 OK", response.readLine());
+        }
+        assertEquals(200, post(HttpRequest.BodyPublishers.ofByteArray(body)).statusCode());
+        assertTrue(server.metricsJson().contains("\"requests\":2,\"rejected\":1"));
+    }
+
+    @Test
+    public void testMalformedContentLength() throws Exception {
+        start(1, 0);
+        for (String length : new String[]{"abc", "-5"}) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                socket.getOutputStream().write(("POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + length
+                        + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                BufferedReader response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                assertEquals("HTTP/1.1 400 Bad Request", response.readLine(), length);
+            }
+        }
+        assertEquals(200, post(HttpRequest.BodyPublishers.ofByteArray(gpx(10, 6))).statusCode());
+    }
+
+    @Test
+    public void testCloseReleasesWaitingExchanges() throws Exception {
+        start(1, 4);
+        byte[] body = gpx(2000, 7);
+        try (Socket slow = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            // The only worker waits for the rest of this upload, the small requests wait for the worker
+            OutputStream upload = slow.getOutputStream();
+            upload.write(("POST /analyze HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            upload.write(body, 0, 1000);
+            upload.flush();
+            byte[] small = gpx(10, 8);
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                responses.add(client.sendAsync(request(HttpRequest.BodyPublishers.ofByteArray(small)),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!server.metricsJson().contains("\"in_flight\":1,\"queued\":3") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(server.metricsJson().contains("\"in_flight\":1,\"queued\":3"), server.metricsJson());
+
+            server.close();
+
+            deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!server.metricsJson().contains("\"in_flight\":0,\"queued\":0") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(server.metricsJson().contains("\"in_flight\":0,\"queued\":0"), server.metricsJson());
+        }
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(Duration.ofMillis(1000), histogram.getMax());
+        assertEquals(Duration.ofNanos(500_500_000), histogram.getMean());
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            double millis = histogram.getPercentile(quantile).toNanos() / 1e6;
+            assertTrue(millis >= quantile * 1000 && millis <= quantile * 1000 * 1.125, quantile + ": " + millis);
+        }
+        for (long micros = 0; micros < 1 << 20; micros += 7) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(micros <= LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket == 0 || micros > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    private void start(int workers, int queue) throws IOException {
+        server = new GpxServer(workers, queue, DistanceModel.VINCENTY);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private HttpResponse<String> post(HttpRequest.BodyPublisher body) throws IOException, InterruptedException {
+        return client.send(request(body), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(HttpRequest.BodyPublisher body) {
+        return HttpRequest.newBuilder(uri("/analyze")).POST(body).build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort() + path);
+    }
+
+    private static byte[] gpx(int points, long seed) throws IOException {
+        TrackColumns track = GpxUtils.generateTrack(points, true, seed);
+        Path file = Files.createTempFile("upload", ".gpx");
+        try {
+            GpxUtils.writeGpx(track, file);
+            return Files.readAllBytes(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String expected(byte[] gpx, long bytes) throws IOException {
+        GpxStatisticsAccumulator accumulator = new GpxStatisticsAccumulator(DistanceModel.VINCENTY);
+        GpxStreamReader.read(new ByteArrayInputStream(gpx), accumulator);
+        return ResultFormat.JSON.format(FileResult.success(null, accumulator.getPointCount(), bytes, accumulator.toStatistics()));
+    }
+}
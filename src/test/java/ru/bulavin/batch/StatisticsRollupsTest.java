@@ -0,0 +1,123 @@
+package ru.bulavin.batch;
+
+import org.junit.jupiter.api.Test;
+import ru.bulavin.GpxStatistics;
+import ru.bulavin.HeartRateHistogram;
+import ru.bulavin.TrackColumns;
+import ru.bulavin.TrackPoint;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class StatisticsRollupsTest {
+
+    @Test
+    public void testConcurrentAddsMatchSequentialTotals() throws InterruptedException {
+        List<GpxStatistics> activities = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            activities.add(activity(Instant.parse("2024-01-01T08:00:00Z").plus(Duration.ofDays(i)), 50 + i % 7,
+                    100 + i % 40, -20 + i));
+        }
+        StatisticsRollups rollups = new StatisticsRollups();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int repeat = 0; repeat < 5; repeat++) {
+                String key = repeat % 2 == 0 ? "athlete" : "vehicle";
+                for (GpxStatistics activity : activities) {
+                    executor.submit(() -> rollups.add(key, activity));
+                }
+            }
+        }
+
+        RollupStatistics total = rollups.total("athlete").orElseThrow();
+        assertEquals(600, total.activities());
+        long distanceMicros = 0;
+        Duration moving = Duration.ZERO;
+        double heartRateSum = 0;
+        double heartRateWeight = 0;
+        for (GpxStatistics activity : activities) {
+            distanceMicros += Math.round(activity.getTotalDistance() * 1e9);
+            moving = moving.plus(activity.getTotalTimeMoving());
+            long elapsed = activity.getTotalTimeMoving().plus(activity.getTotalTimeStopped()).toMillis();
+            heartRateSum += activity.getAverageHeartRate().orElseThrow() * elapsed;
+            heartRateWeight += elapsed;
+        }
+        assertEquals(distanceMicros * 3 / 1e9, total.totalDistance(), 1e-9);
+        assertEquals(moving.multipliedBy(3), total.totalTimeMoving());
+        assertEquals(Optional.of(-20.0), total.minElevation());
+        assertEquals(Optional.of(179.0 + 5), total.maxElevation());
+        assertEquals(Optional.of(100), total.minHeartRate());
+        assertEquals(Optional.of(139), total.maxHeartRate());
+        assertEquals(heartRateSum / heartRateWeight, total.averageHeartRate().orElseThrow(), 0.01);
+        HeartRateHistogram histogram = total.heartRateHistogram().orElseThrow();
+        for (int heartRate = 100; heartRate < 140; heartRate++) {
+            long expected = 0;
+            for (GpxStatistics activity : activities) {
+                expected += activity.getHeartRateHistogram().orElseThrow().getMillis(heartRate);
+            }
+            assertEquals(expected * 3, histogram.getMillis(heartRate));
+        }
+        assertEquals(rollups.total("athlete").orElseThrow().totalDistance() * 2 / 3,
+                rollups.total("vehicle").orElseThrow().totalDistance(), 1e-9);
+        assertEquals(List.of("athlete", "vehicle"), List.copyOf(rollups.keys()));
+    }
+
+    @Test
+    public void testWeekAndMonthBuckets() {
+        StatisticsRollups rollups = new StatisticsRollups();
+        rollups.add("a", activity(Instant.parse("2024-02-26T10:00:00Z"), 10, 120, 100));
+        rollups.add("a", activity(Instant.parse("2024-03-03T23:00:00Z"), 10, 140, 100));
+        rollups.add("a", activity(Instant.parse("2024-03-04T06:00:00Z"), 10, 160, 100));
+        rollups.add("a", new GpxStatistics(TrackColumns.builder().build()));
+
+        assertEquals(4, rollups.total("a").orElseThrow().activities());
+        assertEquals(List.of(LocalDate.parse("2024-02-26"), LocalDate.parse("2024-03-04")),
+                List.copyOf(rollups.buckets("a", RollupPeriod.WEEK).keySet()));
+        assertEquals(2, rollups.bucket("a", RollupPeriod.WEEK, LocalDate.parse("2024-03-01")).orElseThrow().activities());
+        assertEquals(1, rollups.bucket("a", RollupPeriod.MONTH, LocalDate.parse("2024-02-10")).orElseThrow().activities());
+        RollupStatistics march = rollups.bucket("a", RollupPeriod.MONTH, LocalDate.parse("2024-03-31")).orElseThrow();
+        assertEquals(2, march.activities());
+        assertEquals(Optional.of(140), march.minHeartRate());
+        assertEquals(150.0, march.averageHeartRate().orElseThrow(), 1e-9);
+        assertFalse(rollups.bucket("a", RollupPeriod.MONTH, LocalDate.parse("2024-04-01")).isPresent());
+        assertFalse(rollups.total("b").isPresent());
+    }
+
+    @Test
+    public void testSortableElevationOrder() {
+        double[] values = {Double.NEGATIVE_INFINITY, -8848.5, -1.0, -0.0, 0.0, 1e-9, 431.2, 8848.86};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], StatisticsRollup.fromSortable(StatisticsRollup.sortable(values[i])));
+            if (i > 0) {
+                assertEquals(-1, Long.compare(StatisticsRollup.sortable(values[i - 1]), StatisticsRollup.sortable(values[i])));
+            }
+        }
+    }
+
+    /**
+     * A straight track of {@code points} seconds with constant heart rate and elevation rising by one meter a point
+     * from {@code elevation}.
+     */
+    private static GpxStatistics activity(Instant start, int points, int heartRate, double elevation) {
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        for (int i = 0; i < points; i++) {
+            point.clear();
+            point.setLatitude(51.675 + i * 0.00003);
+            point.setLongitude(39.2089);
+            point.setElevation(elevation + Math.min(i, 5));
+            point.setTime(start.toEpochMilli() + i * 1000L);
+            point.setHeartRate(heartRate);
+            builder.accept(point);
+        }
+        return new GpxStatistics(builder.build());
+    }
+}
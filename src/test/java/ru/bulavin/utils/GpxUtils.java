@@ -4,11 +4,19 @@ import io.jenetics.jpx.GPX;
 import io.jenetics.jpx.Track;
 import io.jenetics.jpx.TrackSegment;
 import io.jenetics.jpx.WayPoint;
+import ru.bulavin.TrackColumns;
+import ru.bulavin.TrackPoint;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.List;
+import java.util.Random;
 
 public class GpxUtils {
     public static List<WayPoint> getPoints() {
@@ -34,6 +42,87 @@ public class GpxUtils {
         );
     }
 
+    /**
+     * Random walk starting at the first point of {@link #getPoints()}: one point per second, about 3 m apart,
+     * elevation wobbling around 150 m and, optionally, heart rate and temperature on every point.
+     */
+    public static TrackColumns generateTrack(int size, boolean withExtensions, long seed) {
+        Random random = new Random(seed);
+        TrackColumns.Builder builder = TrackColumns.builder();
+        TrackPoint point = new TrackPoint();
+        double latitude = 51.6750;
+        double longitude = 39.2089;
+        double elevation = 150.0;
+        long time = Instant.parse("2022-01-01T10:00:00Z").toEpochMilli();
+        for (int i = 0; i < size; i++) {
+            point.clear();
+            point.setLatitude(latitude);
+            point.setLongitude(longitude);
+            point.setElevation(Math.round(elevation * 10) / 10.0);
+            point.setTime(time);
+            if (withExtensions) {
+                point.setHeartRate(90 + random.nextInt(80));
+                point.setTemperature(15 + random.nextInt(10));
+            }
+            builder.accept(point);
+
+            latitude += (random.nextDouble() - 0.3) * 0.00004;
+            longitude += (random.nextDouble() - 0.3) * 0.00004;
+            elevation += (random.nextDouble() - 0.5) * 0.8;
+            time += random.nextInt(20) == 0 ? 30_000 : 1000;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes {@code columns} as a single-segment GPX track with Garmin TrackPointExtension hr/temp, without building
+     * WayPoint objects, so that tracks of millions of points can be written.
+     */
+    public static void writeGpx(TrackColumns columns, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("""
+                    <?xml version="1.0" encoding="UTF-8"?>
+                    <gpx version="1.1" creator="GpxUtils" xmlns="http://www.topografix.com/GPX/1/1" \
+                    xmlns:gpxtpx="http://www.garmin.com/xmlschemas/TrackPointExtension/v1">
+                    <trk><trkseg>
+                    """);
+            for (int i = 0; i < columns.size(); i++) {
+                writer.write("<trkpt lat=\"" + columns.getLatitude(i) + "\" lon=\"" + columns.getLongitude(i) + "\">");
+                if (columns.hasElevation(i)) {
+                    writer.write("<ele>" + columns.getElevation(i) + "</ele>");
+                }
+                if (columns.hasTime(i)) {
+                    writer.write("<time>" + Instant.ofEpochMilli(columns.getTime(i)) + "</time>");
+                }
+                if (columns.hasHeartRate(i) || columns.hasTemperature(i)) {
+                    writer.write("<extensions><gpxtpx:TrackPointExtension>");
+                    if (columns.hasHeartRate(i)) {
+                        writer.write("<gpxtpx:hr>" + columns.getHeartRate(i) + "</gpxtpx:hr>");
+                    }
+                    if (columns.hasTemperature(i)) {
+                        writer.write("<gpxtpx:temp>" + columns.getTemperature(i) + "</gpxtpx:temp>");
+                    }
+                    writer.write("</gpxtpx:TrackPointExtension></extensions>");
+                }
+                writer.write("</trkpt>\n");
+            }
+            writer.write("</trkseg></trk>\n</gpx>\n");
+        }
+    }
+
+    public static Path getSamplePath() {
+        return Paths.get("src", "test", "java", "ru", "bulavin", "utils", "test_sample.gpx");
+    }
+
+    public static byte[] toGpxBytes(List<WayPoint> points) throws IOException {
+        GPX gpx = GPX.builder()
+                .addTrack(track -> track.addSegment(segment -> segment.points(points)))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GPX.Writer.DEFAULT.write(gpx, out);
+        return out.toByteArray();
+    }
+
     public static List<WayPoint> getPoints(Path path) throws IOException {
         GPX gpx = GPX.read(path);
         return gpx.tracks()